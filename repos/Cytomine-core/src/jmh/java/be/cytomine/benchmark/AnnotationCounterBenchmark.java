@@ -0,0 +1,127 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent annotation insertions (transactions/s) in the same image, with the annotation counters updated by the
+ * triggers (immediate) or appended to the annotation_counter_delta ledger (deferred).
+ * In immediate mode, all transactions wait for the row locks of the image and the project.
+ *
+ * Needs a core database (migrated by Liquibase, with at least one slice instance), configured as the core one
+ * (POSTGIS_HOST, POSTGIS_PORT, POSTGIS_DB_NAME, POSTGIS_USER, POSTGIS_PASS). Annotations are inserted in a
+ * table with the same counter trigger as user_annotation, and all transactions are rolled back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class AnnotationCounterBenchmark {
+
+    @Param({"immediate", "deferred"})
+    public String mode;
+
+    /* Other work of the annotation transaction (terms, geometry checks,...), while the counter locks are held */
+    @Param({"0", "2"})
+    public int transactionMillis;
+
+    private HikariDataSource dataSource;
+
+    private long projectId;
+
+    private long imageId;
+
+    private long sliceId;
+
+    private long userId;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:postgresql://" + env("POSTGIS_HOST", "localhost") + ":" + env("POSTGIS_PORT", "5432")
+                + "/" + env("POSTGIS_DB_NAME", "docker"));
+        dataSource.setUsername(env("POSTGIS_USER", "docker"));
+        dataSource.setPassword(env("POSTGIS_PASS", "password"));
+        dataSource.setMaximumPoolSize(32);
+        dataSource.setAutoCommit(false);
+        dataSource.addDataSourceProperty("options", "-c cytomine.annotation_counters=" + mode);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            try (ResultSet slice = statement.executeQuery(
+                    "SELECT s.id, s.image_id, s.project_id, (SELECT MIN(id) FROM sec_user) FROM slice_instance s LIMIT 1")) {
+                if (!slice.next()) {
+                    throw new IllegalStateException("The benchmark needs a database with at least one slice instance");
+                }
+                sliceId = slice.getLong(1);
+                imageId = slice.getLong(2);
+                projectId = slice.getLong(3);
+                userId = slice.getLong(4);
+            }
+            statement.execute("CREATE UNLOGGED TABLE IF NOT EXISTS benchmark_annotation(id bigserial PRIMARY KEY, " +
+                    "project_id bigint, image_id bigint, slice_id bigint, user_id bigint, deleted timestamp)");
+            statement.execute("DROP TRIGGER IF EXISTS benchmarkAnnotationTrigger ON benchmark_annotation");
+            statement.execute("CREATE TRIGGER benchmarkAnnotationTrigger AFTER INSERT ON benchmark_annotation " +
+                    "FOR EACH ROW EXECUTE PROCEDURE afterInsertUserAnnotation()");
+            connection.commit();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_annotation");
+            connection.commit();
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public void insertAnnotation() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO benchmark_annotation(project_id, image_id, slice_id, user_id) VALUES (?, ?, ?, ?)")) {
+            insert.setLong(1, projectId);
+            insert.setLong(2, imageId);
+            insert.setLong(3, sliceId);
+            insert.setLong(4, userId);
+            insert.executeUpdate();
+            if (transactionMillis > 0) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SELECT pg_sleep(" + (transactionMillis / 1000.0) + ")");
+                }
+            }
+            // the counters of the benchmarked database are left untouched
+            connection.rollback();
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,118 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.dto.annotation.AnnotationResult;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.service.annotation.AnnotationListingColumnPlan;
+import be.cytomine.service.annotation.AnnotationRowFolder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the former listing fold (one LinkedHashMap per row, List.contains to merge terms)
+ * with the positional column plan used by AnnotationListingService.
+ * Rows are generated in memory: 3 rows (terms) per annotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotationListingFoldBenchmark {
+
+    private static final List<String> LABELS = List.of(
+            "id", "created", "updated", "image", "slice", "project", "user", "nbcomments",
+            "countreviewedannotations", "reviewed", "term", "annotationterms", "userterm"
+    );
+
+    @Param({"10000", "200000"})
+    public int annotations;
+
+    private AnnotationListing listing;
+
+    private List<Object[]> rows;
+
+    @Setup
+    public void setup() {
+        listing = new UserAnnotationListing(null);
+        listing.setColumnsToPrint(new ArrayList<>(List.of("basic", "meta", "term")));
+        rows = new ArrayList<>();
+        for (long id = annotations; id > 0; id--) {
+            for (long term = 1; term <= 3; term++) {
+                rows.add(new Object[]{id, 1700000000000L, 1700000000000L, 10L, 11L, 12L, 13L, 0L, 0L, false, term, id * 10 + term, 13L});
+            }
+        }
+    }
+
+    @Benchmark
+    public void columnPlan(Blackhole blackhole) {
+        AnnotationListingColumnPlan plan = AnnotationListingColumnPlan.of(listing, LABELS);
+        AnnotationRowFolder folder = new AnnotationRowFolder(listing, plan, blackhole::consume);
+        for (Object[] row : rows) {
+            folder.accept(row);
+        }
+        folder.finish();
+    }
+
+    @Benchmark
+    public List<AnnotationResult> tupleMaps() {
+        List<AnnotationResult> data = new ArrayList<>();
+        List<String> realColumn = new ArrayList<>();
+        long lastAnnotationId = -1;
+        long lastTermId = -1;
+        for (Object[] values : rows) {
+            Map<String, Object> tuple = new LinkedHashMap<>();
+            for (int i = 0; i < LABELS.size(); i++) {
+                tuple.put(LABELS.get(i), values[i]);
+            }
+            if ((Long) tuple.get("id") != lastAnnotationId) {
+                if (realColumn.isEmpty()) {
+                    for (String columnName : listing.getAllPropertiesName()) {
+                        if ((tuple.get(columnName) != null || tuple.get(columnName.toLowerCase()) != null)
+                                && !AnnotationListingColumnPlan.EXCLUDED_COLUMNS.contains(columnName)) {
+                            realColumn.add(columnName);
+                        }
+                    }
+                }
+                AnnotationResult item = new AnnotationResult();
+                item.put("class", listing.getDomainClass());
+                for (String columnName : realColumn) {
+                    item.put(columnName, tuple.get(columnName) != null ? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
+                }
+                item.put("term", new ArrayList<>(List.of(tuple.get("term"))));
+                item.put("userByTerm", new ArrayList<>(List.of(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", new ArrayList<>(List.of(tuple.get("userterm"))))))));
+                data.add(item);
+            } else {
+                AnnotationResult lastResult = data.get(data.size() - 1);
+                List term = (List) lastResult.get("term");
+                if ((Long) tuple.get("term") != lastTermId && !term.contains(tuple.get("term"))) {
+                    term.add(tuple.get("term"));
+                    ((List) lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", new ArrayList<>(List.of(tuple.get("userterm"))))));
+                }
+            }
+            lastTermId = (long) tuple.get("term");
+            lastAnnotationId = (long) tuple.get("id");
+        }
+        return data;
+    }
+}
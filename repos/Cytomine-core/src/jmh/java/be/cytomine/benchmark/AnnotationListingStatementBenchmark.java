@@ -0,0 +1,153 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Annotation listing of a small bbox of an image (100k annotations, 10 users), with a different bbox and layers
+ * on each call, as when a viewer is moved.
+ *
+ * literal: the former AnnotationListing request, filter values written in the request (one new request per call,
+ * parsed and planned each time).
+ * bound: the same request with bind parameters (= ANY(?) for the layers), the request text does not change and the
+ * driver reuses its server-side prepared statement after prepareThreshold executions.
+ *
+ * The planning time of one request is given by EXPLAIN (SUMMARY) on the request.
+ * Needs a PostgreSQL database with PostGIS (POSTGIS_HOST, POSTGIS_PORT, POSTGIS_DB_NAME, POSTGIS_USER, POSTGIS_PASS).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotationListingStatementBenchmark {
+
+    private static final int USERS = 10;
+
+    private static final String COLUMNS = "SELECT a.id as id, a.created as created, a.image_id as image, a.user_id as user, " +
+            "a.project_id as project, ST_AsText(a.location) as location \n" +
+            "FROM benchmark_listing_annotation a \nWHERE true\n";
+
+    @Param({"100000"})
+    public int annotations;
+
+    private HikariDataSource dataSource;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:postgresql://" + env("POSTGIS_HOST", "localhost") + ":" + env("POSTGIS_PORT", "5432")
+                + "/" + env("POSTGIS_DB_NAME", "docker"));
+        dataSource.setUsername(env("POSTGIS_USER", "docker"));
+        dataSource.setPassword(env("POSTGIS_PASS", "password"));
+        dataSource.setMaximumPoolSize(1);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_listing_annotation");
+            statement.execute("CREATE UNLOGGED TABLE benchmark_listing_annotation(id bigserial PRIMARY KEY, " +
+                    "project_id bigint, image_id bigint, user_id bigint, created timestamp, location geometry)");
+            statement.execute("INSERT INTO benchmark_listing_annotation(project_id, image_id, user_id, created, location) " +
+                    "SELECT 1, 1, 1 + i % " + USERS + ", now() - (i * interval '1 second'), " +
+                    "ST_MakeEnvelope(i % 1000 * 10, i / 1000 * 10, i % 1000 * 10 + 8, i / 1000 * 10 + 8, 0) " +
+                    "FROM generate_series(0, " + (annotations - 1) + ") i");
+            statement.execute("CREATE INDEX ON benchmark_listing_annotation(image_id)");
+            statement.execute("CREATE INDEX ON benchmark_listing_annotation USING GIST(location)");
+            statement.execute("ANALYZE benchmark_listing_annotation");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_listing_annotation");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public long literal() throws SQLException {
+        List<Long> users = users();
+        String sql = COLUMNS +
+                "AND a.project_id = 1\n" +
+                "AND a.user_id IN (" + users.stream().map(String::valueOf).collect(Collectors.joining(", ")) + ")\n" +
+                "AND a.image_id = 1\n" +
+                "AND ST_Intersects(a.location,ST_GeometryFromText('" + bbox() + "',0))\n" +
+                "ORDER BY a.id desc ";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(sql)) {
+            return count(select);
+        }
+    }
+
+    @Benchmark
+    public long bound() throws SQLException {
+        String sql = COLUMNS +
+                "AND a.project_id = ?\n" +
+                "AND a.user_id = ANY(?)\n" +
+                "AND a.image_id = ?\n" +
+                "AND ST_Intersects(a.location,ST_GeometryFromText(?,0))\n" +
+                "ORDER BY a.id desc ";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(sql)) {
+            select.setLong(1, 1L);
+            select.setArray(2, connection.createArrayOf("bigint", users().toArray(new Long[0])));
+            select.setLong(3, 1L);
+            select.setString(4, bbox());
+            return count(select);
+        }
+    }
+
+    private static long count(PreparedStatement select) throws SQLException {
+        long count = 0;
+        try (ResultSet rows = select.executeQuery()) {
+            while (rows.next()) {
+                count += rows.getLong(1);
+            }
+        }
+        return count;
+    }
+
+    private static List<Long> users() {
+        int size = 1 + ThreadLocalRandom.current().nextInt(USERS);
+        return LongStream.rangeClosed(1, size).boxed().toList();
+    }
+
+    private static String bbox() {
+        int x = ThreadLocalRandom.current().nextInt(9000);
+        int y = ThreadLocalRandom.current().nextInt(900);
+        return "POLYGON ((" + x + " " + y + ", " + (x + 100) + " " + y + ", " + (x + 100) + " " + (y + 100) + ", "
+                + x + " " + (y + 100) + ", " + x + " " + y + "))";
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
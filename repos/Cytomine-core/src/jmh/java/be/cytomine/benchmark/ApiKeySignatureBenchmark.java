@@ -0,0 +1,76 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.security.ApiKeyMaterial;
+import be.cytomine.utils.SecurityUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature check of an API request (ApiKeyFilter), without the user lookup.
+ * generateKeys is the former behaviour: a new Mac per signature, and a second signature for clients that sign
+ * without content type (the Java client). verify uses the cached ApiKeyMaterial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ApiKeySignatureBenchmark {
+
+    private static final String DATE = "Mon, 01 Jan 2024 00:00:00 +0000";
+
+    private static final String PATH = "/api/imageinstance/1234/userannotation.json";
+
+    private SecUser user;
+
+    private ApiKeyMaterial apiKey;
+
+    private String signature;
+
+    @Setup
+    public void setup() throws Exception {
+        user = new SecUser();
+        user.setUsername("benchmark");
+        user.setPublicKey(UUID.randomUUID().toString());
+        user.setPrivateKey(UUID.randomUUID().toString());
+        apiKey = new ApiKeyMaterial(user);
+        signature = SecurityUtils.generateKeys("POST", "", "", DATE, "", PATH, user);
+    }
+
+    @Benchmark
+    public boolean generateKeys() throws Exception {
+        if (signature.equals(SecurityUtils.generateKeys("POST", "", "application/json", DATE, "", PATH, user))) {
+            return true;
+        }
+        return signature.equals(SecurityUtils.generateKeys("POST", "", "", DATE, "", PATH, user));
+    }
+
+    @Benchmark
+    public boolean verify() {
+        if (apiKey.verify(SecurityUtils.buildMessageToSign("POST", "", "application/json", DATE, "", PATH), signature)) {
+            return true;
+        }
+        return apiKey.verify(SecurityUtils.buildMessageToSign("POST", "", "", DATE, "", PATH), signature);
+    }
+}
@@ -0,0 +1,136 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.utils.ExpiringMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admin session map: 1 put for 20 reads, on 1000 users.
+ * weakConcurrentHashMap is the former implementation (a cleaner thread per map, console output on each put).
+ * The console output is kept on purpose in the copy: it was paid on each put by the former implementation.
+ * Run with -prof gc to compare allocations (and redirect the output of the forked JVM).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ExpiringMapBenchmark {
+
+    private static final int USERS = 1000;
+
+    private static final long TTL = 120 * 60 * 1000;
+
+    private String[] usernames;
+
+    private ExpiringMap<String, Date> expiringMap;
+
+    private Map<String, Date> weakConcurrentHashMap;
+
+    @Setup
+    public void setup() {
+        usernames = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            usernames[i] = "user" + i;
+        }
+        expiringMap = new ExpiringMap<>(TTL, 10000);
+        weakConcurrentHashMap = new FormerWeakConcurrentHashMap<>(TTL);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ((FormerWeakConcurrentHashMap<String, Date>) weakConcurrentHashMap).stopCleaner();
+    }
+
+    @Benchmark
+    public boolean expiringMap() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String username = usernames[random.nextInt(USERS)];
+        if (random.nextInt(21) == 0) {
+            return expiringMap.put(username, new Date()) != null;
+        }
+        return expiringMap.containsKey(username);
+    }
+
+    @Benchmark
+    public boolean weakConcurrentHashMap() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String username = usernames[random.nextInt(USERS)];
+        if (random.nextInt(21) == 0) {
+            return weakConcurrentHashMap.put(username, new Date()) != null;
+        }
+        return weakConcurrentHashMap.containsKey(username);
+    }
+
+    /**
+     * Copy of the former be.cytomine.utils.WeakConcurrentHashMap (with stopCleaner, for the benchmark tear down)
+     */
+    static class FormerWeakConcurrentHashMap<K, V> extends ConcurrentHashMap<K, V> {
+
+        private final Map<K, Long> timeMap = new ConcurrentHashMap<>();
+        private final long expiryInMillis;
+        private static final SimpleDateFormat sdf = new SimpleDateFormat("hh:mm:ss:SSS");
+        private final Thread cleaner;
+
+        FormerWeakConcurrentHashMap(long expiryInMillis) {
+            this.expiryInMillis = expiryInMillis;
+            cleaner = new Thread(this::clean);
+            cleaner.setDaemon(true);
+            cleaner.start();
+        }
+
+        void stopCleaner() {
+            cleaner.interrupt();
+        }
+
+        @Override
+        public V put(K key, V value) {
+            Date date = new Date();
+            timeMap.put(key, date.getTime());
+            System.out.println("Inserting : " + sdf.format(date) + " : " + key + " : " + value);
+            return super.put(key, value);
+        }
+
+        private void clean() {
+            while (true) {
+                long currentTime = new Date().getTime();
+                for (K key : timeMap.keySet()) {
+                    if (currentTime > (timeMap.get(key) + expiryInMillis)) {
+                        V value = remove(key);
+                        timeMap.remove(key);
+                        System.out.println("Removing : " + sdf.format(new Date()) + " : " + key + " : " + value);
+                    }
+                }
+                try {
+                    Thread.sleep(expiryInMillis / 2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
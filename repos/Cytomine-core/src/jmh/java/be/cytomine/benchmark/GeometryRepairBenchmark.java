@@ -0,0 +1,123 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.dto.annotation.RepairedGeometry;
+import be.cytomine.service.utils.ValidateGeometryService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repair throughput (geometries/s) of a list of annotation locations, 1 out of 4 being a self-intersecting polygon.
+ * database is the former behaviour: one ST_MakeValid round-trip per invalid geometry.
+ *
+ * The database benchmark needs a PostGIS database, configured as the core one (POSTGIS_HOST, POSTGIS_PORT,
+ * POSTGIS_DB_NAME, POSTGIS_USER, POSTGIS_PASS).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeometryRepairBenchmark {
+
+    private static final int GEOMETRIES = 1000;
+
+    private HikariDataSource dataSource;
+
+    private ValidateGeometryService validateGeometryService;
+
+    private List<Geometry> geometries;
+
+    @Setup
+    public void setup() throws ParseException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:postgresql://" + env("POSTGIS_HOST", "localhost") + ":" + env("POSTGIS_PORT", "5432")
+                + "/" + env("POSTGIS_DB_NAME", "docker"));
+        dataSource.setUsername(env("POSTGIS_USER", "docker"));
+        dataSource.setPassword(env("POSTGIS_PASS", "password"));
+
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getGeometryRepair().setDatabaseFallback(false);
+        validateGeometryService = new ValidateGeometryService(null, applicationProperties);
+
+        WKTReader reader = new WKTReader();
+        geometries = new ArrayList<>();
+        for (int i = 0; i < GEOMETRIES; i++) {
+            int x = (i % 100) * 200;
+            int y = (i / 100) * 200;
+            if (i % 4 == 0) {
+                // bow-tie
+                geometries.add(reader.read("POLYGON ((" + x + " " + y + ", " + (x + 100) + " " + (y + 100) + ", " + (x + 100) + " " + y
+                        + ", " + x + " " + (y + 100) + ", " + x + " " + y + "))"));
+            } else {
+                geometries.add(reader.read("POLYGON ((" + x + " " + y + ", " + (x + 100) + " " + y + ", " + (x + 100) + " " + (y + 100)
+                        + ", " + x + " " + (y + 100) + ", " + x + " " + y + "))"));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GEOMETRIES)
+    public List<RepairedGeometry> inMemory() {
+        return validateGeometryService.repairAll(geometries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GEOMETRIES)
+    public void database(Blackhole blackhole) throws SQLException, ParseException {
+        WKTReader reader = new WKTReader();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT ST_AsText(ST_MakeValid(ST_GeomFromText(?)))")) {
+            for (Geometry geometry : geometries) {
+                if (geometry.isValid()) {
+                    blackhole.consume(geometry);
+                    continue;
+                }
+                statement.setString(1, geometry.toText());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    blackhole.consume(reader.read(resultSet.getString(1)));
+                }
+            }
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,97 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.service.database.IdBlockAllocator;
+import be.cytomine.service.database.SequenceService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk insert throughput (rows/s) with ids taken from the IdBlockAllocator.
+ * blockSize=1 is the former behaviour: one nextval round-trip per inserted row.
+ *
+ * Needs a PostgreSQL database, configured as the core one (POSTGIS_HOST, POSTGIS_PORT, POSTGIS_DB_NAME,
+ * POSTGIS_USER, POSTGIS_PASS). Rows are inserted in a temporary table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdBlockAllocatorBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"1", "50", "500"})
+    public int blockSize;
+
+    private HikariDataSource dataSource;
+
+    private IdBlockAllocator allocator;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:postgresql://" + env("POSTGIS_HOST", "localhost") + ":" + env("POSTGIS_PORT", "5432")
+                + "/" + env("POSTGIS_DB_NAME", "docker"));
+        dataSource.setUsername(env("POSTGIS_USER", "docker"));
+        dataSource.setPassword(env("POSTGIS_PASS", "password"));
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE SEQUENCE IF NOT EXISTS " + SequenceService.SEQ_NAME);
+            statement.execute("CREATE UNLOGGED TABLE IF NOT EXISTS benchmark_id_allocation(id bigint PRIMARY KEY, value int)");
+        }
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getIdAllocator().setBlockSize(blockSize);
+        allocator = new IdBlockAllocator(dataSource, applicationProperties);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_id_allocation");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void bulkInsert() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO benchmark_id_allocation(id, value) VALUES (?, ?)")) {
+            for (int i = 0; i < ROWS; i++) {
+                statement.setLong(1, allocator.next());
+                statement.setInt(2, i);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
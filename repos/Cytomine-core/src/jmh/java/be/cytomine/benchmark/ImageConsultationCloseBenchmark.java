@@ -0,0 +1,169 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PostgreSQL time spent to close one image consultation (counting the annotations created during the consultation).
+ *
+ * listing: the former close-out, run while opening the next image: the annotation listing of the consultation
+ * (meta and term columns, one row per annotation term), of which only the size was kept.
+ * batchedCount: ImageConsultationCloser, one count query for a batch of consultations, run after the image is opened.
+ *
+ * Needs a PostgreSQL database (POSTGIS_HOST, POSTGIS_PORT, POSTGIS_DB_NAME, POSTGIS_USER, POSTGIS_PASS).
+ * Annotations are inserted in unlogged tables with the user_annotation columns and indexes used by both queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageConsultationCloseBenchmark {
+
+    private static final int CONSULTATIONS = 100;
+
+    private static final long CONSULTATION_MILLIS = 60000L;
+
+    @Param({"10", "1000"})
+    public int annotationsPerConsultation;
+
+    private HikariDataSource dataSource;
+
+    private final long start = System.currentTimeMillis() - CONSULTATIONS * CONSULTATION_MILLIS;
+
+    private int next;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:postgresql://" + env("POSTGIS_HOST", "localhost") + ":" + env("POSTGIS_PORT", "5432")
+                + "/" + env("POSTGIS_DB_NAME", "docker"));
+        dataSource.setUsername(env("POSTGIS_USER", "docker"));
+        dataSource.setPassword(env("POSTGIS_PASS", "password"));
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_consultation_annotation_term");
+            statement.execute("DROP TABLE IF EXISTS benchmark_consultation_annotation");
+            statement.execute("CREATE UNLOGGED TABLE benchmark_consultation_annotation(id bigserial PRIMARY KEY, " +
+                    "project_id bigint, image_id bigint, slice_id bigint, user_id bigint, created timestamp, updated timestamp, " +
+                    "count_comments bigint DEFAULT 0, count_reviewed_annotations integer DEFAULT 0)");
+            statement.execute("CREATE UNLOGGED TABLE benchmark_consultation_annotation_term(id bigserial PRIMARY KEY, " +
+                    "user_annotation_id bigint, term_id bigint, deleted timestamp)");
+            // each consultation lasts one minute: its annotations are spread over it, with 2 terms each
+            statement.execute("INSERT INTO benchmark_consultation_annotation(project_id, image_id, slice_id, user_id, created) " +
+                    "SELECT 1, 1, 1, 1, to_timestamp(" + start / 1000.0 + ") + (i * interval '" + CONSULTATION_MILLIS
+                    + " milliseconds' / " + annotationsPerConsultation + ") " +
+                    "FROM generate_series(0, " + (CONSULTATIONS * annotationsPerConsultation - 1) + ") i");
+            statement.execute("INSERT INTO benchmark_consultation_annotation_term(user_annotation_id, term_id) " +
+                    "SELECT id, t FROM benchmark_consultation_annotation, generate_series(1, 2) t");
+            statement.execute("CREATE INDEX ON benchmark_consultation_annotation(image_id)");
+            statement.execute("CREATE INDEX ON benchmark_consultation_annotation(user_id)");
+            statement.execute("CREATE INDEX ON benchmark_consultation_annotation_term(user_annotation_id)");
+            statement.execute("ANALYZE benchmark_consultation_annotation");
+            statement.execute("ANALYZE benchmark_consultation_annotation_term");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_consultation_annotation_term");
+            statement.execute("DROP TABLE IF EXISTS benchmark_consultation_annotation");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public int listing() throws SQLException {
+        int consultation = next++ % CONSULTATIONS;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT DISTINCT a.id, extract(epoch from a.created)*1000, extract(epoch from a.updated)*1000, " +
+                     "a.image_id, a.slice_id, a.project_id, a.user_id, a.count_comments, a.count_reviewed_annotations, " +
+                     "(a.count_reviewed_annotations>0), at.term_id " +
+                     "FROM benchmark_consultation_annotation a " +
+                     "LEFT OUTER JOIN benchmark_consultation_annotation_term at ON a.id = at.user_annotation_id AND at.deleted IS NULL " +
+                     "WHERE a.project_id = 1 AND a.user_id = 1 AND a.image_id = 1 AND a.created > ? AND a.created < ? " +
+                     "ORDER BY a.id DESC, at.term_id")) {
+            select.setTimestamp(1, after(consultation));
+            select.setTimestamp(2, before(consultation));
+            int annotations = 0;
+            long previous = -1;
+            try (ResultSet rows = select.executeQuery()) {
+                // rows of the same annotation are folded by the listing
+                while (rows.next()) {
+                    if (rows.getLong(1) != previous) {
+                        previous = rows.getLong(1);
+                        annotations++;
+                    }
+                }
+            }
+            return annotations;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONSULTATIONS)
+    public long batchedCount() throws SQLException {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < CONSULTATIONS; i++) {
+            values.append(i == 0 ? "" : ", ").append("(").append(i).append(", 1::bigint, 1::bigint, 1::bigint, ?::timestamp, ?::timestamp)");
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement count = connection.prepareStatement(
+                     "SELECT c.idx, COUNT(a.id) " +
+                     "FROM (VALUES " + values + ") AS c(idx, project_id, user_id, image_id, created_after, created_before) " +
+                     "LEFT JOIN benchmark_consultation_annotation a ON a.project_id = c.project_id AND a.user_id = c.user_id " +
+                     "AND a.image_id = c.image_id AND a.created > c.created_after AND a.created < c.created_before " +
+                     "GROUP BY c.idx")) {
+            for (int i = 0; i < CONSULTATIONS; i++) {
+                count.setTimestamp(2 * i + 1, after(i));
+                count.setTimestamp(2 * i + 2, before(i));
+            }
+            long annotations = 0;
+            try (ResultSet rows = count.executeQuery()) {
+                while (rows.next()) {
+                    annotations += rows.getLong(2);
+                }
+            }
+            return annotations;
+        }
+    }
+
+    private Timestamp after(int consultation) {
+        return new Timestamp(start + consultation * CONSULTATION_MILLIS - 1);
+    }
+
+    private Timestamp before(int consultation) {
+        return new Timestamp(start + (consultation + 1) * CONSULTATION_MILLIS - 1);
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,87 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.service.middleware.ImageServerClient;
+import be.cytomine.utils.PreparedRequest;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+/**
+ * Compare the former image server calls (a new RestTemplate per call) with the pooled ImageServerClient,
+ * on a WireMock server returning a 16kB tile. Run with several threads (-t 8) to simulate a tile storm.
+ * The pool state (open/idle connections) is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ImageServerClientBenchmark {
+
+    private WireMockServer wireMockServer;
+
+    private ImageServerClient client;
+
+    private String url;
+
+    @Setup
+    public void setup() {
+        wireMockServer = new WireMockServer(wireMockConfig().port(8891));
+        wireMockServer.start();
+        wireMockServer.stubFor(get(urlEqualTo("/ims/image/tile"))
+                .willReturn(aResponse().withHeader("Content-Type", "image/jpeg").withBody(new byte[16 * 1024])));
+        url = "http://localhost:8891/ims";
+        client = new ImageServerClient(new ApplicationProperties());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.out.println(client.getMetrics().toJsonString());
+        client.close();
+        wireMockServer.stop();
+    }
+
+    private PreparedRequest request() {
+        PreparedRequest request = new PreparedRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setUrl(url);
+        request.addPathFragment("image/tile");
+        return request;
+    }
+
+    @Benchmark
+    public Object restTemplatePerCall() {
+        return request().toResponseEntity(new RestTemplate(), null, byte[].class);
+    }
+
+    @Benchmark
+    public Object pooledClient() {
+        return client.toResponseEntity("normalizedTile", request(), null, byte[].class);
+    }
+}
@@ -0,0 +1,129 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.domain.project.EditingMode;
+import be.cytomine.domain.project.Project;
+import be.cytomine.dto.json.JsonInput;
+import be.cytomine.dto.json.JsonMultipleObject;
+import be.cytomine.dto.json.JsonSingleObject;
+import be.cytomine.utils.JsonCodec;
+import be.cytomine.utils.JsonObject;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON payloads of the core, with a new ObjectMapper per call (former) or the shared JsonCodec:
+ * - parse of a user annotation POST body, one annotation or an array of 100 (the former parse tries an array first);
+ * - serialization of a project, as in project listings.
+ * Run with -prof gc to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JsonCodecBenchmark {
+
+    private String annotation;
+
+    private String annotations;
+
+    private JsonObject project;
+
+    @Setup
+    public void setup() {
+        List<JsonObject> array = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            array.add(annotation(i));
+        }
+        annotation = annotation(0).toJsonString();
+        annotations = JsonObject.toJsonString(array);
+
+        Project domain = new Project();
+        domain.setId(1234L);
+        domain.setName("Benchmark project");
+        domain.setCreated(new Date());
+        domain.setUpdated(new Date());
+        domain.setMode(EditingMode.CLASSIC);
+        project = domain.toJsonObject();
+        project.put("membersCount", 12L);
+        project.put("lastActivity", new Date());
+        project.put("currentUserRoles", JsonObject.of("admin", true, "representative", false));
+    }
+
+    @Benchmark
+    public JsonInput formerParseAnnotation() {
+        return formerParse(annotation);
+    }
+
+    @Benchmark
+    public JsonInput codecParseAnnotation() {
+        return JsonCodec.readJsonInput(annotation);
+    }
+
+    @Benchmark
+    public JsonInput formerParseAnnotations() {
+        return formerParse(annotations);
+    }
+
+    @Benchmark
+    public JsonInput codecParseAnnotations() {
+        return JsonCodec.readJsonInput(annotations);
+    }
+
+    @Benchmark
+    public String formerWriteProject() throws JsonProcessingException {
+        return new ObjectMapper().writeValueAsString(project);
+    }
+
+    @Benchmark
+    public String codecWriteProject() {
+        return project.toJsonString();
+    }
+
+    private static JsonInput formerParse(String json) {
+        try {
+            return new ObjectMapper().readValue(json, JsonMultipleObject.class);
+        } catch (Exception ex) {
+            try {
+                return new ObjectMapper().readValue(json, JsonSingleObject.class);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    private static JsonObject annotation(int i) {
+        JsonObject annotation = JsonObject.of(
+                "location", "POLYGON ((" + i + " 0, " + (i + 100) + " 0, " + (i + 100) + " 100, " + i + " 100, " + i + " 0))",
+                "image", 5678L,
+                "slice", 5679L,
+                "project", 1234L,
+                "term", List.of(10L, 11L));
+        annotation.put("user", 42L);
+        return annotation;
+    }
+}
@@ -0,0 +1,124 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.utils.JsonCollectionWriter;
+import be.cytomine.utils.JsonObject;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * List response of 100k domains (RestCytomineController.responseSuccess(list) and responseStream(list)),
+ * for the whole list (max=0) or its first page.
+ * former converts the whole list to JSON objects, then builds the response in a String with a new ObjectMapper;
+ * stream converts and writes the items of the page only, straight to the response output stream.
+ * Run with -prof gc to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonListResponseBenchmark {
+
+    private static final int ITEMS = 100_000;
+
+    @Param({"0", "50"})
+    public int max;
+
+    private List<Term> terms;
+
+    @Setup
+    public void setup() {
+        terms = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            Term term = new Term();
+            term.setId((long) i);
+            term.setName("term " + i);
+            term.setColor("#" + Integer.toHexString(0x100000 + i));
+            term.setCreated(new Date());
+            terms.add(term);
+        }
+    }
+
+    @Benchmark
+    public long former() throws IOException {
+        List<JsonObject> converted = new ArrayList<>();
+        for (CytomineDomain term : terms) {
+            converted.add(term.toJsonObject());
+        }
+        int perPage = max == 0 ? converted.size() : Math.min(max, converted.size());
+        String body = JsonObject.of("collection", converted.subList(0, perPage), "offset", 0, "perPage", perPage,
+                "size", converted.size(), "totalPages", max == 0 ? 1 : (int) Math.ceil((double) converted.size() / max)).toJsonString();
+        CountingOutputStream outputStream = new CountingOutputStream();
+        outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        return outputStream.count;
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        JsonCollectionWriter writer = new JsonCollectionWriter(response(outputStream), 0, max);
+        writer.acceptAll(terms, term -> ((CytomineDomain) term).toJsonObject());
+        writer.finish();
+        return outputStream.count;
+    }
+
+    private static HttpServletResponse response(ServletOutputStream outputStream) {
+        return (HttpServletResponse) Proxy.newProxyInstance(JsonListResponseBenchmark.class.getClassLoader(),
+                new Class[]{HttpServletResponse.class},
+                (proxy, method, args) -> method.getName().equals("getOutputStream") ? outputStream : null);
+    }
+
+    /* Servlet output stream that only counts the written bytes */
+    private static class CountingOutputStream extends ServletOutputStream {
+
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.dto.annotation.SimplifiedAnnotation;
+import be.cytomine.service.utils.SimplifyGeometryService;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the former linear rate search (+0.25 per step) with the rate search of SimplifyGeometryService,
+ * on annotation-like shapes: freehand polygons (noisy outline) and algo multipolygons (many blobs).
+ * Both have to keep at most 150 points and at least 100 when possible;
+ * the point counts of the last simplification are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimplifyGeometryBenchmark {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    @Param({"freehand-2000", "freehand-20000", "multipolygon-50x400"})
+    public String shape;
+
+    private SimplifyGeometryService service;
+
+    private Geometry geometry;
+
+    private int linearPoints;
+
+    private int searchPoints;
+
+    @Setup
+    public void setup() {
+        service = new SimplifyGeometryService();
+        Random random = new Random(42);
+        if (shape.startsWith("freehand")) {
+            geometry = blob(random, 0, 0, 5000, Integer.parseInt(shape.split("-")[1]));
+        } else {
+            String[] size = shape.split("-")[1].split("x");
+            int parts = Integer.parseInt(size[0]);
+            Polygon[] polygons = new Polygon[parts];
+            for (int i = 0; i < parts; i++) {
+                polygons[i] = blob(random, (i % 10) * 3000, (i / 10) * 3000, 1000, Integer.parseInt(size[1]));
+            }
+            geometry = FACTORY.createMultiPolygon(polygons);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("\n" + shape + ": " + geometry.getNumPoints() + " points, linear search " + linearPoints
+                + " points, rate search " + searchPoints + " points");
+        service.shutdown();
+    }
+
+    @Benchmark
+    public Geometry rateSearch() {
+        SimplifiedAnnotation result = service.simplifyPolygon(geometry, 100L, 150L);
+        searchPoints = result.getNewAnnotation().getNumPoints();
+        return result.getNewAnnotation();
+    }
+
+    @Benchmark
+    public Geometry linearSearch() {
+        Geometry result = formerSimplifyPolygon(geometry, 100L, 150L);
+        linearPoints = result.getNumPoints();
+        return result;
+    }
+
+    /**
+     * Noisy outline around (x, y), as drawn with the freehand tool
+     */
+    private static Polygon blob(Random random, double x, double y, double radius, int points) {
+        Coordinate[] coordinates = new Coordinate[points + 1];
+        for (int i = 0; i < points; i++) {
+            double angle = 2 * Math.PI * i / points;
+            double r = radius * (1 + 0.15 * Math.sin(angle * 7)) + random.nextDouble() * radius * 0.01;
+            coordinates[i] = new Coordinate(x + radius * 2 + r * Math.cos(angle), y + radius * 2 + r * Math.sin(angle));
+        }
+        coordinates[points] = coordinates[0];
+        return FACTORY.createPolygon(coordinates);
+    }
+
+    /**
+     * SimplifyGeometryService.simplifyPolygon before the rate search.
+     * Blobs have no interior ring, so the service counts them as one geometry.
+     */
+    private static Geometry formerSimplifyPolygon(Geometry geometry, long minPoint, long maxPoint) {
+        int numOfGeometry = 1;
+        double rateLimitMax = maxPoint * numOfGeometry;
+        double rateLimitMin = minPoint * numOfGeometry;
+        double numberOfPoint = geometry.getNumPoints();
+        double i = 0;
+        int maxLoop = 1000;
+        Geometry newGeometry = geometry;
+        boolean topologyPreserving = (geometry instanceof Polygon && !geometry.isValid()) || geometry instanceof MultiPolygon;
+        while (numberOfPoint > rateLimitMax && maxLoop > 0) {
+            if (topologyPreserving) {
+                newGeometry = TopologyPreservingSimplifier.simplify(geometry, i);
+            } else {
+                newGeometry = DouglasPeuckerSimplifier.simplify(geometry, i);
+            }
+            if (newGeometry.getNumPoints() < rateLimitMin) {
+                break;
+            }
+            i = i + 0.25d;
+            numberOfPoint = newGeometry.getNumPoints();
+            maxLoop--;
+        }
+        return newGeometry;
+    }
+}
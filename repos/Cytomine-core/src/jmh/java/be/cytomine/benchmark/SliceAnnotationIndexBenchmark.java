@@ -0,0 +1,175 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.service.annotation.SliceAnnotationIndex;
+import com.zaxxer.hikari.HikariDataSource;
+import org.locationtech.jts.geom.Envelope;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bbox listing of a slice with 100k annotations (a 1000x100 grid of 8x8 boxes), with a different bbox on each call,
+ * as when a viewer is moved.
+ *
+ * postgis: ST_Intersects on the GiST index of the location, as AnnotationListing without slice index.
+ * indexThenFetch: candidates found in the in-memory slice index, then rows fetched by id (a.id = ANY(?)) with the
+ * exact ST_Intersects check, as AnnotationListing on a hot slice.
+ * indexOnly: the in-memory search alone (used for kmeans on a hot slice).
+ *
+ * Needs a PostgreSQL database with PostGIS (POSTGIS_HOST, POSTGIS_PORT, POSTGIS_DB_NAME, POSTGIS_USER, POSTGIS_PASS).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SliceAnnotationIndexBenchmark {
+
+    private static final String COLUMNS = "SELECT a.id, a.user_id, a.created, ST_AsText(a.location) " +
+            "FROM benchmark_index_annotation a ";
+
+    @Param({"100000"})
+    public int annotations;
+
+    @Param({"100", "1000"})
+    public int bboxSize;
+
+    private HikariDataSource dataSource;
+
+    private SliceAnnotationIndex index;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:postgresql://" + env("POSTGIS_HOST", "localhost") + ":" + env("POSTGIS_PORT", "5432")
+                + "/" + env("POSTGIS_DB_NAME", "docker"));
+        dataSource.setUsername(env("POSTGIS_USER", "docker"));
+        dataSource.setPassword(env("POSTGIS_PASS", "password"));
+        dataSource.setMaximumPoolSize(1);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_index_annotation");
+            statement.execute("CREATE UNLOGGED TABLE benchmark_index_annotation(id bigserial PRIMARY KEY, " +
+                    "slice_id bigint, user_id bigint, created timestamp, location geometry)");
+            statement.execute("INSERT INTO benchmark_index_annotation(slice_id, user_id, created, location) " +
+                    "SELECT 1, 1 + i % 10, now(), " +
+                    "ST_MakeEnvelope(i % 1000 * 10, i / 1000 * 10, i % 1000 * 10 + 8, i / 1000 * 10 + 8, 0) " +
+                    "FROM generate_series(0, " + (annotations - 1) + ") i");
+            statement.execute("CREATE INDEX ON benchmark_index_annotation(slice_id)");
+            statement.execute("CREATE INDEX ON benchmark_index_annotation USING GIST(location)");
+            statement.execute("ANALYZE benchmark_index_annotation");
+
+            long[] ids = new long[annotations];
+            long[] users = new long[annotations];
+            double[] minX = new double[annotations];
+            double[] minY = new double[annotations];
+            double[] maxX = new double[annotations];
+            double[] maxY = new double[annotations];
+            try (ResultSet rows = statement.executeQuery("SELECT id, user_id, ST_XMin(location), ST_YMin(location), " +
+                    "ST_XMax(location), ST_YMax(location) FROM benchmark_index_annotation WHERE slice_id = 1 ORDER BY id")) {
+                for (int i = 0; rows.next(); i++) {
+                    ids[i] = rows.getLong(1);
+                    users[i] = rows.getLong(2);
+                    minX[i] = rows.getDouble(3);
+                    minY[i] = rows.getDouble(4);
+                    maxX[i] = rows.getDouble(5);
+                    maxY[i] = rows.getDouble(6);
+                }
+            }
+            index = new SliceAnnotationIndex(ids, users, minX, minY, maxX, maxY);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_index_annotation");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public long postgis() throws SQLException {
+        Envelope bbox = bbox();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(COLUMNS +
+                     "WHERE a.slice_id = ? AND ST_Intersects(a.location, ST_GeometryFromText(?, 0)) ORDER BY a.id desc")) {
+            select.setLong(1, 1L);
+            select.setString(2, wkt(bbox));
+            return count(select);
+        }
+    }
+
+    @Benchmark
+    public long indexThenFetch() throws SQLException {
+        Envelope bbox = bbox();
+        List<Long> ids = index.searchIds(bbox, null, Integer.MAX_VALUE - 1);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(COLUMNS +
+                     "WHERE a.slice_id = ? AND a.id = ANY(?) AND ST_Intersects(a.location, ST_GeometryFromText(?, 0)) ORDER BY a.id desc")) {
+            select.setLong(1, 1L);
+            select.setArray(2, connection.createArrayOf("bigint", ids.toArray(new Long[0])));
+            select.setString(3, wkt(bbox));
+            return count(select);
+        }
+    }
+
+    @Benchmark
+    public long indexOnly() {
+        Envelope bbox = bbox();
+        long[] count = {0};
+        index.search(bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), null,
+                (id, minX, minY, maxX, maxY) -> count[0] += id);
+        return count[0];
+    }
+
+    private static long count(PreparedStatement select) throws SQLException {
+        long count = 0;
+        try (ResultSet rows = select.executeQuery()) {
+            while (rows.next()) {
+                count += rows.getLong(1);
+            }
+        }
+        return count;
+    }
+
+    private Envelope bbox() {
+        int x = ThreadLocalRandom.current().nextInt(10000 - bboxSize);
+        int y = ThreadLocalRandom.current().nextInt(Math.max(1, 1000 - bboxSize));
+        return new Envelope(x, x + bboxSize, y, y + bboxSize);
+    }
+
+    private static String wkt(Envelope bbox) {
+        return "POLYGON ((" + bbox.getMinX() + " " + bbox.getMinY() + ", " + bbox.getMaxX() + " " + bbox.getMinY() + ", "
+                + bbox.getMaxX() + " " + bbox.getMaxY() + ", " + bbox.getMinX() + " " + bbox.getMaxY() + ", "
+                + bbox.getMinX() + " " + bbox.getMinY() + "))";
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
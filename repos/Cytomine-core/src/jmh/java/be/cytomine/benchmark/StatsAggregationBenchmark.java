@@ -0,0 +1,188 @@
+package be.cytomine.benchmark;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PostgreSQL time spent to compute the project stats of a project with 1M annotations (10 users, 1000 images,
+ * 20 terms, one term by annotation).
+ *
+ * termedByProjectListing: the former StatsService.statAnnotationTermedByProject, listing all annotations of the
+ * layers with their terms (one row per annotation term) and counting those with the term.
+ * termedByProjectGrouped: the grouped query of StatsService, counts by user summed for the layers.
+ * userAnnotationsGrouped, userSlideGrouped: the grouped queries of statUserAnnotations and statUserSlide.
+ *
+ * Needs a PostgreSQL database (POSTGIS_HOST, POSTGIS_PORT, POSTGIS_DB_NAME, POSTGIS_USER, POSTGIS_PASS).
+ * Annotations are inserted in unlogged tables with the user_annotation and annotation_term columns and indexes
+ * used by the queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StatsAggregationBenchmark {
+
+    private static final int USERS = 10;
+
+    private static final int IMAGES = 1000;
+
+    private static final int TERMS = 20;
+
+    @Param({"1000000"})
+    public int annotations;
+
+    private HikariDataSource dataSource;
+
+    private final Long[] layers = new Long[USERS];
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:postgresql://" + env("POSTGIS_HOST", "localhost") + ":" + env("POSTGIS_PORT", "5432")
+                + "/" + env("POSTGIS_DB_NAME", "docker"));
+        dataSource.setUsername(env("POSTGIS_USER", "docker"));
+        dataSource.setPassword(env("POSTGIS_PASS", "password"));
+        for (int i = 0; i < USERS; i++) {
+            layers[i] = (long) i + 1;
+        }
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_stats_annotation_term");
+            statement.execute("DROP TABLE IF EXISTS benchmark_stats_annotation");
+            statement.execute("CREATE UNLOGGED TABLE benchmark_stats_annotation(id bigserial PRIMARY KEY, " +
+                    "project_id bigint, image_id bigint, user_id bigint, created timestamp)");
+            statement.execute("CREATE UNLOGGED TABLE benchmark_stats_annotation_term(id bigserial PRIMARY KEY, " +
+                    "user_annotation_id bigint, term_id bigint, user_id bigint, created timestamp)");
+            statement.execute("INSERT INTO benchmark_stats_annotation(project_id, image_id, user_id, created) " +
+                    "SELECT 1, 1 + i % " + IMAGES + ", 1 + i % " + USERS + ", now() - (i * interval '1 second') " +
+                    "FROM generate_series(0, " + (annotations - 1) + ") i");
+            statement.execute("INSERT INTO benchmark_stats_annotation_term(user_annotation_id, term_id, user_id, created) " +
+                    "SELECT id, 1 + id % " + TERMS + ", user_id, created FROM benchmark_stats_annotation");
+            statement.execute("CREATE INDEX ON benchmark_stats_annotation(project_id)");
+            statement.execute("CREATE INDEX ON benchmark_stats_annotation(user_id)");
+            statement.execute("CREATE INDEX ON benchmark_stats_annotation_term(user_annotation_id)");
+            statement.execute("CREATE INDEX ON benchmark_stats_annotation_term(term_id)");
+            statement.execute("ANALYZE benchmark_stats_annotation");
+            statement.execute("ANALYZE benchmark_stats_annotation_term");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS benchmark_stats_annotation_term");
+            statement.execute("DROP TABLE IF EXISTS benchmark_stats_annotation");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public long termedByProjectListing() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT a.id, at.term_id " +
+                     "FROM benchmark_stats_annotation a " +
+                     "LEFT OUTER JOIN benchmark_stats_annotation_term at ON at.user_annotation_id = a.id " +
+                     "WHERE a.project_id = 1 AND a.user_id = ANY(?) " +
+                     "ORDER BY a.id")) {
+            Array users = connection.createArrayOf("bigint", layers);
+            select.setArray(1, users);
+            // the same fetch size as the annotation listings
+            connection.setAutoCommit(false);
+            select.setFetchSize(1000);
+            long count = 0;
+            long counted = -1;
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    if (rows.getLong(2) == 1 && rows.getLong(1) != counted) {
+                        counted = rows.getLong(1);
+                        count++;
+                    }
+                }
+            }
+            connection.commit();
+            return count;
+        }
+    }
+
+    @Benchmark
+    public long termedByProjectGrouped() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT a.project_id, a.user_id, COUNT(DISTINCT a.id) " +
+                     "FROM benchmark_stats_annotation a " +
+                     "JOIN benchmark_stats_annotation_term at ON at.user_annotation_id = a.id " +
+                     "WHERE at.term_id = 1 AND a.project_id IN (1) " +
+                     "GROUP BY a.project_id, a.user_id")) {
+            long count = 0;
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    if (rows.getLong(2) <= USERS) {
+                        count += rows.getLong(3);
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    @Benchmark
+    public long userAnnotationsGrouped() throws SQLException {
+        return sum("SELECT at.user_id, at.term_id, COUNT(at.term_id) " +
+                "FROM benchmark_stats_annotation_term at " +
+                "JOIN benchmark_stats_annotation a ON a.id = at.user_annotation_id " +
+                "WHERE a.project_id = 1 " +
+                "GROUP BY at.user_id, at.term_id", 3);
+    }
+
+    @Benchmark
+    public long userSlideGrouped() throws SQLException {
+        return sum("SELECT a.user_id, COUNT(DISTINCT a.image_id) " +
+                "FROM benchmark_stats_annotation a " +
+                "WHERE a.project_id = 1 " +
+                "GROUP BY a.user_id", 2);
+    }
+
+    private long sum(String sql, int column) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(sql)) {
+            long sum = 0;
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    sum += rows.getLong(column);
+                }
+            }
+            return sum;
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
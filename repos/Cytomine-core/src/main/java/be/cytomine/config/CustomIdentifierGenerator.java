@@ -1,19 +1,67 @@
 package be.cytomine.config;
 
 import java.io.Serializable;
+import java.util.Properties;
 
+import be.cytomine.service.database.IdBlockAllocator;
 import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
 import org.hibernate.engine.spi.SharedSessionContractImplementor;
 import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.resource.beans.container.spi.BeanContainer;
+import org.hibernate.resource.beans.spi.BeanInstanceProducer;
+import org.hibernate.resource.beans.spi.ManagedBeanRegistry;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
 
 public class CustomIdentifierGenerator extends SequenceStyleGenerator {
 
+    private static final BeanContainer.LifecycleOptions SINGLETON = new BeanContainer.LifecycleOptions() {
+        @Override
+        public boolean canUseCachedReferences() {
+            return true;
+        }
+
+        @Override
+        public boolean useJpaCompliantCreation() {
+            // get the existing bean instead of creating a new instance
+            return false;
+        }
+    };
+
+    private static final BeanInstanceProducer NO_FALLBACK = new BeanInstanceProducer() {
+        @Override
+        public <B> B produceBeanInstance(Class<B> beanType) {
+            return null;
+        }
+
+        @Override
+        public <B> B produceBeanInstance(String name, Class<B> beanType) {
+            return null;
+        }
+    };
+
+    private IdBlockAllocator allocator;
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) throws MappingException {
+        super.configure(type, parameters, serviceRegistry);
+        // the allocator is the bean of the Spring context; there is no bean container outside of it (e.g. schema tools)
+        BeanContainer beanContainer = serviceRegistry.getService(ManagedBeanRegistry.class).getBeanContainer();
+        if (beanContainer != null) {
+            allocator = beanContainer.getBean(IdBlockAllocator.class, SINGLETON, NO_FALLBACK).getBeanInstance();
+        }
+    }
+
     @Override
     public Serializable generate(SharedSessionContractImplementor session, Object object)
             throws HibernateException {
         // TODO Auto-generated method stub
         Serializable id = (Serializable) session.getEntityPersister(null, object)
                 .getClassMetadata().getIdentifier(object, session);
-        return id != null ? id : (Serializable) super.generate(session, object);
+        if (id != null) {
+            return id;
+        }
+        return allocator != null ? allocator.next() : (Serializable) super.generate(session, object);
     }
 }
@@ -21,6 +21,7 @@ import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.security.*;
 import be.cytomine.config.security.JWTConfigurer;
 import be.cytomine.security.jwt.TokenProvider;
+import be.cytomine.service.PrincipalCache;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -55,14 +56,17 @@ public class SecurityConfiguration {
 
     private final SecUserRepository secUserRepository;
 
+    private final PrincipalCache principalCache;
+
     @Value("${application.authentication.jwt.token-validity-in-seconds}")
     Long tokenValidityInSeconds;
 
 
-    public SecurityConfiguration(TokenProvider tokenProvider, DomainUserDetailsService domainUserDetailsService, SecUserRepository secUserRepository) {
+    public SecurityConfiguration(TokenProvider tokenProvider, DomainUserDetailsService domainUserDetailsService, SecUserRepository secUserRepository, PrincipalCache principalCache) {
         this.tokenProvider = tokenProvider;
         this.domainUserDetailsService = domainUserDetailsService;
         this.secUserRepository = secUserRepository;
+        this.principalCache = principalCache;
     }
 
     @Bean
@@ -146,7 +150,7 @@ public class SecurityConfiguration {
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
-                .addFilterBefore(new ApiKeyFilter(domainUserDetailsService, secUserRepository), BasicAuthenticationFilter.class)
+                .addFilterBefore(new ApiKeyFilter(secUserRepository, principalCache), BasicAuthenticationFilter.class)
                 .exceptionHandling((exceptionHandling) ->
                         exceptionHandling
                                 .authenticationEntryPoint(
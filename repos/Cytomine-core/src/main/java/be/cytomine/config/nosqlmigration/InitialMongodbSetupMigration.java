@@ -89,6 +89,20 @@ public class InitialMongodbSetupMigration {
                 new IndexModel(Indexes.compoundIndex(Indexes.ascending("image")), new IndexOptions().name("image_1").version(1))
             )
         );
+
+        createCollectionIfNotExists(
+            "activityRollup",
+            List.of(
+                new IndexModel(Indexes.ascending("_id"), new IndexOptions().name("_id_").version(1)),
+                new IndexModel(Indexes.compoundIndex(Indexes.ascending("activity"), Indexes.ascending("project"), Indexes.ascending("hour")), new IndexOptions().name("activity_1_project_1_hour_1").version(1)),
+                new IndexModel(Indexes.compoundIndex(Indexes.ascending("activity"), Indexes.ascending("hour")), new IndexOptions().name("activity_1_hour_1").version(1))
+            )
+        );
+
+        // activity rollups read the events by creation date (existing collections too)
+        for (String name : List.of("annotationAction", "persistentImageConsultation", "persistentProjectConnection")) {
+            template.getCollection(name).createIndex(Indexes.ascending("created"), new IndexOptions().name("created_1"));
+        }
     }
 
     public MongoCollection<Document> createCollectionIfNotExists(String name, List<IndexModel> indexes) {
@@ -0,0 +1,39 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+
+@Data
+public class ActivityRollupProperties {
+
+    /**
+     * Interval between two catch-ups of the hourly activity rollups (0 to disable the catch-up job).
+     * Activity charts read raw events for the hours not rolled up yet.
+     */
+    int catchUpIntervalInMillis = 60000;
+
+    /**
+     * An hour is rolled up once it has ended for this delay (events inserted late)
+     */
+    int settleDelayInMillis = 60000;
+
+    /**
+     * Number of hours aggregated by each catch-up step (first catch-up of a large instance)
+     */
+    int hoursByStep = 168;
+}
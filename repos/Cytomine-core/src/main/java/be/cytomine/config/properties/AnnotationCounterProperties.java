@@ -0,0 +1,35 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+
+@Data
+public class AnnotationCounterProperties {
+
+    /**
+     * Delay between two foldings of the annotation counter deltas into the project, image and annotation index
+     * counters (0 to disable the background folding). Deltas are only written by the triggers of connections
+     * opened with cytomine.annotation_counters=deferred (see spring.datasource.hikari.data-source-properties).
+     */
+    int compactionIntervalInMillis = 1000;
+
+    /**
+     * Maximum number of deltas folded by one statement
+     */
+    int compactionBatchSize = 50000;
+}
@@ -28,6 +28,42 @@ public class ApplicationProperties {
 
     private AppEngineProperties appEngine;
 
+    private AclCacheProperties aclCache = new AclCacheProperties();
+
+    private ImageServerClientProperties imageServerClient = new ImageServerClientProperties();
+
+    private TileCacheProperties tileCache = new TileCacheProperties();
+
+    private PositionBroadcastProperties positionBroadcast = new PositionBroadcastProperties();
+
+    private PositionWriterProperties positionWriter = new PositionWriterProperties();
+
+    private IdAllocatorProperties idAllocator = new IdAllocatorProperties();
+
+    private AnnotationImportProperties annotationImport = new AnnotationImportProperties();
+
+    private GeometryRepairProperties geometryRepair = new GeometryRepairProperties();
+
+    private PrincipalCacheProperties principalCache = new PrincipalCacheProperties();
+
+    private PresenceProperties presence = new PresenceProperties();
+
+    private BulkDeleteProperties bulkDelete = new BulkDeleteProperties();
+
+    private AnnotationCounterProperties annotationCounters = new AnnotationCounterProperties();
+
+    private ImageConsultationProperties imageConsultation = new ImageConsultationProperties();
+
+    private ActivityRollupProperties activityRollup = new ActivityRollupProperties();
+
+    private StatsCacheProperties statsCache = new StatsCacheProperties();
+
+    private ListingCountProperties listingCount = new ListingCountProperties();
+
+    private AnnotationTileProperties annotationTiles = new AnnotationTileProperties();
+
+    private SliceIndexProperties sliceIndex = new SliceIndexProperties();
+
     private String instanceHostWebsite;
 
     private String instanceHostSupportMail;
@@ -81,6 +117,10 @@ public class ApplicationProperties {
 class Annotation {
     int maxNumberOfPoint;
 
+    int listingFetchSize = 1000;
+
+    int statementCacheSize = 500;
+
     public int getMaxNumberOfPoint() {
         return maxNumberOfPoint;
     }
@@ -88,4 +128,20 @@ class Annotation {
     public void setMaxNumberOfPoint(int maxNumberOfPoint) {
         this.maxNumberOfPoint = maxNumberOfPoint;
     }
+
+    public int getListingFetchSize() {
+        return listingFetchSize;
+    }
+
+    public void setListingFetchSize(int listingFetchSize) {
+        this.listingFetchSize = listingFetchSize;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
 }
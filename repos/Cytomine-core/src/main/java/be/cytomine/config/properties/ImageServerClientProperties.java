@@ -0,0 +1,47 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+
+@Data
+public class ImageServerClientProperties {
+
+    /**
+     * Max number of pooled connections to the image server (all routes)
+     */
+    int maxConnections = 200;
+
+    int maxConnectionsPerRoute = 100;
+
+    int connectTimeoutInMillis = 2000;
+
+    int readTimeoutInMillis = 60000;
+
+    /**
+     * Idle time after which a pooled connection is closed, when the server does not send a Keep-Alive header
+     */
+    int keepAliveInSeconds = 30;
+
+    /**
+     * Max number of requests in flight to the image server. Other requests wait up to acquireTimeoutInMillis
+     * and are rejected (503) afterwards.
+     */
+    int maxConcurrentRequests = 100;
+
+    int acquireTimeoutInMillis = 10000;
+}
@@ -0,0 +1,49 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+
+@Data
+public class PositionWriterProperties {
+
+    /**
+     * Write user positions to MongoDB asynchronously, by batch. When disabled, each position is inserted
+     * before the request returns.
+     */
+    boolean writeBehind = true;
+
+    int batchSize = 500;
+
+    int flushIntervalInMillis = 1000;
+
+    /**
+     * Max number of positions waiting to be written. When full, requests wait up to offerTimeoutInMillis
+     * and write their position themselves afterwards (MongoDB is too slow).
+     */
+    int queueSize = 20000;
+
+    int offerTimeoutInMillis = 200;
+
+    /**
+     * Number of retries of a failed write (MongoDB unavailable), the delay between retries is doubled each time.
+     * Positions still not written after the last retry are dropped (and counted).
+     */
+    int retries = 3;
+
+    int retryBackoffInMillis = 200;
+}
@@ -0,0 +1,51 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+
+@Data
+public class SliceIndexProperties {
+
+    /**
+     * Keep an in-memory index of the annotation envelopes of the slices that are listed by bbox the most
+     */
+    boolean enabled = false;
+
+    /**
+     * Number of bbox listings of a slice, within hotWindowInSeconds, after which the slice is indexed
+     */
+    int hotThreshold = 3;
+
+    long hotWindowInSeconds = 60;
+
+    /**
+     * Memory of all the slice indexes. The least recently used slices are evicted above it.
+     */
+    long memoryBudgetInMb = 256;
+
+    /**
+     * Lifetime of an index. Annotations changed on another core instance (or by bulk SQL statements) are seen
+     * by this one after at most this delay.
+     */
+    long ttlInSeconds = 600;
+
+    /**
+     * Above this number of annotations in the bbox, the listing is left to PostGIS
+     */
+    int maxIds = 5000;
+}
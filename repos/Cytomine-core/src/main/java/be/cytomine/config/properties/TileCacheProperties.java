@@ -0,0 +1,48 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+
+@Data
+public class TileCacheProperties {
+
+    /**
+     * Keep tiles, thumbs, labels and crops returned by the image server
+     */
+    boolean enabled = false;
+
+    /**
+     * Time during which a cached response is served without asking the image server.
+     * Afterwards, it is revalidated with its ETag.
+     */
+    long ttlInSeconds = 300;
+
+    long heapMaxSizeInMb = 64;
+
+    /**
+     * Directory of the on-disk tier (entries evicted from the heap). Empty disables it.
+     */
+    String diskPath = "";
+
+    long diskMaxSizeInMb = 1024;
+
+    /**
+     * Larger responses are not cached
+     */
+    long maxEntrySizeInKb = 2048;
+}
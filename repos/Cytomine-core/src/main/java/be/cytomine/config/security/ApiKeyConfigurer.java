@@ -17,8 +17,8 @@ package be.cytomine.config.security;
 */
 
 import be.cytomine.repository.security.SecUserRepository;
-import be.cytomine.security.DomainUserDetailsService;
 import be.cytomine.security.jwt.TokenProvider;
+import be.cytomine.service.PrincipalCache;
 import org.springframework.security.config.annotation.SecurityConfigurerAdapter;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.DefaultSecurityFilterChain;
@@ -26,19 +26,19 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 
 public class ApiKeyConfigurer extends SecurityConfigurerAdapter<DefaultSecurityFilterChain, HttpSecurity> {
 
-    private final DomainUserDetailsService domainUserDetailsService;
-
     private final SecUserRepository secUserRepository;
 
+    private final PrincipalCache principalCache;
+
 
-    public ApiKeyConfigurer(DomainUserDetailsService domainUserDetailsService, SecUserRepository secUserRepository) {
-        this.domainUserDetailsService = domainUserDetailsService;
+    public ApiKeyConfigurer(SecUserRepository secUserRepository, PrincipalCache principalCache) {
         this.secUserRepository = secUserRepository;
+        this.principalCache = principalCache;
     }
 
     @Override
     public void configure(HttpSecurity http) {
-        ApiKeyFilter customFilter = new ApiKeyFilter(domainUserDetailsService, secUserRepository);
+        ApiKeyFilter customFilter = new ApiKeyFilter(secUserRepository, principalCache);
         http.addFilterBefore(customFilter, UsernamePasswordAuthenticationFilter.class);
     }
 }
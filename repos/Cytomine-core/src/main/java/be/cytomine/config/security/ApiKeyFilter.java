@@ -16,17 +16,16 @@ package be.cytomine.config.security;
 * limitations under the License.
 */
 
-import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.AuthenticationException;
 import be.cytomine.repository.security.SecUserRepository;
-import be.cytomine.security.DomainUserDetailsService;
+import be.cytomine.security.ApiKeyMaterial;
+import be.cytomine.service.PrincipalCache;
 import be.cytomine.utils.SecurityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import jakarta.servlet.FilterChain;
@@ -40,14 +39,14 @@ public class ApiKeyFilter extends OncePerRequestFilter {
 
     private final Logger log = LoggerFactory.getLogger(ApiKeyFilter.class);
 
-    private final DomainUserDetailsService domainUserDetailsService;
-
     private final SecUserRepository secUserRepository;
 
+    private final PrincipalCache principalCache;
+
 
-    public ApiKeyFilter(DomainUserDetailsService domainUserDetailsService, SecUserRepository secUserRepository) {
-        this.domainUserDetailsService = domainUserDetailsService;
+    public ApiKeyFilter(SecUserRepository secUserRepository, PrincipalCache principalCache) {
         this.secUserRepository = secUserRepository;
+        this.principalCache = principalCache;
     }
 
     @Override
@@ -96,31 +95,30 @@ public class ApiKeyFilter extends OncePerRequestFilter {
             String accessKey = authorization.substring(authorization.indexOf(" ") + 1, authorization.indexOf(":"));
             String authorizationSign = authorization.substring(authorization.indexOf(":") + 1);
 
-            Optional<SecUser> user = secUserRepository.findByPublicKeyAndEnabled(accessKey,true);
+            Optional<ApiKeyMaterial> apiKey = principalCache.getApiKey(accessKey, key -> secUserRepository.findByPublicKeyAndEnabled(key, true)
+                    .map(ApiKeyMaterial::new));
 
-            if (user.isEmpty()) {
+            if (apiKey.isEmpty()) {
                 log.debug("User cannot be extracted with accessKey {}", accessKey);
                 //response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized");
                 throw new AuthenticationException("User cannot be extracted with accessKey " + accessKey);
             } else {
-                String signature = SecurityUtils.generateKeys(request.getMethod(),content_md5, content_type,date,queryString,path,user.get());
-                if (authorizationSign.equals(signature)) {
-                    this.reauthenticate(user.get(), null);
+                String messageToSign = SecurityUtils.buildMessageToSign(request.getMethod(),content_md5, content_type,date,queryString,path);
+                if (apiKey.get().verify(messageToSign, authorizationSign)) {
+                    this.authenticate(apiKey.get());
                     return true;
-                } else {
+                } else if (!content_type.isEmpty()) {
                     // the java client does not set content-type, so we override the header to application/json BEFORE this authentication.
                     // So the client thinks content-type is "" while spring boot set it to application/json. In order to match the client signature, we generate it
                     // with an empty value.
                     // => it would be better to improve the java client to set a valid content type.
-                    String signatureWithEmptyContentType = SecurityUtils.generateKeys(request.getMethod(),content_md5, "",date,queryString,path,user.get());
-                    if (authorizationSign.equals(signatureWithEmptyContentType)) {
-                        this.reauthenticate(user.get(), null);
+                    String messageWithEmptyContentType = SecurityUtils.buildMessageToSign(request.getMethod(),content_md5, "",date,queryString,path);
+                    if (apiKey.get().verify(messageWithEmptyContentType, authorizationSign)) {
+                        this.authenticate(apiKey.get());
                         return true;
                     }
-
-
-                    return false;
                 }
+                return false;
             }
 
 
@@ -132,21 +130,14 @@ public class ApiKeyFilter extends OncePerRequestFilter {
     }
 
     /**
-     * Rebuild an Authentication for the given username and register it in the security context.
-     * Typically used after updating a user's authorities or other auth-cached info.
-     * <p/>
-     * Also removes the user from the user cache to force a refresh at next login.
-     *
-     * @param username the user's login name
-     * @param password optional
+     * Register the user of the key in the security context.
+     * The cached snapshot of the user is set, not the entity: the user is loaded in the request (CurrentUserService).
      */
-    public void reauthenticate(final SecUser secUser, final String password) {
-        UserDetailsService userDetailsService = this.domainUserDetailsService;
-
-        UserDetails userDetails = userDetailsService.loadUserByUsername(secUser.getUsername());
+    private void authenticate(ApiKeyMaterial apiKey) {
+        User principal = new User(apiKey.getUsername(), "", apiKey.getAuthorities());
         UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(
-                userDetails, password == null ? userDetails.getPassword() : password, userDetails.getAuthorities());
-        usernamePasswordAuthenticationToken.setDetails(secUser);
+                principal, "", apiKey.getAuthorities());
+        usernamePasswordAuthenticationToken.setDetails(apiKey.getPrincipal());
 
         SecurityContextHolder.getContext().setAuthentication(usernamePasswordAuthenticationToken);
     }
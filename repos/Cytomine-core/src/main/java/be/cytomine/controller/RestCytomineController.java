@@ -9,18 +9,18 @@ import be.cytomine.dto.json.JsonSingleObject;
 import be.cytomine.exceptions.CytomineException;
 import be.cytomine.exceptions.CytomineMethodNotYetImplementedException;
 import be.cytomine.exceptions.InvalidRequestException;
-import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.JsonCodec;
+import be.cytomine.utils.JsonCollectionWriter;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.ListingPage;
 import be.cytomine.utils.OffsetBasedPageRequest;
 import be.cytomine.utils.RequestParams;
 import be.cytomine.utils.Task;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import be.cytomine.utils.filters.SearchParametersUtils;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -33,6 +33,7 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -106,17 +107,15 @@ public abstract class RestCytomineController {
         return SearchParametersUtils.getSearchParameters(retrieveRequestParam());
     }
 
-    private JsonObject buildJsonList(List list, Integer offsetParameter, Integer maxParameter) {
+    private JsonObject buildJsonList(List list, Integer offsetParameter, Integer maxParameter, boolean isFilterRequired) {
 
         Integer offset = offsetParameter != null ? offsetParameter : 0;
         Integer max = (maxParameter != null && maxParameter!=0) ? maxParameter : Integer.MAX_VALUE;
 
-        List subList;
-        if (offset >= list.size()) {
-            subList = new ArrayList();
-        } else {
-            int maxForCollection = Math.min(list.size() - offset, max);
-            subList = list.subList(offset,offset + maxForCollection);
+        // only the items of the page are converted
+        List subList = new ArrayList();
+        for (int i = offset; i < list.size() && i - offset < max; i++) {
+            subList.add(convertListItem(list.get(i), isFilterRequired));
         }
         return JsonObject.of("collection", subList, "offset", offset, "perPage", Math.min(max, list.size()), "size", list.size(), "totalPages", (int)Math.ceil((double)list.size()/(double)max));
 
@@ -137,7 +136,12 @@ public abstract class RestCytomineController {
         }
         Integer offset = offsetParameter != null ? offsetParameter : 0;
         Integer max = (maxParameter != null && maxParameter!=0) ? maxParameter : Integer.MAX_VALUE;
-        return JsonObject.of("collection", finalContent, "offset", offset, "perPage", Math.min(max, page.getContent().size()), "size", page.getTotalElements(), "totalPages", (int)Math.ceil((double)page.getTotalElements()/(double)max));
+        JsonObject json = JsonObject.of("collection", finalContent, "offset", offset, "perPage", Math.min(max, page.getContent().size()), "size", page.getTotalElements(), "totalPages", (int)Math.ceil((double)page.getTotalElements()/(double)max));
+        if (page instanceof ListingPage<?> listingPage) {
+            json.put("nextCursor", listingPage.getNextCursor());
+            json.put("sizeEstimated", listingPage.isSizeEstimated());
+        }
+        return json;
     }
 
     protected ResponseEntity<String> responseSuccess(Page page) {
@@ -173,37 +177,7 @@ public abstract class RestCytomineController {
     }
 
     public ResponseEntity<String> responseSuccess(List list, Integer offsetParameter, Integer maxParameter, boolean isFilterRequired) {
-        List filtered = list;
-        if (isFilterRequired) {
-            filtered = new ArrayList();
-            if (!list.isEmpty() && (list.get(0) instanceof CytomineDomain)) {
-                for (Object o : list) {
-                    JsonObject jsonObject = ((CytomineDomain) o).toJsonObject();
-                    filterOneElement(jsonObject);
-                    filtered.add(jsonObject);
-                }
-            } else if (!list.isEmpty() && (list.get(0) instanceof CytomineSocialDomain)) {
-                for (Object o : list) {
-                    JsonObject jsonObject = ((CytomineSocialDomain) o).toJsonObject();
-                    filterOneElement(jsonObject);
-                    filtered.add(jsonObject);
-                }
-            } else if (!list.isEmpty() && list.get(0) instanceof Map) {
-                for (Object o : list) {
-                    Map json = (Map)o;
-                    filterOneElement(json);
-                    filtered.add(json);
-                }
-            }
-        }
-
-        if (filtered.isEmpty() || filtered.get(0) instanceof CytomineDomain) {
-            return responseSuccessDomainList((List<? extends CytomineDomain>) filtered, offsetParameter, maxParameter);
-        } else if (filtered.isEmpty() || filtered.get(0) instanceof CytomineSocialDomain) {
-            return responseSuccessSocialDomainList((List<? extends CytomineSocialDomain>) filtered, offsetParameter, maxParameter);
-        } else {
-            return responseSuccessGenericList(filtered, offsetParameter, maxParameter);
-        }
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter, isFilterRequired).toJsonString());
     }
 
     public ResponseEntity<String> responseSuccess(List list) {
@@ -215,16 +189,38 @@ public abstract class RestCytomineController {
         return responseSuccess(list, requestParams.getOffset().intValue(), requestParams.getMax().intValue(), isFilterRequired);
     }
 
-    private ResponseEntity<String> responseSuccessDomainList(List<? extends CytomineDomain> list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(convertCytomineDomainListToJSON(list), offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
+    public ResponseEntity<String> responseStream(List list) {
+        return responseStream(list, false);
     }
 
-    private ResponseEntity<String> responseSuccessSocialDomainList(List<? extends CytomineSocialDomain> list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(convertCytomineSocialDomainListToJSON(list), offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
+    /**
+     * Same response as responseSuccess(list), written straight to the response output stream by a shared JSON
+     * generator (see JsonCollectionWriter): the items of the page are converted one by one and the response is never
+     * built in memory. For large lists.
+     * @return null, the response is already written
+     */
+    public ResponseEntity<String> responseStream(List list, boolean isFilterRequired) {
+        RequestParams requestParams = retrievePageableParameters();
+        JsonCollectionWriter writer = new JsonCollectionWriter(response, requestParams.getOffset().intValue(), requestParams.getMax().intValue());
+        try {
+            writer.write(() -> writer.acceptAll(list, item -> convertListItem(item, isFilterRequired)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
     }
 
-    private ResponseEntity<String> responseSuccessGenericList(List list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
+    private Object convertListItem(Object item, boolean isFilterRequired) {
+        Object json = item;
+        if (item instanceof CytomineDomain cytomineDomain) {
+            json = cytomineDomain.toJsonObject();
+        } else if (item instanceof CytomineSocialDomain cytomineSocialDomain) {
+            json = cytomineSocialDomain.toJsonObject();
+        }
+        if (isFilterRequired && json instanceof Map) {
+            filterOneElement((Map<String, Object>) json);
+        }
+        return json;
     }
 
     protected ResponseEntity<String> responseSuccess(CytomineDomain response, boolean isFilterRequired) {
@@ -316,18 +312,7 @@ public abstract class RestCytomineController {
     }
 
     public ResponseEntity<String> add(ModelService service, String json) {
-        JsonInput data;
-        try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
-            // If fails to parse as a single object, parse as a list
-        } catch (Exception ex) {
-            try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
-            } catch (JsonProcessingException e) {
-                throw new WrongArgumentException("Json not valid");
-            }
-        }
-        return add(service, data);
+        return add(service, JsonCodec.readJsonInput(json));
     }
 
     public JsonObject addMultiple(ModelService service, List<JsonObject> json) {
@@ -10,6 +10,7 @@ import be.cytomine.security.jwt.TokenProvider;
 import be.cytomine.security.jwt.TokenType;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.social.PresenceIndex;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.SecurityUtils;
 import lombok.RequiredArgsConstructor;
@@ -43,6 +44,8 @@ public class ServerController extends RestCytomineController {
 
     private final TokenProvider tokenProvider;
 
+    private final PresenceIndex presenceIndex;
+
     @RequestMapping(value = {"/server/ping.json", "/server/ping"}, method = {RequestMethod.GET, RequestMethod.POST}) // without.json is deprecated
     public ResponseEntity<String> ping(HttpSession session) throws IOException {
         log.debug("REST request to ping");
@@ -81,6 +84,7 @@ public class ServerController extends RestCytomineController {
             connection.setCreated(connection.getDate());
             connection.setProject(idProject);
             lastConnectionRepository.insert(connection); //don't use save (stateless collection)
+            presenceIndex.userSeen(user.getId(), idProject, connection.getCreated());
 
             PersistentConnection connectionPersist = new PersistentConnection();
             connectionPersist.setId(sequenceService.generateID());
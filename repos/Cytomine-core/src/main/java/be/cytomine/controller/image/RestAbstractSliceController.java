@@ -52,7 +52,7 @@ public class RestAbstractSliceController extends RestCytomineController {
         log.debug("REST request to list abstract slice for image {}", id);
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
-        return responseSuccess(abstractSliceService.list(abstractImage));
+        return responseStream(abstractSliceService.list(abstractImage));
     }
 
     @GetMapping("/uploadedfile/{id}/abstractslice.json")
@@ -62,7 +62,7 @@ public class RestAbstractSliceController extends RestCytomineController {
         log.debug("REST request to list abstract slice for image {}", id);
         UploadedFile uploadedFile = uploadedFileService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("UploadedFile", id));
-        return responseSuccess(abstractSliceService.list(uploadedFile));
+        return responseStream(abstractSliceService.list(uploadedFile));
     }
 
 
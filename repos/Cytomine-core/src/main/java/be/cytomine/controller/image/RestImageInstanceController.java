@@ -25,6 +25,7 @@ import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.search.ImageSearchExtension;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.utils.CountMode;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.RequestParams;
 import lombok.RequiredArgsConstructor;
@@ -84,7 +85,8 @@ public class RestImageInstanceController extends RestCytomineController {
         SecUser secUser = secUserService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("SecUser", id));
         RequestParams requestParams = retrievePageableParameters();
-        return responseSuccess(imageInstanceService.list(secUser, retrieveSearchParameters(), requestParams.getSort(), requestParams.getOrder(), requestParams.getOffset(), requestParams.getMax()));
+        return responseSuccess(imageInstanceService.list(secUser, retrieveSearchParameters(), requestParams.getSort(), requestParams.getOrder(), requestParams.getMax(), requestParams.getOffset(),
+                requestParams.get("cursor"), CountMode.fromParameter(requestParams.get("count"))));
     }
 
     @GetMapping("/user/{id}/imageinstance/light.json")
@@ -97,7 +99,7 @@ public class RestImageInstanceController extends RestCytomineController {
             secUser = secUserService.find(id)
                     .orElseThrow(() -> new ObjectNotFoundException("SecUser", id));
         }
-        return responseSuccess(imageInstanceService.listLight(secUser));
+        return responseStream(imageInstanceService.listLight(secUser));
     }
 
     @GetMapping("/abstractimage/{id}/imageinstance.json")
@@ -107,7 +109,7 @@ public class RestImageInstanceController extends RestCytomineController {
         AbstractImage ai = abstractImageService.find(id)
             .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
 
-        return responseSuccess(imageInstanceService.listByAbstractImage(ai));
+        return responseStream(imageInstanceService.listByAbstractImage(ai));
     }
 
     @GetMapping("/project/{id}/imageinstance.json")
@@ -127,7 +129,7 @@ public class RestImageInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("Project", id));
         RequestParams requestParams = retrievePageableParameters();
         if (light) {
-            return responseSuccess(imageInstanceService.listLight(project), securityACLService.isFilterRequired(project));
+            return responseStream(imageInstanceService.listLight(project), securityACLService.isFilterRequired(project));
         } else if (tree) {
             return responseSuccess(imageInstanceService.listTree(project, requestParams.getOffset(), requestParams.getMax()), securityACLService.isFilterRequired(project));
         } else if (withLastActivity) {
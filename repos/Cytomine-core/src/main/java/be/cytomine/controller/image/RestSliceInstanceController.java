@@ -6,6 +6,10 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
 import org.springframework.cloud.gateway.mvc.ProxyExchange;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -17,9 +21,12 @@ import be.cytomine.dto.image.ImageParameter;
 import be.cytomine.dto.image.TileParameters;
 import be.cytomine.dto.image.WindowParameter;
 import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.service.annotation.AnnotationTileCache.AnnotationTile;
+import be.cytomine.service.annotation.AnnotationTileService;
 import be.cytomine.service.image.*;
 import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.StringUtils;
 
 @RestController
 @RequestMapping("/api")
@@ -33,6 +40,8 @@ public class RestSliceInstanceController extends RestCytomineController {
 
     private final ImageServerService imageServerService;
 
+    private final AnnotationTileService annotationTileService;
+
     @GetMapping("/imageinstance/{id}/sliceinstance.json")
     public ResponseEntity<String> listByImageInstance(
             @PathVariable Long id
@@ -40,7 +49,7 @@ public class RestSliceInstanceController extends RestCytomineController {
         log.debug("REST request to list slice instance for image {}", id);
         ImageInstance imageInstance = imageInstanceService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
-        return responseSuccess(sliceInstanceService.list(imageInstance));
+        return responseStream(sliceInstanceService.list(imageInstance));
     }
 
     @GetMapping("/sliceinstance/{id}.json")
@@ -132,6 +141,35 @@ public class RestSliceInstanceController extends RestCytomineController {
         return imageServerService.normalizedTile(sliceInstance, tileParameters, etag, proxy);
     }
 
+    /**
+     * Mapbox vector tile of the user annotations of the slice, with the tiling of the normalized tiles.
+     * Tiles are revalidated with their ETag.
+     */
+    @GetMapping("/sliceinstance/{id}/annotation-tile/zoom/{z}/tx/{tx}/ty/{ty}.mvt")
+    public ResponseEntity<byte[]> annotationTile(
+            @PathVariable Long id,
+            @PathVariable Integer z,
+            @PathVariable Long tx,
+            @PathVariable Long ty,
+            @RequestParam(required = false) String users
+    ) {
+        log.debug("REST request get sliceinstance {} annotation tile {}/{}/{}", id, z, tx, ty);
+        SliceInstance sliceInstance = sliceInstanceService.find(id)
+                .orElseThrow(() -> new ObjectNotFoundException("SliceInstance", id));
+
+        AnnotationTile tile = annotationTileService.tile(sliceInstance, z, tx, ty, StringUtils.extractListFromParameter(users));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(tile.getEtag());
+        headers.setCacheControl(CacheControl.noCache().cachePrivate());
+        if (tile.getEtag().equals(getRequestETag())) {
+            annotationTileService.recordNotModified();
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+        headers.setContentType(MediaType.parseMediaType("application/vnd.mapbox-vector-tile"));
+        return ResponseEntity.ok().headers(headers).body(tile.getContent());
+    }
+
 //    // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/sliceinstance/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
     public ResponseEntity<byte[]> thumb(
@@ -4,8 +4,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Geometry;
@@ -30,6 +28,7 @@ import be.cytomine.service.meta.PropertyService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.utils.GeometryUtils;
+import be.cytomine.utils.JsonCodec;
 import be.cytomine.utils.JsonObject;
 
 @RestController
@@ -249,22 +248,15 @@ public class RestPropertyController extends RestCytomineController {
         log.debug("REST request to add property for domain {} {}", domainClassName, domainIdent);
         CytomineDomain domain = Optional.ofNullable(projectService.getCytomineDomain(domainClassName, domainIdent))
                 .orElseThrow(() -> new ObjectNotFoundException("Domain", domainClassName + "/" + domainIdent));
-        JsonInput data;
-        try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
-            for (JsonObject datum : ((JsonMultipleObject) data)) {
+        JsonInput data = JsonCodec.readJsonInput(json);
+        if (data instanceof JsonMultipleObject multipleObject) {
+            for (JsonObject datum : multipleObject) {
                 datum.putIfAbsent("domainClassName", domainClassName);
                 datum.putIfAbsent("domainIdent", domainIdent);
             }
-            // If fails to parse as a single object, parse as a list
-        } catch (Exception ex) {
-            try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
-                ((JsonSingleObject)data).putIfAbsent("domainClassName", domainClassName);
-                ((JsonSingleObject)data).putIfAbsent("domainIdent", domainIdent);
-            } catch (JsonProcessingException e) {
-                throw new WrongArgumentException("Json not valid");
-            }
+        } else {
+            ((JsonSingleObject)data).putIfAbsent("domainClassName", domainClassName);
+            ((JsonSingleObject)data).putIfAbsent("domainIdent", domainIdent);
         }
         return add(propertyService, data);
     }
@@ -3,8 +3,6 @@ package be.cytomine.controller.ontology;
 import java.io.IOException;
 import java.util.*;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
@@ -24,6 +22,7 @@ import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.service.ontology.AlgoAnnotationService;
+import be.cytomine.service.ontology.AnnotationBulkImportService;
 import be.cytomine.service.ontology.SharedAnnotationService;
 import be.cytomine.service.ontology.TermService;
 import be.cytomine.service.project.ProjectService;
@@ -32,6 +31,7 @@ import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.utils.ParamsService;
 import be.cytomine.utils.AnnotationListingBuilder;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.JsonCodec;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.RequestParams;
 
@@ -59,6 +59,8 @@ public class RestAlgoAnnotationController extends RestCytomineController {
 
     private final TermService termService;
 
+    private final AnnotationBulkImportService annotationBulkImportService;
+
     /**
      * List all annotation (created by algo) visible for the current user
      */
@@ -105,24 +107,30 @@ public class RestAlgoAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Long maxPoint
     ) {
         log.debug("REST request to save algo annotation");
-        JsonInput data;
-        try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
-            for (JsonObject datum : ((JsonMultipleObject) data)) {
+        JsonInput data = JsonCodec.readJsonInput(json);
+        if (data instanceof JsonMultipleObject multipleObject) {
+            for (JsonObject datum : multipleObject) {
                 datum.putIfAbsent("minPoint", minPoint);
                 datum.putIfAbsent("maxPoint", maxPoint);
             }
-            // If fails to parse as a single object, parse as a list
-        } catch (Exception ex) {
-            try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
-                ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
-                ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
-            } catch (JsonProcessingException e) {
-                throw new WrongArgumentException("Json not valid");
-            }
+        } else {
+            ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
+            ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
         }
-        return add(algoAnnotationService, json);
+        return add(algoAnnotationService, data);
+    }
+
+    /**
+     * Add a large number of algo annotations (JSON array), persisted by batch.
+     * Response has the same structure as a multiple add.
+     */
+    @PostMapping("/algoannotation/bulk.json")
+    public ResponseEntity<String> addBulk(
+            @RequestParam(required = false) Long minPoint,
+            @RequestParam(required = false) Long maxPoint
+    ) throws IOException {
+        log.debug("REST request to import algo annotations");
+        return responseSuccess(annotationBulkImportService.importAlgoAnnotations(request.getInputStream(), minPoint, maxPoint));
     }
 
     public CommandResponse addOne(ModelService service, JsonObject json) {
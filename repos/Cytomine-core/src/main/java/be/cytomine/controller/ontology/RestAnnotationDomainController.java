@@ -40,6 +40,7 @@ import be.cytomine.service.utils.ParamsService;
 import be.cytomine.service.utils.SimplifyGeometryService;
 import be.cytomine.utils.AnnotationListingBuilder;
 import be.cytomine.utils.GeometryUtils;
+import be.cytomine.utils.JsonCollectionWriter;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.config.properties.ApplicationProperties;
 
@@ -84,25 +85,36 @@ public class RestAnnotationDomainController extends RestCytomineController {
     private final AnnotationListingBuilder annotationListingBuilder;
 
     @RequestMapping(value = { "/annotation/search.json"}, method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<String> searchSpecified() throws IOException {
-        return search();
+    public void searchSpecified() throws IOException {
+        search();
     }
 
     @RequestMapping(value = {"/annotation.json"}, method = {RequestMethod.GET})
-    public ResponseEntity<String> search() throws IOException {
+    public void search() throws IOException {
         JsonObject params = mergeQueryParamsAndBodyParams();
         AnnotationListing annotationListing = annotationListingBuilder.buildAnnotationListing(params);
-        List annotations = annotationListingService.listGeneric(annotationListing);
+        annotationListingService.prepareRequest(annotationListing);
+        AnnotationListing suggestedListing = null;
         if (annotationListing instanceof AlgoAnnotationListing) {
             //if algo, we look for user_annotation JOIN algo_annotation_term  too
             params.put("suggestedTerm", params.get("term"));
             params.remove("term");
             params.remove("usersForTermAlgo");
-            annotationListing = annotationListingBuilder.buildAnnotationListing(new UserAnnotationListing(entityManager), params);
-            annotations.addAll(annotationListingService.listGeneric(annotationListing));
+            suggestedListing = annotationListingBuilder.buildAnnotationListing(new UserAnnotationListing(entityManager), params);
+            annotationListingService.prepareRequestLike(suggestedListing, annotationListing);
         }
 
-        return responseSuccess(annotations, params.getJSONAttrLong("offset", 0L),params.getJSONAttrLong("max", 0L));
+        // access is checked and requests are built before the first item is written (with the 200 status)
+        AnnotationListing listing = annotationListing;
+        AnnotationListing suggested = suggestedListing;
+        JsonCollectionWriter writer = new JsonCollectionWriter(response,
+                params.getJSONAttrLong("offset", 0L).intValue(), params.getJSONAttrLong("max", 0L).intValue());
+        writer.write(() -> {
+            annotationListingService.streamPrepared(listing, writer);
+            if (suggested != null) {
+                annotationListingService.streamPrepared(suggested, writer);
+            }
+        });
     }
 
     @RequestMapping(value = {"/project/{project}/annotation/download"}, method = {RequestMethod.GET})
@@ -14,6 +14,7 @@ import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.middleware.ImageServerService;
+import be.cytomine.service.ontology.AnnotationBulkImportService;
 import be.cytomine.service.ontology.SharedAnnotationService;
 import be.cytomine.service.ontology.TermService;
 import be.cytomine.service.ontology.UserAnnotationService;
@@ -22,9 +23,8 @@ import be.cytomine.service.report.ReportService;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.utils.AnnotationListingBuilder;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.JsonCodec;
 import be.cytomine.utils.JsonObject;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.locationtech.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -58,6 +58,8 @@ public class RestUserAnnotationController extends RestCytomineController {
 
     private final AnnotationListingBuilder annotationListingBuilder;
 
+    private final AnnotationBulkImportService annotationBulkImportService;
+
     @GetMapping("/userannotation.json")
     public ResponseEntity<String> listLight(
     ) {
@@ -189,26 +191,32 @@ public class RestUserAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Long maxPoint
     ) {
         log.debug("REST request to save user annotation");
-        JsonInput data;
-        try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
-            for (JsonObject datum : ((JsonMultipleObject) data)) {
+        JsonInput data = JsonCodec.readJsonInput(json);
+        if (data instanceof JsonMultipleObject multipleObject) {
+            for (JsonObject datum : multipleObject) {
                 datum.putIfAbsent("minPoint", minPoint);
                 datum.putIfAbsent("maxPoint", maxPoint);
             }
-            // If fails to parse as a single object, parse as a list
-        } catch (Exception ex) {
-            try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
-                ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
-                ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
-            } catch (JsonProcessingException e) {
-                throw new WrongArgumentException("Json not valid");
-            }
+        } else {
+            ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
+            ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
         }
         return add(userAnnotationService, data);
     }
 
+    /**
+     * Add a large number of user annotations (JSON array), persisted by batch.
+     * Response has the same structure as a multiple add.
+     */
+    @PostMapping("/userannotation/bulk.json")
+    public ResponseEntity<String> addBulk(
+            @RequestParam(required = false) Long minPoint,
+            @RequestParam(required = false) Long maxPoint
+    ) throws IOException {
+        log.debug("REST request to import user annotations");
+        return responseSuccess(annotationBulkImportService.importUserAnnotations(request.getInputStream(), minPoint, maxPoint));
+    }
+
     public CommandResponse addOne(ModelService service, JsonObject json) {
         if (json.isMissing("location")) {
             throw new WrongArgumentException("Annotation must have a valid geometry:" + json.get("location"));
@@ -26,6 +26,7 @@ import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.search.ProjectSearchExtension;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.utils.TaskService;
+import be.cytomine.utils.CountMode;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.Task;
 import be.cytomine.utils.filters.SearchParameterEntry;
@@ -65,7 +66,9 @@ public class RestProjectController extends RestCytomineController {
             @RequestParam(value = "sort", defaultValue = "created", required = false) String sort,
             @RequestParam(value = "order", defaultValue = "desc", required = false) String order,
             @RequestParam(value = "offset", defaultValue = "0", required = false) Long offset,
-            @RequestParam(value = "max", defaultValue = "0", required = false) Long max
+            @RequestParam(value = "max", defaultValue = "0", required = false) Long max,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "count", defaultValue = "exact", required = false) String count
 
     ) {
         log.debug("REST request to list projects");
@@ -82,7 +85,7 @@ public class RestProjectController extends RestCytomineController {
         projectSearchExtension.setWithDescription(withDescription);
         projectSearchExtension.setWithCurrentUserRoles(withCurrentUserRoles);
         List<SearchParameterEntry> searchParameterEntryList = super.retrieveSearchParameters();
-        return responseSuccess(projectService.list(user, projectSearchExtension, searchParameterEntryList, sort, order, max, offset));
+        return responseSuccess(projectService.list(user, projectSearchExtension, searchParameterEntryList, sort, order, max, offset, cursor, CountMode.fromParameter(count)));
     }
 
     @GetMapping("/project/{id}.json")
@@ -111,9 +114,18 @@ public class RestProjectController extends RestCytomineController {
     }
 
     @DeleteMapping("/project/{id}.json")
-    public ResponseEntity<String> delete(@PathVariable String id, @RequestParam(required = false) Long task) {
+    public ResponseEntity<String> delete(
+            @PathVariable String id,
+            @RequestParam(required = false) Long task,
+            @RequestParam(required = false, defaultValue = "false") Boolean async
+    ) {
         log.debug("REST request to delete Project : " + id);
         Task existingTask = taskService.get(task);
+        if (async) {
+            Project project = (Project) projectService.retrieve(JsonObject.of("id", id));
+            projectService.deleteAsync(project, existingTask);
+            return responseSuccess(JsonObject.of("task", existingTask != null ? existingTask.toJsonObject() : null));
+        }
         return delete(projectService, JsonObject.of("id", id), existingTask);
     }
 
@@ -38,6 +38,7 @@ import be.cytomine.service.report.ReportService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.utils.CountMode;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.SecurityUtils;
 import be.cytomine.utils.StringUtils;
@@ -144,7 +145,9 @@ public class RestUserController extends RestCytomineController {
             @RequestParam(value = "sort", defaultValue = "username", required = false) String sortColumn,
             @RequestParam(value = "order", defaultValue = "asc", required = false) String sortDirection,
             @RequestParam(value = "offset", defaultValue = "0", required = false) Long offset,
-            @RequestParam(value = "max", defaultValue = "0", required = false) Long max
+            @RequestParam(value = "max", defaultValue = "0", required = false) Long max,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "count", defaultValue = "exact", required = false) String count
     ) {
         log.debug("REST request to list user");
         if (publicKey != null) {
@@ -155,7 +158,7 @@ public class RestUserController extends RestCytomineController {
         UserSearchExtension userSearchExtension = new UserSearchExtension();
         userSearchExtension.setWithRoles(withRoles);
         return responseSuccess(
-                secUserService.list(userSearchExtension, retrieveSearchParameters(), sortColumn, sortDirection, max, offset)
+                secUserService.list(userSearchExtension, retrieveSearchParameters(), sortColumn, sortDirection, max, offset, cursor, CountMode.fromParameter(count))
                 , isFilterRequired()
         );
     }
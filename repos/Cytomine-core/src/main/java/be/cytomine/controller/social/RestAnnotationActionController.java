@@ -72,7 +72,7 @@ public class RestAnnotationActionController extends RestCytomineController {
             user = secUserService.findUser(userId)
                     .orElseThrow(() -> new ObjectNotFoundException("SecUser", userId));
         }
-        return responseSuccess(annotationActionService.list(image, user, afterThan, beforeThan));
+        return responseStream(annotationActionService.list(image, user, afterThan, beforeThan));
     }
 
     @GetMapping("/sliceinstance/{slice}/annotation_action.json")
@@ -90,7 +90,7 @@ public class RestAnnotationActionController extends RestCytomineController {
             user = secUserService.findUser(userId)
                     .orElseThrow(() -> new ObjectNotFoundException("SecUser", userId));
         }
-        return responseSuccess(annotationActionService.list(sliceInstance, user, afterThan, beforeThan));
+        return responseStream(annotationActionService.list(sliceInstance, user, afterThan, beforeThan));
     }
 
     @GetMapping("/project/{project}/annotation_action/count.json")
@@ -19,12 +19,14 @@ import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.stats.StatsService;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Date;
+import java.util.List;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -46,6 +48,8 @@ public class RestStatsController extends RestCytomineController {
 
     private final ProjectConnectionService projectConnectionService;
 
+    private final List<RuntimeMetrics> runtimeMetrics;
+
     @GetMapping("/project/{project}/stats/term.json")
     public ResponseEntity<String> statTerm(
             @PathVariable("project") Long projectId,
@@ -331,4 +335,14 @@ public class RestStatsController extends RestCytomineController {
 
         return responseSuccess(result);
     }
+
+    @GetMapping("/stats/runtime.json")
+    public ResponseEntity<String> runtimeMetrics() {
+        securityACLService.checkAdmin(currentUserService.getCurrentUser());
+        JsonObject result = new JsonObject();
+        for (RuntimeMetrics metrics : runtimeMetrics) {
+            result.put(metrics.getMetricsName(), metrics.getMetrics());
+        }
+        return responseSuccess(result);
+    }
 }
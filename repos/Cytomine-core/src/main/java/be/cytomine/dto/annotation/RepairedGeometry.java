@@ -0,0 +1,51 @@
+package be.cytomine.dto.annotation;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Result of a geometry validation: the (repaired) geometry and how it was made valid.
+ * error is set when the geometry cannot be used as an annotation location.
+ */
+@Getter
+@AllArgsConstructor
+public class RepairedGeometry {
+
+    public enum Strategy {
+        /* already valid */
+        NONE,
+        /* buffer(0) */
+        BUFFER,
+        /* JTS GeometryFixer */
+        FIXER,
+        /* PostGIS ST_MakeValid */
+        DATABASE
+    }
+
+    Geometry geometry;
+
+    Strategy strategy;
+
+    String error;
+
+    public boolean hasError() {
+        return error != null;
+    }
+}
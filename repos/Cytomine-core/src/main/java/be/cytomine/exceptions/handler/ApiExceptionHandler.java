@@ -122,6 +122,14 @@ public class ApiExceptionHandler extends ResponseEntityExceptionHandler {
                 .body(jsonObject.toJsonString());
     }
 
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<?> handleException(ServiceUnavailableException exception) {
+        JsonObject jsonObject = JsonObject.of("errors", Map.of("message",  exception.getMessage()));
+        return JsonResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(jsonObject.toJsonString());
+    }
+
     @ExceptionHandler(NotModifiedException.class)
     public ResponseEntity<?> handleException(NotModifiedException exception) {
         log.debug("NotModifiedException");
@@ -131,7 +131,7 @@ public class AlgoAnnotationListing extends AnnotationListing {
             from += "LEFT OUTER JOIN algo_annotation_term aat2 ON a.id = aat2.annotation_ident ";
             where += "AND aat.id <> aat2.id AND aat.term_id <> aat2.term_id AND aat.deleted IS NULL AND aat2.deleted IS NULL ";
         } else if ((noTerm || noAlgoTerm) && !(term != null || terms != null)) {
-            from = from + " LEFT JOIN (SELECT * from algo_annotation_term x where true + " + (users != null ? "and x.user_job_id IN (" + joinValues(users) + ")" : "") + " and x.deleted IS NULL) aat ON a.id = aat.annotation_ident ";
+            from = from + " LEFT JOIN (SELECT * from algo_annotation_term x where true " + (users != null ? "and x.user_job_id = ANY(" + bind("users", users) + ")" : "") + " and x.deleted IS NULL) aat ON a.id = aat.annotation_ident ";
             where = where + " AND (aat.id IS NULL OR aat.deleted IS NOT NULL) \n";
 
         } else if (columnsToPrint.contains("term")) {
@@ -175,7 +175,7 @@ public class AlgoAnnotationListing extends AnnotationListing {
     String getTermConst() {
         if (term != null) {
             addIfMissingColumn("term");
-            return " AND ((aat.term_id = " + term + " AND aat.deleted IS NULL)" + ((noTerm) ? " OR aat.term_id IS NULL" : "") + ")\n";
+            return " AND ((aat.term_id = " + bind("term", term) + " AND aat.deleted IS NULL)" + ((noTerm) ? " OR aat.term_id IS NULL" : "") + ")\n";
         } else {
             return "";
         }
@@ -184,7 +184,7 @@ public class AlgoAnnotationListing extends AnnotationListing {
     String getTermsConst() {
         if (terms != null) {
             addIfMissingColumn("term");
-            return "AND ((aat.term_id IN (" + joinValues(terms) + ") AND aat.deleted IS NULL)" + ((noTerm) ? " OR aat.term_id IS NULL" : "") + ")\n";
+            return "AND ((aat.term_id = ANY(" + bind("terms", terms) + ") AND aat.deleted IS NULL)" + ((noTerm) ? " OR aat.term_id IS NULL" : "") + ")\n";
         } else {
             return "";
         }
@@ -192,11 +192,11 @@ public class AlgoAnnotationListing extends AnnotationListing {
 
 
     String getUserConst() {
-        return (user != null ? "AND a.user_id = " + user + "\n" : "");
+        return (user != null ? "AND a.user_id = " + bind("user", user) + "\n" : "");
     }
 
     String getUsersConst() {
-        return (users != null ? "AND a.user_id IN (" + joinValues(users) + ")\n" : "");
+        return (users != null ? "AND a.user_id = ANY(" + bind("users", users) + ")\n" : "");
     }
 
     String getNotReviewedOnlyConst() {
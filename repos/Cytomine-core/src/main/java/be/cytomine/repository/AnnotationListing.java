@@ -101,6 +101,11 @@ public abstract class AnnotationListing {
     String bbox = null;
     String bboxAnnotation = null;
 
+    /**
+     * Candidates of the bbox, found in the slice index (SliceAnnotationIndexCache). Not a search criteria.
+     */
+    List<Long> annotationIds = null;
+
     Object baseAnnotation = null;
     Long maxDistanceBaseAnnotation = null;
 
@@ -114,6 +119,12 @@ public abstract class AnnotationListing {
     Boolean kmeans = false;
     Integer kmeansValue = 3;
 
+    /**
+     * Values of the named parameters (:name) of the last generated request.
+     * Filter values are never written in the request, so that the request only depends on the columns and filters used.
+     */
+    Map<String, Object> parameters = new LinkedHashMap<>();
+
     abstract String getFrom();
 
     public abstract String getDomainClass();
@@ -128,6 +139,22 @@ public abstract class AnnotationListing {
         this.entityManager = entityManager;
     }
 
+    /**
+     * True if the listing is only filtered by project, image, slice, user and bbox, so that it can be answered
+     * from the envelopes of the slice index
+     */
+    public boolean hasOnlySpatialFilters() {
+        return images == null && tracks == null && track == null && annotationGroup == null && annotationGroups == null
+                && userForTermAlgo == null && usersForTermAlgo == null && term == null && terms == null
+                && suggestedTerm == null && suggestedTerms == null && usersForTerm == null && reviewUsers == null
+                && tag == null && tags == null && afterThan == null && beforeThan == null
+                && !Boolean.TRUE.equals(notReviewedOnly) && !Boolean.TRUE.equals(noTerm) && !Boolean.TRUE.equals(noTag)
+                && !Boolean.TRUE.equals(noAlgoTerm) && !Boolean.TRUE.equals(multipleTerm)
+                && !Boolean.TRUE.equals(noTrack) && !Boolean.TRUE.equals(multipleTrack)
+                && bboxAnnotation == null && baseAnnotation == null && maxDistanceBaseAnnotation == null
+                && parents == null && !Boolean.TRUE.equals(avoidEmptyCentroid) && excludedAnnotation == null;
+    }
+
     public void addExtraColumn(String propName, String column) {
         extraColmun.put(propName, column);
     }
@@ -210,6 +237,7 @@ public abstract class AnnotationListing {
      */
     public String getAnnotationsRequest() {
 
+        parameters = new LinkedHashMap<>();
         buildExtraRequest();
 
         Map<String, String> columns = buildColumnToPrint();
@@ -260,6 +288,7 @@ public abstract class AnnotationListing {
                         getAvoidEmptyCentroidConst() +
                         getReviewUsersConst() +
 
+                        getAnnotationIdsConst() +
                         getIntersectConst() +
                         getIntersectAnnotationConst() +
                         getMaxDistanceAnnotationConst() +
@@ -384,39 +413,42 @@ public abstract class AnnotationListing {
         }
     }
 
-    String joinValues(List list) {
-        return (String)list.stream().map(x -> String.valueOf(x)).collect(Collectors.joining(", "));
+    /**
+     * Add a parameter to the request and get its placeholder.
+     * A list is bound as an array parameter, to use with = ANY(...) instead of an IN list.
+     */
+    String bind(String name, Object value) {
+        parameters.put(name, value);
+        return ":" + name;
     }
 
     String getProjectConst() {
-        return (project!=null ? "AND a.project_id = " + project + "\n" : "");
+        return (project!=null ? "AND a.project_id = " + bind("project", project) + "\n" : "");
     }
 
     String getUsersConst() {
-        return (users!=null ? "AND a.user_id IN ("+joinValues(users)+")\n" : "");
+        return (users!=null ? "AND a.user_id = ANY(" + bind("users", users) + ")\n" : "");
     }
 
     String getReviewUsersConst() {
-        return (reviewUsers!=null ? "AND a.review_user_id IN ("+joinValues(reviewUsers)+")\n" : "");
+        return (reviewUsers!=null ? "AND a.review_user_id = ANY(" + bind("reviewUsers", reviewUsers) + ")\n" : "");
     }
 
 
     String getUsersForTermConst() {
         if (usersForTerm!=null) {
             addIfMissingColumn("term");
-            return "AND at.user_id IN ("+joinValues(usersForTerm)+")\n";
+            return "AND at.user_id = ANY(" + bind("usersForTerm", usersForTerm) + ")\n";
         } else {
             return "";
         }
     }
 
     String getImagesConst() {
-        if (images!=null && project!=null && images.size() == entityManager.find(Project.class, project).getCountImages()) {
-            return ""; //images number equals to project image number, no const needed
-        } else if (images!=null && images.isEmpty()) {
+        if (images!=null && images.isEmpty()) {
             throw new ObjectNotFoundException("The image has been deleted!");
         } else {
-            return (images!=null ? "AND a.image_id IN ("+joinValues(images)+")\n" : "");
+            return (images!=null ? "AND a.image_id = ANY(" + bind("images", images) + ")\n" : "");
         }
 
     }
@@ -427,7 +459,7 @@ public abstract class AnnotationListing {
             if (imageInstance==null) {
                 throw new ObjectNotFoundException("Image " + image + " not exist!");
             }
-            return "AND a.image_id = " + imageInstance.getId() + "\n";
+            return "AND a.image_id = " + bind("image", imageInstance.getId()) + "\n";
         } else {
             return "";
         }
@@ -437,7 +469,7 @@ public abstract class AnnotationListing {
         if (slices!=null && slices.isEmpty()) {
             throw new ObjectNotFoundException("The slice has been deleted!");
         } else {
-            return (slices!=null ? "AND a.slice_id IN ("+joinValues(slices)+")\n" : "");
+            return (slices!=null ? "AND a.slice_id = ANY(" + bind("slices", slices) + ")\n" : "");
         }
 
     }
@@ -447,7 +479,7 @@ public abstract class AnnotationListing {
             if (entityManager.find(SliceInstance.class, slice)==null) {
                 throw new ObjectNotFoundException("Slice "+slice+" not exist!");
             }
-            return "AND a.slice_id = " + slice + "\n";
+            return "AND a.slice_id = " + bind("slice", slice) + "\n";
         } else {
             return "";
         }
@@ -458,7 +490,7 @@ public abstract class AnnotationListing {
             if (entityManager.find(SecUser.class, user)==null) {
                 throw new ObjectNotFoundException("User "+user+" not exist!");
             }
-            return "AND a.user_id = "+user+"\n";
+            return "AND a.user_id = " + bind("user", user) + "\n";
         } else {
             return "";
         }
@@ -466,12 +498,16 @@ public abstract class AnnotationListing {
 
     abstract String getNotReviewedOnlyConst();
 
+    String getAnnotationIdsConst() {
+        return (annotationIds!=null ? "AND a.id = ANY(" + bind("annotationIds", annotationIds) + ")\n" : "");
+    }
+
     String getIntersectConst() {
-        return (bbox!=null ? "AND ST_Intersects(a.location,ST_GeometryFromText('"+bbox.toString()+"',0))\n" : "");
+        return (bbox!=null ? "AND ST_Intersects(a.location,ST_GeometryFromText(" + bind("bbox", bbox) + ",0))\n" : "");
     }
 
     String getIntersectAnnotationConst() {
-        return (bboxAnnotation!=null ? "AND ST_Intersects(a.location,ST_GeometryFromText('" + bboxAnnotation.toString() + "',0))\n" : "");
+        return (bboxAnnotation!=null ? "AND ST_Intersects(a.location,ST_GeometryFromText(" + bind("bboxAnnotation", bboxAnnotation) + ",0))\n" : "");
     }
 
     String getMaxDistanceAnnotationConst() {
@@ -479,13 +515,15 @@ public abstract class AnnotationListing {
             if(baseAnnotation==null) {
                 throw new ObjectNotFoundException("You need to provide a 'baseAnnotation' parameter (annotation id/location = "+baseAnnotation+")!");
             } else {
+                String baseLocation;
                 try {
                     AnnotationDomain base = AnnotationDomain.getAnnotationDomain(entityManager, ((Long)baseAnnotation), null);
-                    //ST_distance(a.location,ST_GeometryFromText('POINT (0 0)'))
-                    return "AND ST_distance(a.location,ST_GeometryFromText('"+base.getWktLocation() + "')) <= "+maxDistanceBaseAnnotation+"\n";
+                    baseLocation = base.getWktLocation();
                 } catch (Exception e) {
-                    return "AND ST_distance(a.location,ST_GeometryFromText('"+baseAnnotation+ "')) <= " + maxDistanceBaseAnnotation + "\n";
+                    baseLocation = String.valueOf(baseAnnotation);
                 }
+                //ST_distance(a.location,ST_GeometryFromText('POINT (0 0)'))
+                return "AND ST_distance(a.location,ST_GeometryFromText(" + bind("baseAnnotation", baseLocation) + ")) <= " + bind("maxDistanceBaseAnnotation", maxDistanceBaseAnnotation) + "\n";
             }
         } else {
             return "";
@@ -504,16 +542,16 @@ public abstract class AnnotationListing {
             addIfMissingColumn("term");
 
             if (this instanceof ReviewedAnnotationListing)
-                return " AND (at.term_id = "+term + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
+                return " AND (at.term_id = " + bind("term", term) + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
             else
-                return " AND ((at.term_id = "+term+ ")" + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
+                return " AND ((at.term_id = " + bind("term", term) + ")" + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
         } else {
             return "";
         }
     }
     String getParentsConst() {
         if (parents!=null) {
-            return " AND a.parent_ident IN ("+joinValues(parents)+")\n";
+            return " AND a.parent_ident = ANY(" + bind("parents", parents) + ")\n";
         } else {
             return "";
         }
@@ -524,9 +562,9 @@ public abstract class AnnotationListing {
         if (terms!=null) {
             addIfMissingColumn("term");
             if (this instanceof ReviewedAnnotationListing)
-                return " AND (at.term_id IN ("+joinValues(terms) + ")" + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
+                return " AND (at.term_id = ANY(" + bind("terms", terms) + ")" + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
             else
-                return " AND ((at.term_id IN ("+joinValues(terms) + "))" + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
+                return " AND ((at.term_id = ANY(" + bind("terms", terms) + "))" + ((noTerm) ? " OR at.term_id IS NULL" : "") + ")\n";
         } else {
             return "";
         }
@@ -538,7 +576,7 @@ public abstract class AnnotationListing {
                 throw new ObjectNotFoundException("Track " + track + " not exists !");
             }
             addIfMissingColumn("track");
-            return " AND (atr.track_id = "+track + ((noTrack) ? " OR atr.track_id IS NULL" : "") + ")\n";
+            return " AND (atr.track_id = " + bind("track", track) + ((noTrack) ? " OR atr.track_id IS NULL" : "") + ")\n";
         } else {
             return "";
         }
@@ -547,7 +585,7 @@ public abstract class AnnotationListing {
     String getTracksConst() {
         if (tracks!=null) {
             addIfMissingColumn("track");
-            return "AND (atr.track_id IN ("+joinValues(tracks) +") " + ((noTrack) ? " OR atr.track_id IS NULL" : "") + ")\n";
+            return "AND (atr.track_id = ANY(" + bind("tracks", tracks) + ") " + ((noTrack) ? " OR atr.track_id IS NULL" : "") + ")\n";
         } else {
             return "";
         }
@@ -563,7 +601,7 @@ public abstract class AnnotationListing {
         }
 
         addIfMissingColumn("group");
-        return " AND al1.group_id = " + annotationGroup + "\n";
+        return " AND al1.group_id = " + bind("annotationGroup", annotationGroup) + "\n";
     }
 
     String getGroupsConst() {
@@ -572,14 +610,14 @@ public abstract class AnnotationListing {
         }
 
         addIfMissingColumn("group");
-        return " AND al1.group_id IN (" + joinValues(annotationGroups) + ")\n";
+        return " AND al1.group_id = ANY(" + bind("annotationGroups", annotationGroups) + ")\n";
     }
 
     String getTagConst() {
         if (tag!=null && noTag) {
-            return "AND (tda.tag_id = "+tag + " OR tda.tag_id IS NULL)\n";
+            return "AND (tda.tag_id = " + bind("tag", tag) + " OR tda.tag_id IS NULL)\n";
         } else if (tag!=null) {
-            return "AND tda.tag_id = "+tag +"\n";
+            return "AND tda.tag_id = " + bind("tag", tag) + "\n";
         } else {
             return "";
         }
@@ -587,9 +625,9 @@ public abstract class AnnotationListing {
 
     String getTagsConst() {
         if (tags!=null  && noTag) {
-            return "AND (tda.tag_id IN ("+joinValues(tags) + ") OR tda.tag_id IS NULL)\n";
+            return "AND (tda.tag_id = ANY(" + bind("tags", tags) + ") OR tda.tag_id IS NULL)\n";
         } else if (tags!=null ) {
-            return "AND tda.tag_id IN (" + joinValues(tags) + ")\n";
+            return "AND tda.tag_id = ANY(" + bind("tags", tags) + ")\n";
         } else {
             return "";
         }
@@ -605,14 +643,14 @@ public abstract class AnnotationListing {
                 throw new ObjectNotFoundException("Slice "+ sliceId +" not exists !");
             }
             String sign = (beforeSlice!=null) ? "<" : ">";
-            return "AND (asl.channel + ai.channels * (asl.z_stack + ai.depth * asl.time)) "+sign+" " + sliceInstance.getBaseSlice().getRank() +"\n";
+            return "AND (asl.channel + ai.channels * (asl.z_stack + ai.depth * asl.time)) "+sign+" " + bind("sliceRank", sliceInstance.getBaseSlice().getRank()) + "\n";
         } else {
             return "";
         }
     }
 
     String getExcludedAnnotationConst() {
-        return (excludedAnnotation!=null ? "AND a.id <> " + excludedAnnotation + "\n" : "");
+        return (excludedAnnotation!=null ? "AND a.id <> " + bind("excludedAnnotation", excludedAnnotation) + "\n" : "");
     }
 
     String getSuggestedTermConst() {
@@ -621,7 +659,7 @@ public abstract class AnnotationListing {
                 throw new ObjectNotFoundException("Term "+suggestedTerm+" not exist!");
             }
             addIfMissingColumn("algo");
-            return "AND aat.term_id = "+suggestedTerm+"  AND aat.deleted IS NULL \n";
+            return "AND aat.term_id = " + bind("suggestedTerm", suggestedTerm) + "  AND aat.deleted IS NULL \n";
         } else {
             return "";
         }
@@ -630,7 +668,7 @@ public abstract class AnnotationListing {
     String getSuggestedTermsConst() {
         if (suggestedTerms!=null) {
             addIfMissingColumn("algo");
-            return "AND aat.term_id IN ("+joinValues(suggestedTerms)+")\n";
+            return "AND aat.term_id = ANY(" + bind("suggestedTerms", suggestedTerms) + ")\n";
         } else {
             return "";
         }
@@ -640,7 +678,7 @@ public abstract class AnnotationListing {
         if (userForTermAlgo!=null) {
             addIfMissingColumn("term");
             addIfMissingColumn("algo");
-            return "AND aat.user_job_id = " + userForTermAlgo + "\n";
+            return "AND aat.user_job_id = " + bind("userForTermAlgo", userForTermAlgo) + "\n";
         } else {
             return "";
         }
@@ -650,7 +688,7 @@ public abstract class AnnotationListing {
         if (usersForTermAlgo!=null) {
             addIfMissingColumn("algo");
             addIfMissingColumn("term");
-            return "AND aat.user_job_id IN ("+joinValues(usersForTermAlgo)+")\n";
+            return "AND aat.user_job_id = ANY(" + bind("usersForTermAlgo", usersForTermAlgo) + ")\n";
         } else {
             return "";
         }
@@ -660,14 +698,14 @@ public abstract class AnnotationListing {
 
     String getBeforeThan() {
         if (beforeThan!=null) {
-            return "AND a.created < '"+beforeThan+"'\n";
+            return "AND a.created < " + bind("beforeThan", beforeThan) + "\n";
         } else {
             return "";
         }
     }
     String getAfterThan() {
         if (afterThan!=null) {
-            return "AND a.created > '"+afterThan+"'\n";
+            return "AND a.created > " + bind("afterThan", afterThan) + "\n";
         } else {
             return "";
         }
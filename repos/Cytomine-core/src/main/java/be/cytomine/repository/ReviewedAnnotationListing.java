@@ -224,7 +224,7 @@ public class ReviewedAnnotationListing extends AnnotationListing {
                     "WHERE ga.id=a.id " +
                     "AND ga.id<>gb.id " +
                     "AND ga.image_id=gb.image_id " +
-                    "AND ST_Intersects(gb.location,ST_GeometryFromText('" + bbox + "',0)))\n";
+                    "AND ST_Intersects(gb.location,ST_GeometryFromText(" + bind("bbox", bbox) + ",0)))\n";
 
             orderBy = new LinkedHashMap<>(Map.of("id", "desc"));
             return subRequest;
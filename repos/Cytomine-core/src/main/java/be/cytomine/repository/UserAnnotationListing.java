@@ -149,10 +149,10 @@ public class UserAnnotationListing extends AnnotationListing {
                     " AND at2.deleted IS NULL\n"*/
 
         } else if (noTerm && !(term != null || terms != null)) {
-            from += "LEFT JOIN (SELECT * from annotation_term x " + (users != null ? "where x.deleted IS NULL AND x.user_id IN (" + joinValues(users) + ")" : "") + " ) at ON a.id = at.user_annotation_id ";
+            from += "LEFT JOIN (SELECT * from annotation_term x " + (users != null ? "where x.deleted IS NULL AND x.user_id = ANY(" + bind("users", users) + ")" : "") + " ) at ON a.id = at.user_annotation_id ";
             where = where + " AND (at.id IS NULL OR at.deleted IS NOT NULL) \n";
         } else if (noAlgoTerm) {
-            from = from + " LEFT JOIN (SELECT * from algo_annotation_term x where true " + (users != null ? "and x.user_id IN (" + joinValues(users) + ")" : "") + " and x.deleted IS NULL) aat ON a.id = aat.annotation_ident ";
+            from = from + " LEFT JOIN (SELECT * from algo_annotation_term x where true " + (users != null ? "and x.user_id = ANY(" + bind("users", users) + ")" : "") + " and x.deleted IS NULL) aat ON a.id = aat.annotation_ident ";
             where = where + " AND (aat.id IS NULL OR aat.deleted IS NOT NULL) \n";
         } else if (columnsToPrint.contains("term")) {
             from += "LEFT OUTER JOIN annotation_term at ON a.id = at.user_annotation_id ";
@@ -31,11 +31,28 @@ import java.util.Optional;
 
 public interface AnnotationIndexRepository extends JpaRepository<AnnotationIndex, Long>, JpaSpecificationExecutor<AnnotationIndex>  {
 
-    @Query( value = "SELECT user_id as user, slice_id as slice ,count_annotation as countAnnotation,count_reviewed_annotation as countReviewedAnnotation " +
-            " FROM annotation_index " +
-            " WHERE slice_id = :slice", nativeQuery = true)
+    /**
+     * Indexes of the slice, with the counter deltas not folded yet (see AnnotationCounterService)
+     */
+    @Query( value = "SELECT user_id as user, slice_id as slice, CAST(SUM(count_annotation) AS bigint) as countAnnotation, CAST(SUM(count_reviewed_annotation) AS bigint) as countReviewedAnnotation " +
+            " FROM (SELECT user_id, slice_id, count_annotation, count_reviewed_annotation FROM annotation_index WHERE slice_id = :slice " +
+            "       UNION ALL " +
+            "       SELECT user_id, slice_id, annotation_delta + job_annotation_delta, reviewed_annotation_delta FROM annotation_counter_delta WHERE slice_id = :slice AND user_id IS NOT NULL) merged " +
+            " GROUP BY user_id, slice_id", nativeQuery = true)
     List<AnnotationIndexLightDTO> findAllLightBySliceInstance(long slice);
 
+    @Query( value = "SELECT CAST(COALESCE(SUM(count_annotation), 0) AS bigint) " +
+            " FROM (SELECT count_annotation FROM annotation_index WHERE slice_id IN (:slices) AND user_id = :user " +
+            "       UNION ALL " +
+            "       SELECT annotation_delta + job_annotation_delta FROM annotation_counter_delta WHERE slice_id IN (:slices) AND user_id = :user) merged", nativeQuery = true)
+    Long countAnnotationsBySlicesAndUser(List<Long> slices, long user);
+
+    @Query( value = "SELECT CAST(COALESCE(SUM(count_reviewed_annotation), 0) AS bigint) " +
+            " FROM (SELECT count_reviewed_annotation FROM annotation_index WHERE slice_id IN (:slices) " +
+            "       UNION ALL " +
+            "       SELECT reviewed_annotation_delta FROM annotation_counter_delta WHERE slice_id IN (:slices)) merged", nativeQuery = true)
+    Long countReviewedAnnotationsBySlices(List<Long> slices);
+
 
     Optional<AnnotationIndexLightDTO> findOneBySliceAndUser(SliceInstance slice, SecUser user);
 
@@ -45,4 +45,6 @@ public interface AnnotationTermRepository extends JpaRepository<AnnotationTerm,
     List<AnnotationTerm> findAllByUserAnnotation_Project(Project project);
 
     List<AnnotationTerm> findAllByUser(User user);
+
+    List<AnnotationTerm> findAllByUserAnnotation_User(User user);
 }
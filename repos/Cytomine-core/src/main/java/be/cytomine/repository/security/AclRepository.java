@@ -63,27 +63,27 @@ public interface AclRepository extends JpaRepository<SecUser, Long> {
 
     @Modifying
     @Query(value = "INSERT INTO acl_entry(id,ace_order,acl_object_identity,audit_failure,audit_success,granting,mask,sid) " +
-            "VALUES(nextval('hibernate_sequence'),:aceOrder,:aclObjectIdentity,false,false,true,:mask,:sid)", nativeQuery = true)
-    void insertAclEntry(Integer aceOrder, Long aclObjectIdentity, Integer mask, Long sid);
+            "VALUES(:id,:aceOrder,:aclObjectIdentity,false,false,true,:mask,:sid)", nativeQuery = true)
+    void insertAclEntry(Long id, Integer aceOrder, Long aclObjectIdentity, Integer mask, Long sid);
 
     @Modifying
     @Query(value = "INSERT INTO acl_object_identity(id,object_id_class,entries_inheriting,object_id_identity,owner_sid,parent_object) " +
-            "VALUES (nextval('hibernate_sequence'),:objectIdClass,true,:domainId,:sid,null)", nativeQuery = true)
-    void insertAclObjectIdentity(Long objectIdClass, Long domainId, Long sid);
+            "VALUES (:id,:objectIdClass,true,:domainId,:sid,null)", nativeQuery = true)
+    void insertAclObjectIdentity(Long id, Long objectIdClass, Long domainId, Long sid);
 
     @Query(value = "SELECT id FROM acl_sid WHERE sid = :username", nativeQuery = true)
     Long getAclSid(String username);
 
     @Modifying
-    @Query(value = "INSERT INTO acl_sid(id,principal,sid) VALUES(nextval('hibernate_sequence'),true,:username)", nativeQuery = true)
-    void insertAclSid(String username);
+    @Query(value = "INSERT INTO acl_sid(id,principal,sid) VALUES(:id,true,:username)", nativeQuery = true)
+    void insertAclSid(Long id, String username);
 
     @Query(value = "SELECT id FROM acl_class WHERE class = :className", nativeQuery = true)
     Long getAclClassId(String className);
 
     @Modifying
-    @Query(value = "INSERT INTO acl_class(id,class) VALUES(nextval('hibernate_sequence'),:className)", nativeQuery = true)
-    void insertAclClassId(String className);
+    @Query(value = "INSERT INTO acl_class(id,class) VALUES(:id,:className)", nativeQuery = true)
+    void insertAclClassId(Long id, String className);
 
     @Modifying
     @Query(value = "DELETE FROM acl_entry WHERE acl_object_identity = ? AND mask = ? AND sid = ?", nativeQuery = true)
@@ -25,6 +25,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.util.Date;
+import java.util.List;
 
 /**
  * Spring Data JPA repository for the user entity.
@@ -55,4 +56,6 @@ public interface PersistentProjectConnectionRepository extends MongoRepository<P
     Long countByProjectAndCreatedBefore(Long project, Date createdMax);
 
     Long countByProjectAndCreatedBetween(Long project, Date createdMin, Date createdMax);
+
+    List<PersistentProjectConnection> findAllByCreatedAfter(Date createdMin);
 }
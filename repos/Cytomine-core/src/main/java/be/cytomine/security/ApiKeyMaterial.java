@@ -0,0 +1,95 @@
+package be.cytomine.security;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.security.SecUser;
+import lombok.Getter;
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Key material of a user public key, used to check the signature of API requests (see SecurityUtils.generateKeys)
+ * without loading the user for each request.
+ * Only the key, a snapshot of the user (CachedPrincipal) and its authorities are kept: the user entity is loaded
+ * in the request. The HMAC is initialized once with the key, each verification uses a clone of it.
+ */
+public class ApiKeyMaterial {
+
+    private static final String ALGORITHM = "HmacSHA1";
+
+    @Getter
+    private final CachedPrincipal principal;
+
+    @Getter
+    private final List<GrantedAuthority> authorities;
+
+    private final SecretKeySpec signingKey;
+
+    /**
+     * Initialized with the key and never updated: clones are used to sign
+     */
+    private final Mac prototype;
+
+    public ApiKeyMaterial(SecUser user) {
+        this.principal = CachedPrincipal.of(user);
+        this.authorities = user.getRoles().stream()
+                .map(role -> (GrantedAuthority) new SimpleGrantedAuthority(role.getAuthority()))
+                .toList();
+        this.signingKey = new SecretKeySpec(user.getPrivateKey().getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.prototype = newMac();
+    }
+
+    public String getUsername() {
+        return principal.getUsername();
+    }
+
+    /**
+     * Check (in constant time) that the signature is the base64 HMAC-SHA1 of the UTF-8 message
+     */
+    public boolean verify(String messageToSign, String signature) {
+        byte[] expected = Base64.encodeBase64(mac().doFinal(messageToSign.getBytes(StandardCharsets.UTF_8)));
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac mac() {
+        try {
+            return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            // provider without clone support
+            return newMac();
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac instance = Mac.getInstance(ALGORITHM);
+            instance.init(signingKey);
+            return instance;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("Cannot initialize " + ALGORITHM + ": " + e.getMessage(), e);
+        }
+    }
+}
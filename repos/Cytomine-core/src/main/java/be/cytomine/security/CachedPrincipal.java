@@ -0,0 +1,59 @@
+package be.cytomine.security;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.service.PrincipalCache;
+import lombok.Getter;
+
+/**
+ * Immutable snapshot of an authenticated user, shared between requests by PrincipalCache.
+ * The user entity itself is loaded by id in each request (see CurrentUserService).
+ */
+@Getter
+public class CachedPrincipal {
+
+    private final Long id;
+
+    private final String username;
+
+    /**
+     * Real roles of the user as a bitset (PrincipalCache.ROLE_GUEST, ROLE_USER,...)
+     */
+    private final int roles;
+
+    private final boolean enabled;
+
+    private final boolean accountLocked;
+
+    private final boolean accountExpired;
+
+    public CachedPrincipal(Long id, String username, int roles, boolean enabled, boolean accountLocked, boolean accountExpired) {
+        this.id = id;
+        this.username = username;
+        this.roles = roles;
+        this.enabled = enabled;
+        this.accountLocked = accountLocked;
+        this.accountExpired = accountExpired;
+    }
+
+    public static CachedPrincipal of(SecUser user) {
+        return new CachedPrincipal(user.getId(), user.getUsername(), PrincipalCache.roleBits(user.getRoles()),
+                Boolean.TRUE.equals(user.getEnabled()), Boolean.TRUE.equals(user.getAccountLocked()),
+                Boolean.TRUE.equals(user.getAccountExpired()));
+    }
+}
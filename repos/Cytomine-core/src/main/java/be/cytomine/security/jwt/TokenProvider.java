@@ -19,6 +19,7 @@ package be.cytomine.security.jwt;
 import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.exceptions.AuthenticationException;
 import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.service.PrincipalCache;
 import be.cytomine.utils.StringUtils;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
@@ -62,13 +63,16 @@ public class TokenProvider {
 
     private final SecUserRepository secUserRepository;
 
-    public TokenProvider(ApplicationProperties applicationProperties, SecUserRepository secUserRepository) {
+    private final PrincipalCache principalCache;
+
+    public TokenProvider(ApplicationProperties applicationProperties, SecUserRepository secUserRepository, PrincipalCache principalCache) {
         byte[] keyBytes;
         String secret = applicationProperties.getAuthentication().getJwt().getSecret();
         keyBytes = secret.getBytes(StandardCharsets.UTF_8);
         this.key = Keys.hmacShaKeyFor(keyBytes);
         jwtParser = Jwts.parserBuilder().setSigningKey(key).build();
         this.secUserRepository = secUserRepository;
+        this.principalCache = principalCache;
         this.tokenValidityInMilliseconds =
                 1000 * applicationProperties.getAuthentication().getJwt().getTokenValidityInSeconds();
         this.tokenValidityInMillisecondsForRememberMe =
@@ -130,10 +134,19 @@ public class TokenProvider {
 
         User principal = new User(claims.getSubject(), "", authorities);
         UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(principal, token, authorities);
-        usernamePasswordAuthenticationToken.setDetails(secUserRepository.findByUsernameLikeIgnoreCase(claims.getSubject()).orElseThrow(() -> new AuthenticationException("User " + claims.getSubject() + " not found")));
+        // the cached snapshot, not the entity: the user is loaded in the request (CurrentUserService)
+        usernamePasswordAuthenticationToken.setDetails(principalCache.getPrincipal(claims.getSubject(), getTokenId(token), secUserRepository::findByUsernameLikeIgnoreCase)
+                .orElseThrow(() -> new AuthenticationException("User " + claims.getSubject() + " not found")));
         return usernamePasswordAuthenticationToken;
     }
 
+    /**
+     * Tokens have no id claim: the signature identifies the token
+     */
+    private static String getTokenId(String token) {
+        return token.substring(token.lastIndexOf('.') + 1);
+    }
+
     public boolean validateToken(String authToken) {
         return decodeToken(authToken)!=null;
     }
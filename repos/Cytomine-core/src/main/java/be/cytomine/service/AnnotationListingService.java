@@ -1,7 +1,6 @@
 package be.cytomine.service;
 
 import be.cytomine.dto.annotation.AnnotationResult;
-import be.cytomine.dto.image.Point;
 
 /*
  * Copyright (c) 2009-2022. Authors: see NOTICE file.
@@ -20,23 +19,29 @@ import be.cytomine.dto.image.Point;
  */
 
 import be.cytomine.exceptions.WrongArgumentException;
-import be.cytomine.repository.AlgoAnnotationListing;
 import be.cytomine.repository.AnnotationListing;
-import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.service.annotation.AnnotationListingColumnPlan;
+import be.cytomine.service.annotation.AnnotationListingStatement;
+import be.cytomine.service.annotation.AnnotationRowFolder;
+import be.cytomine.service.annotation.AnnotationStatementCache;
+import be.cytomine.service.annotation.SliceAnnotationIndex;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.KmeansGeometryService;
-import be.cytomine.utils.GisUtils;
-import be.cytomine.utils.JsonObject;
+import org.hibernate.Session;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.Query;
-import jakarta.persistence.Tuple;
-import jakarta.persistence.TupleElement;
 import jakarta.transaction.Transactional;
-import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -53,8 +58,28 @@ public class AnnotationListingService {
     @Autowired
     private KmeansGeometryService kmeansGeometryService;
 
+    @Autowired
+    private AnnotationStatementCache annotationStatementCache;
+
+    @Autowired
+    private SliceAnnotationIndexCache sliceAnnotationIndexCache;
+
+    @Value("${application.annotation.listingFetchSize:1000}")
+    private int fetchSize;
+
+    @Value("${application.sliceIndex.maxIds:5000}")
+    private int sliceIndexMaxIds;
+
 
     public List listGeneric(AnnotationListing al) {
+        prepareRequest(al);
+        return executeRequest(al);
+    }
+
+    /**
+     * Check access and choose between full annotations or kmeans clusters
+     */
+    public void prepareRequest(AnnotationListing al) {
         securityACLService.check(al.container(), READ);
         if ((al.getKmeans() != null && al.getKmeans()) && al.getKmeansValue() == null) {
             if (al.getBbox() == null) {
@@ -71,201 +96,137 @@ public class AnnotationListingService {
             //no kmeans
             al.setKmeansValue(KmeansGeometryService.FULL);
         }
-        return executeRequest(al);
     }
 
     public List executeRequest(AnnotationListing al) {
         if (al.getKmeansValue() == KmeansGeometryService.FULL) {
             return selectGenericAnnotation(al);
+        }
+        SliceAnnotationIndex index = al.hasOnlySpatialFilters() ? sliceIndex(al) : null;
+        if (index != null) {
+            return kmeansGeometryService.doKmeansInMemory(index, bboxEnvelope(al), users(al),
+                    al.getKmeansValue() == KmeansGeometryService.KMEANSFULL);
         } else if (al.getKmeansValue() == KmeansGeometryService.KMEANSFULL) {
-            return kmeansGeometryService.doKeamsFullRequest(al.getAnnotationsRequest());
+            return kmeansGeometryService.doKeamsFullRequest(statement(al));
         } else {
-            return kmeansGeometryService.doKeamsSoftRequest(al.getAnnotationsRequest());
+            return kmeansGeometryService.doKeamsSoftRequest(statement(al));
         }
     }
 
     /**
-     * Execute request and format result into a list of map
+     * Index of the slice of a bbox listing, null if the listing is not on a single hot slice
      */
-    private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
-
-        List<AnnotationResult> data = new ArrayList<>();
-        long lastAnnotationId = -1;
-        long lastTermId = -1;
-        long lastTrackId = -1;
-        long lastGroupId = -1;
-
-        boolean first = true;
-
-        List<String> realColumn = new ArrayList<>();
-        String request = al.getAnnotationsRequest();
-
-        boolean termAsked = false;
-        boolean trackAsked = false;
-        boolean groupAsked = false;
-        List<Long> annotationLinksIds = new ArrayList<>();
-
-        List<String> excludedColumns = List.of(
-                "annotationTerms", "annotationTracks", "userTerm", "x", "y",
-                "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
-        );
-
-
-        Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
-        List<Tuple> resultList = nativeQuery.getResultList();
+    private SliceAnnotationIndex sliceIndex(AnnotationListing al) {
+        if (!sliceAnnotationIndexCache.isEnabled() || al.getBbox() == null) {
+            return null;
+        }
+        Long slice = al.getSlice();
+        if (slice == null && al.getSlices() != null && al.getSlices().size() == 1) {
+            slice = al.getSlices().get(0);
+        }
+        return slice != null ? sliceAnnotationIndexCache.find(al.getDomainClass(), slice) : null;
+    }
 
-        for (Tuple rowResult : resultList) {
-            Map<String, Object> tuple = new LinkedHashMap<>();
-            for (TupleElement<?> element : rowResult.getElements()) {
-                Object value = rowResult.get(element.getAlias());
-                if (value instanceof BigInteger) {
-                    value = ((BigInteger) value).longValue();
-                }
-                tuple.put(element.getAlias(), value);
+    /**
+     * Restrict a bbox listing to the annotations whose envelope intersects the bbox in the slice index,
+     * PostGIS only checks the exact intersection of these candidates
+     */
+    private void restrictToIndexCandidates(AnnotationListing al) {
+        SliceAnnotationIndex index = al.getAnnotationIds() == null ? sliceIndex(al) : null;
+        if (index != null) {
+            List<Long> ids = index.searchIds(bboxEnvelope(al), users(al), sliceIndexMaxIds);
+            if (ids.size() <= sliceIndexMaxIds) {
+                al.setAnnotationIds(ids);
             }
+        }
+    }
 
-            /**
-             * If an annotation has n multiple term, it will be on "n" lines.
-             * For the first line for this annotation (it.id!=lastAnnotationId), add the annotation data,
-             * For the other lines, we add term data to the last annotation
-             */
-            if ((Long) tuple.get("id") != lastAnnotationId) {
-                termAsked = false;
-                trackAsked = false;
-                groupAsked = false;
-                annotationLinksIds = new ArrayList<>();
-
-                if (first) {
-                    for (String columnName : al.getAllPropertiesName()) {
-                        if (columnExists(tuple, columnName) && !excludedColumns.contains(columnName)) {
-                            realColumn.add(columnName);
-                        }
-                    }
-                    first = false;
-                }
-
-                AnnotationResult item = new AnnotationResult();
-                item.put("class", al.getDomainClass());
-
-                for (String columnName : realColumn) {
-                    item.put(columnName, tuple.get(columnName) != null ? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
-                }
-
-
-                if (al.getColumnsToPrint().contains("term")) {
-                    termAsked = true;
-                    item.put("term", tuple.get("term") != null ? buildList(tuple.get("term")) : new ArrayList<>());
-                    item.put("userByTerm",
-                            tuple.get("term") != null ?
-                                    buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
-                }
-
-                if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing || al instanceof AlgoAnnotationListing)) {
-                    trackAsked = true;
-                    item.put("track", (tuple.get("track") != null ? buildList(tuple.get("track")) : new ArrayList<>()));
-                    item.put("annotationTrack", (tuple.get("track") != null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
-                }
-
-                if (al.getColumnsToPrint().contains("group")) {
-                    groupAsked = true;
-                    item.put("group", tuple.get("group"));
-                    item.put("annotationLink", (tuple.get("group") != null ? buildList(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    ))) : new ArrayList<>()));
-                    annotationLinksIds.add((Long) tuple.get("annotationLinks"));
-                }
-
-                if (al.getColumnsToPrint().contains("gis")) {
-                    item.put("perimeterUnit", tuple.get("perimeterunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("perimeterunit")) : null);
-                    item.put("areaUnit", tuple.get("areaunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("areaunit")) : null);
-                    item.put("centroid", new Point((Double) tuple.get("x"), (Double) tuple.get("y")));
-                }
-
-                if (al.getColumnsToPrint().contains("meta")) {
-                    if (al.getClass().getName().contains("UserAnnotation")) {
-                        item.put("cropURL", UrlApi.getUserAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("smallCropURL", UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
-                        item.put("url", UrlApi.getUserAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
-                    } else if (al.getClass().getName().contains("AlgoAnnotation")) {
-                        item.put("cropURL", UrlApi.getAlgoAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("smallCropURL", UrlApi.getAlgoAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
-                        item.put("url", UrlApi.getAlgoAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
-                    } else if (al.getClass().getName().contains("ReviewedAnnotation")) {
-                        item.put("cropURL", UrlApi.getReviewedAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("smallCropURL", UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
-                        item.put("url", UrlApi.getReviewedAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
-                    }
-                }
-                data.add(item);
-            } else {
-                AnnotationResult lastResult = data.get(data.size() - 1);
-                if (termAsked && tuple.get("term") != null) {
-                    List lasResultUserByTerm = (List) lastResult.get("userByTerm");
-                    Map userByTerm = (Map) (lasResultUserByTerm).get(lasResultUserByTerm.size() - 1);
-                    List term = ((List) lastResult.get("term"));
-                    if ((Long) tuple.get("term") == lastTermId) {
-                        if (!((List) (userByTerm.get("user"))).contains(tuple.get("userterm"))) {
-                            ((List) (userByTerm.get("user"))).add(tuple.get("userterm"));
-                        }
-                    } else if (!term.contains(tuple.get("term"))) {
-                        ((List) (lastResult.get("term"))).add(tuple.get("term"));
-                        ((List) lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
-                    }
-                }
-
-                if (trackAsked && tuple.get("track") != null && (long) tuple.get("track") != lastTrackId && !((List) lastResult.get("track")).contains(tuple.get("track"))) {
-                    ((List) lastResult.get("track")).add(tuple.get("track"));
-                    ((List) lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track"))));
-                }
+    private static Envelope bboxEnvelope(AnnotationListing al) {
+        try {
+            return new WKTReader().read(al.getBbox()).getEnvelopeInternal();
+        } catch (ParseException e) {
+            throw new WrongArgumentException("Annotation location cannot be converted to geometry: " + al.getBbox());
+        }
+    }
 
-                if (groupAsked && tuple.get("group") != null
-                        && (long) tuple.get("group") == lastGroupId
-                        && !annotationLinksIds.contains(tuple.get("annotationlinks"))
-                ) {
-                    annotationLinksIds.add((Long) tuple.get("annotationlinks"));
-                    ((List) lastResult.get("annotationLink")).add(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    )));
-                }
-            }
+    /**
+     * Users of the listing, sorted, null if all users
+     */
+    private static long[] users(AnnotationListing al) {
+        List<Long> users = al.getUsers();
+        if (al.getUser() != null) {
+            users = (users == null || users.contains(al.getUser())) ? List.of(al.getUser()) : List.of();
+        }
+        return users != null ? users.stream().mapToLong(Long::longValue).sorted().toArray() : null;
+    }
 
-            if (termAsked) {
-                lastTermId = (tuple.get("term") != null ? (long) tuple.get("term") : -1);
-            }
+    /**
+     * Build the request of the listing, with its filter values as parameters
+     */
+    private AnnotationListingStatement statement(AnnotationListing al) {
+        String request = al.getAnnotationsRequest();
+        return annotationStatementCache.statement(request, al.getParameters());
+    }
 
-            if (trackAsked) {
-                lastTrackId = (tuple.get("track") != null ? (long) tuple.get("track") : -1);
-            }
+    /**
+     * Execute the listing and give each result to the sink as soon as it is built.
+     * Full annotation rows are read through a forward-only cursor so that memory does not depend on the number of annotations.
+     */
+    public void streamGeneric(AnnotationListing al, Consumer<Object> sink) {
+        prepareRequest(al);
+        streamPrepared(al, sink);
+    }
 
-            if (groupAsked) {
-                lastGroupId = (tuple.get("group") != null ? (long) tuple.get("group") : -1);
-            }
+    /**
+     * Prepare a listing on the same container and slices as an already prepared one: access is not checked again
+     */
+    public void prepareRequestLike(AnnotationListing al, AnnotationListing prepared) {
+        al.setSlices(prepared.getSlices());
+        al.setKmeansValue(prepared.getKmeansValue());
+    }
 
-            lastAnnotationId = (long) tuple.get("id");
+    /**
+     * Same as streamGeneric, for a listing already prepared (see prepareRequest)
+     */
+    public void streamPrepared(AnnotationListing al, Consumer<Object> sink) {
+        if (al.getKmeansValue() == KmeansGeometryService.FULL) {
+            foldGenericAnnotation(al, sink);
+        } else {
+            executeRequest(al).forEach(sink);
         }
-
-        return data;
     }
 
-    private boolean columnExists(Map<String, Object> tuple, String columnName) {
-        return tuple.get(columnName) != null || tuple.get(columnName.toLowerCase()) != null;
+    /**
+     * Execute request and format result into a list of map
+     */
+    private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
+        List<AnnotationResult> data = new ArrayList<>();
+        foldGenericAnnotation(al, data::add);
+        return data;
     }
 
-    List buildList(Object firstElement) {
-        if (firstElement == null) {
-            return new ArrayList();
-        }
-        List list = new ArrayList();
-        list.add(firstElement);
-        return list;
+    private void foldGenericAnnotation(AnnotationListing al, Consumer<? super AnnotationResult> sink) {
+        restrictToIndexCandidates(al);
+        AnnotationListingStatement request = statement(al);
+        // native queries used to flush the session, keep it so that pending changes are listed
+        entityManager.flush();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(request.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                request.bind(statement);
+                long start = System.nanoTime();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    annotationStatementCache.recordExecution(System.nanoTime() - start);
+                    AnnotationListingColumnPlan plan = AnnotationListingColumnPlan.of(al, resultSet.getMetaData());
+                    AnnotationRowFolder folder = new AnnotationRowFolder(al, plan, sink);
+                    Object[] row = new Object[plan.width()];
+                    while (resultSet.next()) {
+                        plan.read(resultSet, row);
+                        folder.accept(row);
+                    }
+                    folder.finish();
+                }
+            }
+        });
     }
 }
@@ -174,12 +174,13 @@ public class CommandService {
             log.debug("Transaction in progress");
             //Its a transaction, many other command will be deleted
             List<UndoStackItem> undoStacks = commandRepository.findAllUndoOrderByCreatedDesc(user, transaction);
+            //checked before any undo: a transaction is undone entirely or not at all
+            if (undoStacks.stream().anyMatch(undoStack -> undoStack.getCommand().isRefuseUndo())) {
+                //responseError(new ObjectNotFoundException("You cannot delete your last operation!")) //undo delete project is not possible
+                throw new ObjectNotFoundException("You cannot delete your last operation!"); //undo delete project is not possible
+            }
             for (UndoStackItem undoStack : undoStacks) {
                 //browse all command and undo it while its the same transaction
-                if(undoStack.getCommand().isRefuseUndo()) {
-                    //responseError(new ObjectNotFoundException("You cannot delete your last operation!")) //undo delete project is not possible
-                    throw new ObjectNotFoundException("You cannot delete your last operation!"); //undo delete project is not possible
-                }
                 result = performUndo(undoStack.getCommand());
                 log.info("Undo stack transaction: " + result);
                 results.add(result);
@@ -20,7 +20,9 @@ import be.cytomine.domain.security.SecRole;
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.repository.security.SecUserSecRoleRepository;
-import be.cytomine.utils.WeakConcurrentHashMap;
+import be.cytomine.utils.ExpiringMap;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -34,15 +36,19 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
-public class CurrentRoleService {
+public class CurrentRoleService implements RuntimeMetrics {
 
     @Autowired
     private SecUserSecRoleRepository secUserSecRoleRepository;
 
-    public Map<String, Date> currentAdmins = new WeakConcurrentHashMap<>(120 * 60 * 1000); //admin session = 120 min max
+    @Autowired
+    private PrincipalCache principalCache;
+
+    private final ExpiringMap<String, Date> currentAdmins = new ExpiringMap<>(120 * 60 * 1000, 10000); //admin session = 120 min max
 
     public void clearAllAdminSession() {
         currentAdmins.clear();
+        principalCache.clear();
     }
 
     /**
@@ -53,6 +59,7 @@ public class CurrentRoleService {
     public void activeAdminSession(SecUser user) {
         if(hasCurrentUserAdminRole(user)) {
             currentAdmins.put(user.getUsername(), new Date());
+            principalCache.invalidate(user.getUsername());
             Authentication auth = SecurityContextHolder.getContext().getAuthentication();
             List<GrantedAuthority> authorities = new ArrayList<>(auth.getAuthorities());
             authorities.add(new SimpleGrantedAuthority("ROLE_ADMIN"));
@@ -71,6 +78,7 @@ public class CurrentRoleService {
     public void closeAdminSession(SecUser user) {
         if(hasCurrentUserAdminRole(user)) {
             currentAdmins.remove(user.getUsername());
+            principalCache.invalidate(user.getUsername());
             Authentication auth = SecurityContextHolder.getContext().getAuthentication();
             List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(auth.getAuthorities());
             authorities.removeIf(grantedAuthority -> grantedAuthority.getAuthority().equals("ROLE_ADMIN"));
@@ -109,41 +117,57 @@ public class CurrentRoleService {
         return findRealRole(user).stream().map(SecRole::getAuthority).collect(Collectors.toSet());
     }
 
+    /**
+     * Get all active roles as a PrincipalCache bitset
+     */
+    private int findCurrentRoleBits(SecUser user) {
+        int roles = principalCache.getRoles(user);
+        if ((roles & PrincipalCache.ROLE_SUPER_ADMIN) == 0 && !currentAdmins.containsKey(user.getUsername())) {
+            roles &= ~PrincipalCache.ROLE_ADMIN;
+        }
+        return roles;
+    }
+
     /**
      * Check if user is admin (with admin session opened)
      */
     public boolean isAdminByNow(SecUser user) {
-        Set<String> authorities = findCurrentAuthorities(user);
-        return authorities.contains("ROLE_ADMIN") || authorities.contains("ROLE_SUPER_ADMIN");
+        return (findCurrentRoleBits(user) & (PrincipalCache.ROLE_ADMIN | PrincipalCache.ROLE_SUPER_ADMIN)) != 0;
     }
 
     public boolean isUserByNow(SecUser user) {
-        Set<String> authorities = findCurrentAuthorities(user);
-        return authorities.contains("ROLE_USER");
+        return (findCurrentRoleBits(user) & PrincipalCache.ROLE_USER) != 0;
     }
 
     public boolean isGuestByNow(SecUser user) {
-        Set<String> authorities = findCurrentAuthorities(user);
-        return authorities.contains("ROLE_GUEST");
+        return (findCurrentRoleBits(user) & PrincipalCache.ROLE_GUEST) != 0;
     }
 
     /**
      * Check if user is admin (with admin session closed or opened)
      */
     public boolean isAdmin(SecUser user) {
-        return findRealAuthorities(user).contains("ROLE_ADMIN");
+        return (principalCache.getRoles(user) & PrincipalCache.ROLE_ADMIN) != 0;
     }
     public boolean isUser(SecUser user) {
-        return findRealAuthorities(user).contains("ROLE_USER");
+        return (principalCache.getRoles(user) & PrincipalCache.ROLE_USER) != 0;
     }
     public boolean isGuest(SecUser user) {
-        return findRealAuthorities(user).contains("ROLE_GUEST");
+        return (principalCache.getRoles(user) & PrincipalCache.ROLE_GUEST) != 0;
     }
 
 
     public boolean hasCurrentUserAdminRole(SecUser user) {
-        Set<String> authorities = findRealRole(user).stream().map(SecRole::getAuthority).collect(Collectors.toSet());
-        return authorities.contains("ROLE_ADMIN") || authorities.contains("ROLE_SUPER_ADMIN");
+        return (principalCache.getRoles(user) & (PrincipalCache.ROLE_ADMIN | PrincipalCache.ROLE_SUPER_ADMIN)) != 0;
     }
 
+    @Override
+    public String getMetricsName() {
+        return "adminSessions";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        return currentAdmins.getMetrics();
+    }
 }
@@ -21,6 +21,7 @@ import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.ServerException;
 import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.security.CachedPrincipal;
 import be.cytomine.security.current.CurrentUser;
 import be.cytomine.utils.SecurityUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -36,6 +37,9 @@ public class CurrentUserService {
     @Autowired
     private SecUserRepository secUserRepository;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
 
     public String getCurrentUsername() {
         CurrentUser currentUser = SecurityUtils.getSecurityCurrentUser().orElseThrow(() -> new ServerException("Cannot read current user"));
@@ -51,21 +55,27 @@ public class CurrentUserService {
         SecUser secUser;
         if (currentUser.isFullObjectProvided()) {
             secUser = currentUser.getUser();
+            checkAccountStatus(secUser.getAccountExpired(), secUser.getAccountLocked(), secUser.getEnabled());
         } else if(currentUser.isUsernameProvided()) {
-            secUser = secUserRepository.findByUsernameLikeIgnoreCase(currentUser.getUser().getUsername()).orElseThrow(() -> new ServerException("Cannot find current user with username " + currentUser.getUser().getUsername()));
+            String username = currentUser.getUser().getUsername();
+            CachedPrincipal principal = SecurityUtils.getSecurityCurrentPrincipal()
+                    .or(() -> principalCache.getPrincipal(username, null, secUserRepository::findByUsernameLikeIgnoreCase))
+                    .orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
+            checkAccountStatus(principal.isAccountExpired(), principal.isAccountLocked(), principal.isEnabled());
+            // the cache only keeps a snapshot: the entity is loaded by id (once per persistence context)
+            secUser = secUserRepository.findById(principal.getId()).orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
         } else {
             throw new ObjectNotFoundException("User", "Cannot read current user. Object " + currentUser + " is not supported");
         }
-        checkAccountStatus(secUser);
         return secUser;
     }
 
-    private void checkAccountStatus(SecUser secUser) {
-        if (secUser.getAccountExpired()) {
+    private void checkAccountStatus(boolean accountExpired, boolean accountLocked, boolean enabled) {
+        if (accountExpired) {
             throw new ForbiddenException("Account expired");
-        } else if (secUser.getAccountLocked()) {
+        } else if (accountLocked) {
             throw new ForbiddenException("Account locked");
-        } else if (!secUser.getEnabled()) {
+        } else if (!enabled) {
             throw new ForbiddenException("Account disabled");
         }
 
@@ -27,12 +27,14 @@ import be.cytomine.domain.ontology.AlgoAnnotation;
 import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.exceptions.*;
 import be.cytomine.repository.ontology.UserAnnotationRepository;
+import be.cytomine.service.annotation.AnnotationTileCache;
 import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.meta.AttachedFileService;
 import be.cytomine.service.meta.DescriptionService;
 import be.cytomine.service.meta.PropertyService;
 import be.cytomine.service.meta.TagDomainAssociationService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.stats.StatsCache;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.Task;
@@ -89,6 +91,12 @@ public abstract class ModelService<T extends CytomineDomain> {
     @Autowired
     TagDomainAssociationService tagDomainAssociationService;
 
+    @Autowired
+    StatsCache statsCache;
+
+    @Autowired
+    AnnotationTileCache annotationTileCache;
+
     boolean saveOnUndoRedoStack = true;
 
     public Long generateNextId() {
@@ -109,6 +117,8 @@ public abstract class ModelService<T extends CytomineDomain> {
             }
             entityManager.persist(newObject);
             entityManager.flush();
+            statsCache.invalidate(newObject);
+            annotationTileCache.invalidate(newObject);
         } catch (OptimisticLockingFailureException e) {
             log.error("CANNOT SAVE OBJECT");
             newObject = entityManager.merge(newObject);
@@ -125,6 +135,8 @@ public abstract class ModelService<T extends CytomineDomain> {
             entityManager.refresh(oldObject);
             entityManager.remove(oldObject);
             entityManager.flush();
+            statsCache.invalidate(oldObject);
+            annotationTileCache.invalidate(oldObject);
         } catch (Exception e) {
             log.error(e.toString());
             throw new InvalidRequestException(e.toString());
@@ -483,20 +495,27 @@ public abstract class ModelService<T extends CytomineDomain> {
             result.add(resp);
         }
 
+        String[] split = currentDomain().toString().toLowerCase().split("\\.");
+        return buildMultipleResponse(split[split.length-1], result, errors);
+    }
+
+    /**
+     * Build the response of a multiple add from the result of each entry ("domain" id or "message", and "status")
+     * Status is 200 if all entries are saved, 206 if only a part of them and 400 if none
+     */
+    public static JsonObject buildMultipleResponse(String domainName, List<JsonObject> result, List errors) {
         JsonObject response = new JsonObject();
 
         List<JsonObject> succeeded = result.stream().filter(x -> x.getJSONAttrInteger("status")>=200 && x.getJSONAttrInteger("status")<=300).toList();
 
         if(succeeded.size() == result.size()) {
-            String[] split = currentDomain().toString().toLowerCase().split("\\.");
-            response.put("data", JsonObject.of("message", split[split.length-1]+"s "+succeeded.stream().map(x -> x.getJSONAttrStr("domain")).collect(Collectors.joining(","))+" added"));
+            response.put("data", JsonObject.of("message", domainName+"s "+succeeded.stream().map(x -> x.getJSONAttrStr("domain")).collect(Collectors.joining(","))+" added"));
             response.put("status", 200);
         } else if(succeeded.size() == 0) {
             response.put("data", JsonObject.of("success", false, "message", "No entry saved", "errors", errors));
             response.put("status", 400);
         } else {
-            String[] split = currentDomain().toString().toLowerCase().split("\\.");
-            response.put("data", JsonObject.of("success", false, "message", "Only part of the entries (" + split[split.length-1]+"s " + succeeded.stream().map(x -> x.getJSONAttrStr("domain")).collect(Collectors.joining(",")), "errors", errors));
+            response.put("data", JsonObject.of("success", false, "message", "Only part of the entries (" + domainName+"s " + succeeded.stream().map(x -> x.getJSONAttrStr("domain")).collect(Collectors.joining(",")), "errors", errors));
             response.put("status", 206);
         }
         return response;
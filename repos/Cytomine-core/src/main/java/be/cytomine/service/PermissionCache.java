@@ -0,0 +1,234 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.AclCacheProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the ACL masks of a user (sid) on a domain (object identity).
+ * Masks are single bits (READ=1, WRITE=2, ...), so all masks of a (sid, object) are stored as one int.
+ *
+ * The first tier lives in the current HTTP request, the second one is shared between requests, bounded and
+ * expires after application.aclCache.ttlInSeconds (disabled by default: ACL changes made by another core
+ * instance are not seen by this one).
+ * Entries are invalidated by PermissionService each time an ACL entry is added or deleted.
+ */
+@Slf4j
+@Component
+public class PermissionCache implements RuntimeMetrics {
+
+    private static final String REQUEST_ATTRIBUTE = PermissionCache.class.getName();
+
+    private final long ttlInMillis;
+
+    private final Map<Key, SharedEntry> shared;
+
+    private final LongAdder requestHits = new LongAdder();
+
+    private final LongAdder sharedHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public PermissionCache(ApplicationProperties applicationProperties) {
+        AclCacheProperties properties = applicationProperties.getAclCache();
+        this.ttlInMillis = properties.getTtlInSeconds() * 1000;
+        int maxSize = properties.getMaxSize();
+        this.shared = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, SharedEntry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the masks (OR-ed) of the user on the domain, load them from the database on a miss
+     */
+    public int getMasks(Long domainId, String username, Supplier<List<Integer>> loader) {
+        Key key = new Key(domainId, username);
+        Map<Key, Integer> requestCache = requestCache();
+        if (requestCache != null) {
+            Integer masks = requestCache.get(key);
+            if (masks != null) {
+                requestHits.increment();
+                return masks;
+            }
+        }
+
+        if (isSharedEnabled()) {
+            synchronized (shared) {
+                SharedEntry entry = shared.get(key);
+                if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                    sharedHits.increment();
+                    if (requestCache != null) {
+                        requestCache.put(key, entry.masks);
+                    }
+                    return entry.masks;
+                }
+            }
+        }
+
+        misses.increment();
+        int masks = 0;
+        for (Integer mask : loader.get()) {
+            if (mask != null) {
+                masks |= mask;
+            }
+        }
+
+        if (requestCache != null) {
+            requestCache.put(key, masks);
+        }
+        if (isSharedEnabled()) {
+            synchronized (shared) {
+                shared.put(key, new SharedEntry(masks, System.currentTimeMillis() + ttlInMillis));
+            }
+        }
+        return masks;
+    }
+
+    public void invalidate(Long domainId, String username) {
+        invalidations.increment();
+        Key key = new Key(domainId, username);
+        Map<Key, Integer> requestCache = requestCache();
+        if (requestCache != null) {
+            requestCache.remove(key);
+        }
+        if (isSharedEnabled()) {
+            synchronized (shared) {
+                shared.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Invalidate all permissions of all users on a domain (e.g. project deletion)
+     */
+    public void invalidateDomain(Long domainId) {
+        invalidations.increment();
+        Map<Key, Integer> requestCache = requestCache();
+        if (requestCache != null) {
+            requestCache.keySet().removeIf(key -> key.domainId.equals(domainId));
+        }
+        if (isSharedEnabled()) {
+            synchronized (shared) {
+                shared.keySet().removeIf(key -> key.domainId.equals(domainId));
+            }
+        }
+    }
+
+    /**
+     * Invalidate all permissions of a user (e.g. user deletion)
+     */
+    public void invalidateUser(String username) {
+        invalidations.increment();
+        Map<Key, Integer> requestCache = requestCache();
+        if (requestCache != null) {
+            requestCache.keySet().removeIf(key -> key.username.equals(username));
+        }
+        if (isSharedEnabled()) {
+            synchronized (shared) {
+                shared.keySet().removeIf(key -> key.username.equals(username));
+            }
+        }
+    }
+
+    public void clear() {
+        Map<Key, Integer> requestCache = requestCache();
+        if (requestCache != null) {
+            requestCache.clear();
+        }
+        synchronized (shared) {
+            shared.clear();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "aclPermissionCache";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        int sharedSize;
+        synchronized (shared) {
+            sharedSize = shared.size();
+        }
+        return JsonObject.of(
+                "requestHits", requestHits.sum(),
+                "sharedHits", sharedHits.sum(),
+                "misses", misses.sum(),
+                "invalidations", invalidations.sum(),
+                "sharedSize", sharedSize
+        );
+    }
+
+    private boolean isSharedEnabled() {
+        return ttlInMillis > 0;
+    }
+
+    private Map<Key, Integer> requestCache() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<Key, Integer> cache = (Map<Key, Integer>) attributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (cache == null) {
+            cache = new HashMap<>();
+            attributes.setAttribute(REQUEST_ATTRIBUTE, cache, RequestAttributes.SCOPE_REQUEST);
+        }
+        return cache;
+    }
+
+    @EqualsAndHashCode
+    private static class Key {
+        private final Long domainId;
+        private final String username;
+
+        Key(Long domainId, String username) {
+            this.domainId = domainId;
+            this.username = username;
+        }
+    }
+
+    private static class SharedEntry {
+        private final int masks;
+        private final long expiration;
+
+        SharedEntry(int masks, long expiration) {
+            this.masks = masks;
+            this.expiration = expiration;
+        }
+    }
+}
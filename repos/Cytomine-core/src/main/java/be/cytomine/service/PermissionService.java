@@ -21,6 +21,7 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.repository.security.AclRepository;
+import be.cytomine.service.database.SequenceService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.acls.domain.BasePermission;
@@ -43,14 +44,41 @@ public class PermissionService {
     @Autowired
     private AclRepository aclRepository;
 
+    @Autowired
+    private PermissionCache permissionCache;
+
+    @Autowired
+    private SequenceService sequenceService;
+
     public boolean hasACLPermission(CytomineDomain domain, String username, Permission permission) {
-        List<Integer> masks = getPermissionInACL(domain,username);
-        return masks.stream().max(Integer::compare).orElse(-1) >= permission.getMask();
+        int masks = getCachedPermissionInACL(domain, username);
+        return masks != 0 && Integer.highestOneBit(masks) >= permission.getMask();
     }
 
     public boolean hasExactACLPermission(CytomineDomain domain, String username, Permission permission) {
-        List<Integer> masks = getPermissionInACL(domain,username);
-        return masks.contains(permission.getMask());
+        int masks = getCachedPermissionInACL(domain, username);
+        return (masks & permission.getMask()) == permission.getMask();
+    }
+
+    /**
+     * All masks of the user on the domain, OR-ed (each mask is a single bit)
+     */
+    int getCachedPermissionInACL(CytomineDomain domain, String username) {
+        return permissionCache.getMasks(domain.getId(), username, () -> getPermissionInACL(domain, username));
+    }
+
+    /**
+     * Forget the cached permissions of all users on this domain (e.g. when it is deleted)
+     */
+    public void invalidatePermissionCache(CytomineDomain domain) {
+        permissionCache.invalidateDomain(domain.getId());
+    }
+
+    /**
+     * Forget the cached permissions of this user on all domains (e.g. when it is deleted)
+     */
+    public void invalidatePermissionCache(String username) {
+        permissionCache.invalidateUser(username);
     }
 
     public boolean hasACLPermission(CytomineDomain domain, Permission permission) {
@@ -83,6 +111,7 @@ public class PermissionService {
                 throw new ObjectNotFoundException("User " + username + " or Object " + domain.getId() + " are not in ACL");
             }
             aclRepository.deleteAclEntry(aclObjectIdentity, mask, sid);
+            permissionCache.invalidate(domain.getId(), username);
 
             log.info("User " + username + " right " + permission.getMask() + " in domain " + domain + " => " + hasACLPermission(domain, username, permission));
         }
@@ -119,6 +148,7 @@ public class PermissionService {
 
             //get acl entry
             createAclEntry(aclObjectIdentity, sid, permission.getMask());
+            permissionCache.invalidate(domain.getId(), username);
         }
     }
 
@@ -126,7 +156,9 @@ public class PermissionService {
     public void addPermissionOptimised(Long aclObjectIdentity, String username, Permission permission, Integer index) {
         //get acl sid for the user
         Long sid = getAclSid(username);
-        aclRepository.insertAclEntry(index, aclObjectIdentity, permission.getMask(), sid);
+        aclRepository.insertAclEntry(sequenceService.generateID(), index, aclObjectIdentity, permission.getMask(), sid);
+        // we only know the acl object identity here, not the domain id
+        permissionCache.invalidateUser(username);
     }
 
 
@@ -146,7 +178,7 @@ public class PermissionService {
                     max = max+new Random().nextInt(25)+1;
                 }
                 log.debug("next ace order {} for {}", max, aoi);
-                aclRepository.insertAclEntry(max, aoi, mask, sid);
+                aclRepository.insertAclEntry(sequenceService.generateID(), max, aoi, mask, sid);
                 aclEntryId = aclRepository.getAclEntryId(aoi, sid, mask);
             }
             return aclEntryId;
@@ -156,7 +188,7 @@ public class PermissionService {
     public Long getAclObjectIdentity(CytomineDomain domain, Long aclClassId, Long aclSidId) {
         Long aclObjectIdentityId = aclRepository.getAclObjectIdentityFromDomainId(domain.getId());
         if (aclObjectIdentityId == null) {
-            aclRepository.insertAclObjectIdentity(aclClassId, domain.getId(), aclSidId);
+            aclRepository.insertAclObjectIdentity(sequenceService.generateID(), aclClassId, domain.getId(), aclSidId);
             aclObjectIdentityId = aclRepository.getAclObjectIdentityFromDomainId(domain.getId());
         }
         return aclObjectIdentityId;
@@ -165,7 +197,7 @@ public class PermissionService {
     public Long getAclSid(String username) {
         Long id = aclRepository.getAclSidFromUsername(username);
         if (id == null) {
-            aclRepository.insertAclSid(username);
+            aclRepository.insertAclSid(sequenceService.generateID(), username);
             id = aclRepository.getAclSidFromUsername(username);
         }
         return id;
@@ -174,7 +206,7 @@ public class PermissionService {
     public Long getAclClassId(CytomineDomain domain) {
         Long id = aclRepository.getAclClassId(domain.getClass().getName());
         if (id == null) {
-            aclRepository.insertAclClassId(domain.getClass().getName());
+            aclRepository.insertAclClassId(sequenceService.generateID(), domain.getClass().getName());
             id = aclRepository.getAclClassId(domain.getClass().getName());
         }
         return id;
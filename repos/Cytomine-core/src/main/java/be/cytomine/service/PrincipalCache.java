@@ -0,0 +1,284 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.PrincipalCacheProperties;
+import be.cytomine.domain.security.SecRole;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.security.ApiKeyMaterial;
+import be.cytomine.security.CachedPrincipal;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache of the authenticated users, so that a request with a token does not load its user (and roles) from the database.
+ * Entries are keyed by the lower-cased username and the token id (null if the user is not authenticated with a token),
+ * are bounded and expire after application.principalCache.ttlInSeconds.
+ *
+ * Cached users are immutable snapshots (CachedPrincipal: id, username, account status), never entities: the entity
+ * of the current user is loaded by id in each request. The real roles of a cached user are kept as a bitset
+ * (ROLE_GUEST, ROLE_USER,...) used by CurrentRoleService.
+ * The key material of the public keys used to sign API requests is cached the same way, by public key.
+ * Entries of a user are invalidated when the user is locked, unlocked, updated or deleted, when its roles change
+ * and when it opens or closes an admin session.
+ */
+@Slf4j
+@Component
+public class PrincipalCache implements RuntimeMetrics {
+
+    public static final int ROLE_GUEST = 1;
+
+    public static final int ROLE_USER = 1 << 1;
+
+    public static final int ROLE_ADMIN = 1 << 2;
+
+    public static final int ROLE_SUPER_ADMIN = 1 << 3;
+
+    private final long ttlInMillis;
+
+    private final Map<Key, Entry> entries;
+
+    /* Last entry of each cached user, by username */
+    private final Map<String, Entry> byUsername = new HashMap<>();
+
+    private final Map<String, KeyEntry> apiKeys;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder apiKeyHits = new LongAdder();
+
+    private final LongAdder apiKeyMisses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public PrincipalCache(ApplicationProperties applicationProperties) {
+        PrincipalCacheProperties properties = applicationProperties.getPrincipalCache();
+        this.ttlInMillis = properties.getTtlInSeconds() * 1000;
+        int maxSize = properties.getMaxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                boolean remove = size() > maxSize;
+                if (remove) {
+                    byUsername.remove(eldest.getKey().username, eldest.getValue());
+                }
+                return remove;
+            }
+        };
+        this.apiKeys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, KeyEntry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the user authenticated with the token, load it on a miss
+     */
+    public Optional<CachedPrincipal> getPrincipal(String username, String tokenId, Function<String, Optional<SecUser>> loader) {
+        Key key = new Key(normalize(username), tokenId);
+        if (isEnabled()) {
+            synchronized (entries) {
+                Entry entry = entries.get(key);
+                if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                    hits.increment();
+                    return Optional.of(entry.principal);
+                }
+            }
+        }
+
+        misses.increment();
+        Optional<CachedPrincipal> principal = loader.apply(username).map(CachedPrincipal::of);
+        if (principal.isPresent() && isEnabled()) {
+            Entry entry = new Entry(principal.get(), System.currentTimeMillis() + ttlInMillis);
+            synchronized (entries) {
+                entries.put(key, entry);
+                byUsername.put(key.username, entry);
+            }
+        }
+        return principal;
+    }
+
+    /**
+     * Get the key material of an (enabled) user public key, load it on a miss
+     */
+    public Optional<ApiKeyMaterial> getApiKey(String publicKey, Function<String, Optional<ApiKeyMaterial>> loader) {
+        if (isEnabled()) {
+            synchronized (entries) {
+                KeyEntry entry = apiKeys.get(publicKey);
+                if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                    apiKeyHits.increment();
+                    return Optional.of(entry.material);
+                }
+            }
+        }
+
+        apiKeyMisses.increment();
+        Optional<ApiKeyMaterial> material = loader.apply(publicKey);
+        if (material.isPresent() && isEnabled()) {
+            synchronized (entries) {
+                apiKeys.put(publicKey, new KeyEntry(material.get(), System.currentTimeMillis() + ttlInMillis));
+            }
+        }
+        return material;
+    }
+
+    /**
+     * Get the real roles of the user (even disabled admin role) as a bitset
+     */
+    public int getRoles(SecUser user) {
+        if (isEnabled()) {
+            synchronized (entries) {
+                Entry entry = byUsername.get(normalize(user.getUsername()));
+                if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                    return entry.principal.getRoles();
+                }
+            }
+        }
+        return roleBits(user.getRoles());
+    }
+
+    /**
+     * Invalidate all entries (all tokens and keys) of a user.
+     * In a transaction, entries are invalidated again after commit: a concurrent request may have cached the old user.
+     */
+    public void invalidate(String username) {
+        invalidations.increment();
+        if (username == null) {
+            return;
+        }
+        String normalized = normalize(username);
+        remove(normalized);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remove(normalized);
+                }
+            });
+        }
+    }
+
+    public void clear() {
+        invalidations.increment();
+        synchronized (entries) {
+            entries.clear();
+            byUsername.clear();
+            apiKeys.clear();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "principalCache";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return JsonObject.of(
+                "hits", hits.sum(),
+                "misses", misses.sum(),
+                "apiKeyHits", apiKeyHits.sum(),
+                "apiKeyMisses", apiKeyMisses.sum(),
+                "invalidations", invalidations.sum(),
+                "size", size
+        );
+    }
+
+    public static int roleBits(Set<SecRole> secRoles) {
+        int bits = 0;
+        for (SecRole secRole : secRoles) {
+            switch (secRole.getAuthority()) {
+                case "ROLE_GUEST" -> bits |= ROLE_GUEST;
+                case "ROLE_USER" -> bits |= ROLE_USER;
+                case "ROLE_ADMIN" -> bits |= ROLE_ADMIN;
+                case "ROLE_SUPER_ADMIN" -> bits |= ROLE_SUPER_ADMIN;
+                default -> log.debug("Unknown role " + secRole.getAuthority());
+            }
+        }
+        return bits;
+    }
+
+    private void remove(String normalizedUsername) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.username.equals(normalizedUsername));
+            byUsername.remove(normalizedUsername);
+            apiKeys.values().removeIf(entry -> normalize(entry.material.getUsername()).equals(normalizedUsername));
+        }
+    }
+
+    private boolean isEnabled() {
+        return ttlInMillis > 0;
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    @EqualsAndHashCode
+    private static class Key {
+        private final String username;
+        private final String tokenId;
+
+        Key(String username, String tokenId) {
+            this.username = username;
+            this.tokenId = tokenId;
+        }
+    }
+
+    private static class KeyEntry {
+        private final ApiKeyMaterial material;
+        private final long expiration;
+
+        KeyEntry(ApiKeyMaterial material, long expiration) {
+            this.material = material;
+            this.expiration = expiration;
+        }
+    }
+
+    private static class Entry {
+        private final CachedPrincipal principal;
+        private final long expiration;
+
+        Entry(CachedPrincipal principal, long expiration) {
+            this.principal = principal;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.repository.AnnotationListing;
+
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Positional binding between the columns returned by an annotation listing request and the properties of
+ * an AnnotationResult. Column positions are resolved once per request, rows are then read by index.
+ */
+public class AnnotationListingColumnPlan {
+
+    /**
+     * Columns that are never copied as-is into the result, they are folded into structured properties
+     */
+    public static final List<String> EXCLUDED_COLUMNS = List.of(
+            "annotationTerms", "annotationTracks", "userTerm", "x", "y",
+            "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
+    );
+
+    private final int width;
+
+    final int id;
+    final int term;
+    final int annotationTerms;
+    final int userTerm;
+    final int track;
+    final int annotationTracks;
+    final int group;
+    final int annotationLinks;
+    final int linkedAnnotations;
+    final int linkedImages;
+    final int linkedUpdated;
+    final int perimeterUnit;
+    final int areaUnit;
+    final int x;
+    final int y;
+    final int project;
+    final int image;
+
+    /**
+     * Properties that may be copied into the result, with their column position
+     */
+    final String[] propertyNames;
+    final int[] propertyIndexes;
+
+    private AnnotationListingColumnPlan(AnnotationListing al, List<String> labels) {
+        this.width = labels.size();
+        this.id = indexOf(labels, "id");
+        this.term = indexOf(labels, "term");
+        this.annotationTerms = indexOf(labels, "annotationTerms");
+        this.userTerm = indexOf(labels, "userTerm");
+        this.track = indexOf(labels, "track");
+        this.annotationTracks = indexOf(labels, "annotationTracks");
+        this.group = indexOf(labels, "group");
+        this.annotationLinks = indexOf(labels, "annotationLinks");
+        this.linkedAnnotations = indexOf(labels, "linkedAnnotations");
+        this.linkedImages = indexOf(labels, "linkedImages");
+        this.linkedUpdated = indexOf(labels, "linkedUpdated");
+        this.perimeterUnit = indexOf(labels, "perimeterUnit");
+        this.areaUnit = indexOf(labels, "areaUnit");
+        this.x = indexOf(labels, "x");
+        this.y = indexOf(labels, "y");
+        this.project = indexOf(labels, "project");
+        this.image = indexOf(labels, "image");
+
+        List<String> names = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (String propertyName : al.getAllPropertiesName()) {
+            int index = indexOf(labels, propertyName);
+            if (index >= 0 && !EXCLUDED_COLUMNS.contains(propertyName)) {
+                names.add(propertyName);
+                indexes.add(index);
+            }
+        }
+        this.propertyNames = names.toArray(new String[0]);
+        this.propertyIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static AnnotationListingColumnPlan of(AnnotationListing al, List<String> labels) {
+        return new AnnotationListingColumnPlan(al, labels);
+    }
+
+    public static AnnotationListingColumnPlan of(AnnotationListing al, ResultSetMetaData metaData) throws SQLException {
+        List<String> labels = new ArrayList<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            labels.add(metaData.getColumnLabel(i));
+        }
+        return new AnnotationListingColumnPlan(al, labels);
+    }
+
+    /**
+     * Number of columns of a row
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Copy the current row of the result set into the given buffer (by position)
+     */
+    public void read(ResultSet resultSet, Object[] row) throws SQLException {
+        for (int i = 0; i < width; i++) {
+            Object value = resultSet.getObject(i + 1);
+            if (value instanceof BigInteger) {
+                value = ((BigInteger) value).longValue();
+            }
+            row[i] = value;
+        }
+    }
+
+    /**
+     * SQL aliases are lower-cased by PostgreSQL, so we look for the exact name first, then for its lower case version
+     */
+    private static int indexOf(List<String> labels, String name) {
+        int index = labels.indexOf(name);
+        return index >= 0 ? index : labels.indexOf(name.toLowerCase());
+    }
+}
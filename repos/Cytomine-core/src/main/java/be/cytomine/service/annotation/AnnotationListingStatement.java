@@ -0,0 +1,67 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import lombok.Getter;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * JDBC request of an annotation listing (positional ? parameters) with the values to bind, in order.
+ * Lists are bound as bigint arrays, dates as timestamps.
+ */
+@Getter
+public class AnnotationListingStatement {
+
+    private final String sql;
+
+    private final List<Object> parameters;
+
+    public AnnotationListingStatement(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Same statement, wrapped into an outer request (e.g. kmeans clustering of the listed annotations).
+     * The outer request must not have its own parameters.
+     */
+    public AnnotationListingStatement wrap(String prefix, String suffix) {
+        return new AnnotationListingStatement(prefix + sql + suffix, parameters);
+    }
+
+    public void bind(PreparedStatement statement) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Object value = parameters.get(i);
+            if (value instanceof Collection<?> values) {
+                Long[] ids = values.stream()
+                        .map(x -> x instanceof Number number ? number.longValue() : Long.parseLong(String.valueOf(x)))
+                        .toArray(Long[]::new);
+                statement.setArray(i + 1, statement.getConnection().createArrayOf("bigint", ids));
+            } else if (value instanceof Date date) {
+                statement.setTimestamp(i + 1, new Timestamp(date.getTime()));
+            } else {
+                statement.setObject(i + 1, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.dto.annotation.AnnotationResult;
+import be.cytomine.dto.image.Point;
+import be.cytomine.repository.AlgoAnnotationListing;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.service.UrlApi;
+import be.cytomine.utils.GisUtils;
+import com.carrotsearch.hppc.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Fold the rows of an annotation listing request into AnnotationResult.
+ * If an annotation has n terms (or tracks, or links), it is on n consecutive rows.
+ * The first row of an annotation builds the result, the next rows only add term/track/link data.
+ * A result is given to the sink as soon as all its rows have been read, so that only one annotation is kept in memory.
+ */
+public class AnnotationRowFolder {
+
+    private final AnnotationListing al;
+
+    private final AnnotationListingColumnPlan plan;
+
+    private final Consumer<? super AnnotationResult> sink;
+
+    private final boolean termAsked;
+
+    private final boolean trackAsked;
+
+    private final boolean groupAsked;
+
+    private final boolean gisAsked;
+
+    private final boolean metaAsked;
+
+    private String[] realColumnNames;
+
+    private int[] realColumnIndexes;
+
+    private AnnotationResult current;
+
+    private long lastAnnotationId = -1;
+    private long lastTermId = -1;
+    private long lastTrackId = -1;
+    private long lastGroupId = -1;
+
+    private final LongHashSet termIds = new LongHashSet();
+    private final LongHashSet lastTermUserIds = new LongHashSet();
+    private final LongHashSet trackIds = new LongHashSet();
+    private final LongHashSet annotationLinkIds = new LongHashSet();
+
+    public AnnotationRowFolder(AnnotationListing al, AnnotationListingColumnPlan plan, Consumer<? super AnnotationResult> sink) {
+        this.al = al;
+        this.plan = plan;
+        this.sink = sink;
+        List<String> columnsToPrint = al.getColumnsToPrint();
+        this.termAsked = columnsToPrint.contains("term");
+        this.trackAsked = columnsToPrint.contains("track") && (al instanceof UserAnnotationListing || al instanceof AlgoAnnotationListing);
+        this.groupAsked = columnsToPrint.contains("group");
+        this.gisAsked = columnsToPrint.contains("gis");
+        this.metaAsked = columnsToPrint.contains("meta");
+    }
+
+    public void accept(Object[] row) {
+        long id = (Long) row[plan.id];
+        Long term = (Long) get(row, plan.term);
+        Long track = (Long) get(row, plan.track);
+        Long group = (Long) get(row, plan.group);
+
+        if (current == null || id != lastAnnotationId) {
+            if (current != null) {
+                sink.accept(current);
+            }
+            if (realColumnNames == null) {
+                selectRealColumns(row);
+            }
+            current = newResult(row, id, term, track, group);
+        } else {
+            appendToCurrent(row, term, track, group);
+        }
+
+        if (termAsked) {
+            lastTermId = (term != null ? term : -1);
+        }
+        if (trackAsked) {
+            lastTrackId = (track != null ? track : -1);
+        }
+        if (groupAsked) {
+            lastGroupId = (group != null ? group : -1);
+        }
+        lastAnnotationId = id;
+    }
+
+    /**
+     * Flush the last annotation
+     */
+    public void finish() {
+        if (current != null) {
+            sink.accept(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Columns without value on the first row are not printed
+     */
+    private void selectRealColumns(Object[] firstRow) {
+        List<String> names = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < plan.propertyNames.length; i++) {
+            if (firstRow[plan.propertyIndexes[i]] != null) {
+                names.add(plan.propertyNames[i]);
+                indexes.add(plan.propertyIndexes[i]);
+            }
+        }
+        realColumnNames = names.toArray(new String[0]);
+        realColumnIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private AnnotationResult newResult(Object[] row, long id, Long term, Long track, Long group) {
+        termIds.clear();
+        lastTermUserIds.clear();
+        trackIds.clear();
+        annotationLinkIds.clear();
+
+        AnnotationResult item = new AnnotationResult();
+        item.put("class", al.getDomainClass());
+
+        for (int i = 0; i < realColumnNames.length; i++) {
+            item.put(realColumnNames[i], row[realColumnIndexes[i]]);
+        }
+
+        if (termAsked) {
+            List<Object> terms = new ArrayList<>();
+            List<Object> userByTerm = new ArrayList<>();
+            if (term != null) {
+                terms.add(term);
+                userByTerm.add(userByTerm(row, term));
+                termIds.add(term);
+            }
+            item.put("term", terms);
+            item.put("userByTerm", userByTerm);
+        }
+
+        if (trackAsked) {
+            List<Object> tracks = new ArrayList<>();
+            List<Object> annotationTracks = new ArrayList<>();
+            if (track != null) {
+                tracks.add(track);
+                annotationTracks.add(annotationTrack(row, track));
+                trackIds.add(track);
+            }
+            item.put("track", tracks);
+            item.put("annotationTrack", annotationTracks);
+        }
+
+        if (groupAsked) {
+            List<Object> annotationLinks = new ArrayList<>();
+            if (group != null) {
+                annotationLinks.add(annotationLink(row));
+            }
+            item.put("group", group);
+            item.put("annotationLink", annotationLinks);
+            Long annotationLink = (Long) get(row, plan.annotationLinks);
+            if (annotationLink != null) {
+                annotationLinkIds.add(annotationLink);
+            }
+        }
+
+        if (gisAsked) {
+            Integer perimeterUnit = (Integer) get(row, plan.perimeterUnit);
+            Integer areaUnit = (Integer) get(row, plan.areaUnit);
+            item.put("perimeterUnit", perimeterUnit != null ? GisUtils.retrieveUnit(perimeterUnit) : null);
+            item.put("areaUnit", areaUnit != null ? GisUtils.retrieveUnit(areaUnit) : null);
+            item.put("centroid", new Point((Double) get(row, plan.x), (Double) get(row, plan.y)));
+        }
+
+        if (metaAsked) {
+            putUrls(item, id, (Long) get(row, plan.project), (Long) get(row, plan.image));
+        }
+        return item;
+    }
+
+    private void appendToCurrent(Object[] row, Long term, Long track, Long group) {
+        if (termAsked && term != null) {
+            List<Map<String, Object>> userByTerm = (List<Map<String, Object>>) current.get("userByTerm");
+            Long userTerm = (Long) get(row, plan.userTerm);
+            if (term == lastTermId) {
+                if (userTerm != null && lastTermUserIds.add(userTerm)) {
+                    ((List<Object>) userByTerm.get(userByTerm.size() - 1).get("user")).add(userTerm);
+                }
+            } else if (termIds.add(term)) {
+                ((List<Object>) current.get("term")).add(term);
+                userByTerm.add(userByTerm(row, term));
+            }
+        }
+
+        if (trackAsked && track != null && track != lastTrackId && trackIds.add(track)) {
+            ((List<Object>) current.get("track")).add(track);
+            ((List<Object>) current.get("annotationTrack")).add(annotationTrack(row, track));
+        }
+
+        if (groupAsked && group != null && group == lastGroupId) {
+            Long annotationLink = (Long) get(row, plan.annotationLinks);
+            if (annotationLink != null && annotationLinkIds.add(annotationLink)) {
+                ((List<Object>) current.get("annotationLink")).add(annotationLink(row));
+            }
+        }
+    }
+
+    private Map<String, Object> userByTerm(Object[] row, Long term) {
+        lastTermUserIds.clear();
+        List<Object> users = new ArrayList<>();
+        Long userTerm = (Long) get(row, plan.userTerm);
+        if (userTerm != null) {
+            users.add(userTerm);
+            lastTermUserIds.add(userTerm);
+        }
+        Map<String, Object> userByTerm = new HashMap<>();
+        userByTerm.put("id", get(row, plan.annotationTerms));
+        userByTerm.put("term", term);
+        userByTerm.put("user", users);
+        return userByTerm;
+    }
+
+    private Map<String, Object> annotationTrack(Object[] row, Long track) {
+        Map<String, Object> annotationTrack = new HashMap<>();
+        annotationTrack.put("id", get(row, plan.annotationTracks));
+        annotationTrack.put("track", track);
+        return annotationTrack;
+    }
+
+    private Map<String, Object> annotationLink(Object[] row) {
+        Map<String, Object> annotationLink = new HashMap<>();
+        annotationLink.put("id", get(row, plan.annotationLinks));
+        annotationLink.put("annotation", get(row, plan.linkedAnnotations));
+        annotationLink.put("image", get(row, plan.linkedImages));
+        annotationLink.put("updated", get(row, plan.linkedUpdated));
+        return annotationLink;
+    }
+
+    private void putUrls(AnnotationResult item, Long id, Long project, Long image) {
+        String className = al.getClass().getName();
+        if (className.contains("UserAnnotation")) {
+            item.put("cropURL", UrlApi.getUserAnnotationCropWithAnnotationId(id, "png"));
+            item.put("smallCropURL", UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize(id, 256, "png"));
+            item.put("url", UrlApi.getUserAnnotationCropWithAnnotationId(id, "png"));
+            item.put("imageURL", UrlApi.getAnnotationURL(project, image, id));
+        } else if (className.contains("AlgoAnnotation")) {
+            item.put("cropURL", UrlApi.getAlgoAnnotationCropWithAnnotationId(id, "png"));
+            item.put("smallCropURL", UrlApi.getAlgoAnnotationCropWithAnnotationIdWithMaxSize(id, 256, "png"));
+            item.put("url", UrlApi.getAlgoAnnotationCropWithAnnotationId(id, "png"));
+            item.put("imageURL", UrlApi.getAnnotationURL(project, image, id));
+        } else if (className.contains("ReviewedAnnotation")) {
+            item.put("cropURL", UrlApi.getReviewedAnnotationCropWithAnnotationId(id, "png"));
+            item.put("smallCropURL", UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize(id, 256, "png"));
+            item.put("url", UrlApi.getReviewedAnnotationCropWithAnnotationId(id, "png"));
+            item.put("imageURL", UrlApi.getAnnotationURL(project, image, id));
+        }
+    }
+
+    private static Object get(Object[] row, int index) {
+        return index >= 0 ? row[index] : null;
+    }
+}
@@ -0,0 +1,163 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statement templates of the annotation listings, keyed by the request with named parameters (AnnotationListing).
+ *
+ * Filter values are bound as parameters, so the request only depends on the columns and filters used and a few
+ * templates are shared by all the listings. A template is the JDBC request (positional ? parameters) and the
+ * parameter names in order. The same JDBC request text lets the PostgreSQL driver reuse its server-side prepared
+ * statement on the connection (after prepareThreshold executions), so the request is no longer parsed and planned
+ * on each listing: the hit rate of this cache is the rate of listings that can reuse a prepared statement.
+ *
+ * The time until the first rows of a listing (parse, plan and first fetch) is recorded by AnnotationListingService.
+ */
+@Component
+public class AnnotationStatementCache implements RuntimeMetrics {
+
+    private final Map<String, Template> templates;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder executions = new LongAdder();
+
+    private final LongAdder executionNanos = new LongAdder();
+
+    public AnnotationStatementCache(@Value("${application.annotation.statementCacheSize:500}") int maxSize) {
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the JDBC statement of a listing request
+     * @param request request with named parameters (:name)
+     * @param parameters values of the named parameters
+     */
+    public AnnotationListingStatement statement(String request, Map<String, Object> parameters) {
+        Template template;
+        synchronized (templates) {
+            template = templates.get(request);
+        }
+        if (template != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            template = parse(request);
+            synchronized (templates) {
+                templates.put(request, template);
+            }
+        }
+
+        List<Object> values = new ArrayList<>(template.names.size());
+        for (String name : template.names) {
+            if (!parameters.containsKey(name)) {
+                throw new IllegalArgumentException("No value for parameter " + name + " of the annotation listing");
+            }
+            values.add(parameters.get(name));
+        }
+        return new AnnotationListingStatement(template.sql, values);
+    }
+
+    public void recordExecution(long nanos) {
+        executions.increment();
+        executionNanos.add(nanos);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "annotationStatements";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        int size;
+        synchronized (templates) {
+            size = templates.size();
+        }
+        long count = executions.sum();
+        return JsonObject.of(
+                "hits", hits.sum(),
+                "misses", misses.sum(),
+                "size", size,
+                "executions", count,
+                "averageFirstRowsMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(executionNanos.sum() / count)
+        );
+    }
+
+    /**
+     * Replace the named parameters of a request by JDBC positional parameters.
+     * Quoted strings and casts (::type) are kept as-is.
+     */
+    static Template parse(String request) {
+        StringBuilder sql = new StringBuilder(request.length());
+        List<String> names = new ArrayList<>();
+        boolean quoted = false;
+        int i = 0;
+        while (i < request.length()) {
+            char c = request.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+                sql.append(c);
+                i++;
+            } else if (!quoted && c == ':' && i + 1 < request.length() && request.charAt(i + 1) == ':') {
+                sql.append("::");
+                i += 2;
+            } else if (!quoted && c == ':' && i + 1 < request.length() && Character.isJavaIdentifierStart(request.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < request.length() && Character.isJavaIdentifierPart(request.charAt(end))) {
+                    end++;
+                }
+                names.add(request.substring(i + 1, end));
+                sql.append('?');
+                i = end;
+            } else {
+                sql.append(c);
+                i++;
+            }
+        }
+        return new Template(sql.toString(), List.copyOf(names));
+    }
+
+    static class Template {
+        final String sql;
+        final List<String> names;
+
+        Template(String sql, List<String> names) {
+            this.sql = sql;
+            this.names = names;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.AnnotationTileProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.AnnotationDomain;
+import be.cytomine.domain.ontology.AnnotationTerm;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import lombok.EqualsAndHashCode;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.DigestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the annotation vector tiles (AnnotationTileService), keyed by slice, tile and layers.
+ * Entries are bounded on bytes (LRU) and expire after application.annotationTiles.ttlInSeconds.
+ *
+ * The ETag of a tile is the digest of its content, so a client revalidating a tile gets a 304 as long as the
+ * annotations of the tile did not change, even after the entry expired.
+ * Entries of a slice are invalidated when one of its annotations or annotation terms is saved or deleted
+ * (see ModelService, AnnotationBulkImportService and BulkDeleteService).
+ *
+ * A tile built while its slice was invalidated may have been read before the change: each invalidation bumps the
+ * generation of the slice, and a tile is not cached if the generation changed while it was built.
+ */
+@Component
+public class AnnotationTileCache implements RuntimeMetrics {
+
+    private final long ttlInMillis;
+
+    private final long maxSize;
+
+    private final LinkedHashMap<Key, AnnotationTile> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size = 0;
+
+    /**
+     * Generation of the slices, by slice id modulo the length (a collision only skips the caching of a tile)
+     */
+    private final long[] generations = new long[1024];
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder notModified = new LongAdder();
+
+    private final LongAdder clustered = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public AnnotationTileCache(ApplicationProperties applicationProperties) {
+        AnnotationTileProperties properties = applicationProperties.getAnnotationTiles();
+        this.ttlInMillis = properties.getTtlInSeconds() * 1000;
+        this.maxSize = properties.getMaxSizeInMb() * 1024 * 1024;
+    }
+
+    /**
+     * Get a tile, build it on a miss
+     * @param users layers of the tile, sorted
+     */
+    public AnnotationTile get(Long slice, int zoom, long tx, long ty, List<Long> users, Supplier<AnnotationTile> loader) {
+        Key key = new Key(slice, zoom, tx, ty, users);
+        if (isEnabled()) {
+            synchronized (entries) {
+                AnnotationTile tile = entries.get(key);
+                if (tile != null && tile.expiration > System.currentTimeMillis()) {
+                    hits.increment();
+                    return tile;
+                }
+            }
+        }
+
+        long generation;
+        synchronized (entries) {
+            generation = generations[generationIndex(slice)];
+        }
+        misses.increment();
+        AnnotationTile tile = loader.get();
+        if (tile.isClustered()) {
+            clustered.increment();
+        }
+        if (isEnabled() && tile.getContent().length <= maxSize) {
+            tile.expiration = System.currentTimeMillis() + ttlInMillis;
+            synchronized (entries) {
+                if (generations[generationIndex(slice)] != generation) {
+                    return tile;
+                }
+                AnnotationTile previous = entries.put(key, tile);
+                if (previous != null) {
+                    size -= previous.getContent().length;
+                }
+                size += tile.getContent().length;
+                evict();
+            }
+        }
+        return tile;
+    }
+
+    public void recordNotModified() {
+        notModified.increment();
+    }
+
+    /**
+     * Invalidate the tiles affected by a saved or deleted domain
+     */
+    public void invalidate(CytomineDomain domain) {
+        if (domain instanceof AnnotationDomain annotation) {
+            invalidateSlice(annotation.getSlice());
+        } else if (domain instanceof AnnotationTerm annotationTerm && annotationTerm.getUserAnnotation() != null) {
+            invalidateSlice(annotationTerm.getUserAnnotation().getSlice());
+        }
+    }
+
+    /**
+     * Invalidate the tiles of a slice.
+     * In a transaction, tiles are invalidated again after commit: a concurrent request may have cached the old tiles.
+     */
+    public void invalidateSlice(SliceInstance slice) {
+        if (slice != null) {
+            invalidateSlice(slice.getId());
+        }
+    }
+
+    public void invalidateSlice(Long sliceId) {
+        if (sliceId == null) {
+            return;
+        }
+        invalidations.increment();
+        remove(sliceId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remove(sliceId);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "annotationTiles";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        int count;
+        long bytes;
+        synchronized (entries) {
+            count = entries.size();
+            bytes = size;
+        }
+        return JsonObject.of(
+                "hits", hits.sum(),
+                "misses", misses.sum(),
+                "notModified", notModified.sum(),
+                "clustered", clustered.sum(),
+                "invalidations", invalidations.sum(),
+                "size", count,
+                "bytes", bytes
+        );
+    }
+
+    private void remove(Long sliceId) {
+        synchronized (entries) {
+            generations[generationIndex(sliceId)]++;
+            entries.entrySet().removeIf(entry -> {
+                if (entry.getKey().slice.equals(sliceId)) {
+                    size -= entry.getValue().getContent().length;
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private int generationIndex(Long sliceId) {
+        return (int) Math.floorMod(sliceId, (long) generations.length);
+    }
+
+    private void evict() {
+        var iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getContent().length;
+            iterator.remove();
+        }
+    }
+
+    private boolean isEnabled() {
+        return ttlInMillis > 0;
+    }
+
+    @EqualsAndHashCode
+    private static class Key {
+        private final Long slice;
+        private final int zoom;
+        private final long tx;
+        private final long ty;
+        private final List<Long> users;
+
+        Key(Long slice, int zoom, long tx, long ty, List<Long> users) {
+            this.slice = slice;
+            this.zoom = zoom;
+            this.tx = tx;
+            this.ty = ty;
+            this.users = users;
+        }
+    }
+
+    /**
+     * Mapbox vector tile of the annotations of a slice
+     */
+    public static class AnnotationTile {
+
+        private final byte[] content;
+
+        private final String etag;
+
+        private final boolean clustered;
+
+        private long expiration;
+
+        public AnnotationTile(byte[] content, boolean clustered) {
+            this.content = content;
+            this.etag = "\"" + DigestUtils.md5DigestAsHex(content) + "\"";
+            this.clustered = clustered;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public boolean isClustered() {
+            return clustered;
+        }
+    }
+}
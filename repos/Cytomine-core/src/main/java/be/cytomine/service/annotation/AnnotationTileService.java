@@ -0,0 +1,211 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.AnnotationTileProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.image.AbstractImage;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.service.annotation.AnnotationTileCache.AnnotationTile;
+import be.cytomine.service.security.SecUserService;
+import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.utils.JsonObject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.springframework.security.acls.domain.BasePermission.READ;
+
+/**
+ * Mapbox vector tiles (MVT) of the user annotations of a slice, aligned with the normalized-tile pyramid of the
+ * image: zoom 0 is the whole image in one tile, the last zoom level is the full resolution.
+ *
+ * A tile has an "annotations" layer (id, user and terms of each annotation, geometries simplified for the zoom
+ * level). When a tile has more than application.annotationTiles.maxFeatures annotations, it has a "clusters" layer
+ * instead, with the number of annotations by cell of a grid. Tiles are built by PostGIS (ST_AsMVT) and cached
+ * (AnnotationTileCache).
+ */
+@Service
+@Transactional
+@RequiredArgsConstructor
+public class AnnotationTileService {
+
+    public static final int EXTENT = 4096;
+
+    private static final int BUFFER = 64;
+
+    private static final String FILTER = "FROM user_annotation a " +
+            "WHERE a.slice_id = ? AND a.user_id = ANY(?) AND a.location && ST_MakeEnvelope(?, ?, ?, ?, 0) ";
+
+    private final EntityManager entityManager;
+
+    private final SecurityACLService securityACLService;
+
+    private final SecUserService secUserService;
+
+    private final AnnotationTileCache annotationTileCache;
+
+    private final ApplicationProperties applicationProperties;
+
+    /**
+     * Get a tile of the annotations of a slice
+     * @param users layers to show, all visible layers if null
+     */
+    public AnnotationTile tile(SliceInstance slice, int zoom, long tx, long ty, List<Long> users) {
+        securityACLService.check(slice.container(), READ);
+
+        Set<Long> layers = secUserService.listLayers(slice.getProject(), slice.getImage()).stream()
+                .map(JsonObject::getId)
+                .collect(Collectors.toSet());
+        List<Long> visibleUsers = (users != null ? users.stream() : layers.stream())
+                .filter(layers::contains)
+                .distinct()
+                .sorted()
+                .toList();
+
+        TileBounds bounds = TileBounds.of(slice.getBaseSlice().getImage(), zoom, tx, ty);
+        return annotationTileCache.get(slice.getId(), zoom, tx, ty, visibleUsers,
+                () -> buildTile(slice.getId(), bounds, visibleUsers));
+    }
+
+    public void recordNotModified() {
+        annotationTileCache.recordNotModified();
+    }
+
+    AnnotationTile buildTile(Long slice, TileBounds bounds, List<Long> users) {
+        if (users.isEmpty()) {
+            return new AnnotationTile(new byte[0], false);
+        }
+        AnnotationTileProperties properties = applicationProperties.getAnnotationTiles();
+        List<Object> filter = List.of(slice, users, bounds.minX, bounds.minY, bounds.maxX, bounds.maxY);
+
+        List<Object> countParameters = new ArrayList<>(filter);
+        countParameters.add(properties.getMaxFeatures() + 1);
+        long count = queryLong("SELECT count(*) FROM (SELECT 1 " + FILTER + "LIMIT ?) c", countParameters);
+
+        List<Object> parameters = new ArrayList<>();
+        if (count > properties.getMaxFeatures()) {
+            double cell = bounds.width() / properties.getClusterGridSize();
+            parameters.addAll(List.of(bounds.minX, bounds.minY, bounds.maxX, bounds.maxY, cell, cell));
+            parameters.addAll(filter);
+            return new AnnotationTile(queryBytes(
+                    "SELECT ST_AsMVT(t, 'clusters', " + EXTENT + ", 'geom') FROM (" +
+                    "SELECT count(*) AS count, " +
+                    "ST_AsMVTGeom(ST_Centroid(ST_Collect(c.centroid)), ST_MakeEnvelope(?, ?, ?, ?, 0)::box2d, " + EXTENT + ", 0, true) AS geom " +
+                    "FROM (SELECT ST_Centroid(a.location) AS centroid, " +
+                    "floor(ST_X(ST_Centroid(a.location)) / ?) AS cx, floor(ST_Y(ST_Centroid(a.location)) / ?) AS cy " +
+                    FILTER + ") c " +
+                    "GROUP BY c.cx, c.cy) t WHERE t.geom IS NOT NULL", parameters), true);
+        }
+
+        parameters.add(bounds.tolerance());
+        parameters.addAll(List.of(bounds.minX, bounds.minY, bounds.maxX, bounds.maxY));
+        parameters.addAll(filter);
+        return new AnnotationTile(queryBytes(
+                "SELECT ST_AsMVT(t, 'annotations', " + EXTENT + ", 'geom') FROM (" +
+                "SELECT a.id AS id, a.user_id AS user, " +
+                "(SELECT string_agg(at.term_id::text, ',' ORDER BY at.term_id) FROM annotation_term at " +
+                "WHERE at.user_annotation_id = a.id AND at.deleted IS NULL) AS terms, " +
+                "ST_AsMVTGeom(ST_SimplifyPreserveTopology(a.location, ?), ST_MakeEnvelope(?, ?, ?, ?, 0)::box2d, " + EXTENT + ", " + BUFFER + ", true) AS geom " +
+                FILTER + ") t WHERE t.geom IS NOT NULL", parameters), false);
+    }
+
+    private long queryLong(String sql, List<Object> parameters) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                new AnnotationListingStatement(sql, parameters).bind(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+            }
+        });
+    }
+
+    private byte[] queryBytes(String sql, List<Object> parameters) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                new AnnotationListingStatement(sql, parameters).bind(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    byte[] content = resultSet.next() ? resultSet.getBytes(1) : null;
+                    return content != null ? content : new byte[0];
+                }
+            }
+        });
+    }
+
+    /**
+     * Area of a tile, in annotation coordinates (origin at the bottom left of the image)
+     */
+    static class TileBounds {
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+        /**
+         * Number of image pixels by tile pixel
+         */
+        final double scale;
+
+        TileBounds(double minX, double minY, double maxX, double maxY, double scale) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.scale = scale;
+        }
+
+        static TileBounds of(AbstractImage image, int zoom, long tx, long ty) {
+            if (image.getWidth() == null || image.getHeight() == null) {
+                throw new WrongArgumentException("Image " + image.getId() + " has no dimension");
+            }
+            int maxZoom = image.getZoomLevels();
+            if (zoom < 0 || zoom > maxZoom) {
+                throw new WrongArgumentException("Zoom must be between 0 and " + maxZoom);
+            }
+            double scale = Math.pow(2, maxZoom - zoom);
+            double span = image.getTileSize() * scale;
+            long columns = (long) Math.ceil(image.getWidth() / span);
+            long rows = (long) Math.ceil(image.getHeight() / span);
+            if (tx < 0 || tx >= columns || ty < 0 || ty >= rows) {
+                throw new WrongArgumentException("Tile " + tx + "," + ty + " is outside of the image at zoom " + zoom);
+            }
+            double maxY = image.getHeight() - ty * span;
+            return new TileBounds(tx * span, maxY - span, (tx + 1) * span, maxY, scale);
+        }
+
+        double width() {
+            return maxX - minX;
+        }
+
+        /**
+         * Simplification tolerance: half a tile pixel, no simplification at full resolution
+         */
+        double tolerance() {
+            return scale > 1 ? scale / 2 : 0;
+        }
+    }
+}
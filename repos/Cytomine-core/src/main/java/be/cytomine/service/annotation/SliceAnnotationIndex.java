@@ -0,0 +1,233 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.utils.PackedRTree;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Envelopes (bounding boxes) of the annotations of one slice, with the id and the user of each annotation.
+ *
+ * The loaded annotations are packed in a static R-tree (PackedRTree). Annotations added, updated or deleted
+ * afterwards are kept in a small overlay, searched linearly, until the index is compacted into a new tree.
+ * Searches may run concurrently, changes are exclusive.
+ */
+public class SliceAnnotationIndex {
+
+    private final long[] ids;
+
+    private final long[] users;
+
+    private final double[] minX;
+
+    private final double[] minY;
+
+    private final double[] maxX;
+
+    private final double[] maxY;
+
+    private final PackedRTree tree;
+
+    /**
+     * Annotations added or updated after the tree was built
+     */
+    private final Map<Long, Item> changed = new HashMap<>();
+
+    /**
+     * Annotations of the tree that were updated or deleted afterwards
+     */
+    private final Set<Long> overridden = new HashSet<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param ids annotation ids, sorted
+     */
+    public SliceAnnotationIndex(long[] ids, long[] users, double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        this.ids = ids;
+        this.users = users;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.tree = PackedRTree.build(minX, minY, maxX, maxY);
+    }
+
+    public void put(long id, long user, Envelope envelope) {
+        lock.writeLock().lock();
+        try {
+            if (Arrays.binarySearch(ids, id) >= 0) {
+                overridden.add(id);
+            }
+            changed.put(id, new Item(id, user, envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            if (Arrays.binarySearch(ids, id) >= 0) {
+                overridden.add(id);
+            }
+            changed.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Give to the visitor each annotation whose envelope intersects the query box
+     * @param users users of the annotations to visit, sorted, all users if null
+     */
+    public void search(double queryMinX, double queryMinY, double queryMaxX, double queryMaxY, long[] users, Visitor visitor) {
+        lock.readLock().lock();
+        try {
+            tree.search(queryMinX, queryMinY, queryMaxX, queryMaxY, item -> {
+                if ((users == null || Arrays.binarySearch(users, this.users[item]) >= 0)
+                        && (overridden.isEmpty() || !overridden.contains(ids[item]))) {
+                    visitor.visit(ids[item], minX[item], minY[item], maxX[item], maxY[item]);
+                }
+            });
+            for (Item item : changed.values()) {
+                if (item.minX <= queryMaxX && item.minY <= queryMaxY && item.maxX >= queryMinX && item.maxY >= queryMinY
+                        && (users == null || Arrays.binarySearch(users, item.user) >= 0)) {
+                    visitor.visit(item.id, item.minX, item.minY, item.maxX, item.maxY);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the annotations whose envelope intersects the query box, at most limit + 1 ids
+     * (more than limit ids means that the search was stopped)
+     */
+    public List<Long> searchIds(Envelope query, long[] users, int limit) {
+        List<Long> result = new ArrayList<>();
+        search(query.getMinX(), query.getMinY(), query.getMaxX(), query.getMaxY(), users, (id, x1, y1, x2, y2) -> {
+            if (result.size() <= limit) {
+                result.add(id);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The overlay is searched linearly: above a few percent of the tree, the index should be compacted
+     */
+    public boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            return changed.size() + overridden.size() > Math.max(1024, ids.length / 8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Build a new index with the annotations of the tree and of the overlay
+     */
+    public SliceAnnotationIndex compact() {
+        lock.readLock().lock();
+        try {
+            List<Item> items = new ArrayList<>(ids.length + changed.size());
+            for (int i = 0; i < ids.length; i++) {
+                if (!overridden.contains(ids[i])) {
+                    items.add(new Item(ids[i], users[i], minX[i], minY[i], maxX[i], maxY[i]));
+                }
+            }
+            items.addAll(changed.values());
+            items.sort((a, b) -> Long.compare(a.id, b.id));
+
+            int size = items.size();
+            long[] newIds = new long[size];
+            long[] newUsers = new long[size];
+            double[] newMinX = new double[size];
+            double[] newMinY = new double[size];
+            double[] newMaxX = new double[size];
+            double[] newMaxY = new double[size];
+            for (int i = 0; i < size; i++) {
+                Item item = items.get(i);
+                newIds[i] = item.id;
+                newUsers[i] = item.user;
+                newMinX[i] = item.minX;
+                newMinY[i] = item.minY;
+                newMaxX[i] = item.maxX;
+                newMaxY[i] = item.maxY;
+            }
+            return new SliceAnnotationIndex(newIds, newUsers, newMinX, newMinY, newMaxX, newMaxY);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.length - overridden.size() + changed.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate memory of the index (the overlay is counted as boxed entries)
+     */
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            return tree.memoryBytes() + 2L * ids.length * Long.BYTES + 96L * changed.size() + 48L * overridden.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public interface Visitor {
+        void visit(long id, double minX, double minY, double maxX, double maxY);
+    }
+
+    private static class Item {
+        private final long id;
+        private final long user;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+
+        Item(long id, long user, double minX, double minY, double maxX, double maxY) {
+            this.id = id;
+            this.user = user;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+    }
+}
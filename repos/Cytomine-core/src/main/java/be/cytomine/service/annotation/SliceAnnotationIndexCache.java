@@ -0,0 +1,420 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.SliceIndexProperties;
+import be.cytomine.domain.ontology.AlgoAnnotation;
+import be.cytomine.domain.ontology.AnnotationDomain;
+import be.cytomine.domain.ontology.ReviewedAnnotation;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.utils.ExpiringMap;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.persistence.EntityManager;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * In-memory indexes (SliceAnnotationIndex) of the annotation envelopes of the hot slices: a slice is indexed once it
+ * has been listed by bbox application.sliceIndex.hotThreshold times within hotWindowInSeconds.
+ * Indexes are bounded on memory (LRU) and expire after ttlInSeconds.
+ *
+ * Indexes are kept up to date, after commit, by the user, algo and reviewed annotation services. Indexes of the
+ * slices touched by a bulk import, a bulk deletion or a bulk unreview are dropped. Annotations changed by another
+ * core instance are seen once the index expired.
+ * Changes of a slice are serialized with the compaction of its index, so that no change is applied to a replaced index.
+ * Disabled by default (application.sliceIndex.enabled).
+ */
+@Slf4j
+@Component
+public class SliceAnnotationIndexCache implements RuntimeMetrics {
+
+    private static final Map<String, String> TABLES = Map.of(
+            UserAnnotation.class.getName(), "user_annotation",
+            AlgoAnnotation.class.getName(), "algo_annotation",
+            ReviewedAnnotation.class.getName(), "reviewed_annotation"
+    );
+
+    private final EntityManager entityManager;
+
+    private final boolean enabled;
+
+    private final int hotThreshold;
+
+    private final long ttlInMillis;
+
+    private final long maxSize;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size = 0;
+
+    private final ExpiringMap<Key, AtomicInteger> hotness;
+
+    /**
+     * Slices being loaded: a change of the slice during the load marks the load as stale
+     */
+    private final Map<Key, AtomicBoolean> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder updates = new LongAdder();
+
+    private final LongAdder compactions = new LongAdder();
+
+    public SliceAnnotationIndexCache(ApplicationProperties applicationProperties, EntityManager entityManager) {
+        SliceIndexProperties properties = applicationProperties.getSliceIndex();
+        this.entityManager = entityManager;
+        this.enabled = properties.isEnabled();
+        this.hotThreshold = properties.getHotThreshold();
+        this.ttlInMillis = properties.getTtlInSeconds() * 1000;
+        this.maxSize = properties.getMemoryBudgetInMb() * 1024 * 1024;
+        this.hotness = new ExpiringMap<>(properties.getHotWindowInSeconds() * 1000, 10000);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the index of a slice, and count a bbox listing of the slice.
+     * @return null if the slice is not hot yet, or if its annotations are not indexed
+     */
+    public SliceAnnotationIndex find(String domainClass, Long slice) {
+        String table = TABLES.get(domainClass);
+        if (!enabled || table == null || slice == null) {
+            return null;
+        }
+        return find(new Key(domainClass, slice), () -> load(table, slice));
+    }
+
+    SliceAnnotationIndex find(Key key, Supplier<SliceAnnotationIndex> loader) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.index;
+            } else if (entry != null) {
+                entries.remove(key);
+                size -= entry.bytes;
+            }
+        }
+        misses.increment();
+
+        AtomicInteger count = hotness.get(key);
+        if (count == null) {
+            hotness.put(key, count = new AtomicInteger());
+        }
+        if (count.incrementAndGet() < hotThreshold) {
+            return null;
+        }
+
+        AtomicBoolean stale = new AtomicBoolean();
+        if (loading.putIfAbsent(key, stale) != null) {
+            // another request is loading the slice, this one is left to PostGIS
+            return null;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            SliceAnnotationIndex index = loader.get();
+            loads.increment();
+            log.debug("Slice {} indexed ({} annotations) in {}ms", key.slice, index.size(), System.currentTimeMillis() - start);
+            store(key, index, stale);
+            return index;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * Add or update an annotation in the index of its slice.
+     * In a transaction, the index is only changed after commit.
+     */
+    public void onSaved(AnnotationDomain annotation) {
+        String domainClass = Hibernate.getClass(annotation).getName();
+        if (!enabled || annotation.getId() == null || annotation.getSlice() == null || annotation.getLocation() == null
+                || !TABLES.containsKey(domainClass)) {
+            return;
+        }
+        Key key = new Key(domainClass, annotation.getSlice().getId());
+        long id = annotation.getId();
+        long user = annotation.user() != null ? annotation.user().getId() : 0L;
+        Envelope envelope = annotation.getLocation().getEnvelopeInternal();
+        afterCommit(() -> {
+            // the annotation may have been moved from another slice
+            removeEverywhere(key.domainClass, id, key);
+            change(key, index -> index.put(id, user, envelope));
+        });
+    }
+
+    /**
+     * Remove an annotation from the index of its slice.
+     * In a transaction, the index is only changed after commit.
+     */
+    public void onDeleted(AnnotationDomain annotation) {
+        String domainClass = Hibernate.getClass(annotation).getName();
+        if (!enabled || annotation.getId() == null || !TABLES.containsKey(domainClass)) {
+            return;
+        }
+        long id = annotation.getId();
+        afterCommit(() -> removeEverywhere(domainClass, id, null));
+    }
+
+    /**
+     * Drop the indexes of a slice (e.g. after a bulk deletion of its annotations).
+     * In a transaction, the indexes are dropped again after commit: a concurrent request may have loaded the old rows.
+     */
+    public void invalidateSlice(Long slice) {
+        if (!enabled || slice == null) {
+            return;
+        }
+        remove(slice);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remove(slice);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "sliceIndex";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        int count;
+        long bytes;
+        synchronized (entries) {
+            count = entries.size();
+            bytes = size;
+        }
+        return JsonObject.of(
+                "hits", hits.sum(),
+                "misses", misses.sum(),
+                "loads", loads.sum(),
+                "evictions", evictions.sum(),
+                "updates", updates.sum(),
+                "compactions", compactions.sum(),
+                "size", count,
+                "bytes", bytes
+        );
+    }
+
+    private SliceAnnotationIndex load(String table, Long slice) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            String sql = "SELECT id, user_id, ST_XMin(location), ST_YMin(location), ST_XMax(location), ST_YMax(location) " +
+                    "FROM " + table + " WHERE slice_id = ? AND location IS NOT NULL ORDER BY id";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setLong(1, slice);
+                statement.setFetchSize(10000);
+                List<double[]> boxes = new ArrayList<>();
+                List<long[]> keys = new ArrayList<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        keys.add(new long[]{resultSet.getLong(1), resultSet.getLong(2)});
+                        boxes.add(new double[]{resultSet.getDouble(3), resultSet.getDouble(4), resultSet.getDouble(5), resultSet.getDouble(6)});
+                    }
+                }
+                int size = keys.size();
+                long[] ids = new long[size];
+                long[] users = new long[size];
+                double[] minX = new double[size];
+                double[] minY = new double[size];
+                double[] maxX = new double[size];
+                double[] maxY = new double[size];
+                for (int i = 0; i < size; i++) {
+                    ids[i] = keys.get(i)[0];
+                    users[i] = keys.get(i)[1];
+                    minX[i] = boxes.get(i)[0];
+                    minY[i] = boxes.get(i)[1];
+                    maxX[i] = boxes.get(i)[2];
+                    maxY[i] = boxes.get(i)[3];
+                }
+                return new SliceAnnotationIndex(ids, users, minX, minY, maxX, maxY);
+            }
+        });
+    }
+
+    /**
+     * Store a loaded index, unless the slice changed during the load.
+     * The stale flag is checked under the lock of the entries, where change() sets it.
+     */
+    private void store(Key key, SliceAnnotationIndex index, AtomicBoolean stale) {
+        long bytes = index.memoryBytes();
+        if (bytes > maxSize) {
+            return;
+        }
+        synchronized (entries) {
+            if (stale.get()) {
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(index, bytes, System.currentTimeMillis() + ttlInMillis));
+            if (previous != null) {
+                size -= previous.bytes;
+            }
+            size += bytes;
+            var iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().bytes;
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Apply a change to the index of a slice (or mark its load as stale), and compact the index if needed
+     */
+    private void change(Key key, Consumer<SliceAnnotationIndex> change) {
+        while (true) {
+            Entry entry;
+            synchronized (entries) {
+                AtomicBoolean stale = loading.get(key);
+                if (stale != null) {
+                    stale.set(true);
+                }
+                entry = entries.get(key);
+            }
+            if (entry == null) {
+                return;
+            }
+            // the changes of an entry and its compaction are exclusive
+            synchronized (entry) {
+                synchronized (entries) {
+                    if (entries.get(key) != entry) {
+                        // compacted (or evicted) meanwhile: apply the change to the current entry
+                        continue;
+                    }
+                }
+                updates.increment();
+                change.accept(entry.index);
+                if (entry.index.needsCompaction()) {
+                    compactions.increment();
+                    SliceAnnotationIndex compacted = entry.index.compact();
+                    synchronized (entries) {
+                        if (entries.get(key) == entry) {
+                            entries.put(key, new Entry(compacted, compacted.memoryBytes(), entry.expiration));
+                            size += compacted.memoryBytes() - entry.bytes;
+                        }
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void remove(Long slice) {
+        synchronized (entries) {
+            loading.forEach((key, stale) -> {
+                if (key.slice.equals(slice)) {
+                    stale.set(true);
+                }
+            });
+            entries.entrySet().removeIf(entry -> {
+                if (entry.getKey().slice.equals(slice)) {
+                    size -= entry.getValue().bytes;
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private void removeEverywhere(String domainClass, long id, Key except) {
+        List<Key> keys;
+        synchronized (entries) {
+            // before listing the entries: a load of the class stored afterwards may still have the annotation
+            loading.forEach((key, stale) -> {
+                if (key.domainClass.equals(domainClass)) {
+                    stale.set(true);
+                }
+            });
+            keys = entries.keySet().stream()
+                    .filter(key -> key.domainClass.equals(domainClass) && !key.equals(except))
+                    .toList();
+        }
+        for (Key key : keys) {
+            change(key, index -> index.remove(id));
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    @EqualsAndHashCode
+    static class Key {
+        private final String domainClass;
+        private final Long slice;
+
+        Key(String domainClass, Long slice) {
+            this.domainClass = domainClass;
+            this.slice = slice;
+        }
+    }
+
+    private static class Entry {
+        private final SliceAnnotationIndex index;
+        private final long bytes;
+        private final long expiration;
+
+        Entry(SliceAnnotationIndex index, long bytes, long expiration) {
+            this.index = index;
+            this.bytes = bytes;
+            this.expiration = expiration;
+        }
+    }
+}
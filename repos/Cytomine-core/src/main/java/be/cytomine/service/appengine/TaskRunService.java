@@ -63,6 +63,7 @@ import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.GeometryService;
+import be.cytomine.utils.JsonCodec;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -110,7 +111,7 @@ public class TaskRunService {
 
         UUID taskId = null;
         try {
-            JsonNode jsonResponse = new ObjectMapper().readTree(response.getBody());
+            JsonNode jsonResponse = JsonCodec.mapper().readTree(response.getBody());
             taskId = UUID.fromString(jsonResponse.path("id").asText());
         } catch (Exception e) {
             return ResponseEntity
@@ -167,7 +168,7 @@ public class TaskRunService {
 
     private List<JsonNode> processProvisions(List<JsonNode> json) {
         List<JsonNode> requestBody = new ArrayList<>();
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonCodec.mapper();
 
         for (JsonNode provision : json) {
             ObjectNode processedProvision = provision.deepCopy();
@@ -236,7 +237,7 @@ public class TaskRunService {
 
         String uri = "task-runs/" + taskRunId.toString() + "/input-provisions/" + parameterName;
         String arrayTypeUri = "task-runs/" + taskRunId.toString() + "/input-provisions/" + parameterName + "/indexes";
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonCodec.mapper();
 
         if (json.get("type").isObject() && json.get("type").get("id").asText().equals("array")) {
             String subtype = json.get("type").get("subtype").get("id").asText();
@@ -434,7 +435,7 @@ public class TaskRunService {
 
         List<TaskRunValue> outputs = new ArrayList<>();
         try {
-            outputs = new ObjectMapper().readValue(response.getBody(), new TypeReference<List<TaskRunValue>>() {});
+            outputs = JsonCodec.read(response.getBody(), new TypeReference<List<TaskRunValue>>() {});
         } catch (JsonProcessingException e) {
             throw new ObjectNotFoundException("Outputs from", taskRunId);
         }
@@ -476,7 +477,7 @@ public class TaskRunService {
             }
 
             for (TaskRunValue arrayValue : geoArrayValues) {
-                    JsonNode items = new ObjectMapper().convertValue(arrayValue.getValue(), JsonNode.class);
+                    JsonNode items = JsonCodec.mapper().convertValue(arrayValue.getValue(), JsonNode.class);
                     for (JsonNode item : items) {
                         if (geometryService.isGeometry(item.get("value").asText())) {
                             updated = true;
@@ -0,0 +1,382 @@
+package be.cytomine.service.database;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.command.CommandHistory;
+import be.cytomine.domain.command.DeleteCommand;
+import be.cytomine.domain.command.Transaction;
+import be.cytomine.domain.command.UndoStackItem;
+import be.cytomine.domain.project.Project;
+import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.annotation.AnnotationTileCache;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache;
+import be.cytomine.service.stats.StatsCache;
+import be.cytomine.service.utils.TaskService;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import be.cytomine.utils.Task;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Set-based deletion of the dependencies of a project, an image instance or a user.
+ *
+ * A plan is the list of tables to empty, ordered from the leaves of the foreign key graph (annotation terms, shared
+ * annotations,...) to the annotations, slices and tracks. Each step is run as DELETE statements of at most
+ * application.bulkDelete.chunkSize rows, instead of one command (and one Hibernate remove) per dependent domain.
+ * Row-level triggers still maintain the annotation counters.
+ *
+ * Chunks run in the caller transaction when there is one. An asynchronous deletion has no surrounding transaction:
+ * each chunk is committed on its own, so locks are held for one chunk only and the task progress is visible while
+ * the deletion is running.
+ *
+ * The deleted rows are recorded as one command, which cannot be undone. In a transaction (e.g. the deletion of an
+ * image), this command is put on the undo stack: undoing the transaction is refused, instead of restoring the root
+ * domain without its annotations.
+ *
+ * Annotation tiles, slice indexes and project stats of the affected slices and projects are invalidated (again after
+ * commit when the deletion runs in the caller transaction).
+ */
+@Slf4j
+@Service
+public class BulkDeleteService implements RuntimeMetrics {
+
+    private static final List<String> METADATA_TABLES = List.of("property", "description", "attached_file", "tag_domain_association");
+
+    public static final DeletePlan PROJECT = new DeletePlan("Project")
+            .annotations("project_id = :id", "project_id = :id", "project_id = :id")
+            .slicesAndTracks("project_id = :id");
+
+    public static final DeletePlan IMAGE_INSTANCE = new DeletePlan("ImageInstance")
+            .annotations("image_id = :id", "image_id = :id", "image_id = :id")
+            .slicesAndTracks("image_id = :id");
+
+    // reviewed annotations of a user job are the ones reviewed from its algo annotations
+    public static final DeletePlan USER = new DeletePlan("SecUser")
+            .annotations("user_id = :id", "user_id = :id", "user_id = :id OR parent_ident IN (SELECT id FROM algo_annotation WHERE user_id = :id)")
+            .step("annotation_term", "user_id = :id")
+            .step("algo_annotation_term", "user_job_id = :id")
+            .step("annotation_index", "user_id = :id");
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final CurrentUserService currentUserService;
+
+    private final TaskService taskService;
+
+    private final AnnotationTileCache annotationTileCache;
+
+    private final StatsCache statsCache;
+
+    private final SliceAnnotationIndexCache sliceAnnotationIndexCache;
+
+    private final int chunkSize;
+
+    private final ExecutorService executor;
+
+    private final LongAdder deletedRows = new LongAdder();
+
+    private final LongAdder statements = new LongAdder();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public BulkDeleteService(
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager,
+            CurrentUserService currentUserService,
+            TaskService taskService,
+            AnnotationTileCache annotationTileCache,
+            StatsCache statsCache,
+            SliceAnnotationIndexCache sliceAnnotationIndexCache,
+            ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.currentUserService = currentUserService;
+        this.taskService = taskService;
+        this.annotationTileCache = annotationTileCache;
+        this.statsCache = statsCache;
+        this.sliceAnnotationIndexCache = sliceAnnotationIndexCache;
+        this.chunkSize = Math.max(1, applicationProperties.getBulkDelete().getChunkSize());
+        // one deletion at a time: a large deletion must not take all the connections of the pool
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-delete");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Delete all rows of the plan depending on the root domain
+     * @param commandProject project of the summary command (null if the project itself is deleted)
+     * @return number of deleted rows by table
+     */
+    public Map<String, Long> delete(DeletePlan plan, CytomineDomain root, Project commandProject, Transaction transaction, Task task) {
+        Map<String, Long> deleted = new LinkedHashMap<>();
+        List<Step> steps = plan.steps;
+        // rows persisted (but not flushed) by the caller transaction must be seen by the DELETE statements
+        transactionTemplate.executeWithoutResult(status -> entityManager.flush());
+        List<Tuple> affected = transactionTemplate.execute(status -> findAffectedSlices(plan, root.getId()));
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            long rows = 0;
+            int count;
+            do {
+                count = transactionTemplate.execute(status -> deleteChunk(step, root.getId()));
+                rows += count;
+            } while (count == chunkSize);
+
+            if (rows > 0) {
+                deleted.merge(step.table, rows, Long::sum);
+                long stepRows = rows;
+                int progress = (int) ((i + 1) * 100L / steps.size());
+                transactionTemplate.executeWithoutResult(status ->
+                        taskService.updateTask(task, progress, stepRows + " rows deleted from " + step.table));
+            }
+        }
+
+        if (!deleted.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> {
+                detachDeleted(deleted.keySet());
+                recordCommand(plan, root, commandProject, transaction, deleted);
+            });
+            invalidateCaches(affected);
+            log.info("Bulk delete of " + plan.domainName + " " + root.getId() + ": " + deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete the dependencies of the root domain in the background, then delete the domain itself with rootDeletion.
+     * The task (if any) reaches 100% when the domain is deleted. The caller must check the permissions first.
+     */
+    public void deleteAsync(DeletePlan plan, CytomineDomain root, Project commandProject, Task task, Runnable rootDeletion) {
+        pending.incrementAndGet();
+        executor.submit(new DelegatingSecurityContextRunnable(() -> {
+            try {
+                delete(plan, root, commandProject, null, task);
+                transactionTemplate.executeWithoutResult(status -> rootDeletion.run());
+                transactionTemplate.executeWithoutResult(status -> taskService.finishTask(task));
+            } catch (RuntimeException e) {
+                log.error("Bulk delete of " + plan.domainName + " " + root.getId() + " failed: " + e.getMessage(), e);
+                transactionTemplate.executeWithoutResult(status -> taskService.updateTask(task, "Deletion failed: " + e.getMessage()));
+            } finally {
+                pending.decrementAndGet();
+            }
+        }));
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "bulkDelete";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        return JsonObject.of(
+                "deletedRows", deletedRows.sum(),
+                "statements", statements.sum(),
+                "pending", pending.get()
+        );
+    }
+
+    private int deleteChunk(Step step, Long rootId) {
+        int count = entityManager.createNativeQuery(step.sql)
+                .setParameter("id", rootId)
+                .setParameter("limit", chunkSize)
+                .executeUpdate();
+        statements.increment();
+        deletedRows.add(count);
+        return count;
+    }
+
+    /**
+     * Slices and projects (slice_id, project_id) of the annotations to delete
+     */
+    private List<Tuple> findAffectedSlices(DeletePlan plan, Long rootId) {
+        String sql = plan.annotationSelections.stream()
+                .map(selection -> "SELECT slice_id, project_id FROM " + selection)
+                .reduce((left, right) -> left + " UNION " + right)
+                .orElse(null);
+        if (sql == null) {
+            return List.of();
+        }
+        return entityManager.createNativeQuery(sql, Tuple.class).setParameter("id", rootId).getResultList();
+    }
+
+    private void invalidateCaches(List<Tuple> affected) {
+        Set<Long> projects = new HashSet<>();
+        for (Tuple row : affected) {
+            Long slice = toLong(row.get("slice_id"));
+            annotationTileCache.invalidateSlice(slice);
+            sliceAnnotationIndexCache.invalidateSlice(slice);
+            if (row.get("project_id") != null) {
+                projects.add(toLong(row.get("project_id")));
+            }
+        }
+        projects.forEach(statsCache::invalidateProject);
+    }
+
+    private static Long toLong(Object value) {
+        return value != null ? ((Number) value).longValue() : null;
+    }
+
+    /**
+     * Entities of the caller transaction loaded from the deleted rows must not be found (or flushed) anymore
+     */
+    private void detachDeleted(Set<String> tables) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        for (Map.Entry<Object, EntityEntry> entry : session.getPersistenceContextInternal().reentrantSafeEntityEntries()) {
+            if (entry.getValue().getPersister() instanceof AbstractEntityPersister persister
+                    && tables.contains(persister.getTableName())) {
+                entityManager.detach(entry.getKey());
+            }
+        }
+    }
+
+    private void recordCommand(DeletePlan plan, CytomineDomain root, Project commandProject, Transaction transaction, Map<String, Long> deleted) {
+        long total = deleted.values().stream().mapToLong(Long::longValue).sum();
+        DeleteCommand command = new DeleteCommand(currentUserService.getCurrentUser(), transaction);
+        command.setServiceName(getClass().getSimpleName());
+        command.setProject(commandProject);
+        command.setPrintMessage(false);
+        command.setSaveOnUndoRedoStack(transaction != null);
+        command.setRefuseUndo(true);
+        command.setData(JsonObject.of("domain", plan.domainName, "id", root.getId(), "deleted", deleted).toJsonString());
+        command.setActionMessage(total + " rows depending on " + plan.domainName + " " + root.getId() + " deleted");
+        entityManager.persist(command);
+        entityManager.persist(new CommandHistory(command));
+        if (command.isSaveOnUndoRedoStack()) {
+            UndoStackItem item = new UndoStackItem();
+            item.setCommand(command);
+            item.setUser(command.getUser());
+            item.setTransaction(transaction);
+            entityManager.persist(item);
+        }
+    }
+
+    /**
+     * Ordered list of tables to empty for a kind of root domain. ":id" is the id of the root domain in the conditions.
+     */
+    public static class DeletePlan {
+
+        private final String domainName;
+
+        private final List<Step> steps = new ArrayList<>();
+
+        private final List<String> annotationSelections = new ArrayList<>();
+
+        DeletePlan(String domainName) {
+            this.domainName = domainName;
+        }
+
+        public List<String> getTables() {
+            return steps.stream().map(step -> step.table).toList();
+        }
+
+        DeletePlan step(String table, String condition) {
+            steps.add(new Step(table, condition));
+            return this;
+        }
+
+        /**
+         * Annotations selected by the conditions (on reviewed_annotation, algo_annotation and user_annotation)
+         * and all rows referencing them. Reviewed annotations go first: their parent may be an algo annotation.
+         */
+        DeletePlan annotations(String userAnnotations, String algoAnnotations, String reviewedAnnotations) {
+            annotationTable("reviewed_annotation", reviewedAnnotations);
+            annotationTable("algo_annotation", algoAnnotations);
+            annotationTable("user_annotation", userAnnotations);
+            return this;
+        }
+
+        /**
+         * Slices and tracks selected by the condition, with the annotation index and annotation tracks on them.
+         * Annotations must be deleted first.
+         */
+        DeletePlan slicesAndTracks(String condition) {
+            String slices = "SELECT id FROM slice_instance WHERE " + condition;
+            String tracks = "SELECT id FROM track WHERE " + condition;
+            step("annotation_index", "slice_id IN (" + slices + ")");
+            step("annotation_track", "slice_id IN (" + slices + ")");
+            step("annotation_track", "track_id IN (" + tracks + ")");
+            step("track", condition);
+            step("slice_instance", condition);
+            return this;
+        }
+
+        private void annotationTable(String table, String condition) {
+            String ids = "SELECT id FROM " + table + " WHERE " + condition;
+            if (table.equals("user_annotation")) {
+                step("annotation_term", "user_annotation_id IN (" + ids + ")");
+            }
+            if (table.equals("reviewed_annotation")) {
+                step("reviewed_annotation_term", "reviewed_annotation_terms_id IN (" + ids + ")");
+            }
+            step("algo_annotation_term", "annotation_ident IN (" + ids + ")");
+            step("shared_annotation_user", "shared_annotation_receivers_id IN (SELECT id FROM shared_annotation WHERE annotation_ident IN (" + ids + "))");
+            step("shared_annotation", "annotation_ident IN (" + ids + ")");
+            step("annotation_track", "annotation_ident IN (" + ids + ")");
+            step("annotation_link", "annotation_ident IN (" + ids + ")");
+            // domain ids come from a single sequence: the ident is enough to find the metadata of an annotation
+            for (String metadataTable : METADATA_TABLES) {
+                step(metadataTable, "domain_ident IN (" + ids + ")");
+            }
+            step(table, condition);
+            annotationSelections.add(table + " WHERE " + condition);
+        }
+    }
+
+    private static class Step {
+        private final String table;
+        private final String sql;
+
+        Step(String table, String condition) {
+            this.table = table;
+            // some join tables have no id column: rows of a chunk are selected by their physical location
+            this.sql = "DELETE FROM " + table + " WHERE ctid IN (SELECT ctid FROM " + table + " WHERE " + condition + " LIMIT :limit)";
+        }
+    }
+}
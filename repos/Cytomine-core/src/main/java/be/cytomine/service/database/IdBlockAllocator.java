@@ -0,0 +1,165 @@
+package be.cytomine.service.database;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Hand out ids of the database sequence (hibernate_sequence) from blocks reserved by this core instance,
+ * so that a new domain does not cost a nextval round-trip.
+ *
+ * A block is reserved with one query calling nextval blockSize times: each value is unique whatever the number
+ * of core instances (and database triggers) using the sequence, and the sequence increment is left unchanged.
+ * Ids are increasing on an instance but not globally; unused ids of a block are lost on restart.
+ * The reservation uses the connection of the current transaction if any (nextval is not transactional),
+ * so that it does not wait for a second connection of the pool.
+ *
+ * Ids are taken without locking; the thread finding the block exhausted reserves a new one and swaps it in.
+ * A block reserved concurrently by another thread is kept for the next swap (or discarded if one is already kept).
+ */
+@Component
+public class IdBlockAllocator implements RuntimeMetrics {
+
+    private static final String RESERVE_QUERY =
+            "select nextval('" + SequenceService.SEQ_NAME + "') from generate_series(1, ?)";
+
+    private final IntFunction<List<Long>> reserver;
+
+    private final int blockSize;
+
+    private final AtomicReference<Block> current = new AtomicReference<>(new Block(new long[0]));
+
+    private final AtomicReference<Block> spare = new AtomicReference<>();
+
+    private final LongAdder allocated = new LongAdder();
+
+    private final LongAdder discarded = new LongAdder();
+
+    private final LongAdder reservations = new LongAdder();
+
+    private final LongAdder reservationMillis = new LongAdder();
+
+    public IdBlockAllocator(DataSource dataSource, ApplicationProperties applicationProperties) {
+        this(count -> reserve(dataSource, count), applicationProperties.getIdAllocator().getBlockSize());
+    }
+
+    IdBlockAllocator(IntFunction<List<Long>> reserver, int blockSize) {
+        this.reserver = reserver;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * Get a new id
+     */
+    public Long next() {
+        while (true) {
+            Block block = current.get();
+            int index = block.next.getAndIncrement();
+            if (index < block.ids.length) {
+                allocated.increment();
+                return block.ids[index];
+            }
+            Block fresh = spare.getAndSet(null);
+            if (fresh == null) {
+                fresh = new Block(toArray(reserveBlock(blockSize)));
+            }
+            if (!current.compareAndSet(block, fresh) && !spare.compareAndSet(null, fresh)) {
+                // refilled concurrently and a spare block is already kept: the ids are lost, as on a restart
+                discarded.add(fresh.ids.length);
+            }
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "idBlockAllocator";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        long count = reservations.sum();
+        return JsonObject.of(
+                "blockSize", blockSize,
+                "allocated", allocated.sum(),
+                "discarded", discarded.sum(),
+                "reservations", count,
+                "meanReservationMillis", count == 0 ? 0 : reservationMillis.sum() / count
+        );
+    }
+
+    private List<Long> reserveBlock(int count) {
+        long start = System.currentTimeMillis();
+        List<Long> ids = reserver.apply(count);
+        if (ids.size() != count) {
+            throw new IllegalStateException("Sequence returned " + ids.size() + " ids instead of " + count);
+        }
+        reservations.increment();
+        reservationMillis.add(System.currentTimeMillis() - start);
+        return ids;
+    }
+
+    private static long[] toArray(List<Long> ids) {
+        long[] array = new long[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    private static class Block {
+        private final long[] ids;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Block(long[] ids) {
+            this.ids = ids;
+        }
+    }
+
+    private static List<Long> reserve(DataSource dataSource, int count) {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(RESERVE_QUERY)) {
+            statement.setInt(1, count);
+            List<Long> ids = new ArrayList<>(count);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getLong(1));
+                }
+            }
+            return ids;
+        } catch (SQLException e) {
+            throw new RuntimeException("Cannot generate IDs with sequence: " + e, e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package be.cytomine.service.database;
 
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.Query;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -13,17 +11,12 @@ public class SequenceService {
     public final static String SEQ_NAME = "hibernate_sequence";
 
     @Autowired
-    private EntityManager entityManager;
+    private IdBlockAllocator idBlockAllocator;
 
     /**
-     * Get a new id number
+     * Get a new id number (from the block reserved by this instance in the sequence)
      */
     public Long generateID()  {
-        try {
-            Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "');");
-            return (Long) query.getSingleResult();
-        } catch (Exception e) {
-            throw new RuntimeException("Cannot generate ID with sequence: " + e, e);
-        }
+        return idBlockAllocator.next();
     }
 }
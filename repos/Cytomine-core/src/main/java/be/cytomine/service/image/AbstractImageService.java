@@ -32,6 +32,7 @@ import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
 import be.cytomine.service.meta.AttachedFileService;
+import be.cytomine.service.middleware.TileCache;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
@@ -102,6 +103,9 @@ public class AbstractImageService extends ModelService {
     @Autowired
     private AttachedFileService attachedFileService;
 
+    @Autowired
+    private TileCache tileCache;
+
 
     @Override
     public Class currentDomain() {
@@ -224,6 +228,10 @@ public class AbstractImageService extends ModelService {
         CommandResponse commandResponse = executeCommand(new EditCommand(currentUser, transaction), domain,jsonNewData);
         AbstractImage abstractImage = (AbstractImage)commandResponse.getObject();
 
+        // the image may have been re-uploaded
+        tileCache.invalidate(versionBeforeUpdate.getJSONAttrStr("path"));
+        tileCache.invalidate(abstractImage.getPath());
+
         Integer magnification = versionBeforeUpdate.getJSONAttrInteger("magnification",null);
         Double physicalSizeX = versionBeforeUpdate.getJSONAttrDouble("physicalSizeX",null);
 
@@ -310,6 +318,11 @@ public class AbstractImageService extends ModelService {
         return List.of(domain.getId(), StringUtils.getBlankIfNull(((AbstractImage) domain).getOriginalFilename()));
     }
 
+    @Override
+    protected void beforeDelete(CytomineDomain domain) {
+        tileCache.invalidate(((AbstractImage) domain).getPath());
+    }
+
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
         deleteDependentAbstractSlice((AbstractImage)domain, transaction, task);
         deleteDependentImageInstance((AbstractImage)domain, transaction, task);
@@ -28,6 +28,7 @@ import be.cytomine.repository.image.AbstractSliceRepository;
 import be.cytomine.repository.image.SliceInstanceRepository;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
+import be.cytomine.service.middleware.TileCache;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
@@ -63,6 +64,9 @@ public class AbstractSliceService extends ModelService {
     @Autowired
     private SliceInstanceRepository sliceInstanceRepository;
 
+    @Autowired
+    private TileCache tileCache;
+
     @Override
     public Class currentDomain() {
         return AbstractSlice.class;
@@ -171,6 +175,11 @@ public class AbstractSliceService extends ModelService {
         deleteDependentSliceInstance((AbstractSlice)domain, transaction, task);
     }
 
+    @Override
+    protected void beforeDelete(CytomineDomain domain) {
+        tileCache.invalidate(((AbstractSlice) domain).getPath());
+    }
+
 
     private void deleteDependentSliceInstance(AbstractSlice ai, Transaction transaction,Task task) {
         List<SliceInstance> images = sliceInstanceRepository.findAllByBaseSlice(ai);
@@ -38,10 +38,12 @@ import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
+import be.cytomine.service.database.BulkDeleteService;
 import be.cytomine.service.meta.PropertyService;
 import be.cytomine.service.ontology.*;
 import be.cytomine.service.search.ImageSearchExtension;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.utils.ListingCountService;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SQLSearchParameter;
 import be.cytomine.utils.filters.SearchOperation;
@@ -101,9 +103,6 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private AbstractSliceRepository abstractSliceRepository;
 
-    @Autowired
-    private SliceInstanceService sliceInstanceService;
-
     @Autowired
     private NestedImageInstanceRepository nestedImageInstanceRepository;
 
@@ -150,10 +149,13 @@ public class ImageInstanceService extends ModelService {
     AnnotationTrackRepository annotationTrackRepository;
 
     @Autowired
-    TrackService trackService;
+    MongoClient mongoClient;
+
+    @Autowired
+    BulkDeleteService bulkDeleteService;
 
     @Autowired
-    MongoClient mongoClient;
+    ListingCountService listingCountService;
 
     private AlgoAnnotationService algoAnnotationService;
 
@@ -278,6 +280,14 @@ public class ImageInstanceService extends ModelService {
     }
 
     public Page<Map<String, Object>> list(SecUser user, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset) {
+        return list(user, searchParameters, sortColumn, sortDirection, max, offset, null, CountMode.EXACT);
+    }
+
+    /**
+     * List the image instances of the user, from the offset or after the cursor of the previous page
+     * (keyset pagination, see KeysetCursor)
+     */
+    public Page<Map<String, Object>> list(SecUser user, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset, String cursor, CountMode countMode) {
         securityACLService.checkIsSameUser(user, currentUserService.getCurrentUser());
 
         String imageInstanceAlias = "ui";
@@ -342,6 +352,10 @@ public class ImageInstanceService extends ModelService {
         where = "WHERE user_image_id = " + user.getId() + " ";
         search = "";
 
+        // annotation counters not folded yet
+        select += AnnotationCounterService.selectMergedCounters(imageInstanceAlias, AnnotationCounterService.IMAGE_COUNTERS);
+        from += "LEFT OUTER JOIN (" + AnnotationCounterService.PENDING_BY_IMAGE + ") pending ON pending.image_id = " + imageInstanceAlias + ".id ";
+
         if (!imageInstanceCondition.isBlank()) {
             search += " AND ";
             search += imageInstanceCondition;
@@ -383,8 +397,17 @@ public class ImageInstanceService extends ModelService {
             select += ", COALESCE(" + imageInstanceAlias + ".instance_filename, " + abstractImageAlias + ".original_filename) ";
         }
 
+        search = AnnotationCounterService.withPendingCounters(search, imageInstanceAlias, AnnotationCounterService.IMAGE_COUNTERS);
+        sortedProperty = AnnotationCounterService.withPendingCounters(sortedProperty, imageInstanceAlias, AnnotationCounterService.IMAGE_COUNTERS);
+
+        boolean desc = sortDirection.equals("desc");
         sort = " ORDER BY " + sortedProperty;
-        sort += (sortDirection.equals("desc")) ? " DESC " : " ASC ";
+        sort += desc ? " DESC " : " ASC ";
+        // keyset pagination on the sorted property then the id (nulls are last in ascending order)
+        sort += ", " + imageInstanceAlias + ".id " + (desc ? "DESC " : "ASC ");
+        select += ", " + sortedProperty + " AS keyset_value ";
+        KeysetCursor keysetCursor = cursor != null ? KeysetCursor.decode(cursor) : null;
+        String keyset = keysetCursor != null ? keysetCursor.condition(sortedProperty, imageInstanceAlias + ".id", desc, !desc) : "";
 
 
         if (joinAI) {
@@ -392,11 +415,11 @@ public class ImageInstanceService extends ModelService {
             from += "JOIN abstract_image " + abstractImageAlias + " ON " + abstractImageAlias + ".id = " + imageInstanceAlias + ".base_image_id ";
         }
 
-        request = select + from + where + search + sort;
+        request = select + from + where + search + keyset + sort;
         if (max > 0) {
             request += " LIMIT " + max;
         }
-        if (offset > 0) {
+        if (offset > 0 && keysetCursor == null) {
             request += " OFFSET " + offset;
         }
 
@@ -409,8 +432,12 @@ public class ImageInstanceService extends ModelService {
         for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
             query.setParameter(entry.getKey(), entry.getValue());
         }
+        if (keysetCursor != null) {
+            keysetCursor.getParameters().forEach(query::setParameter);
+        }
         List<Tuple> resultList = query.list();
         List<Map<String, Object>> results = new ArrayList<>();
+        String nextCursor = null;
         for (Tuple rowResult : resultList) {
             JsonObject result = new JsonObject();
             for (TupleElement<?> element : rowResult.getElements()) {
@@ -421,10 +448,14 @@ public class ImageInstanceService extends ModelService {
                 String alias = SQLUtils.toCamelCase(element.getAlias());
                 result.put(alias, value);
             }
+            Object keysetValue = result.remove("keysetValue");
             result.computeIfPresent("created", (k, v) -> ((Date) v).getTime());
             result.computeIfPresent("updated", (k, v) -> ((Date) v).getTime());
             result.computeIfPresent("reviewStart", (k, v) -> ((Date) v).getTime());
             result.computeIfPresent("reviewStop", (k, v) -> ((Date) v).getTime());
+            result.put("countImageAnnotations", result.remove("mergedCountImageAnnotations"));
+            result.put("countImageJobAnnotations", result.remove("mergedCountImageJobAnnotations"));
+            result.put("countImageReviewedAnnotations", result.remove("mergedCountImageReviewedAnnotations"));
 
             result.put("reviewUser", result.get("reviewUserId"));
             result.put("baseImage", result.get("baseImageId"));
@@ -434,16 +465,15 @@ public class ImageInstanceService extends ModelService {
             object.put("projectBlind", result.get("projectBlind"));
             object.put("projectName", result.get("projectName"));
             results.add(result);
+            if (max > 0 && results.size() == max) {
+                nextCursor = KeysetCursor.encode(keysetValue, (Long) result.get("id"));
+            }
         }
 
-        request = "SELECT COUNT(DISTINCT " + imageInstanceAlias + ".id) " + from + where + search;
-        query = session.createNativeQuery(request);
-        for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
-            query.setParameter(entry.getKey(), entry.getValue());
-        }
-        long count = (Long)query.getResultList().get(0);
-        Page<Map<String, Object>> page = PageUtils.buildPageFromPageResults(results, max, offset, count);
-        return page;
+        return listingCountService.page(results, max, offset, keysetCursor != null, nextCursor, countMode,
+                "SELECT COUNT(DISTINCT " + imageInstanceAlias + ".id) " + from + where + search,
+                "SELECT DISTINCT " + imageInstanceAlias + ".id " + from + where + search,
+                mapParams);
 
     }
 
@@ -538,6 +568,10 @@ public class ImageInstanceService extends ModelService {
         where = "WHERE " + imageInstanceAlias + ".project_id = " + project.getId() + " AND " + imageInstanceAlias + ".parent_id IS NULL ";
         search = "";
 
+        // annotation counters not folded yet
+        select += AnnotationCounterService.selectMergedCounters(imageInstanceAlias, AnnotationCounterService.IMAGE_COUNTERS);
+        from += "LEFT OUTER JOIN (" + AnnotationCounterService.PENDING_BY_IMAGE + ") pending ON pending.image_id = " + imageInstanceAlias + ".id ";
+
         if (!imageInstanceCondition.isBlank()) {
             search += " AND ";
             search += imageInstanceCondition;
@@ -580,6 +614,9 @@ public class ImageInstanceService extends ModelService {
             select += ", COALESCE(" + imageInstanceAlias + ".instance_filename, " + abstractImageAlias + ".original_filename) ";
         }
 
+        search = AnnotationCounterService.withPendingCounters(search, imageInstanceAlias, AnnotationCounterService.IMAGE_COUNTERS);
+        sortedProperty = AnnotationCounterService.withPendingCounters(sortedProperty, imageInstanceAlias, AnnotationCounterService.IMAGE_COUNTERS);
+
         sort = " ORDER BY " + sortedProperty;
         sort += (sortDirection.equals("desc")) ? " DESC " : " ASC ";
 
@@ -630,6 +667,9 @@ public class ImageInstanceService extends ModelService {
             result.computeIfPresent("updated", (k, v) -> ((Date) v).getTime());
             result.computeIfPresent("reviewStart", (k, v) -> ((Date) v).getTime());
             result.computeIfPresent("reviewStop", (k, v) -> ((Date) v).getTime());
+            result.put("countImageAnnotations", result.remove("mergedCountImageAnnotations"));
+            result.put("countImageJobAnnotations", result.remove("mergedCountImageJobAnnotations"));
+            result.put("countImageReviewedAnnotations", result.remove("mergedCountImageReviewedAnnotations"));
 
             result.put("reviewUser", result.get("reviewUserId"));
             result.put("baseImage", result.get("baseImageId"));
@@ -900,9 +940,8 @@ public class ImageInstanceService extends ModelService {
     @Override
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
         ImageInstance imageInstance = (ImageInstance) domain;
-        deleteDependentAlgoAnnotation(imageInstance, transaction, task);
-        deleteDependentReviewedAnnotation(imageInstance, transaction, task);
-        deleteDependentUserAnnotation(imageInstance, transaction, task);
+        // annotations (with their terms, tracks,...), slices and tracks
+        bulkDeleteService.delete(BulkDeleteService.IMAGE_INSTANCE, imageInstance, imageInstance.getProject(), transaction, task);
         deleteDependentAnnotationAction(imageInstance, transaction, task);
         deleteDependentLastUserPosition(imageInstance, transaction, task);
         deleteDependentPersistentUserPosition(imageInstance, transaction, task);
@@ -912,30 +951,8 @@ public class ImageInstanceService extends ModelService {
         deleteDependentAttachedFile(imageInstance, transaction, task);
         deleteDependentTagDomainAssociation(imageInstance, transaction, task);
         deleteDependentNestedImageInstance(imageInstance, transaction, task);
-        deleteDependentSliceInstance(imageInstance, transaction, task);
-        deleteDependentTrack(imageInstance, transaction, task);
     }
 
-    private void deleteDependentAlgoAnnotation(ImageInstance image, Transaction transaction, Task task) {
-        for (AlgoAnnotation algoAnnotation : algoAnnotationRepository.findAllByImage(image)) {
-            algoAnnotationService.delete(algoAnnotation, transaction, task, false);
-        }
-    }
-
-    private void deleteDependentReviewedAnnotation(ImageInstance image, Transaction transaction, Task task) {
-        for (ReviewedAnnotation reviewedAnnotation : reviewedAnnotationRepository.findAllByImage(image)) {
-            reviewedAnnotationService.delete(reviewedAnnotation, transaction, task, false);
-        }
-    }
-
-    private void deleteDependentUserAnnotation(ImageInstance image, Transaction transaction, Task task) {
-        for (UserAnnotation userAnnotation : userAnnotationRepository.findAllByImage(image)) {
-            log.debug("Delete userAnnotation : " + userAnnotation.getUser());
-            userAnnotationService.delete(userAnnotation, transaction, task, false);
-        }
-    }
-
-
     private void deleteDependentAnnotationAction(ImageInstance image, Transaction transaction, Task task) {
         annotationActionRepository.deleteAllByImage(image.getId());
     }
@@ -960,20 +977,6 @@ public class ImageInstanceService extends ModelService {
         }
     }
 
-
-    private void deleteDependentSliceInstance(ImageInstance image, Transaction transaction, Task task) {
-        List<SliceInstance> slices = sliceInstanceRepository.findAllByImage(image);
-        for (SliceInstance slice : slices) {
-            sliceInstanceService.delete(slice, transaction, task, false);
-        }
-    }
-
-    private void deleteDependentTrack(ImageInstance image, Transaction transaction, Task task) {
-        for (Track track : trackService.list(image)) {
-            trackService.delete(track, transaction, task, false);
-        }
-    }
-
     @Override
     public List<Object> getStringParamsI18n(CytomineDomain domain) {
         return List.of(domain.getId(), ((ImageInstance) domain).getBlindInstanceFilename(), ((ImageInstance) domain).getProject().getName());
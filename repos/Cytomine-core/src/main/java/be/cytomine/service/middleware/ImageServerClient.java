@@ -0,0 +1,186 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageServerClientProperties;
+import be.cytomine.exceptions.ServiceUnavailableException;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PreparedRequest;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.cloud.gateway.mvc.ProxyExchange;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Shared HTTP client for the image server (PIMS).
+ * Connections are pooled per route and kept alive, so that tile/thumb/crop storms do not open a TCP connection per request.
+ * The number of requests in flight is bounded: when the image server is saturated, requests wait for a slot
+ * and are rejected with a 503 after application.imageServerClient.acquireTimeoutInMillis.
+ * Latency is recorded per endpoint (storageSpace, thumb, crop, ...).
+ */
+@Slf4j
+@Component
+public class ImageServerClient implements RuntimeMetrics {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final CloseableHttpClient httpClient;
+
+    private final RestTemplate restTemplate;
+
+    private final Semaphore permits;
+
+    private final long acquireTimeoutInMillis;
+
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public ImageServerClient(ApplicationProperties applicationProperties) {
+        ImageServerClientProperties properties = applicationProperties.getImageServerClient();
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(properties.getMaxConnections())
+                .setMaxConnPerRoute(properties.getMaxConnectionsPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(properties.getConnectTimeoutInMillis()))
+                        .setSocketTimeout(Timeout.ofMilliseconds(properties.getReadTimeoutInMillis()))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(properties.getAcquireTimeoutInMillis()))
+                        .setResponseTimeout(Timeout.ofMilliseconds(properties.getReadTimeoutInMillis()))
+                        .setConnectionKeepAlive(TimeValue.ofSeconds(properties.getKeepAliveInSeconds()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(properties.getKeepAliveInSeconds()))
+                .build();
+        this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        this.permits = new Semaphore(properties.getMaxConcurrentRequests(), true);
+        this.acquireTimeoutInMillis = properties.getAcquireTimeoutInMillis();
+    }
+
+    public <T> T toObject(String endpoint, PreparedRequest request, Class<T> returnType) {
+        return execute(endpoint, () -> request.toObject(restTemplate, returnType));
+    }
+
+    public <T> ResponseEntity<T> toResponseEntity(String endpoint, PreparedRequest request, ProxyExchange<T> proxy, Class<T> returnType) {
+        return execute(endpoint, () -> request.toResponseEntity(restTemplate, proxy, returnType));
+    }
+
+    private <T> T execute(String endpoint, Supplier<T> call) {
+        acquire(endpoint);
+        EndpointMetrics metrics = endpoints.computeIfAbsent(endpoint, key -> new EndpointMetrics());
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            metrics.errors.increment();
+            throw e;
+        } finally {
+            metrics.record(System.nanoTime() - start);
+            permits.release();
+        }
+    }
+
+    private void acquire(String endpoint) {
+        try {
+            if (permits.tryAcquire(acquireTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        throw new ServiceUnavailableException("Image server is overloaded, request " + endpoint + " rejected");
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "imageServerClient";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        PoolStats pool = connectionManager.getTotalStats();
+        Map<String, Object> latencies = new TreeMap<>();
+        endpoints.forEach((endpoint, metrics) -> latencies.put(endpoint, metrics.toMap()));
+        return JsonObject.of(
+                "inFlight", pool.getLeased(),
+                "idleConnections", pool.getAvailable(),
+                "pendingConnections", pool.getPending(),
+                "maxConnections", pool.getMax(),
+                "waitingRequests", permits.getQueueLength(),
+                "rejected", rejected.sum(),
+                "endpoints", latencies
+        );
+    }
+
+    private static class EndpointMetrics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> toMap() {
+            long n = count.sum();
+            return JsonObject.of(
+                    "count", n,
+                    "errors", errors.sum(),
+                    "meanMillis", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / n),
+                    "maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos.get())
+            );
+        }
+    }
+}
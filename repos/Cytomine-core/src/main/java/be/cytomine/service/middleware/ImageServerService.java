@@ -63,6 +63,12 @@ public class ImageServerService {
     @Autowired
     private SimplifyGeometryService simplifyGeometryService;
 
+    @Autowired
+    private ImageServerClient imageServerClient;
+
+    @Autowired
+    private TileCache tileCache;
+
     @Autowired
     public void setImageInstanceService(ImageInstanceService imageInstanceService) {
         this.imageInstanceService = imageInstanceService;
@@ -78,7 +84,7 @@ public class ImageServerService {
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("storage/size.json");
 
-        return JsonObject.toObject(request.toObject(String.class), StorageStats.class);
+        return JsonObject.toObject(imageServerClient.toObject("storageSpace", request, String.class), StorageStats.class);
     }
 
     public List<Map<String, Object>> formats() {
@@ -87,7 +93,7 @@ public class ImageServerService {
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("formats");
 
-        JsonObject jsonObject = JsonObject.toJsonObject(request.toObject(String.class));
+        JsonObject jsonObject = JsonObject.toJsonObject(imageServerClient.toObject("formats", request, String.class));
         return ((List<Map<String,Object>>)jsonObject.get("items")).stream().map(StringUtils::keysToCamelCase).toList();
     }
 
@@ -101,7 +107,7 @@ public class ImageServerService {
         request.addQueryParameter("filename", uploadedFile.getOriginalFilename());
         request.getHeaders().add(org.springframework.http.HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageServerClient.toResponseEntity("download", request, proxy, byte[].class);
     }
 
     public ResponseEntity<byte[]> download(AbstractImage abstractImage, ProxyExchange<byte[]> proxy) throws IOException {
@@ -114,7 +120,7 @@ public class ImageServerService {
         request.addQueryParameter("filename", abstractImage.getOriginalFilename());
         request.getHeaders().add(org.springframework.http.HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageServerClient.toResponseEntity("download", request, proxy, byte[].class);
     }
 
     public ResponseEntity<byte[]> download(CompanionFile companionFile, ProxyExchange<byte[]> proxy) throws IOException {
@@ -129,7 +135,7 @@ public class ImageServerService {
         request.addPathFragment(image.getPath(), true);
         request.addPathFragment("info");
 
-        return JsonObject.toMap(request.toObject(String.class));
+        return JsonObject.toMap(imageServerClient.toObject("properties", request, String.class));
     }
 
     public List<Map<String, Object>> rawProperties(AbstractImage image) throws IOException {
@@ -140,7 +146,7 @@ public class ImageServerService {
         request.addPathFragment(image.getPath(), true);
         request.addPathFragment("metadata");
 
-        return JsonObject.toJsonObject(request.toObject(String.class))
+        return JsonObject.toJsonObject(imageServerClient.toObject("rawProperties", request, String.class))
                 .getJSONAttrListMap("items").stream().map(StringUtils::keysToCamelCase).toList();
     }
 
@@ -158,7 +164,7 @@ public class ImageServerService {
         request.addPathFragment("per-image");
         request.addQueryParameter("n_bins", nBins);
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(imageServerClient.toObject("imageHistogram", request, String.class));
         return StringUtils.keysToCamelCase(json);
     }
 
@@ -177,7 +183,7 @@ public class ImageServerService {
         request.addPathFragment("bounds");
         request.addQueryParameter("n_bins", nBins);
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(imageServerClient.toObject("imageHistogramBounds", request, String.class));
         return StringUtils.keysToCamelCase(json);
     }
 
@@ -191,7 +197,7 @@ public class ImageServerService {
         request.addPathFragment("per-channels");
         request.addQueryParameter("n_bins", nBins);
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(imageServerClient.toObject("channelHistograms", request, String.class));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream().map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x))).toList();
     }
@@ -207,7 +213,7 @@ public class ImageServerService {
         request.addPathFragment("per-channels");
         request.addPathFragment("bounds");
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(imageServerClient.toObject("channelHistogramBounds", request, String.class));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream().map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x))).toList();
     }
@@ -230,7 +236,7 @@ public class ImageServerService {
             request.addQueryParameter("channels", slice.getChannel());
         }
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(imageServerClient.toObject("planeHistograms", request, String.class));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream().map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x))).toList();
     }
@@ -253,7 +259,7 @@ public class ImageServerService {
             request.addQueryParameter("channels", slice.getChannel());
         }
 
-        Map<String, Object> json = JsonObject.toMap(request.toObject(String.class));
+        Map<String, Object> json = JsonObject.toMap(imageServerClient.toObject("planeHistogramBounds", request, String.class));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream().map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x))).toList();
     }
@@ -267,7 +273,7 @@ public class ImageServerService {
         request.addPathFragment("info");
         request.addPathFragment("associated");
 
-        return JsonObject.toJsonObject(request.toObject(String.class))
+        return JsonObject.toJsonObject(imageServerClient.toObject("associated", request, String.class))
                 .getJSONAttrListMap("items").stream().map(x -> (String)x.get("name")).toList();
     }
 
@@ -295,7 +301,7 @@ public class ImageServerService {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return toCachedResponseEntity("label", image.getPath(), request, proxy);
     }
 
     public ResponseEntity<byte[]> thumb(ImageInstance image, ImageParameter params, String etag, ProxyExchange<byte[]> proxy)  {
@@ -346,7 +352,7 @@ public class ImageServerService {
         if (etag != null) {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
-        return request.toResponseEntity(proxy, byte[].class);
+        return toCachedResponseEntity("thumb", slice.getPath(), request, proxy);
     }
 
     public ResponseEntity<byte[]> normalizedTile(SliceInstance slice, TileParameters params, String etag, ProxyExchange<byte[]> proxy)  {
@@ -391,7 +397,7 @@ public class ImageServerService {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return toCachedResponseEntity("normalizedTile", slice.getPath(), request, proxy);
     }
 
 
@@ -503,7 +509,18 @@ public class ImageServerService {
             request.getHeaders().add("X-Image-Size-Safety", "SAFE_RESIZE");
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return toCachedResponseEntity("crop", slice.getPath(), request, proxy);
+    }
+
+    /**
+     * Image requests go through the tile cache when it is enabled (the proxy exchange is then bypassed,
+     * as the response body is needed to be cached)
+     */
+    private ResponseEntity<byte[]> toCachedResponseEntity(String endpoint, String imagePath, PreparedRequest request, ProxyExchange<byte[]> proxy) {
+        if (!tileCache.isEnabled()) {
+            return imageServerClient.toResponseEntity(endpoint, request, proxy, byte[].class);
+        }
+        return tileCache.fetch(imagePath, request, r -> imageServerClient.toResponseEntity(endpoint, r, null, byte[].class));
     }
 
     private static String retrieveCropFormat(CropParameter cropParameter) {
@@ -641,7 +658,7 @@ public class ImageServerService {
             request.getHeaders().add("X-Image-Size-Safety", "SAFE_RESIZE");
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return imageServerClient.toResponseEntity("window", request, proxy, byte[].class);
     }
 
     private static String retrieveWindowFormat(WindowParameter params) {
@@ -0,0 +1,467 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.TileCacheProperties;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PreparedRequest;
+import be.cytomine.utils.RuntimeMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache of the images (tiles, thumbs, labels, crops) returned by the image server.
+ *
+ * The key is the canonical request (method, URI with sorted query parameters, Accept header and body).
+ * Entries live in a bounded heap tier (LRU on bytes); entries evicted from the heap go to an optional disk tier
+ * (one plain file per entry, LRU on bytes as well).
+ * An entry is served without contacting the image server during application.tileCache.ttlInSeconds, then it is
+ * revalidated with its ETag (If-None-Match). Entries are invalidated by image path when an image is deleted or updated.
+ *
+ * Each invalidation bumps the generation of the image: a response fetched, or an entry evicted or promoted, while its
+ * image was invalidated is not stored again.
+ */
+@Slf4j
+@Component
+public class TileCache implements RuntimeMetrics {
+
+    private static final List<String> CACHED_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.ETAG,
+            HttpHeaders.CACHE_CONTROL,
+            HttpHeaders.LAST_MODIFIED,
+            HttpHeaders.CONTENT_DISPOSITION
+    );
+
+    private static final String FILE_EXTENSION = ".tile";
+
+    private final boolean enabled;
+
+    private final long ttlInMillis;
+
+    private final long maxEntrySize;
+
+    private final long heapMaxSize;
+
+    private final long diskMaxSize;
+
+    private final Path diskPath;
+
+    private final LinkedHashMap<String, Entry> heap = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long heapSize = 0;
+
+    private long diskSize = 0;
+
+    /**
+     * Generation of the images, by hash of the image path (a collision only skips the caching of an entry)
+     */
+    private final long[] generations = new long[1024];
+
+    private final AtomicLong fileSequence = new AtomicLong();
+
+    private final LongAdder heapHits = new LongAdder();
+
+    private final LongAdder diskHits = new LongAdder();
+
+    private final LongAdder revalidations = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder bytesServed = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public TileCache(ApplicationProperties applicationProperties) {
+        TileCacheProperties properties = applicationProperties.getTileCache();
+        this.enabled = properties.isEnabled();
+        this.ttlInMillis = properties.getTtlInSeconds() * 1000;
+        this.maxEntrySize = properties.getMaxEntrySizeInKb() * 1024;
+        this.heapMaxSize = properties.getHeapMaxSizeInMb() * 1024 * 1024;
+        this.diskMaxSize = properties.getDiskMaxSizeInMb() * 1024 * 1024;
+        this.diskPath = (enabled && properties.getDiskPath() != null && !properties.getDiskPath().isBlank()) ?
+                initDiskPath(Path.of(properties.getDiskPath())) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the response of the request from the cache, or from the image server (call) on a miss or when the
+     * cached entry must be revalidated. The request must not go through a proxy exchange (the body is needed).
+     * @param owner Path of the image, used to invalidate its entries
+     */
+    public ResponseEntity<byte[]> fetch(String owner, PreparedRequest request, Function<PreparedRequest, ResponseEntity<byte[]>> call) {
+        String key = key(request);
+        String clientEtag = request.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+
+        long now = System.currentTimeMillis();
+        Entry entry = lookup(key, now);
+        if (entry != null && entry.validUntil > now) {
+            return serve(entry, clientEtag);
+        }
+
+        long generation = generation(owner);
+        request.getHeaders().remove(HttpHeaders.IF_NONE_MATCH);
+        if (entry != null && entry.etag != null) {
+            request.getHeaders().set(HttpHeaders.IF_NONE_MATCH, entry.etag);
+        }
+        ResponseEntity<byte[]> response;
+        try {
+            response = call.apply(request);
+        } catch (RestClientResponseException e) {
+            // as with a proxy exchange, errors of the image server are returned to the client
+            return ResponseEntity.status(e.getStatusCode())
+                    .headers(cachedHeaders(e.getResponseHeaders() != null ? e.getResponseHeaders() : new HttpHeaders()))
+                    .body(e.getResponseBodyAsByteArray());
+        }
+
+        if (entry != null && response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+            revalidations.increment();
+            entry.validUntil = System.currentTimeMillis() + ttlInMillis;
+            return serve(entry, clientEtag);
+        }
+
+        misses.increment();
+        HttpHeaders headers = cachedHeaders(response.getHeaders());
+        byte[] body = response.getBody();
+        if (response.getStatusCode().value() == HttpStatus.OK.value() && body != null) {
+            Entry fresh = new Entry(owner, body, headers, System.currentTimeMillis() + ttlInMillis);
+            if (body.length <= maxEntrySize) {
+                put(key, fresh, generation);
+            } else if (entry != null) {
+                remove(key);
+            }
+            if (clientEtag != null && clientEtag.equals(fresh.etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+            }
+        }
+        return ResponseEntity.status(response.getStatusCode()).headers(headers).body(body);
+    }
+
+    /**
+     * Remove all entries of an image
+     */
+    public void invalidate(String owner) {
+        if (!enabled || owner == null) {
+            return;
+        }
+        invalidations.increment();
+        List<Path> files = new ArrayList<>();
+        synchronized (this) {
+            generations[generationIndex(owner)]++;
+            Iterator<Entry> heapEntries = heap.values().iterator();
+            while (heapEntries.hasNext()) {
+                Entry entry = heapEntries.next();
+                if (owner.equals(entry.owner)) {
+                    heapSize -= entry.body.length;
+                    heapEntries.remove();
+                }
+            }
+            Iterator<DiskEntry> diskEntries = disk.values().iterator();
+            while (diskEntries.hasNext()) {
+                DiskEntry entry = diskEntries.next();
+                if (owner.equals(entry.owner)) {
+                    diskSize -= entry.size;
+                    files.add(entry.file);
+                    diskEntries.remove();
+                }
+            }
+        }
+        files.forEach(this::deleteFile);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "tileCache";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        long hits = heapHits.sum() + diskHits.sum() + revalidations.sum();
+        long requests = hits + misses.sum();
+        JsonObject metrics = JsonObject.of(
+                "heapHits", heapHits.sum(),
+                "diskHits", diskHits.sum(),
+                "revalidations", revalidations.sum(),
+                "misses", misses.sum(),
+                "hitRatio", requests == 0 ? 0d : (double) hits / requests,
+                "bytesServed", bytesServed.sum(),
+                "invalidations", invalidations.sum()
+        );
+        synchronized (this) {
+            metrics.put("heapEntries", heap.size());
+            metrics.put("heapBytes", heapSize);
+            metrics.put("diskEntries", disk.size());
+            metrics.put("diskBytes", diskSize);
+        }
+        return metrics;
+    }
+
+    private ResponseEntity<byte[]> serve(Entry entry, String clientEtag) {
+        if (clientEtag != null && clientEtag.equals(entry.etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(entry.headers).build();
+        }
+        bytesServed.add(entry.body.length);
+        return ResponseEntity.ok().headers(entry.headers).body(entry.body);
+    }
+
+    /**
+     * Get the entry of a key, from the heap or the disk tier.
+     * Only entries still valid at now are counted as hits: an expired entry is revalidated or replaced (see fetch).
+     */
+    private Entry lookup(String key, long now) {
+        DiskEntry diskEntry;
+        long generation;
+        synchronized (this) {
+            Entry entry = heap.get(key);
+            if (entry != null) {
+                if (entry.validUntil > now) {
+                    heapHits.increment();
+                }
+                return entry;
+            }
+            diskEntry = disk.remove(key);
+            if (diskEntry == null) {
+                return null;
+            }
+            diskSize -= diskEntry.size;
+            generation = generations[generationIndex(diskEntry.owner)];
+        }
+        // promote the entry to the heap tier
+        byte[] body = readFile(diskEntry);
+        deleteFile(diskEntry.file);
+        if (body == null) {
+            return null;
+        }
+        if (diskEntry.validUntil > now) {
+            diskHits.increment();
+        }
+        Entry entry = new Entry(diskEntry.owner, body, diskEntry.headers, diskEntry.validUntil);
+        put(key, entry, generation);
+        return entry;
+    }
+
+    /**
+     * Put an entry in the heap tier, unless its image was invalidated since the generation was read
+     */
+    private void put(String key, Entry entry, long generation) {
+        List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (generations[generationIndex(entry.owner)] != generation) {
+                return;
+            }
+            entry.generation = generation;
+            Entry previous = heap.put(key, entry);
+            if (previous != null) {
+                heapSize -= previous.body.length;
+            }
+            heapSize += entry.body.length;
+            Iterator<Map.Entry<String, Entry>> eldest = heap.entrySet().iterator();
+            while (heapSize > heapMaxSize && eldest.hasNext()) {
+                Map.Entry<String, Entry> next = eldest.next();
+                heapSize -= next.getValue().body.length;
+                evicted.add(Map.entry(next.getKey(), next.getValue()));
+                eldest.remove();
+            }
+        }
+        if (diskPath != null) {
+            evicted.forEach(e -> demote(e.getKey(), e.getValue()));
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            Entry previous = heap.remove(key);
+            if (previous != null) {
+                heapSize -= previous.body.length;
+            }
+        }
+    }
+
+    /**
+     * Write an entry evicted from the heap to the disk tier, unless its image was invalidated since it was cached
+     */
+    private void demote(String key, Entry entry) {
+        if (generation(entry.owner) != entry.generation) {
+            return;
+        }
+        Path file = diskPath.resolve(fileSequence.incrementAndGet() + FILE_EXTENSION);
+        try {
+            Files.write(file, entry.body);
+        } catch (IOException e) {
+            log.warn("Cannot write tile cache entry " + file + ": " + e.getMessage());
+            deleteFile(file);
+            return;
+        }
+
+        List<Path> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (generations[generationIndex(entry.owner)] != entry.generation) {
+                // invalidated while the file was written
+                evicted.add(file);
+            } else {
+                DiskEntry previous = disk.put(key, new DiskEntry(entry.owner, file, entry.body.length, entry.headers, entry.validUntil));
+                if (previous != null) {
+                    diskSize -= previous.size;
+                    evicted.add(previous.file);
+                }
+                diskSize += entry.body.length;
+                Iterator<DiskEntry> eldest = disk.values().iterator();
+                while (diskSize > diskMaxSize && eldest.hasNext()) {
+                    DiskEntry next = eldest.next();
+                    diskSize -= next.size;
+                    evicted.add(next.file);
+                    eldest.remove();
+                }
+            }
+        }
+        evicted.forEach(this::deleteFile);
+    }
+
+    private byte[] readFile(DiskEntry entry) {
+        try {
+            return Files.readAllBytes(entry.file);
+        } catch (IOException e) {
+            log.warn("Cannot read tile cache entry " + entry.file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private long generation(String owner) {
+        synchronized (this) {
+            return generations[generationIndex(owner)];
+        }
+    }
+
+    private int generationIndex(String owner) {
+        return owner != null ? Math.floorMod(owner.hashCode(), generations.length) : 0;
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete tile cache entry " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Path initDiskPath(Path path) {
+        try {
+            Files.createDirectories(path);
+            // entries of a previous run are not indexed anymore
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*" + FILE_EXTENSION)) {
+                files.forEach(this::deleteFile);
+            }
+            return path;
+        } catch (IOException e) {
+            log.error("Tile cache disk tier disabled, cannot use " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static String key(PreparedRequest request) {
+        StringBuilder key = new StringBuilder();
+        key.append(request.getMethod()).append(' ')
+                .append(request.getScheme()).append("://").append(request.getHost()).append(':').append(request.getPort())
+                .append(request.getPath());
+
+        TreeMap<String, String> query = new TreeMap<>();
+        request.getQueryParameters().forEach((name, value) -> {
+            if (value != null && !value.toString().isEmpty()) {
+                query.put(name, value.toString());
+            }
+        });
+        char separator = '?';
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            key.append(separator).append(parameter.getKey()).append('=').append(parameter.getValue());
+            separator = '&';
+        }
+
+        key.append('|').append(request.getHeaders().getFirst(HttpHeaders.ACCEPT));
+        if (request.getBody() != null) {
+            key.append('|').append(DigestUtils.md5DigestAsHex(request.getBody().toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        return key.toString();
+    }
+
+    private static HttpHeaders cachedHeaders(HttpHeaders headers) {
+        HttpHeaders cached = new HttpHeaders();
+        for (String name : CACHED_HEADERS) {
+            List<String> values = headers.get(name);
+            if (values != null) {
+                cached.put(name, values);
+            }
+        }
+        return HttpHeaders.readOnlyHttpHeaders(cached);
+    }
+
+    private static class Entry {
+        private final String owner;
+        private final byte[] body;
+        private final HttpHeaders headers;
+        private final String etag;
+        private volatile long validUntil;
+        /**
+         * Generation of the image when the entry was put in the heap tier
+         */
+        private long generation;
+
+        Entry(String owner, byte[] body, HttpHeaders headers, long validUntil) {
+            this.owner = owner;
+            this.body = body;
+            this.headers = headers;
+            this.etag = headers.getETag();
+            this.validUntil = validUntil;
+        }
+    }
+
+    private static class DiskEntry {
+        private final String owner;
+        private final Path file;
+        private final int size;
+        private final HttpHeaders headers;
+        private final long validUntil;
+
+        DiskEntry(String owner, Path file, int size, HttpHeaders headers, long validUntil) {
+            this.owner = owner;
+            this.file = file;
+            this.size = size;
+            this.headers = headers;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repository.ontology.AlgoAnnotationRepository;
 import be.cytomine.repository.ontology.SharedAnnotationRepository;
 import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
@@ -81,6 +82,9 @@ public class AlgoAnnotationService extends ModelService {
     @Autowired
     private AnnotationListingService annotationListingService;
 
+    @Autowired
+    private SliceAnnotationIndexCache sliceAnnotationIndexCache;
+
     @Autowired
     private EntityManager entityManager;
 
@@ -351,6 +355,7 @@ public class AlgoAnnotationService extends ModelService {
     }
 
     protected void afterAdd(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onSaved((AlgoAnnotation)domain);
         response.getData().put("annotation", response.getData().get("algoannotation"));
         response.getData().remove("algoannotation");
     }
@@ -416,6 +421,7 @@ public class AlgoAnnotationService extends ModelService {
 
 
     protected void afterUpdate(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onSaved((AlgoAnnotation)domain);
         response.getData().put("annotation", response.getData().get("algoannotation"));
         response.getData().remove("algoannotation");
     }
@@ -440,6 +446,7 @@ public class AlgoAnnotationService extends ModelService {
 
 
     protected void afterDelete(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onDeleted((AlgoAnnotation)domain);
         response.getData().put("annotation", response.getData().get("algoannotation"));
         response.getData().remove("algoannotation");
     }
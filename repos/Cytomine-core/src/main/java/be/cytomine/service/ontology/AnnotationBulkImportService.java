@@ -0,0 +1,541 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.AnnotationImportProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.command.AddCommand;
+import be.cytomine.domain.command.CommandHistory;
+import be.cytomine.domain.command.Transaction;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.*;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.domain.security.User;
+import be.cytomine.domain.security.UserJob;
+import be.cytomine.dto.annotation.RepairedGeometry;
+import be.cytomine.dto.annotation.SimplifiedAnnotation;
+import be.cytomine.dto.image.BoundariesCropParameter;
+import be.cytomine.exceptions.CytomineException;
+import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.repository.image.ImageInstanceRepository;
+import be.cytomine.repository.image.SliceInstanceRepository;
+import be.cytomine.repository.ontology.TermRepository;
+import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.ModelService;
+import be.cytomine.service.annotation.AnnotationTileCache;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache;
+import be.cytomine.service.command.TransactionService;
+import be.cytomine.service.image.SliceCoordinatesService;
+import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.stats.StatsCache;
+import be.cytomine.service.utils.SimplifyGeometryService;
+import be.cytomine.service.utils.ValidateGeometryService;
+import be.cytomine.utils.GeometryUtils;
+import be.cytomine.utils.JsonCodec;
+import be.cytomine.utils.JsonObject;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.security.acls.domain.BasePermission.READ;
+
+/**
+ * Bulk import of user or algo annotations.
+ *
+ * The JSON array is read as a stream and cut in batches of application.annotationImport.batchSize annotations.
+ * For each batch, slices/images/terms are loaded and ACL are checked once per project, geometries are validated
+ * and simplified in parallel, then annotations and their terms are persisted in one database transaction
+ * (JDBC batch inserts) recorded as one command. A bulk command cannot be undone.
+ * Annotations with an error are reported in the usual multiple add response (200/206/400), the other ones are saved.
+ * Properties, tracks and groups are not supported: use the regular add for such annotations.
+ */
+@Slf4j
+@Service
+public class AnnotationBulkImportService {
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final CurrentUserService currentUserService;
+
+    private final SecurityACLService securityACLService;
+
+    private final TransactionService transactionService;
+
+    private final SliceInstanceRepository sliceInstanceRepository;
+
+    private final ImageInstanceRepository imageInstanceRepository;
+
+    private final SliceCoordinatesService sliceCoordinatesService;
+
+    private final TermRepository termRepository;
+
+    private final SimplifyGeometryService simplifyGeometryService;
+
+    private final ValidateGeometryService validateGeometryService;
+
+    private final AnnotationTileCache annotationTileCache;
+
+    private final SliceAnnotationIndexCache sliceAnnotationIndexCache;
+
+    private final StatsCache statsCache;
+
+    private final AnnotationImportProperties properties;
+
+    private final ExecutorService executor;
+
+    private final ObjectMapper objectMapper = JsonCodec.mapper();
+
+    public AnnotationBulkImportService(
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager,
+            CurrentUserService currentUserService,
+            SecurityACLService securityACLService,
+            TransactionService transactionService,
+            SliceInstanceRepository sliceInstanceRepository,
+            ImageInstanceRepository imageInstanceRepository,
+            SliceCoordinatesService sliceCoordinatesService,
+            TermRepository termRepository,
+            SimplifyGeometryService simplifyGeometryService,
+            ValidateGeometryService validateGeometryService,
+            AnnotationTileCache annotationTileCache,
+            SliceAnnotationIndexCache sliceAnnotationIndexCache,
+            StatsCache statsCache,
+            ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.currentUserService = currentUserService;
+        this.securityACLService = securityACLService;
+        this.transactionService = transactionService;
+        this.sliceInstanceRepository = sliceInstanceRepository;
+        this.imageInstanceRepository = imageInstanceRepository;
+        this.sliceCoordinatesService = sliceCoordinatesService;
+        this.termRepository = termRepository;
+        this.simplifyGeometryService = simplifyGeometryService;
+        this.validateGeometryService = validateGeometryService;
+        this.annotationTileCache = annotationTileCache;
+        this.sliceAnnotationIndexCache = sliceAnnotationIndexCache;
+        this.statsCache = statsCache;
+        this.properties = applicationProperties.getAnnotationImport();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, properties.getThreads()), runnable -> {
+            Thread thread = new Thread(runnable, "annotation-import-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public JsonObject importUserAnnotations(InputStream json, Long minPoint, Long maxPoint) {
+        SecUser currentUser = currentUserService.getCurrentUser();
+        //Check if user has a role that allows to create annotations
+        securityACLService.checkGuest(currentUser);
+        return importAnnotations(json, new ImportContext(UserAnnotation.class, currentUser, minPoint, maxPoint));
+    }
+
+    public JsonObject importAlgoAnnotations(InputStream json, Long minPoint, Long maxPoint) {
+        SecUser currentUser = currentUserService.getCurrentUser();
+        if (!currentUser.isAlgo()) {
+            throw new WrongArgumentException("user "+currentUser+" is not an userjob");
+        }
+        return importAnnotations(json, new ImportContext(AlgoAnnotation.class, currentUser, minPoint, maxPoint));
+    }
+
+    private JsonObject importAnnotations(InputStream json, ImportContext context) {
+        List<JsonObject> result = new ArrayList<>();
+        List<JsonObject> errors = new ArrayList<>();
+        List<PendingAnnotation> batch = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new WrongArgumentException("Json not valid: an array of annotations is expected");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                batch.add(new PendingAnnotation(objectMapper.readValue(parser, JsonObject.class)));
+                if (batch.size() >= properties.getBatchSize()) {
+                    importBatch(batch, context, result, errors);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new IOException("unexpected " + parser.currentToken() + " after " + (result.size() + batch.size()) + " annotations");
+            }
+            if (!batch.isEmpty()) {
+                importBatch(batch, context, result, errors);
+            }
+        } catch (IOException e) {
+            // annotations of the batches imported before the error are saved, the batch being read is not
+            log.info("Bulk import stopped: " + e.getMessage());
+            errors.add(JsonObject.of("message", "Json not valid: " + e.getMessage()));
+            result.add(JsonObject.of("message", "Json not valid: " + e.getMessage(), "status", 400));
+        }
+        log.info("Bulk import of " + result.size() + " " + context.domainClass.getSimpleName() + " by " + context.currentUser.getUsername()
+                + ": " + errors.size() + " errors");
+        return ModelService.buildMultipleResponse(context.domainClass.getSimpleName().toLowerCase(), result, errors);
+    }
+
+    private void importBatch(List<PendingAnnotation> batch, ImportContext context, List<JsonObject> result, List<JsonObject> errors) {
+        for (PendingAnnotation pending : batch) {
+            try {
+                resolve(pending, context);
+            } catch (CytomineException e) {
+                pending.fail(e.msg, e.code);
+            }
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (PendingAnnotation pending : batch) {
+            if (pending.isValid()) {
+                tasks.add(() -> {
+                    prepareLocation(pending);
+                    return null;
+                });
+            }
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WrongArgumentException("Bulk import interrupted");
+        } catch (ExecutionException e) {
+            // prepareLocation reports its errors in the pending annotation
+            throw new RuntimeException(e.getCause());
+        }
+
+        // the whole batch is repaired at once: at most one query if some locations must be made valid by the database
+        List<PendingAnnotation> prepared = batch.stream().filter(PendingAnnotation::isValid).toList();
+        List<RepairedGeometry> repaired = validateGeometryService.repairAll(prepared.stream().map(pending -> pending.location).toList());
+        for (int i = 0; i < prepared.size(); i++) {
+            if (repaired.get(i).hasError()) {
+                prepared.get(i).fail(repaired.get(i).getError(), 400);
+            } else {
+                prepared.get(i).location = repaired.get(i).getGeometry();
+            }
+        }
+
+        List<PendingAnnotation> valid = batch.stream().filter(PendingAnnotation::isValid).toList();
+        if (!valid.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> persist(valid, context));
+            } catch (RuntimeException e) {
+                log.error("Cannot persist a batch of " + valid.size() + " annotations: " + e.getMessage(), e);
+                for (PendingAnnotation pending : valid) {
+                    pending.fail("Cannot persists object:" + e.getMessage(), 500);
+                }
+            }
+        }
+
+        for (PendingAnnotation pending : batch) {
+            if (pending.isValid()) {
+                result.add(JsonObject.of("domain", pending.annotation.getId(), "status", 200));
+            } else {
+                result.add(JsonObject.of("message", pending.message, "status", pending.status));
+                errors.add(JsonObject.of("data", pending.json, "message", pending.message));
+            }
+        }
+    }
+
+    /**
+     * Load the domains of the annotation and check the permissions (once per project)
+     */
+    private void resolve(PendingAnnotation pending, ImportContext context) {
+        JsonObject json = pending.json;
+        if (json.isMissing("location")) {
+            throw new WrongArgumentException("Annotation must have a valid geometry:" + json.get("location"));
+        }
+        if (!json.isMissing("property") || !json.isMissing("properties") || !json.isMissing("track")
+                || !json.isMissing("tracks") || !json.isMissing("group")) {
+            throw new WrongArgumentException("Properties, tracks and groups are not supported by the bulk import");
+        }
+
+        SliceInstance slice;
+        ImageInstance image;
+        if (!json.isMissing("slice")) {
+            Long sliceId = json.getJSONAttrLong("slice");
+            slice = context.slices.computeIfAbsent(sliceId, id -> sliceInstanceRepository.findById(id)
+                    .orElseThrow(() -> new ObjectNotFoundException("SliceInstance with id " + id)));
+            image = slice.getImage();
+        } else if (!json.isMissing("image")) {
+            Long imageId = json.getJSONAttrLong("image");
+            image = context.images.computeIfAbsent(imageId, id -> imageInstanceRepository.findById(id)
+                    .orElseThrow(() -> new ObjectNotFoundException("ImageInstance with id " + id)));
+            slice = context.referenceSlices.computeIfAbsent(imageId, id -> sliceCoordinatesService.getReferenceSlice(context.images.get(id)));
+        } else {
+            throw new WrongArgumentException("Cannot retrieve slice or image");
+        }
+        Project project = slice.getProject();
+
+        if (!context.checkedProjects.contains(project.getId())) {
+            //Check if user has at least READ permission for the project and if project EditingMode is not READ_ONLY
+            securityACLService.check(project, READ, context.currentUser);
+            securityACLService.checkIsNotReadOnly(project);
+            context.checkedProjects.add(project.getId());
+        }
+
+        if (context.isUserAnnotation()) {
+            Long userId = json.getJSONAttrLong("user", context.currentUser.getId());
+            if (!Objects.equals(userId, context.currentUser.getId()) && !context.ownerCheckedProjects.contains(project.getId())) {
+                securityACLService.checkFullOrRestrictedForOwner(project, null);
+                context.ownerCheckedProjects.add(project.getId());
+            }
+            pending.user = context.users.computeIfAbsent(userId, id -> Optional.ofNullable(entityManager.find(User.class, id))
+                    .orElseThrow(() -> new ObjectNotFoundException("User", id)));
+        }
+
+        Set<Long> termIds = new LinkedHashSet<>();
+        termIds.addAll(json.getJSONAttrListLong("term", new ArrayList<>()));
+        termIds.addAll(json.getJSONAttrListLong("terms", new ArrayList<>()));
+        for (Long termId : termIds) {
+            Term term = context.terms.computeIfAbsent(termId, id -> termRepository.findById(id)
+                    .orElseThrow(() -> new ObjectNotFoundException("Term", id)));
+            if (project.getOntology() == null || !Objects.equals(term.getOntology().getId(), project.getOntology().getId())) {
+                throw new WrongArgumentException("Term " + term.getName() + " from ontology " + term.getOntology().getName() + " is not in ontology from the annotation project");
+            }
+            pending.terms.add(term);
+        }
+
+        pending.slice = slice;
+        pending.image = image;
+        pending.project = project;
+        // loaded here: lazy associations cannot be loaded by the validation threads
+        pending.imageWidth = image.getBaseImage().getWidth();
+        pending.imageHeight = image.getBaseImage().getHeight();
+        pending.minPoint = json.getJSONAttrLong("minPoint", context.minPoint);
+        pending.maxPoint = json.getJSONAttrLong("maxPoint", context.maxPoint);
+    }
+
+    /**
+     * Validate, crop to the image and simplify the location (same rules as a single annotation add)
+     */
+    private void prepareLocation(PendingAnnotation pending) {
+        try {
+            Geometry annotationShape;
+            try {
+                annotationShape = new WKTReader().read(pending.json.getJSONAttrStr("location"));
+            } catch (Exception ignored) {
+                throw new WrongArgumentException("Annotation location is not valid");
+            }
+
+            if (!annotationShape.isValid()) {
+                throw new WrongArgumentException("Annotation location is not valid");
+            }
+
+            Envelope envelope = annotationShape.getEnvelopeInternal();
+            boolean isSizeDefined = pending.imageWidth != null && pending.imageHeight != null;
+            if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
+                    envelope.getMaxX() > pending.imageWidth ||
+                    envelope.getMaxY() > pending.imageHeight)) {
+                double maxX = Math.min(envelope.getMaxX(), pending.imageWidth);
+                double maxY = Math.min(envelope.getMaxY(), pending.imageHeight);
+                Geometry insideBounds;
+                try {
+                    insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
+                } catch (ParseException e) {
+                    throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
+                }
+                annotationShape = annotationShape.intersection(insideBounds);
+            }
+
+            if (!(annotationShape.getGeometryType().equals("LineString"))) {
+                BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
+                if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
+                    throw new WrongArgumentException("Annotation dimension not valid");
+                }
+            }
+
+            Geometry location = annotationShape;
+            double compression = 0.0d;
+            try {
+                SimplifiedAnnotation simplifiedAnnotation = simplifyGeometryService.simplifyPolygon(annotationShape, pending.minPoint, pending.maxPoint);
+                if (simplifiedAnnotation.getNewAnnotation() != null) {
+                    location = simplifiedAnnotation.getNewAnnotation();
+                    compression = simplifiedAnnotation.getRate();
+                }
+            } catch (Exception e) {
+                log.error("Cannot simplify annotation location:" + e);
+            }
+
+            pending.location = location;
+            pending.geometryCompression = compression;
+        } catch (CytomineException e) {
+            pending.fail(e.msg, e.code);
+        } catch (RuntimeException e) {
+            pending.fail(e.toString(), 500);
+        }
+    }
+
+    /**
+     * Persist the annotations, then their terms, so that Hibernate sends them by JDBC batches.
+     * The batch is recorded as one (not undoable) add command.
+     * Tiles and indexes of the touched slices and stats of the touched projects are invalidated (again after commit).
+     */
+    private void persist(List<PendingAnnotation> batch, ImportContext context) {
+        Transaction transaction = transactionService.start();
+
+        List<Object> persisted = new ArrayList<>();
+        for (PendingAnnotation pending : batch) {
+            AnnotationDomain annotation = context.isUserAnnotation() ? new UserAnnotation() : new AlgoAnnotation();
+            annotation.setSlice(pending.slice);
+            annotation.setImage(pending.image);
+            annotation.setProject(pending.project);
+            annotation.setLocation(pending.location);
+            annotation.setWktLocation(pending.location.toText());
+            annotation.setGeometryCompression(pending.geometryCompression);
+            if (annotation instanceof UserAnnotation) {
+                ((UserAnnotation) annotation).setUser(pending.user);
+            } else {
+                ((AlgoAnnotation) annotation).setUser((UserJob) context.currentUser);
+            }
+            entityManager.persist(annotation);
+            pending.annotation = annotation;
+            persisted.add(annotation);
+        }
+        entityManager.flush();
+
+        for (PendingAnnotation pending : batch) {
+            for (Term term : pending.terms) {
+                if (pending.annotation instanceof UserAnnotation) {
+                    AnnotationTerm annotationTerm = new AnnotationTerm();
+                    annotationTerm.setUserAnnotation((UserAnnotation) pending.annotation);
+                    annotationTerm.setTerm(term);
+                    annotationTerm.setUser(context.currentUser);
+                    entityManager.persist(annotationTerm);
+                    persisted.add(annotationTerm);
+                } else {
+                    AlgoAnnotationTerm algoAnnotationTerm = new AlgoAnnotationTerm();
+                    algoAnnotationTerm.setAnnotation(pending.annotation);
+                    algoAnnotationTerm.setTerm(term);
+                    algoAnnotationTerm.setUserJob((UserJob) context.currentUser);
+                    algoAnnotationTerm.setRate(0d);
+                    entityManager.persist(algoAnnotationTerm);
+                    persisted.add(algoAnnotationTerm);
+                }
+            }
+        }
+
+        Set<Project> projects = new HashSet<>();
+        batch.forEach(pending -> projects.add(pending.project));
+        AddCommand command = new AddCommand(context.currentUser, transaction);
+        command.setServiceName(context.domainClass.getSimpleName() + "Service");
+        command.setProject(projects.size() == 1 ? projects.iterator().next() : null);
+        command.setPrintMessage(false);
+        command.setSaveOnUndoRedoStack(false);
+        command.setData(JsonObject.of("annotations", batch.stream().map(pending -> pending.annotation.getId()).toList()).toJsonString());
+        command.setActionMessage(batch.size() + " " + context.domainClass.getSimpleName() + " added");
+        entityManager.persist(command);
+        entityManager.persist(new CommandHistory(command));
+        entityManager.flush();
+
+        Set<Long> slices = new HashSet<>();
+        for (PendingAnnotation pending : batch) {
+            slices.add(pending.slice.getId());
+        }
+        for (Long slice : slices) {
+            annotationTileCache.invalidateSlice(slice);
+            sliceAnnotationIndexCache.invalidateSlice(slice);
+        }
+        projects.forEach(statsCache::invalidateProject);
+
+        // keep the persistence context of the request small
+        persisted.forEach(entityManager::detach);
+    }
+
+    private static class ImportContext {
+        private final Class<? extends AnnotationDomain> domainClass;
+        private final SecUser currentUser;
+        private final Long minPoint;
+        private final Long maxPoint;
+        private final Map<Long, SliceInstance> slices = new HashMap<>();
+        private final Map<Long, ImageInstance> images = new HashMap<>();
+        private final Map<Long, SliceInstance> referenceSlices = new HashMap<>();
+        private final Map<Long, User> users = new HashMap<>();
+        private final Map<Long, Term> terms = new HashMap<>();
+        private final Set<Long> checkedProjects = new HashSet<>();
+        private final Set<Long> ownerCheckedProjects = new HashSet<>();
+
+        ImportContext(Class<? extends AnnotationDomain> domainClass, SecUser currentUser, Long minPoint, Long maxPoint) {
+            this.domainClass = domainClass;
+            this.currentUser = currentUser;
+            this.minPoint = minPoint;
+            this.maxPoint = maxPoint;
+        }
+
+        boolean isUserAnnotation() {
+            return domainClass == UserAnnotation.class;
+        }
+    }
+
+    private static class PendingAnnotation {
+        private final JsonObject json;
+        private SliceInstance slice;
+        private ImageInstance image;
+        private Project project;
+        private User user;
+        private final List<Term> terms = new ArrayList<>();
+        private Integer imageWidth;
+        private Integer imageHeight;
+        private Long minPoint;
+        private Long maxPoint;
+        private Geometry location;
+        private Double geometryCompression;
+        private AnnotationDomain annotation;
+        private volatile String message;
+        private volatile int status = 200;
+
+        PendingAnnotation(JsonObject json) {
+            this.json = json;
+        }
+
+        boolean isValid() {
+            return message == null;
+        }
+
+        void fail(String message, int status) {
+            this.message = message;
+            this.status = status;
+        }
+    }
+}
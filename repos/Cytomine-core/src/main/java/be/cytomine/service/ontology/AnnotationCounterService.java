@@ -0,0 +1,262 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.AnnotationCounterProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fold the annotation counter ledger (annotation_counter_delta) into the project, image instance and annotation
+ * index counters.
+ *
+ * On connections opened with cytomine.annotation_counters=deferred, annotation triggers append one delta row instead
+ * of updating the project and image rows shared by all annotations of an image: concurrent annotation insertions
+ * do not wait for each other anymore. Deltas are folded every application.annotationCounters.compactionIntervalInMillis,
+ * by one statement, so a counter is never seen half updated. Listings add the deltas not folded yet (see mergedCounter).
+ * Commands record the last activity of their project (project.last_activity) in the same ledger.
+ */
+@Slf4j
+@Service
+public class AnnotationCounterService implements RuntimeMetrics {
+
+    /* Only one core instance folds the ledger at a time */
+    private static final long COMPACTION_LOCK = 0x636f756e74657273L;
+
+    /* Pending deltas by project (and last command, see project.last_activity), to join as "pending" */
+    public static final String PENDING_BY_PROJECT =
+            "SELECT project_id, SUM(annotation_delta) AS annotations, SUM(job_annotation_delta) AS job_annotations, " +
+            "SUM(reviewed_annotation_delta) AS reviewed_annotations, MAX(last_activity) AS last_activity " +
+            "FROM annotation_counter_delta WHERE project_id IS NOT NULL GROUP BY project_id";
+
+    /* Pending deltas by image instance, to join as "pending" */
+    public static final String PENDING_BY_IMAGE =
+            "SELECT image_id, SUM(annotation_delta) AS annotations, SUM(job_annotation_delta) AS job_annotations, " +
+            "SUM(reviewed_annotation_delta) AS reviewed_annotations " +
+            "FROM annotation_counter_delta WHERE image_id IS NOT NULL GROUP BY image_id";
+
+    /* Counter columns of project, with the pending delta column to add */
+    public static final Map<String, String> PROJECT_COUNTERS = counters(
+            "count_annotations", "annotations",
+            "count_job_annotations", "job_annotations",
+            "count_reviewed_annotations", "reviewed_annotations");
+
+    /* Counter columns of image_instance, with the pending delta column to add */
+    public static final Map<String, String> IMAGE_COUNTERS = counters(
+            "count_image_annotations", "annotations",
+            "count_image_job_annotations", "job_annotations",
+            "count_image_reviewed_annotations", "reviewed_annotations");
+
+    private static final String FOLD =
+            "WITH folded AS ( " +
+            "    DELETE FROM annotation_counter_delta " +
+            "    WHERE id IN (SELECT id FROM annotation_counter_delta ORDER BY id LIMIT :limit) " +
+            "    RETURNING project_id, image_id, slice_id, user_id, annotation_delta, job_annotation_delta, reviewed_annotation_delta, last_activity " +
+            "), by_project AS ( " +
+            "    SELECT project_id, SUM(annotation_delta) AS annotations, SUM(job_annotation_delta) AS job_annotations, SUM(reviewed_annotation_delta) AS reviewed_annotations, " +
+            "    MAX(last_activity) AS last_activity " +
+            "    FROM folded WHERE project_id IS NOT NULL GROUP BY project_id " +
+            "), by_image AS ( " +
+            "    SELECT image_id, SUM(annotation_delta) AS annotations, SUM(job_annotation_delta) AS job_annotations, SUM(reviewed_annotation_delta) AS reviewed_annotations " +
+            "    FROM folded WHERE image_id IS NOT NULL GROUP BY image_id " +
+            "), by_index AS ( " +
+            "    SELECT slice_id, user_id, SUM(annotation_delta + job_annotation_delta) AS annotations, SUM(reviewed_annotation_delta) AS reviewed_annotations " +
+            "    FROM folded WHERE slice_id IS NOT NULL AND user_id IS NOT NULL GROUP BY slice_id, user_id " +
+            "), projects AS ( " +
+            "    UPDATE project p SET count_annotations = p.count_annotations + d.annotations, " +
+            "        count_job_annotations = p.count_job_annotations + d.job_annotations, " +
+            "        count_reviewed_annotations = p.count_reviewed_annotations + d.reviewed_annotations, " +
+            "        last_activity = GREATEST(p.last_activity, d.last_activity) " +
+            "    FROM by_project d WHERE p.id = d.project_id RETURNING p.id " +
+            "), images AS ( " +
+            "    UPDATE image_instance ii SET count_image_annotations = ii.count_image_annotations + d.annotations, " +
+            "        count_image_job_annotations = ii.count_image_job_annotations + d.job_annotations, " +
+            "        count_image_reviewed_annotations = ii.count_image_reviewed_annotations + d.reviewed_annotations " +
+            "    FROM by_image d WHERE ii.id = d.image_id RETURNING ii.id " +
+            "), indexes AS ( " +
+            "    UPDATE annotation_index ai SET count_annotation = ai.count_annotation + d.annotations, " +
+            "        count_reviewed_annotation = ai.count_reviewed_annotation + d.reviewed_annotations, version = ai.version + 1 " +
+            "    FROM by_index d WHERE ai.slice_id = d.slice_id AND ai.user_id = d.user_id RETURNING ai.slice_id, ai.user_id " +
+            "), new_indexes AS ( " +
+            "    INSERT INTO annotation_index(user_id, slice_id, count_annotation, count_reviewed_annotation, version, id) " +
+            "    SELECT d.user_id, d.slice_id, d.annotations, d.reviewed_annotations, 0, nextval('hibernate_sequence') " +
+            "    FROM by_index d " +
+            "    WHERE d.annotations + d.reviewed_annotations > 0 " +
+            "    AND NOT EXISTS (SELECT 1 FROM indexes i WHERE i.slice_id = d.slice_id AND i.user_id = d.user_id) " +
+            "    AND EXISTS (SELECT 1 FROM slice_instance s WHERE s.id = d.slice_id) " +
+            "    AND EXISTS (SELECT 1 FROM sec_user u WHERE u.id = d.user_id) " +
+            "    RETURNING id " +
+            ") " +
+            "SELECT (SELECT COUNT(*) FROM folded), " +
+            "(SELECT COUNT(*) FROM projects) + (SELECT COUNT(*) FROM images) + (SELECT COUNT(*) FROM indexes) + (SELECT COUNT(*) FROM new_indexes)";
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final AnnotationCounterProperties properties;
+
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder foldedDeltas = new LongAdder();
+
+    private final LongAdder updatedCounters = new LongAdder();
+
+    private final LongAdder compactions = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final AtomicLong lastCompactionMillis = new AtomicLong();
+
+    public AnnotationCounterService(
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager,
+            ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = applicationProperties.getAnnotationCounters();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.getCompactionIntervalInMillis() > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "annotation-counters");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::compactAll, properties.getCompactionIntervalInMillis(),
+                    properties.getCompactionIntervalInMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Fold at most compactionBatchSize deltas into the counters, in the caller transaction if there is one
+     * @return number of folded deltas (0 if another instance is folding the ledger)
+     */
+    public long compact() {
+        Long folded = transactionTemplate.execute(status -> {
+            Boolean locked = (Boolean) entityManager.createNativeQuery("SELECT pg_try_advisory_xact_lock(:lock)")
+                    .setParameter("lock", COMPACTION_LOCK)
+                    .getSingleResult();
+            if (!Boolean.TRUE.equals(locked)) {
+                return 0L;
+            }
+            long start = System.currentTimeMillis();
+            Object[] result = (Object[]) entityManager.createNativeQuery(FOLD)
+                    .setParameter("limit", Math.max(1, properties.getCompactionBatchSize()))
+                    .getSingleResult();
+            long deltas = ((Number) result[0]).longValue();
+            if (deltas > 0) {
+                foldedDeltas.add(deltas);
+                updatedCounters.add(((Number) result[1]).longValue());
+                lastCompactionMillis.set(System.currentTimeMillis() - start);
+            }
+            return deltas;
+        });
+        compactions.increment();
+        return folded == null ? 0 : folded;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "annotationCounters";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        return JsonObject.of(
+                "foldedDeltas", foldedDeltas.sum(),
+                "updatedCounters", updatedCounters.sum(),
+                "compactions", compactions.sum(),
+                "failures", failures.sum(),
+                "lastCompactionMillis", lastCompactionMillis.get()
+        );
+    }
+
+    /**
+     * @return the counter column of the table alias plus its pending deltas (joined as "pending")
+     */
+    public static String mergedCounter(String alias, Map<String, String> counters, String column) {
+        return "(" + alias + "." + column + " + COALESCE(pending." + counters.get(column) + ", 0))";
+    }
+
+    /**
+     * Replace the counter columns of the table alias in a SQL fragment (search conditions, sort) by the merged counters
+     */
+    public static String withPendingCounters(String sql, String alias, Map<String, String> counters) {
+        for (String column : counters.keySet()) {
+            sql = sql.replace(alias + "." + column, mergedCounter(alias, counters, column));
+        }
+        return sql;
+    }
+
+    /**
+     * @return the merged counters of the table alias, selected as merged_[column]
+     */
+    public static String selectMergedCounters(String alias, Map<String, String> counters) {
+        StringBuilder select = new StringBuilder();
+        for (String column : counters.keySet()) {
+            select.append(", ").append(mergedCounter(alias, counters, column)).append(" AS merged_").append(column).append(" ");
+        }
+        return select.toString();
+    }
+
+    private void compactAll() {
+        try {
+            // a full batch means that the ledger may have more deltas
+            while (compact() >= properties.getCompactionBatchSize()) {
+                log.debug("Annotation counter ledger is behind, folding the next batch");
+            }
+        } catch (RuntimeException e) {
+            failures.increment();
+            log.error("Cannot fold annotation counter deltas: " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, String> counters(String... columnsAndDeltas) {
+        Map<String, String> counters = new LinkedHashMap<>();
+        for (int i = 0; i < columnsAndDeltas.length; i += 2) {
+            counters.put(columnsAndDeltas[i], columnsAndDeltas[i + 1]);
+        }
+        return counters;
+    }
+}
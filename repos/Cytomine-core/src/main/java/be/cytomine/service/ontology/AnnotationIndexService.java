@@ -46,24 +46,21 @@ public class AnnotationIndexService {
     /**
      * Return the number of annotation created by this user for this slice
      * If user is null, return the number of reviewed annotation for this slice
+     * Counter deltas not folded yet into the indexes are included.
      */
     public Long count(SliceInstance slice, SecUser user) {
-        if (user!=null) {
-            return annotationIndexRepository.findOneBySliceAndUser(slice, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
-        } else {
-            return annotationIndexRepository.findAllBySlice(slice)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
-        }
+        return count(List.of(slice), user);
     }
 
     public Long count(List<SliceInstance> slices, SecUser user) {
+        if (slices.isEmpty()) {
+            return 0L;
+        }
+        List<Long> sliceIds = slices.stream().map(SliceInstance::getId).toList();
         if (user!=null) {
-            return annotationIndexRepository.findOneBySliceInAndUser(slices, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
+            return annotationIndexRepository.countAnnotationsBySlicesAndUser(sliceIds, user.getId());
         } else {
-            return annotationIndexRepository.findAllBySliceIn(slices)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
+            return annotationIndexRepository.countReviewedAnnotationsBySlices(sliceIds);
         }
     }
 
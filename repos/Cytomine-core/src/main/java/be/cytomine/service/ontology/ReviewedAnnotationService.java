@@ -36,6 +36,7 @@ import be.cytomine.repository.ontology.TermRepository;
 import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.repository.security.UserRepository;
 import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
@@ -76,6 +77,9 @@ public class ReviewedAnnotationService extends ModelService {
     @Autowired
     private AnnotationListingService annotationListingService;
 
+    @Autowired
+    private SliceAnnotationIndexCache sliceAnnotationIndexCache;
+
     @Autowired
     private EntityManager entityManager;
 
@@ -417,6 +421,9 @@ public class ReviewedAnnotationService extends ModelService {
 
         if (!reviewed.isEmpty()) {
             reviewedAnnotationRepository.deleteAll(reviewed);
+            // deleted without the command: the indexes of the slices are dropped
+            reviewed.stream().map(annotation -> annotation.getSlice().getId()).distinct()
+                    .forEach(sliceAnnotationIndexCache::invalidateSlice);
         }
 
 
@@ -430,6 +437,18 @@ public class ReviewedAnnotationService extends ModelService {
         ((ReviewedAnnotation)domain).setWktLocation(((ReviewedAnnotation)domain).getLocation().toText());
     }
 
+    protected void afterAdd(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onSaved((ReviewedAnnotation)domain);
+    }
+
+    protected void afterUpdate(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onSaved((ReviewedAnnotation)domain);
+    }
+
+    protected void afterDelete(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onDeleted((ReviewedAnnotation)domain);
+    }
+
     public List<Object> getStringParamsI18n(CytomineDomain domain) {
         ReviewedAnnotation annotation = (ReviewedAnnotation)domain;
         return List.of(currentUserService.getCurrentUser().toString(), annotation.getImage().getBaseImage().getOriginalFilename());
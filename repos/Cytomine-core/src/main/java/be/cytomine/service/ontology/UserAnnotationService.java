@@ -37,6 +37,7 @@ import be.cytomine.repository.ontology.AlgoAnnotationTermRepository;
 import be.cytomine.repository.ontology.SharedAnnotationRepository;
 import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
@@ -85,6 +86,9 @@ public class UserAnnotationService extends ModelService {
     @Autowired
     private AnnotationListingService annotationListingService;
 
+    @Autowired
+    private SliceAnnotationIndexCache sliceAnnotationIndexCache;
+
     @Autowired
     private EntityManager entityManager;
 
@@ -387,6 +391,7 @@ public class UserAnnotationService extends ModelService {
     }
 
     protected void afterAdd(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onSaved((UserAnnotation)domain);
         response.getData().put("annotation", response.getData().get("userannotation"));
         response.getData().remove("userannotation");
     }
@@ -461,6 +466,7 @@ public class UserAnnotationService extends ModelService {
 
 
     protected void afterUpdate(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onSaved((UserAnnotation)domain);
         String query = "UPDATE annotation_link SET updated = NOW() WHERE annotation_ident = " + domain.getId();
         getEntityManager().createNativeQuery(query);
 
@@ -491,6 +497,7 @@ public class UserAnnotationService extends ModelService {
     }
 
     protected void afterDelete(CytomineDomain domain, CommandResponse response) {
+        sliceAnnotationIndexCache.onDeleted((UserAnnotation)domain);
         response.getData().put("annotation", response.getData().get("userannotation"));
         response.getData().remove("userannotation");
     }
@@ -46,8 +46,11 @@ import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.PermissionService;
+import be.cytomine.service.command.TransactionService;
+import be.cytomine.service.database.BulkDeleteService;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.ontology.AlgoAnnotationTermService;
+import be.cytomine.service.ontology.AnnotationCounterService;
 import be.cytomine.service.ontology.AnnotationTermService;
 import be.cytomine.service.ontology.OntologyService;
 import be.cytomine.service.ontology.ReviewedAnnotationService;
@@ -55,6 +58,8 @@ import be.cytomine.service.search.ProjectSearchExtension;
 import be.cytomine.service.security.SecUserSecRoleService;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.PresenceIndex;
+import be.cytomine.service.utils.ListingCountService;
 import be.cytomine.service.utils.NotificationService;
 import be.cytomine.service.utils.TaskService;
 import be.cytomine.utils.*;
@@ -163,6 +168,9 @@ public class ProjectService extends ModelService {
     @Autowired
     MongoClient mongoClient;
 
+    @Autowired
+    PresenceIndex presenceIndex;
+
     @Autowired
     private CurrentRoleService currentRoleService;
 
@@ -178,6 +186,15 @@ public class ProjectService extends ModelService {
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private BulkDeleteService bulkDeleteService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private ListingCountService listingCountService;
+
     public Project get(Long id) {
         return find(id).orElse(null);
     }
@@ -258,6 +275,14 @@ public class ProjectService extends ModelService {
     }
 
     public Page<JsonObject> list(SecUser user, ProjectSearchExtension projectSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset) {
+        return list(user, projectSearchExtension, searchParameters, sortColumn, sortDirection, max, offset, null, CountMode.EXACT);
+    }
+
+    /**
+     * List the projects of the user (all projects if null), from the offset or after the cursor of the previous page
+     * (keyset pagination, see KeysetCursor)
+     */
+    public Page<JsonObject> list(SecUser user, ProjectSearchExtension projectSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset, String cursor, CountMode countMode) {
         if (user==null) {
             securityACLService.checkAdmin(currentUserService.getCurrentUser());
         } else {
@@ -307,7 +332,7 @@ public class ProjectService extends ModelService {
                     validParameters.add(new SearchParameterEntry(property, parameter.getOperation(), parameter.getValue()));
                     break;
                 case "membersCount" :
-                    property = "members.member_count";
+                    property = "p.count_members";
                     parameter.setValue(SQLSearchParameter.convertSearchParameter(Long.class, parameter.getValue(), getEntityManager()));
                     validParameters.add(new SearchParameterEntry(property, parameter.getOperation(), parameter.getValue()));
                     break;
@@ -327,9 +352,9 @@ public class ProjectService extends ModelService {
         log.debug("sqlSearchConditions.params:");
         sqlSearchConditions.getSqlParameters().entrySet().stream().map(Object::toString).forEach(log::debug);
 
-        String project = sqlSearchConditions.getData().stream().filter(x -> x.getProperty().startsWith("p.")).map(x -> x.getSql()).collect(Collectors.joining(" AND "));
+        String project = sqlSearchConditions.getData().stream().filter(x -> x.getProperty().startsWith("p.") && !x.getProperty().equals("p.count_members")).map(x -> x.getSql()).collect(Collectors.joining(" AND "));
         String ontology = sqlSearchConditions.getData().stream().filter(x -> x.getProperty().startsWith("ontology.")).map(x -> x.getSql()).collect(Collectors.joining(" AND "));
-        String members = sqlSearchConditions.getData().stream().filter(x -> x.getProperty().startsWith("members.")).map(x -> x.getSql()).collect(Collectors.joining(" AND "));
+        String members = sqlSearchConditions.getData().stream().filter(x -> x.getProperty().equals("p.count_members")).map(x -> x.getSql()).collect(Collectors.joining(" AND "));
         String tags = sqlSearchConditions.getData().stream().filter(x -> x.getProperty().startsWith("t.")).map(x -> x.getSql()).collect(Collectors.joining(" AND "));
 
         if (!members.isBlank() && !projectSearchExtension.isWithMembersCount()) {
@@ -355,6 +380,10 @@ public class ProjectService extends ModelService {
         select += ", ontology.name as ontology_name, ontology.id as ontology ";
         from += "LEFT OUTER JOIN ontology ON p.ontology_id = ontology.id ";
 
+        // annotation counters not folded yet
+        select += AnnotationCounterService.selectMergedCounters("p", AnnotationCounterService.PROJECT_COUNTERS);
+        from += "LEFT OUTER JOIN (" + AnnotationCounterService.PENDING_BY_PROJECT + ") pending ON pending.project_id = p.id ";
+
         search = "";sort = "";
         if(!project.isBlank()){
             search +=" AND ";
@@ -373,22 +402,13 @@ public class ProjectService extends ModelService {
         }
 
 
+        // maintained by the command_history and acl_entry triggers (last activities not folded yet are pending)
+        String lastActivity = "GREATEST(p.last_activity, pending.last_activity)";
         if(projectSearchExtension.isWithLastActivity()) {
-            select += ", activities.max_date ";
-            from += "LEFT OUTER JOIN " +
-                    "( SELECT  project_id, MAX(created) max_date " +
-                    "  FROM command_history " +
-                    "  GROUP BY project_id " +
-                    ") activities ON p.id = activities.project_id ";
+            select += ", " + lastActivity + " AS max_date ";
         }
         if(projectSearchExtension.isWithMembersCount()) {
-            select += ", members.member_count ";
-            from += "LEFT OUTER JOIN " +
-                    " ( SELECT aclObjectId.object_id_identity as project_id, COUNT(DISTINCT secUser.id) as member_count " +
-                    "   FROM acl_object_identity as aclObjectId, acl_entry as aclEntry, acl_sid as aclSid, sec_user as secUser " +
-                    "   WHERE aclEntry.acl_object_identity = aclObjectId.id and aclEntry.sid = aclSid.id and aclSid.sid = secUser.username and secUser.class = 'be.cytomine.domain.security.User' " +
-                    "   GROUP BY aclObjectId.object_id_identity " +
-                    ") members ON p.id = members.project_id ";
+            select += ", p.count_members AS member_count ";
 
             if(!members.isBlank()){
                 search +=" AND ";
@@ -422,6 +442,8 @@ public class ProjectService extends ModelService {
         }
 
 
+        // keyset pagination on the sort column then the id (not on the roles, sorted by two columns)
+        boolean keysetSortable = !sortColumn.equals("currentUserRole");
         switch(sortColumn) {
             case "currentUserRole" :
                 if(projectSearchExtension.isWithCurrentUserRoles()) {
@@ -430,12 +452,12 @@ public class ProjectService extends ModelService {
                 break;
             case "membersCount" :
                 if(projectSearchExtension.isWithMembersCount()) {
-                    sortColumn="members.member_count";
+                    sortColumn="p.count_members";
                 }
                 break;
             case "lastActivity" :
                 if(projectSearchExtension.isWithLastActivity()) {
-                    sortColumn="activities.max_date";
+                    sortColumn=lastActivity;
                 }
                 break;
             case "name":
@@ -449,16 +471,35 @@ public class ProjectService extends ModelService {
                 break;
         }
 
+        search = AnnotationCounterService.withPendingCounters(search, "p", AnnotationCounterService.PROJECT_COUNTERS);
+        sortColumn = AnnotationCounterService.withPendingCounters(sortColumn, "p", AnnotationCounterService.PROJECT_COUNTERS);
+
+        boolean desc = sortDirection.equals("desc");
         sort = " ORDER BY "+sortColumn;
-        sort += (sortDirection.equals("desc")) ? " DESC " : " ASC ";
-        sort += (sortDirection.equals("desc")) ? " NULLS LAST " : " NULLS FIRST ";
+        sort += desc ? " DESC " : " ASC ";
+        sort += desc ? " NULLS LAST " : " NULLS FIRST ";
+
+        // counters are sorted by their merged expression, selected as keyset value
+        String keysetColumn = sortColumn.matches("[a-z_]+") ? "p." + sortColumn : sortColumn;
+        String keyset = "";
+        KeysetCursor keysetCursor = cursor != null ? KeysetCursor.decode(cursor) : null;
+        if (keysetCursor != null && !keysetSortable) {
+            throw new WrongArgumentException("Cannot list projects after a cursor when sorted by " + sortColumn);
+        }
+        if (keysetSortable) {
+            select += ", " + keysetColumn + " AS keyset_value ";
+            sort += ", p.id " + (desc ? "DESC " : "ASC ");
+        }
+        if (keysetCursor != null) {
+            keyset = keysetCursor.condition(keysetColumn, "p.id", desc, desc);
+        }
 
-        request = select + from + where + search + sort;
+        request = select + from + where + search + keyset + sort;
 
         if (max > 0) {
             request += " LIMIT " + max;
         }
-        if (offset > 0) {
+        if (offset > 0 && keysetCursor == null) {
             request += " OFFSET " + offset;
         }
 
@@ -468,8 +509,12 @@ public class ProjectService extends ModelService {
         for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
             query.setParameter(entry.getKey(), entry.getValue());
         }
+        if (keysetCursor != null) {
+            keysetCursor.getParameters().forEach(query::setParameter);
+        }
         List<Tuple> resultList = query.getResultList();
         List<JsonObject> results = new ArrayList<>();
+        String nextCursor = null;
         for (Tuple rowResult : resultList) {
             JsonObject result = new JsonObject();
             for (TupleElement<?> element : rowResult.getElements()) {
@@ -482,6 +527,9 @@ public class ProjectService extends ModelService {
             }
             result.computeIfPresent("created", (k, v) -> ((Date)v).getTime());
             result.computeIfPresent("updated", (k, v) -> ((Date)v).getTime());
+            result.put("countAnnotations", result.remove("mergedCountAnnotations"));
+            result.put("countJobAnnotations", result.remove("mergedCountJobAnnotations"));
+            result.put("countReviewedAnnotations", result.remove("mergedCountReviewedAnnotations"));
             Ontology eagerOntology = new Ontology();
             eagerOntology.setId((Long)result.get("ontology"));
             eagerOntology.setName((String)result.get("ontologyName"));
@@ -505,15 +553,14 @@ public class ProjectService extends ModelService {
                 object.put("currentUserRoles", JsonObject.of("admin", result.get("isAdmin"), "representative", result.get("isRepresentative")));
             }
             results.add(object);
+            if (keysetSortable && max > 0 && results.size() == max) {
+                nextCursor = KeysetCursor.encode(rowResult.get("keyset_value"), (Long) result.get("id"));
+            }
         }
-        request = "SELECT COUNT(DISTINCT p.id) " + from + where + search;
-        query = getEntityManager().createNativeQuery(request);
-        for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
-            query.setParameter(entry.getKey(), entry.getValue());
-        }
-        long count = (Long)query.getResultList().get(0);
-        Page<JsonObject> page = PageUtils.buildPageFromPageResults(results, max, offset, count);
-        return page;
+        return listingCountService.page(results, max, offset, keysetCursor != null, nextCursor, countMode,
+                "SELECT COUNT(DISTINCT p.id) " + from + where + search,
+                "SELECT DISTINCT p.id " + from + where + search,
+                mapParams);
 
     }
 
@@ -818,6 +865,9 @@ public class ProjectService extends ModelService {
     }
 
     public List<Long> getActiveProjects() {
+        if (presenceIndex.isEnabled()) {
+            return new ArrayList<>(presenceIndex.getActiveProjects().keySet());
+        }
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
         List<Bson> requests = new ArrayList<>();
         requests.add(match(gte("created", xSecondAgo)));
@@ -829,17 +879,23 @@ public class ProjectService extends ModelService {
     }
 
     public List<JsonObject> getActiveProjectsWithNumberOfUsers() {
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
-        List<Bson> requests = new ArrayList<>();
-        requests.add(match(gte("created", xSecondAgo)));
-        requests.add(group(Document.parse("{project: '$project', user: '$user'}")));
-        requests.add(group("$_id.project", Accumulators.sum("users", 1)));
+        List<JsonObject> tmp;
+        if (presenceIndex.isEnabled()) {
+            tmp = presenceIndex.getActiveProjects().entrySet().stream()
+                    .map(x -> JsonObject.of("project", x.getKey(), "users", x.getValue())).collect(Collectors.toList());
+        } else {
+            Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
+            List<Bson> requests = new ArrayList<>();
+            requests.add(match(gte("created", xSecondAgo)));
+            requests.add(group(Document.parse("{project: '$project', user: '$user'}")));
+            requests.add(group("$_id.project", Accumulators.sum("users", 1)));
 
-        MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-        List<Document> results = persistentImageConsultation.aggregate(requests)
-                .into(new ArrayList<>());
+            MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
+            List<Document> results = persistentImageConsultation.aggregate(requests)
+                    .into(new ArrayList<>());
 
-        List<JsonObject> tmp = results.stream().map(x -> JsonObject.of("project", x.get("_id"), "users", x.get("users"))).collect(Collectors.toList());
+            tmp = results.stream().map(x -> JsonObject.of("project", x.get("_id"), "users", x.get("users"))).collect(Collectors.toList());
+        }
 
         List<Project> projects = projectRepository.findAllByIdIn(tmp.stream().map(x-> (Long)x.get("project")).collect(Collectors.toList()));
 
@@ -868,7 +924,19 @@ public class ProjectService extends ModelService {
         securityACLService.check(domain.container(),ADMINISTRATION);
         securityACLService.checkIsNotReadOnly(domain.container());
         Command c = new DeleteCommand(currentUser, transaction);
-        return executeCommand(c,domain, null);
+        return executeCommand(c,domain, null, task);
+    }
+
+    /**
+     * Delete the project in the background: annotations, slices and tracks are deleted by chunks, each one in its
+     * own transaction, then the project is deleted as usual. Progress is reported in the task.
+     */
+    public void deleteAsync(Project project, Task task) {
+        securityACLService.check(project, ADMINISTRATION);
+        securityACLService.checkIsNotReadOnly(project);
+        Long id = project.getId();
+        bulkDeleteService.deleteAsync(BulkDeleteService.PROJECT, project, null, task, () ->
+                projectRepository.findById(id).ifPresent(toDelete -> delete(toDelete, transactionService.start(), task, false)));
     }
 
     //TODO
@@ -947,6 +1015,7 @@ public class ProjectService extends ModelService {
         undoStackItemRepository.deleteAllByCommand_Project(project);
         redoStackItemRepository.deleteAllByCommand_Project(project);
         commandRepository.deleteAllByProject(project);
+        permissionService.invalidatePermissionCache(project);
     }
 
     public List<Object> getStringParamsI18n(CytomineDomain domain) {
@@ -964,6 +1033,8 @@ public class ProjectService extends ModelService {
     }
 
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
+        // the summary command is not linked to the project: commands of the project are deleted with it
+        bulkDeleteService.delete(BulkDeleteService.PROJECT, domain, null, transaction, task);
         deleteDependentImageInstance((Project) domain, transaction, task);
         deleteDependentRepresentativeUser((Project) domain, transaction, task);
         deleteDependentMetadata(domain, transaction, task);
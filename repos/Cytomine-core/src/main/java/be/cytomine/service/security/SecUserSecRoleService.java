@@ -31,6 +31,7 @@ import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.repository.security.SecUserSecRoleRepository;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
+import be.cytomine.service.PrincipalCache;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.Task;
@@ -64,6 +65,9 @@ public class SecUserSecRoleService extends ModelService {
     @Autowired
     SecUserRepository secUserRepository;
 
+    @Autowired
+    PrincipalCache principalCache;
+
     @Override
     public Class currentDomain() {
         return SecUserSecRoleService.class;
@@ -134,9 +138,7 @@ public class SecUserSecRoleService extends ModelService {
             securityACLService.checkUser(currentUser);
         }
 
-
-
-
+        principalCache.invalidate(user.getUsername());
         return executeCommand(new AddCommand(currentUser),null,jsonObject);
     }
 
@@ -154,6 +156,7 @@ public class SecUserSecRoleService extends ModelService {
         } else {
             securityACLService.checkAdmin(currentUser);
         }
+        principalCache.invalidate(secUserSecRole.getSecUser().getUsername());
         Command c = new DeleteCommand(currentUser, transaction);
         return executeCommand(c,domain, null);
     }
@@ -178,6 +181,7 @@ public class SecUserSecRoleService extends ModelService {
         SecRole roleAdmin = secRoleRepository.getByAuthority("ROLE_ADMIN");
         SecRole roleSuperAdmin = secRoleRepository.getByAuthority("ROLE_SUPER_ADMIN");
 
+        principalCache.invalidate(user.getUsername());
         switch (role.getAuthority()) {
             case "ROLE_SUPER_ADMIN":
                 addRole(user, roleGuest);
@@ -50,6 +50,8 @@ import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.PermissionService;
+import be.cytomine.service.PrincipalCache;
+import be.cytomine.service.database.BulkDeleteService;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.image.server.StorageService;
 import be.cytomine.service.ontology.*;
@@ -58,8 +60,10 @@ import be.cytomine.service.project.ProjectRepresentativeUserService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceIndex;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
+import be.cytomine.service.utils.ListingCountService;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import lombok.extern.slf4j.Slf4j;
@@ -106,6 +110,9 @@ public class SecUserService extends ModelService {
     @Autowired
     private CurrentRoleService currentRoleService;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
     @Autowired
     private PermissionService permissionService;
 
@@ -127,6 +134,9 @@ public class SecUserService extends ModelService {
     @Autowired
     private LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    private PresenceIndex presenceIndex;
+
     @Autowired
     private CommandHistoryRepository commandHistoryRepository;
 
@@ -142,41 +152,23 @@ public class SecUserService extends ModelService {
     @Autowired
     private SecUserSecRoleService secUserSecRoleService;
 
-    @Autowired
-    private AlgoAnnotationService algoAnnotationService;
-
-    @Autowired
-    private AlgoAnnotationRepository algoAnnotationRepository;
-
     @Autowired
     private UserAnnotationService userAnnotationService;
 
     @Autowired
-    private UserAnnotationRepository userAnnotationRepository;
-
-    @Autowired
-    private ReviewedAnnotationService reviewedAnnotationService;
-
-    @Autowired
-    private ReviewedAnnotationRepository reviewedAnnotationRepository;
-
-    @Autowired
-    private AlgoAnnotationTermService algoAnnotationTermService;
+    private ImageInstanceRepository imageInstanceRepository;
 
     @Autowired
-    private AlgoAnnotationTermRepository algoAnnotationTermRepository;
+    private ImageInstanceService imageInstanceService;
 
     @Autowired
-    private AnnotationTermService annotationTermService;
+    private BulkDeleteService bulkDeleteService;
 
     @Autowired
     private AnnotationTermRepository annotationTermRepository;
 
     @Autowired
-    private ImageInstanceRepository imageInstanceRepository;
-
-    @Autowired
-    private ImageInstanceService imageInstanceService;
+    private ListingCountService listingCountService;
 
     @Autowired
     private OntologyRepository ontologyRepository;
@@ -187,9 +179,6 @@ public class SecUserService extends ModelService {
     @Autowired
     private UploadedFileRepository uploadedFileRepository;
 
-    @Autowired
-    private AnnotationIndexRepository annotationIndexRepository;
-
     @Autowired
     private NestedImageInstanceRepository nestedImageInstanceRepository;
 
@@ -286,6 +275,13 @@ public class SecUserService extends ModelService {
     }
 
     public Page<Map<String, Object>> list(UserSearchExtension userSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset) {
+        return list(userSearchExtension, searchParameters, sortColumn, sortDirection, max, offset, null, CountMode.EXACT);
+    }
+
+    /**
+     * List the users, from the offset or after the cursor of the previous page (keyset pagination, see KeysetCursor)
+     */
+    public Page<Map<String, Object>> list(UserSearchExtension userSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset, String cursor, CountMode countMode) {
 
         securityACLService.checkGuest(currentUserService.getCurrentUser());
 
@@ -302,6 +298,9 @@ public class SecUserService extends ModelService {
         if (ReflectionUtils.findField(User.class, sortColumn) == null && !(List.of("role", "fullName").contains(sortColumn))) {
             throw new CytomineMethodNotYetImplementedException("User list sorted by " + sortColumn + "is not implemented");
         }
+        if (sortColumn.equals("role") && cursor != null) {
+            throw new WrongArgumentException("Cannot use a cursor on a user list sorted by role");
+        }
 
         Optional<SearchParameterEntry> multiSearch = searchParameters.stream().filter(x -> x.getProperty().equals("fullName")).findFirst();
 
@@ -329,20 +328,26 @@ public class SecUserService extends ModelService {
         }
 
 
+        // keyset pagination on the sorted column then the id (nulls are last in ascending order)
+        boolean desc = sortDirection.equalsIgnoreCase("desc");
+        String keysetColumn = sortColumn.equals("fullName") ? "u.firstname" : "u." + sortColumn;
+        KeysetCursor keysetCursor = null;
         if (sortColumn.equals("role")) {
             sort = "ORDER BY " + sortColumn + " " + sortDirection + ", u.id ASC ";
-        } else if (sortColumn.equals("fullName")) {
-            sort = "ORDER BY u.firstname " + sortDirection + ", u.id ";
-        } else if (!sortColumn.equals("id")) { //avoid random sort when multiple values of the
-            sort = "ORDER BY u." + sortColumn + " " + sortDirection + ", u.id ";
-        } else sort = "ORDER BY u." + sortColumn + " " + sortDirection + " ";
+        } else {
+            // the id avoids a random sort when several users have the same value
+            sort = "ORDER BY " + keysetColumn + " " + sortDirection + ", u.id " + (desc ? "DESC " : "ASC ");
+            select += ", " + keysetColumn + " AS keyset_value ";
+            keysetCursor = cursor != null ? KeysetCursor.decode(cursor) : null;
+        }
+        String keyset = keysetCursor != null ? keysetCursor.condition(keysetColumn, "u.id", desc, !desc) : "";
 
-        String request = select + from + where + search + groupBy + sort;
+        String request = select + from + where + search + keyset + groupBy + sort;
 
         if (max > 0) {
             request += " LIMIT " + max;
         }
-        if (offset > 0) {
+        if (offset > 0 && keysetCursor == null) {
             request += " OFFSET " + offset;
         }
 
@@ -350,8 +355,12 @@ public class SecUserService extends ModelService {
         for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
             query.setParameter(entry.getKey(), entry.getValue());
         }
+        if (keysetCursor != null) {
+            keysetCursor.getParameters().forEach(query::setParameter);
+        }
         List<Tuple> resultList = query.getResultList();
         List<Map<String, Object>> results = new ArrayList<>();
+        String nextCursor = null;
         for (Tuple rowResult : resultList) {
             JsonObject result = new JsonObject();
             for (TupleElement<?> element : rowResult.getElements()) {
@@ -359,6 +368,10 @@ public class SecUserService extends ModelService {
                 String alias = SQLUtils.toCamelCase(element.getAlias());
                 result.put(alias, value);
             }
+            Object keysetValue = result.remove("keysetValue");
+            if (!sortColumn.equals("role") && max > 0 && results.size() + 1 == max) {
+                nextCursor = KeysetCursor.encode(keysetValue, (Long) result.get("id"));
+            }
 
             result.put("language", Language.valueOf(result.getJSONAttrStr("language")));
             JsonObject object = User.getDataFromDomain(new User().buildDomainFromJson(result, getEntityManager()));
@@ -384,15 +397,11 @@ public class SecUserService extends ModelService {
             }
             results.add(object);
         }
-        request = "SELECT COUNT(DISTINCT U.id) " + from + where + search;
-        query = getEntityManager().createNativeQuery(request);
-        for (Map.Entry<String, Object> entry : mapParams.entrySet()) {
-            query.setParameter(entry.getKey(), entry.getValue());
-        }
-        long count = (Long) query.getResultList().get(0);
 
-        Page<Map<String, Object>> page = PageUtils.buildPageFromPageResults(results, max, offset, count);
-        return page;
+        return listingCountService.page(results, max, offset, keysetCursor != null, nextCursor, countMode,
+                "SELECT COUNT(DISTINCT U.id) " + from + where + search,
+                "SELECT DISTINCT u.id " + from + where + search,
+                mapParams);
     }
 
     public Page<JsonObject> listUsersExtendedByProject(Project project, UserSearchExtension userSearchExtension, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset) {
@@ -637,6 +646,7 @@ public class SecUserService extends ModelService {
             throw new WrongArgumentException("User already locked !");
         }
 
+        principalCache.invalidate(user.getUsername());
         return executeCommand(new EditCommand(currentUser, null), user, user.toJsonObject().withChange("enabled", false));
     }
 
@@ -648,6 +658,7 @@ public class SecUserService extends ModelService {
             throw new WrongArgumentException("User already unlocked !");
         }
 
+        principalCache.invalidate(user.getUsername());
         return executeCommand(new EditCommand(currentUser, null), user, user.toJsonObject().withChange("enabled", true));
     }
 
@@ -781,9 +792,11 @@ public class SecUserService extends ModelService {
      */
     public List<SecUser> getAllOnlineUsers() {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
+        if (presenceIndex.isEnabled()) {
+            return secUserRepository.findAllByIdIn(presenceIndex.getOnlineUsers());
+        }
         //get date with -X secondes
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
         List<LastConnection> connections = lastConnectionRepository.findAllByCreatedAfter(xSecondAgo);
         List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
         return secUserRepository.findAllByIdIn(userIds);
@@ -794,9 +807,11 @@ public class SecUserService extends ModelService {
      */
     public List<Long> getAllOnlineUserIds(Project project) {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
+        if (presenceIndex.isEnabled()) {
+            return presenceIndex.getOnlineUsers(project.getId());
+        }
         //get date with -X secondes
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
         List<LastConnection> connections = lastConnectionRepository.findAllByProjectAndCreatedAfter(project.getId(), xSecondAgo);
         List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
         return userIds;
@@ -824,6 +839,12 @@ public class SecUserService extends ModelService {
     public List<SecUser> getAllFriendsUsersOnline(SecUser user) {
         securityACLService.checkIsSameUser(user, currentUserService.getCurrentUser());
         List<SecUser> friends = getAllFriendsUsers(user);
+        if (presenceIndex.isEnabled()) {
+            return friends.stream()
+                    .distinct()
+                    .filter(friend -> presenceIndex.isOnline(friend.getId()))
+                    .collect(Collectors.toList());
+        }
         List<SecUser> friendsOnline = getAllOnlineUsers().stream()
                 .distinct()
                 .filter(friends::contains)
@@ -884,6 +905,8 @@ public class SecUserService extends ModelService {
         if (!jsonNewData.isMissing("password")) {
             changeUserPassword((User)domain, jsonNewData.getJSONAttrStr("password"));
         }
+        // before the command: the username may change
+        principalCache.invalidate(((SecUser) domain).getUsername());
         return executeCommand(new EditCommand(currentUser, null), domain, jsonNewData);
     }
 
@@ -904,6 +927,7 @@ public class SecUserService extends ModelService {
             securityACLService.checkAdmin(currentUser);
             securityACLService.checkIsSameUser((User) domain, currentUser);
         }
+        principalCache.invalidate(((SecUser) domain).getUsername());
         Command c = new DeleteCommand(currentUser, transaction);
         return executeCommand(c, domain, null);
     }
@@ -1076,6 +1100,7 @@ public class SecUserService extends ModelService {
         redoStackItemRepository.deleteAllByUser(user);
         undoStackItemRepository.deleteAllByUser(user);
         commandRepository.deleteAllByUser(user);
+        permissionService.invalidatePermissionCache(user.getUsername());
     }
 
 
@@ -1101,44 +1126,35 @@ public class SecUserService extends ModelService {
 
 
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
-        deleteDependentAlgoAnnotation((SecUser) domain, transaction, task);
-        deleteDependentAlgoAnnotationTerm((SecUser) domain, transaction, task);
-        deleteDependentAnnotationTerm((SecUser) domain, transaction, task);
+        if (domain instanceof User) {
+            checkDependentAnnotationTermDeletion((User) domain);
+        }
+        // annotations of the user (or user job), terms added by the user and annotation indexes
+        bulkDeleteService.delete(BulkDeleteService.USER, domain, null, transaction, task);
         deleteDependentImageInstance((SecUser) domain, transaction, task);
         deleteDependentOntology((SecUser) domain, transaction, task);
-        deleteDependentReviewedAnnotation((SecUser) domain, transaction, task);
         deleteDependentSecUserSecRole((SecUser) domain, transaction, task);
         deleteDependentAbstractImage((SecUser) domain, transaction, task);
-        deleteDependentUserAnnotation((SecUser) domain, transaction, task);
         deleteDependentUploadedFile((SecUser) domain, transaction, task);
         deleteDependentStorage((SecUser) domain, transaction, task);
-        deleteDependentAnnotationIndex((SecUser) domain, transaction, task);
         deleteDependentNestedImageInstance((SecUser) domain, transaction, task);
         deleteDependentProjectDefaultLayer((SecUser) domain, transaction, task);
         deleteDependentProjectRepresentativeUser((SecUser) domain, transaction, task);
         deleteDependentMessageBrokerServer((SecUser) domain, transaction, task);
     }
 
-    public void deleteDependentAlgoAnnotation(SecUser user, Transaction transaction, Task task) {
-        if (user instanceof UserJob) {
-            for (AlgoAnnotation algoAnnotation : algoAnnotationRepository.findAllByUser((UserJob) user)) {
-                algoAnnotationService.delete(algoAnnotation, transaction, task, false);
-            }
-        }
-    }
-
-    public void deleteDependentAlgoAnnotationTerm(SecUser user, Transaction transaction, Task task) {
-        if (user instanceof UserJob) {
-            for (AlgoAnnotationTerm algoAnnotationTerm : algoAnnotationTermRepository.findAllByUserJob((UserJob) user)) {
-                algoAnnotationTermService.delete(algoAnnotationTerm, transaction, task, false);
-            }
-        }
-    }
-
-    public void deleteDependentAnnotationTerm(SecUser user, Transaction transaction, Task task) {
-        if (user instanceof User) {
-            for (AnnotationTerm annotationTerm : annotationTermRepository.findAllByUser((User) user)) {
-                annotationTermService.delete(annotationTerm, transaction, task, false);
+    /**
+     * Terms are removed by the bulk deletion, not by AnnotationTermService: its permission checks are done here
+     */
+    public void checkDependentAnnotationTermDeletion(User user) {
+        for (AnnotationTerm annotationTerm : annotationTermRepository.findAllByUser(user)) {
+            securityACLService.checkFullOrRestrictedForOwner(annotationTerm, annotationTerm.getUserAnnotation().getUser());
+        }
+        for (AnnotationTerm annotationTerm : annotationTermRepository.findAllByUserAnnotation_User(user)) {
+            try {
+                securityACLService.checkFullOrRestrictedForOwner(annotationTerm, annotationTerm.getUserAnnotation().getUser());
+            } catch (ForbiddenException fe) {
+                throw new ForbiddenException("This annotation has been linked to the term " + annotationTerm.getTerm() + " by " + annotationTerm.userDomainCreator() + ". " + annotationTerm.userDomainCreator() + " must unlink its term before you can delete this annotation.");
             }
         }
     }
@@ -1167,14 +1183,6 @@ public class SecUserService extends ModelService {
         }
     }
 
-    public void deleteDependentReviewedAnnotation(SecUser user, Transaction transaction, Task task) {
-        if (user instanceof User) {
-            for (ReviewedAnnotation reviewedAnnotation : reviewedAnnotationRepository.findAllByUser((User) user)) {
-                reviewedAnnotationService.delete(reviewedAnnotation, transaction, null, false);
-            }
-        }
-    }
-
     public void deleteDependentSecUserSecRole(SecUser user, Transaction transaction, Task task) {
         for (SecUserSecRole secUserSecRole : secUserSecRoleRepository.findAllBySecUser(user)) {
             secUserSecRoleService.delete(secUserSecRole, transaction, null, false);
@@ -1185,14 +1193,6 @@ public class SecUserService extends ModelService {
         //:to do implemented this ? allow this or not ?
     }
 
-    public void deleteDependentUserAnnotation(SecUser user, Transaction transaction, Task task) {
-        if (user instanceof User) {
-            for (UserAnnotation userAnnotation : userAnnotationRepository.findAllByUser((User) user)) {
-                userAnnotationService.delete(userAnnotation, transaction, null, false);
-            }
-        }
-    }
-
     public void deleteDependentUserJob(SecUser user, Transaction transaction, Task task) {
         if (user instanceof User) {
             throw new CytomineMethodNotYetImplementedException("todo");
@@ -1231,10 +1231,6 @@ public class SecUserService extends ModelService {
         }
     }
 
-    public void deleteDependentAnnotationIndex(SecUser user, Transaction transaction, Task task) {
-        annotationIndexRepository.deleteAllByUser(user);
-    }
-
     public void deleteDependentNestedImageInstance(SecUser user, Transaction transaction, Task task) {
         nestedImageInstanceRepository.deleteAllByUser((User) user);
     }
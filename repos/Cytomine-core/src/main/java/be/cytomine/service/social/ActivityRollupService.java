@@ -0,0 +1,417 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ActivityRollupProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.BucketOptions;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.mongodb.client.model.Aggregates.bucket;
+import static com.mongodb.client.model.Aggregates.group;
+import static com.mongodb.client.model.Aggregates.match;
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+
+/**
+ * Hourly rollups of the activity events (project connections, image consultations, annotation actions), used by
+ * the activity charts instead of aggregating all raw events on each request.
+ *
+ * A catch-up job counts the events of each ended hour by project, user and action into the activityRollup
+ * collection, and moves a watermark per activity (activityRollupWatermark). Rollups are recomputed from the raw
+ * events (no increment), so a catch-up can be run again or by several instances. Events deleted after their hour
+ * has been rolled up are still counted.
+ *
+ * Reads (histogram) use rollups for the whole hours before the watermark, and raw events for the current hour,
+ * the partial hours at the bounds of the requested range and the hours containing a cut. Raw events are counted
+ * by MongoDB as well: by hour, and by part of hour for the hours split by a bound or a cut.
+ */
+@Slf4j
+@Service
+public class ActivityRollupService implements RuntimeMetrics {
+
+    public static final long HOUR = 3600000L;
+
+    static final String ROLLUP_COLLECTION = "activityRollup";
+
+    static final String WATERMARK_COLLECTION = "activityRollupWatermark";
+
+    public enum Activity {
+        PROJECT_CONNECTION("persistentProjectConnection"),
+        IMAGE_CONSULTATION("persistentImageConsultation"),
+        ANNOTATION_ACTION("annotationAction");
+
+        private final String collection;
+
+        Activity(String collection) {
+            this.collection = collection;
+        }
+    }
+
+    /* created truncated to the hour (last unit is hour), as in the activity aggregations */
+    private static final Bson HOUR_PROJECTION = Document.parse(
+            "{$project : { project : 1, user : 1, action : 1, hour : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}");
+
+    private static final Bson HOUR_GROUP = Document.parse(
+            "{$group : {_id : { project: '$project', user: '$user', action: '$action', hour: '$hour'}, count : {$sum : 1}}}");
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ActivityRollupProperties properties;
+
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder rolledUpBuckets = new LongAdder();
+
+    private final LongAdder catchUps = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final AtomicLong lastCatchUpMillis = new AtomicLong();
+
+    private final LongAdder histograms = new LongAdder();
+
+    private final LongAdder rawEvents = new LongAdder();
+
+    public ActivityRollupService(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = applicationProperties.getActivityRollup();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.getCatchUpIntervalInMillis() > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "activity-rollup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::scheduledCatchUp, properties.getCatchUpIntervalInMillis(),
+                    properties.getCatchUpIntervalInMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Roll up all the hours ended for settleDelayInMillis, for all activities
+     * @return number of written rollups
+     */
+    public long catchUp() {
+        long start = System.currentTimeMillis();
+        long end = floorHour(start - properties.getSettleDelayInMillis());
+        long buckets = 0;
+        for (Activity activity : Activity.values()) {
+            buckets += catchUp(activity, end);
+        }
+        catchUps.increment();
+        lastCatchUpMillis.set(System.currentTimeMillis() - start);
+        return buckets;
+    }
+
+    /**
+     * Count the events of an activity in [from, to[ (Long.MIN_VALUE and Long.MAX_VALUE for no bound).
+     * Project, user and action are optional filters.
+     * Counts of the histogram are exact for ranges bounded by from, to, cuts or whole hours.
+     */
+    public ActivityHistogram histogram(Activity activity, Long project, Long user, String action, long from, long to, Collection<Long> cuts) {
+        histograms.increment();
+        Long rolledUpTo = rolledUpTo(activity);
+        long rollupFrom = from == Long.MIN_VALUE ? Long.MIN_VALUE : ceilHour(from);
+        long rollupTo = rolledUpTo == null ? Long.MIN_VALUE : Math.min(rolledUpTo, to == Long.MAX_VALUE ? Long.MAX_VALUE : floorHour(to));
+
+        List<Bson> filters = new ArrayList<>();
+        if (project != null) {
+            filters.add(eq("project", project));
+        }
+        if (user != null) {
+            filters.add(eq("user", user));
+        }
+        if (action != null) {
+            filters.add(eq("action", action));
+        }
+
+        TreeMap<Long, Long> counts = new TreeMap<>();
+        List<long[]> rawRanges = new ArrayList<>();
+        if (rollupFrom < rollupTo) {
+            // hours with a cut inside are split between two counts: read from raw events
+            TreeSet<Long> cutHours = new TreeSet<>();
+            for (Long cut : cuts) {
+                if (Math.floorMod(cut, HOUR) != 0 && cut > rollupFrom && cut < rollupTo) {
+                    cutHours.add(floorHour(cut));
+                }
+            }
+            if (from < rollupFrom) {
+                rawRanges.add(new long[]{from, rollupFrom});
+            }
+            for (Long hour : cutHours) {
+                rawRanges.add(new long[]{hour, hour + HOUR});
+            }
+            if (rollupTo < to) {
+                rawRanges.add(new long[]{rollupTo, to});
+            }
+
+            List<Bson> rollupFilters = new ArrayList<>(filters);
+            rollupFilters.add(eq("activity", activity.name()));
+            if (rollupFrom != Long.MIN_VALUE) {
+                rollupFilters.add(gte("hour", new Date(rollupFrom)));
+            }
+            rollupFilters.add(lt("hour", new Date(rollupTo)));
+            if (!cutHours.isEmpty()) {
+                rollupFilters.add(nin("hour", cutHours.stream().map(Date::new).toList()));
+            }
+            List<Document> rollups = mongoTemplate.getCollection(ROLLUP_COLLECTION).aggregate(List.of(
+                    match(and(rollupFilters)),
+                    group("$hour", Accumulators.sum("count", "$count"))
+            )).into(new ArrayList<>());
+            for (Document rollup : rollups) {
+                counts.put(rollup.getDate("_id").getTime(), ((Number) rollup.get("count")).longValue());
+            }
+        } else {
+            rawRanges.add(new long[]{from, to});
+        }
+
+        List<Bson> ranges = new ArrayList<>();
+        for (long[] range : rawRanges) {
+            ranges.add(createdIn(range[0], range[1]));
+        }
+        List<Bson> rawFilters = new ArrayList<>(filters);
+        rawFilters.add(ranges.size() == 1 ? ranges.get(0) : or(ranges));
+
+        // hours split by from, to or a cut are counted by part, the other raw hours as a whole
+        TreeSet<Long> boundaries = new TreeSet<>();
+        List<Long> splits = new ArrayList<>(cuts);
+        splits.add(from);
+        splits.add(to);
+        for (Long split : splits) {
+            if (split != Long.MIN_VALUE && split != Long.MAX_VALUE && split >= from && split <= to && Math.floorMod(split, HOUR) != 0) {
+                boundaries.add(floorHour(split));
+                boundaries.add(floorHour(split) + HOUR);
+                boundaries.add(split);
+            }
+        }
+        Set<Long> splitHours = new HashSet<>();
+        for (Long boundary : boundaries) {
+            if (Math.floorMod(boundary, HOUR) != 0) {
+                splitHours.add(floorHour(boundary));
+            }
+        }
+
+        long raw = 0;
+        for (Document hourly : collection(activity).aggregate(List.of(match(and(rawFilters)), HOUR_PROJECTION,
+                group("$hour", Accumulators.sum("count", 1))))) {
+            long hour = hourly.getDate("_id").getTime();
+            long count = ((Number) hourly.get("count")).longValue();
+            if (!splitHours.contains(hour)) {
+                counts.merge(hour, count, Long::sum);
+                raw += count;
+            }
+        }
+        if (!splitHours.isEmpty()) {
+            List<Bson> splitRanges = new ArrayList<>();
+            for (Long hour : splitHours) {
+                splitRanges.add(createdIn(hour, hour + HOUR));
+            }
+            List<Bson> splitFilters = new ArrayList<>(rawFilters);
+            splitFilters.add(splitRanges.size() == 1 ? splitRanges.get(0) : or(splitRanges));
+            for (Document partial : collection(activity).aggregate(List.of(match(and(splitFilters)),
+                    bucket("$created", boundaries.stream().map(Date::new).toList(),
+                            new BucketOptions().defaultBucket("other").output(Accumulators.sum("count", 1)))))) {
+                if (partial.get("_id") instanceof Date part) {
+                    long count = ((Number) partial.get("count")).longValue();
+                    counts.merge(part.getTime(), count, Long::sum);
+                    raw += count;
+                }
+            }
+        }
+        rawEvents.add(raw);
+        return new ActivityHistogram(counts);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "activityRollup";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        return JsonObject.of(
+                "rolledUpBuckets", rolledUpBuckets.sum(),
+                "catchUps", catchUps.sum(),
+                "failures", failures.sum(),
+                "lastCatchUpMillis", lastCatchUpMillis.get(),
+                "histograms", histograms.sum(),
+                "rawEvents", rawEvents.sum()
+        );
+    }
+
+    public static long floorHour(long time) {
+        return Math.floorDiv(time, HOUR) * HOUR;
+    }
+
+    public static long ceilHour(long time) {
+        return floorHour(time) == time ? time : floorHour(time) + HOUR;
+    }
+
+    private void scheduledCatchUp() {
+        try {
+            catchUp();
+        } catch (RuntimeException e) {
+            failures.increment();
+            log.error("Cannot roll up activities: " + e.getMessage(), e);
+        }
+    }
+
+    private long catchUp(Activity activity, long end) {
+        Long from = rolledUpTo(activity);
+        if (from == null) {
+            Document first = collection(activity).find(exists("created"))
+                    .sort(ascending("created")).projection(include("created")).first();
+            from = first == null ? end : floorHour(first.getDate("created").getTime());
+            log.info("First roll up of " + activity + " from " + new Date(from));
+        }
+        long step = Math.max(1, properties.getHoursByStep()) * HOUR;
+        long buckets = 0;
+        do {
+            long to = Math.min(from + step, end);
+            buckets += rollUp(activity, from, to);
+            saveRolledUpTo(activity, Math.max(from, to));
+            from = to;
+        } while (from < end);
+        return buckets;
+    }
+
+    private long rollUp(Activity activity, long from, long to) {
+        if (from >= to) {
+            return 0;
+        }
+        List<Document> groups = collection(activity).aggregate(List.of(
+                match(and(gte("created", new Date(from)), lt("created", new Date(to)))),
+                HOUR_PROJECTION,
+                HOUR_GROUP
+        )).into(new ArrayList<>());
+        if (groups.isEmpty()) {
+            return 0;
+        }
+
+        List<ReplaceOneModel<Document>> writes = new ArrayList<>(groups.size());
+        for (Document group : groups) {
+            Document key = (Document) group.get("_id");
+            Date hour = key.getDate("hour");
+            String id = activity.name() + "/" + key.get("project") + "/" + key.get("user") + "/" + key.get("action") + "/" + hour.getTime();
+            Document rollup = new Document("_id", id)
+                    .append("activity", activity.name())
+                    .append("project", key.get("project"))
+                    .append("user", key.get("user"))
+                    .append("action", key.get("action"))
+                    .append("hour", hour)
+                    .append("count", ((Number) group.get("count")).longValue());
+            writes.add(new ReplaceOneModel<>(eq("_id", id), rollup, new ReplaceOptions().upsert(true)));
+        }
+        mongoTemplate.getCollection(ROLLUP_COLLECTION).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        rolledUpBuckets.add(writes.size());
+        return writes.size();
+    }
+
+    private Long rolledUpTo(Activity activity) {
+        Document watermark = mongoTemplate.getCollection(WATERMARK_COLLECTION).find(eq("_id", activity.name())).first();
+        return watermark == null ? null : watermark.getDate("rolledUpTo").getTime();
+    }
+
+    private void saveRolledUpTo(Activity activity, long rolledUpTo) {
+        mongoTemplate.getCollection(WATERMARK_COLLECTION).replaceOne(eq("_id", activity.name()),
+                new Document("_id", activity.name()).append("rolledUpTo", new Date(rolledUpTo)), new ReplaceOptions().upsert(true));
+    }
+
+    private static Bson createdIn(long from, long to) {
+        List<Bson> bounds = new ArrayList<>();
+        if (from != Long.MIN_VALUE) {
+            bounds.add(gte("created", new Date(from)));
+        }
+        if (to != Long.MAX_VALUE) {
+            bounds.add(lt("created", new Date(to)));
+        }
+        return bounds.isEmpty() ? exists("created") : and(bounds);
+    }
+
+    private MongoCollection<Document> collection(Activity activity) {
+        return mongoTemplate.getCollection(activity.collection);
+    }
+
+    /**
+     * Event counts by part of the timeline (key: start of the part), a part is a whole hour or a part of hour split by
+     * a bound or a cut of the histogram
+     */
+    public static class ActivityHistogram {
+
+        private final TreeMap<Long, Long> counts;
+
+        ActivityHistogram(TreeMap<Long, Long> counts) {
+            this.counts = counts;
+        }
+
+        /**
+         * @return number of events in [from, to[
+         */
+        public long count(long from, long to) {
+            if (from >= to) {
+                return 0;
+            }
+            long count = 0;
+            for (Long part : counts.subMap(from, true, to, false).values()) {
+                count += part;
+            }
+            return count;
+        }
+
+        /**
+         * @return number of events by hour (start of the hour)
+         */
+        public TreeMap<Long, Long> countsByHour() {
+            TreeMap<Long, Long> hours = new TreeMap<>();
+            counts.forEach((part, count) -> hours.merge(floorHour(part), count, Long::sum));
+            return hours;
+        }
+    }
+}
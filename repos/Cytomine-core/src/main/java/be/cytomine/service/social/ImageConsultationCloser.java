@@ -0,0 +1,327 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageConsultationProperties;
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
+import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
+import be.cytomine.utils.DateUtils;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Close image consultations: time spent on the image (from the user positions) and number of annotations created
+ * during the consultation.
+ *
+ * Opening an image only queues the close-out of the previous consultation of the same image. A single thread closes
+ * queued consultations by batch (batchSize or every flushIntervalInMillis), counting the created annotations of the
+ * whole batch with one query instead of listing them. When the queue is full, the request closes the previous
+ * consultation itself. Remaining consultations are closed on shutdown.
+ */
+@Slf4j
+@Component
+public class ImageConsultationCloser implements RuntimeMetrics {
+
+    /* Gaps between two positions above this are not counted in the consultation time */
+    private static final long MAX_ACTIVITY_GAP_MILLIS = 15000L;
+
+    private final PersistentImageConsultationRepository persistentImageConsultationRepository;
+
+    private final PersistentUserPositionRepository persistentUserPositionRepository;
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ImageConsultationProperties properties;
+
+    private final BlockingQueue<PendingClose> queue;
+
+    private volatile boolean running = false;
+
+    private Thread closer;
+
+    private final LongAdder closed = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder callerCloses = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder totalLagMillis = new LongAdder();
+
+    private final LongAccumulator maxLagMillis = new LongAccumulator(Long::max, 0);
+
+    public ImageConsultationCloser(
+            PersistentImageConsultationRepository persistentImageConsultationRepository,
+            PersistentUserPositionRepository persistentUserPositionRepository,
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager,
+            ApplicationProperties applicationProperties) {
+        this.persistentImageConsultationRepository = persistentImageConsultationRepository;
+        this.persistentUserPositionRepository = persistentUserPositionRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.properties = applicationProperties.getImageConsultation();
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueSize());
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.isAsyncClose()) {
+            running = true;
+            closer = new Thread(this::run, "image-consultation-closer");
+            closer.setDaemon(true);
+            closer.start();
+        }
+    }
+
+    /**
+     * Close all waiting consultations and stop the closer thread
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (closer != null) {
+            running = false;
+            closer.join(TimeUnit.SECONDS.toMillis(30));
+            closer = null;
+        }
+        flush();
+    }
+
+    /**
+     * Close the last consultation of the image by the user opened before the given date, if it is still open
+     */
+    public void closeLast(Long user, Long image, Date before) {
+        PendingClose pending = new PendingClose(user, image, before);
+        if (running) {
+            if (queue.offer(pending)) {
+                return;
+            }
+            callerCloses.increment();
+        }
+        close(List.of(pending));
+    }
+
+    /**
+     * Close all waiting consultations now
+     */
+    public void flush() {
+        List<PendingClose> batch = new ArrayList<>();
+        while (queue.drainTo(batch, properties.getBatchSize()) > 0) {
+            close(batch);
+            batch = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Compute the time and the number of created annotations of the consultations, each one ending at the date
+     * with the same index in befores. Consultations are not saved.
+     */
+    public void fill(List<PersistentImageConsultation> consultations, List<Date> befores) {
+        for (int i = 0; i < consultations.size(); i++) {
+            consultations.get(i).setTime(activityTime(consultations.get(i), befores.get(i)));
+        }
+        List<Long> counts = countCreatedAnnotations(consultations, befores);
+        for (int i = 0; i < consultations.size(); i++) {
+            consultations.get(i).setCountCreatedAnnotations(counts.get(i).intValue());
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "imageConsultationCloser";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        long count = closed.sum();
+        return JsonObject.of(
+                "queueSize", queue.size(),
+                "closed", count,
+                "batches", batches.sum(),
+                "callerCloses", callerCloses.sum(),
+                "failures", failures.sum(),
+                "meanLagMillis", count == 0 ? 0 : totalLagMillis.sum() / count,
+                "maxLagMillis", maxLagMillis.get()
+        );
+    }
+
+    private void run() {
+        List<PendingClose> batch = new ArrayList<>();
+        while (running) {
+            try {
+                PendingClose first = queue.poll(properties.getFlushIntervalInMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + properties.getFlushIntervalInMillis();
+                while (batch.size() < properties.getBatchSize()) {
+                    queue.drainTo(batch, properties.getBatchSize() - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= properties.getBatchSize() || remaining <= 0) {
+                        break;
+                    }
+                    PendingClose next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                close(batch);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    private void close(List<PendingClose> batch) {
+        try {
+            Map<Long, PersistentImageConsultation> consultations = new LinkedHashMap<>();
+            Map<Long, Date> befores = new HashMap<>();
+            for (PendingClose pending : batch) {
+                Optional<PersistentImageConsultation> consultation = persistentImageConsultationRepository
+                        .findAllByUserAndImageAndCreatedLessThan(pending.user, pending.image, pending.before,
+                                PageRequest.of(0, 1, Sort.Direction.DESC, "created"))
+                        .stream().findFirst();
+                // first consultation, or last consultation already closed
+                if (consultation.isEmpty() || consultation.get().getTime() != null) {
+                    continue;
+                }
+                // the same consultation queued twice is closed at the first next opening
+                if (consultations.putIfAbsent(consultation.get().getId(), consultation.get()) == null) {
+                    befores.put(consultation.get().getId(), pending.before);
+                }
+            }
+            if (!consultations.isEmpty()) {
+                List<PersistentImageConsultation> toClose = new ArrayList<>(consultations.values());
+                fill(toClose, toClose.stream().map(consultation -> befores.get(consultation.getId())).toList());
+                persistentImageConsultationRepository.saveAll(toClose);
+            }
+        } catch (RuntimeException e) {
+            failures.add(batch.size());
+            log.error("Cannot close " + batch.size() + " image consultations: " + e.getMessage(), e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PendingClose pending : batch) {
+            long lag = now - pending.queuedAt;
+            totalLagMillis.add(lag);
+            maxLagMillis.accumulate(lag);
+        }
+        closed.add(batch.size());
+        batches.increment();
+    }
+
+    private long activityTime(PersistentImageConsultation consultation, Date before) {
+        AggregationResults positions = persistentUserPositionRepository
+                .retrieve(consultation.getProject(), consultation.getUser(), consultation.getImage(), before, consultation.getCreated(), new Date(0));
+
+        // sum the gaps between positions, without the periods of non activity
+        long time = 0L;
+        long previous = consultation.getCreated().getTime();
+        for (Object position : positions.getMappedResults()) {
+            long created = position instanceof LinkedHashMap ?
+                    DateUtils.computeDateInMillis((Date) ((LinkedHashMap) position).get("created")) :
+                    DateUtils.computeDateInMillis(((PersistentUserPosition) position).getCreated());
+            if (created - previous < MAX_ACTIVITY_GAP_MILLIS) {
+                time += created - previous;
+            }
+            previous = created;
+        }
+        return time;
+    }
+
+    /**
+     * @return the number of user annotations created during each consultation, in the same order
+     */
+    private List<Long> countCreatedAnnotations(List<PersistentImageConsultation> consultations, List<Date> befores) {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < consultations.size(); i++) {
+            values.append(i == 0 ? "" : ", ")
+                    .append("(").append(i).append(", CAST(:project").append(i).append(" AS bigint), CAST(:user").append(i)
+                    .append(" AS bigint), CAST(:image").append(i).append(" AS bigint), CAST(:after").append(i)
+                    .append(" AS timestamp), CAST(:before").append(i).append(" AS timestamp))");
+        }
+        String request = "SELECT c.idx, COUNT(a.id) " +
+                "FROM (VALUES " + values + ") AS c(idx, project_id, user_id, image_id, created_after, created_before) " +
+                "LEFT JOIN user_annotation a ON a.project_id = c.project_id AND a.user_id = c.user_id AND a.image_id = c.image_id " +
+                "AND a.created > c.created_after AND a.created < c.created_before " +
+                "GROUP BY c.idx";
+
+        Long[] counts = new Long[consultations.size()];
+        Arrays.fill(counts, 0L);
+        transactionTemplate.executeWithoutResult(status -> {
+            Query query = entityManager.createNativeQuery(request);
+            for (int i = 0; i < consultations.size(); i++) {
+                PersistentImageConsultation consultation = consultations.get(i);
+                query.setParameter("project" + i, consultation.getProject());
+                query.setParameter("user" + i, consultation.getUser());
+                query.setParameter("image" + i, consultation.getImage());
+                query.setParameter("after" + i, new Timestamp(consultation.getCreated().getTime()));
+                query.setParameter("before" + i, new Timestamp(befores.get(i).getTime()));
+            }
+            for (Object row : query.getResultList()) {
+                Object[] result = (Object[]) row;
+                counts[((Number) result[0]).intValue()] = ((Number) result[1]).longValue();
+            }
+        });
+        return Arrays.asList(counts);
+    }
+
+    private static class PendingClose {
+        private final Long user;
+        private final Long image;
+        private final Date before;
+        private final long queuedAt = System.currentTimeMillis();
+
+        PendingClose(Long user, Long image, Date before) {
+            this.user = user;
+            this.image = image;
+            this.before = before;
+        }
+    }
+}
@@ -22,16 +22,12 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.domain.security.User;
 import be.cytomine.domain.social.PersistentImageConsultation;
 import be.cytomine.domain.social.PersistentProjectConnection;
-import be.cytomine.domain.social.PersistentUserPosition;
 import be.cytomine.exceptions.CytomineException;
 import be.cytomine.exceptions.ObjectNotFoundException;
-import be.cytomine.repository.AnnotationListing;
-import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.repositorynosql.social.*;
-import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.UrlApi;
 import be.cytomine.service.database.SequenceService;
@@ -91,9 +87,6 @@ public class ImageConsultationService {
     @Autowired
     PersistentProjectConnectionRepository persistentProjectConnectionRepository;
 
-    @Autowired
-    AnnotationListingService annotationListingService;
-
     @Autowired
     LastConnectionRepository lastConnectionRepository;
 
@@ -121,12 +114,15 @@ public class ImageConsultationService {
     @Autowired
     ImageInstanceService imageInstanceService;
 
+    @Autowired
+    ImageConsultationCloser imageConsultationCloser;
+
     public PersistentImageConsultation add(SecUser user, Long imageId, String session, String mode, Date created) {
-        System.out.println(currentUserService.getCurrentUser());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageId)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", imageId));
 
-        closeLastImageConsultation(user.getId(), imageId, created);
+        // time and created annotations of the previous consultation are computed by the closer
+        imageConsultationCloser.closeLast(user.getId(), imageId, created);
 
         PersistentImageConsultation consultation = new PersistentImageConsultation();
         consultation.setId(sequenceService.generateID());
@@ -156,69 +152,12 @@ public class ImageConsultationService {
     }
 
 
-    private void closeLastImageConsultation(Long user, Long image, Date before) {
-        Optional<PersistentImageConsultation> consultation = persistentImageConsultationRepository.findAllByUserAndImageAndCreatedLessThan(user, image, before, PageRequest.of(0, 1, Sort.Direction.DESC, "created"))
-                .stream().findFirst();
-
-        //first consultation
-        if (consultation.isEmpty()) {
-            return;
-        }
-
-        //last consultation already closed
-        if (consultation.get().getTime() != null) {
-            return;
-        }
-
-        fillImageConsultation(consultation.get(), before);
-
-        persistentImageConsultationRepository.save(consultation.get());
-    }
-
-
+    /**
+     * Compute the time spent on the image and the number of annotations created until the given date, and save them
+     */
     public void fillImageConsultation(PersistentImageConsultation consultation, Date before) {
-        Date after = consultation.getCreated();
-
-        AggregationResults positions = persistentUserPositionRepository
-                .retrieve(consultation.getProject(), consultation.getUser(), consultation.getImage(), before, after, new Date(0));
-
-
-        if (!positions.getMappedResults().isEmpty()) {
-            log.debug(positions.toString());
-        }
-
-        List<Long> continuousConnections = (List<Long>)positions.getMappedResults().stream().map(x ->
-                x instanceof LinkedHashMap ? be.cytomine.utils.DateUtils.computeDateInMillis((Date)((LinkedHashMap) x).get("created")) :
-                        be.cytomine.utils.DateUtils.computeDateInMillis((Date)((PersistentUserPosition) x).getCreated())).collect(Collectors.toList());
-
-
-        //we calculated the gaps between connections to identify the period of non activity
-        List<Long> continuousConnectionIntervals = new ArrayList<>();
-
-        Long first = consultation.getCreated().getTime();
-        for (Long time : continuousConnections) {
-            continuousConnectionIntervals.add(time - first);
-            first = time;
-        }
-
-        consultation.setTime(continuousConnectionIntervals.stream().filter(x -> x < 15000L).reduce(0L, Long::sum));
-
-        if (consultation.getTime() == null) {
-            consultation.setTime(0L);
-        }
-
-        AnnotationListing al = new UserAnnotationListing(entityManager);
-        al.setProject(consultation.getProject());
-        al.setUser(consultation.getUser());
-        al.setImage(consultation.getImage());
-        al.setBeforeThan(before);
-        al.setAfterThan(after);
-
-        // count created annotations
-
-        consultation.setCountCreatedAnnotations(annotationListingService.listGeneric(al).size());
+        imageConsultationCloser.fill(List.of(consultation), List.of(before));
         persistentImageConsultationRepository.save(consultation);
-
     }
 
     public Page<PersistentImageConsultation> listImageConsultationByProjectAndUserNoImageDistinct(Project project, SecUser user, Integer max, Integer offset) {
@@ -0,0 +1,221 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.PositionBroadcastProperties;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send the positions of broadcasters to their followers with a bounded pool of threads.
+ *
+ * Each follower session has a single slot: only its latest unsent position is kept (a position replaced by a
+ * more recent one is counted as dropped) and at most one thread sends to a session at a time, so that the
+ * messages of a session stay ordered. When all threads are busy and the queue is full, the position is dropped.
+ * Queue depth (positions waiting), drops and send latency are reported per broadcaster ("userId/imageId").
+ */
+@Slf4j
+@Component
+public class PositionBroadcastExecutor implements RuntimeMetrics {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<WebSocketSession, FollowerSlot> slots = new ConcurrentHashMap<>();
+
+    private final Map<String, BroadcasterMetrics> broadcasters = new ConcurrentHashMap<>();
+
+    public PositionBroadcastExecutor(ApplicationProperties applicationProperties) {
+        PositionBroadcastProperties properties = applicationProperties.getPositionBroadcast();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueSize()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "position-broadcast-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void broadcast(String broadcaster, Collection<? extends WebSocketSession> followers, TextMessage message) {
+        BroadcasterMetrics metrics = broadcasters.computeIfAbsent(broadcaster, key -> new BroadcasterMetrics());
+        long now = System.nanoTime();
+        for (WebSocketSession follower : followers) {
+            FollowerSlot slot = slots.computeIfAbsent(follower, FollowerSlot::new);
+            metrics.queueDepth.increment();
+            Pending previous = slot.pending.getAndSet(new Pending(message, now, metrics));
+            if (previous != null) {
+                previous.drop();
+            }
+            schedule(slot);
+        }
+    }
+
+    /**
+     * Forget a follower session (closed or not following anymore)
+     */
+    public void forget(WebSocketSession follower) {
+        FollowerSlot slot = slots.remove(follower);
+        if (slot != null) {
+            Pending pending = slot.pending.getAndSet(null);
+            if (pending != null) {
+                pending.drop();
+            }
+        }
+    }
+
+    public void forgetBroadcaster(String broadcaster) {
+        broadcasters.remove(broadcaster);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "positionBroadcast";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        Map<String, Object> perBroadcaster = new TreeMap<>();
+        broadcasters.forEach((broadcaster, metrics) -> perBroadcaster.put(broadcaster, metrics.toMap()));
+        return JsonObject.of(
+                "activeThreads", executor.getActiveCount(),
+                "queuedFollowers", executor.getQueue().size(),
+                "followers", slots.size(),
+                "broadcasters", perBroadcaster
+        );
+    }
+
+    private void schedule(FollowerSlot slot) {
+        if (slot.scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> drain(slot));
+            } catch (RejectedExecutionException e) {
+                slot.scheduled.set(false);
+                Pending pending = slot.pending.getAndSet(null);
+                if (pending != null) {
+                    pending.drop();
+                }
+            }
+        }
+    }
+
+    private void drain(FollowerSlot slot) {
+        while (true) {
+            Pending pending = slot.pending.getAndSet(null);
+            if (pending == null) {
+                slot.scheduled.set(false);
+                // a position may have been set between the getAndSet and the reset of the flag
+                if (slot.pending.get() == null || !slot.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            pending.metrics.queueDepth.decrement();
+            send(slot.session, pending);
+        }
+    }
+
+    private void send(WebSocketSession session, Pending pending) {
+        if (!session.isOpen()) {
+            slots.remove(session);
+            return;
+        }
+        try {
+            session.sendMessage(pending.message);
+            pending.metrics.sent.increment();
+        } catch (Exception e) {
+            pending.metrics.errors.increment();
+            log.warn("Failed to send position to session " + session.getId() + ": " + e.getMessage());
+        } finally {
+            pending.metrics.record(System.nanoTime() - pending.enqueuedAt);
+        }
+    }
+
+    private static class FollowerSlot {
+        private final WebSocketSession session;
+        private final AtomicReference<Pending> pending = new AtomicReference<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        FollowerSlot(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    private static class Pending {
+        private final TextMessage message;
+        private final long enqueuedAt;
+        private final BroadcasterMetrics metrics;
+
+        Pending(TextMessage message, long enqueuedAt, BroadcasterMetrics metrics) {
+            this.message = message;
+            this.enqueuedAt = enqueuedAt;
+            this.metrics = metrics;
+        }
+
+        void drop() {
+            metrics.queueDepth.decrement();
+            metrics.dropped.increment();
+        }
+    }
+
+    private static class BroadcasterMetrics {
+        private final LongAdder queueDepth = new LongAdder();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos) {
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> toMap() {
+            long count = sent.sum() + errors.sum();
+            return JsonObject.of(
+                    "queueDepth", queueDepth.sum(),
+                    "sent", sent.sum(),
+                    "dropped", dropped.sum(),
+                    "errors", errors.sum(),
+                    "meanLatencyMillis", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / count),
+                    "maxLatencyMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos.get())
+            );
+        }
+    }
+}
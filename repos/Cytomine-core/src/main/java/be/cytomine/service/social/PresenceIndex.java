@@ -0,0 +1,231 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.domain.social.PersistentProjectConnection;
+import be.cytomine.repositorynosql.social.LastConnectionRepository;
+import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Online users and active projects, maintained from the connection events of this instance instead of
+ * scanning the MongoDB collections on each request:
+ * - a user is online if it pinged the server (LastConnection) in the last 300s, as with the MongoDB queries,
+ * - a project is active if a user opened it (PersistentProjectConnection) in the last 120s.
+ *
+ * Each map keeps the last time a user was seen (globally, by project), so a lookup by user or project is O(1).
+ * Entries older than the windows are purged by the writes, at most once per PURGE_INTERVAL.
+ * The index is loaded from MongoDB at startup. It is only used if application.presence.inMemory (single instance,
+ * disabled by default).
+ */
+@Slf4j
+@Component
+public class PresenceIndex implements RuntimeMetrics {
+
+    public static final long ONLINE_WINDOW = 300 * 1000;
+
+    public static final long ACTIVE_PROJECT_WINDOW = 120 * 1000;
+
+    private static final long PURGE_INTERVAL = 10 * 1000;
+
+    private final boolean enabled;
+
+    private final LastConnectionRepository lastConnectionRepository;
+
+    private final PersistentProjectConnectionRepository persistentProjectConnectionRepository;
+
+    private final LongSupplier clock;
+
+    /* user -> last seen */
+    private final Map<Long, Long> onlineUsers = new ConcurrentHashMap<>();
+
+    /* project -> user -> last seen */
+    private final Map<Long, Map<Long, Long>> onlineUsersByProject = new ConcurrentHashMap<>();
+
+    /* project -> user -> last project opening */
+    private final Map<Long, Map<Long, Long>> projectConnections = new ConcurrentHashMap<>();
+
+    private volatile long nextPurge;
+
+    private final LongAdder events = new LongAdder();
+
+    public PresenceIndex(ApplicationProperties applicationProperties,
+                         LastConnectionRepository lastConnectionRepository,
+                         PersistentProjectConnectionRepository persistentProjectConnectionRepository) {
+        this(applicationProperties.getPresence().isInMemory(), lastConnectionRepository, persistentProjectConnectionRepository, System::currentTimeMillis);
+    }
+
+    PresenceIndex(boolean enabled,
+                  LastConnectionRepository lastConnectionRepository,
+                  PersistentProjectConnectionRepository persistentProjectConnectionRepository,
+                  LongSupplier clock) {
+        this.enabled = enabled;
+        this.lastConnectionRepository = lastConnectionRepository;
+        this.persistentProjectConnectionRepository = persistentProjectConnectionRepository;
+        this.clock = clock;
+        this.nextPurge = clock.getAsLong() + PURGE_INTERVAL;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long now = clock.getAsLong();
+            for (LastConnection connection : lastConnectionRepository.findAllByCreatedAfter(new Date(now - ONLINE_WINDOW))) {
+                userSeen(connection.getUser(), connection.getProject(), connection.getCreated());
+            }
+            for (PersistentProjectConnection connection : persistentProjectConnectionRepository.findAllByCreatedAfter(new Date(now - ACTIVE_PROJECT_WINDOW))) {
+                projectOpened(connection.getUser(), connection.getProject(), connection.getCreated());
+            }
+        } catch (RuntimeException e) {
+            log.error("Cannot load online users from MongoDB: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The user pinged the server (project may be null)
+     */
+    public void userSeen(Long user, Long project, Date date) {
+        if (!enabled || user == null) {
+            return;
+        }
+        events.increment();
+        long time = date != null ? date.getTime() : clock.getAsLong();
+        onlineUsers.merge(user, time, Math::max);
+        if (project != null) {
+            seen(onlineUsersByProject, project, user, time);
+        }
+        purgeIfNeeded();
+    }
+
+    /**
+     * The user opened the project
+     */
+    public void projectOpened(Long user, Long project, Date date) {
+        if (!enabled || user == null || project == null) {
+            return;
+        }
+        events.increment();
+        long time = date != null ? date.getTime() : clock.getAsLong();
+        seen(projectConnections, project, user, time);
+        purgeIfNeeded();
+    }
+
+    public boolean isOnline(Long user) {
+        Long lastSeen = onlineUsers.get(user);
+        return lastSeen != null && lastSeen > clock.getAsLong() - ONLINE_WINDOW;
+    }
+
+    public List<Long> getOnlineUsers() {
+        return recentKeys(onlineUsers, clock.getAsLong() - ONLINE_WINDOW);
+    }
+
+    public List<Long> getOnlineUsers(Long project) {
+        return recentKeys(onlineUsersByProject.getOrDefault(project, Map.of()), clock.getAsLong() - ONLINE_WINDOW);
+    }
+
+    /**
+     * @return number of users by active project
+     */
+    public Map<Long, Integer> getActiveProjects() {
+        long after = clock.getAsLong() - ACTIVE_PROJECT_WINDOW;
+        Map<Long, Integer> activeProjects = new HashMap<>();
+        projectConnections.forEach((project, users) -> {
+            int count = recentKeys(users, after).size();
+            if (count > 0) {
+                activeProjects.put(project, count);
+            }
+        });
+        return activeProjects;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "presence";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        return JsonObject.of(
+                "enabled", enabled,
+                "events", events.sum(),
+                "onlineUsers", enabled ? getOnlineUsers().size() : 0,
+                "activeProjects", enabled ? getActiveProjects().size() : 0
+        );
+    }
+
+    private static List<Long> recentKeys(Map<Long, Long> lastSeen, long after) {
+        List<Long> keys = new ArrayList<>();
+        lastSeen.forEach((key, time) -> {
+            if (time > after) {
+                keys.add(key);
+            }
+        });
+        return keys;
+    }
+
+    private void purgeIfNeeded() {
+        long now = clock.getAsLong();
+        if (now < nextPurge) {
+            return;
+        }
+        nextPurge = now + PURGE_INTERVAL;
+        long onlineLimit = now - ONLINE_WINDOW;
+        onlineUsers.values().removeIf(time -> time <= onlineLimit);
+        purge(onlineUsersByProject, onlineLimit);
+        purge(projectConnections, now - ACTIVE_PROJECT_WINDOW);
+    }
+
+    // compute() on the project key: a purge cannot remove the map of a project while a user is added to it
+    private static void seen(Map<Long, Map<Long, Long>> lastSeenByProject, Long project, Long user, long time) {
+        lastSeenByProject.compute(project, (id, users) -> {
+            Map<Long, Long> lastSeen = users != null ? users : new ConcurrentHashMap<>();
+            lastSeen.merge(user, time, Math::max);
+            return lastSeen;
+        });
+    }
+
+    private static void purge(Map<Long, Map<Long, Long>> lastSeenByProject, long limit) {
+        for (Long project : lastSeenByProject.keySet()) {
+            lastSeenByProject.computeIfPresent(project, (id, users) -> {
+                users.values().removeIf(time -> time <= limit);
+                return users.isEmpty() ? null : users;
+            });
+        }
+    }
+}
@@ -35,6 +35,8 @@ import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.ActivityRollupService.Activity;
+import be.cytomine.service.social.ActivityRollupService.ActivityHistogram;
 import be.cytomine.utils.JsonObject;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
@@ -59,6 +61,9 @@ import static com.mongodb.client.model.Aggregates.*;
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Sorts.ascending;
 import static com.mongodb.client.model.Sorts.descending;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -72,6 +77,9 @@ import static org.springframework.security.acls.domain.BasePermission.*;
 public class ProjectConnectionService {
 
     public static final String DATABASE_NAME = "cytomine";
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+
     @Autowired
     CurrentUserService currentUserService;
 
@@ -99,6 +107,9 @@ public class ProjectConnectionService {
     @Autowired
     LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    PresenceIndex presenceIndex;
+
     @Autowired
     EntityManager entityManager;
 
@@ -114,6 +125,9 @@ public class ProjectConnectionService {
     @Autowired
     PersistentImageConsultationRepository persistentImageConsultationRepository;
 
+    @Autowired
+    ActivityRollupService activityRollupService;
+
     @Autowired
     private SessionFactory sessionFactory;
 
@@ -136,6 +150,7 @@ public class ProjectConnectionService {
         connection.setBrowserVersion(browserVersion);
 
         persistentProjectConnectionRepository.insert(connection);
+        presenceIndex.projectOpened(user.getId(), project.getId(), created);
 
         return connection;
     }
@@ -410,32 +425,14 @@ public class ProjectConnectionService {
 
         securityACLService.check(project, WRITE);
 
-        Bson projection1 = Document.parse(
-                "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}");
-        Bson projection2 = Document.parse(
-                "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, d : {$dayOfMonth:'$created'}, h : {$hour:'$created'}, time : '$created'}}");
-        Bson group = Document.parse(
-                "{$group : {_id : { year: '$y', month: '$m', day: '$d', hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
-
-        Bson match = match(eq("project", project.getId()));
-        if (afterThan != null) {
-            match = match(and(gte("created", new Date(afterThan)), eq("project", project.getId())));
-        }
-
-        List<Bson> requests = List.of(match, projection1, projection2, group);
-
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
-                .into(new ArrayList<>());
-        results.forEach(printDocuments());
+        ActivityHistogram histogram = activityRollupService.histogram(Activity.PROJECT_CONNECTION, project.getId(), null, null,
+                afterThan != null ? afterThan : Long.MIN_VALUE, Long.MAX_VALUE, List.of());
 
         List<JsonObject> connections = new ArrayList<>();
-        for (Document result : results) {
+        for (Map.Entry<Long, Long> hour : histogram.countsByHour().entrySet()) {
             // TODO evolve when https://jira.mongodb.org/browse/SERVER-6310 is resolved
             // as we groupBy hours in UTC, the GMT + xh30 have problems.
-
-            connections.add(JsonObject.of("time", result.get("time"), "frequency", result.get("frequency")));
+            connections.add(JsonObject.of("time", new Date(hour.getKey()), "frequency", hour.getValue().intValue()));
         }
         return connections;
     }
@@ -466,73 +463,25 @@ public class ProjectConnectionService {
             beforeThan = new Date().getTime();
         }
 
-        List<Bson> matchs = new ArrayList<>();
-        Bson projection1 = null;
-        Bson projection2 = null;
-        Bson group = null;
-
         if(period==null) {
             period = "hour";
         }
 
-        switch (period){
-            case "hour" :
-                //substract all minutes,seconds & milliseconds (last unit is hour)
-                projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}");
-                projection2 = Document.parse(
-                        "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, d : {$dayOfMonth:'$created'}, h : {$hour:'$created'}, time : '$created'}}");
-                group = Document.parse(
-                        "{$group : {_id : { year: '$y', month: '$m', day: '$d', hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
-                break;
-            case "day" :
-                //also substract hours (last unit is day)
-                projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]}]}]}}}");
-                projection2 = Document.parse(
-                        "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, d : {$dayOfMonth:'$created'}, time : '$created'}}");
-                group = Document.parse(
-                        "{$group : {_id : { year: '$y', month: '$m', day: '$d'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
-                break;
-            case "week" :
-                //also substract days (last unit is week)
-                projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]},  {$multiply : [{$subtract : [{$dayOfWeek: '$created'}, 1]}, 86400000]}       ]}]}}}");
-                projection2 = Document.parse(
-                        "{$project : { y : {$year:'$created'}, m : {$month:'$created'}, w : {$week:'$created'}, time : '$created'}}");
-                group = Document.parse(
-                        "{$group : {_id : { year: '$y', month: '$m', week: '$w'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
-                break;
-        }
-
-        if(afterThan!=null) {
-            matchs.add(match(gte("created", new Date(afterThan))));
-        }
-        if(beforeThan!=null) {
-            matchs.add(match(lte("created", new Date(beforeThan))));
-        }
-        if(project!=null){
-            matchs.add(match(eq("project", project.getId())));
-        }
-        if(user!=null){
-            matchs.add(match(eq("user", user.getId())));
-        }
+        ActivityHistogram histogram = activityRollupService.histogram(Activity.PROJECT_CONNECTION,
+                project != null ? project.getId() : null, user != null ? user.getId() : null, null,
+                afterThan != null ? afterThan : Long.MIN_VALUE, beforeThan + 1, List.of());
 
-        List<Bson> requests = new ArrayList<>();
-        requests.addAll(matchs);
-        requests.addAll(List.of(projection1, projection2, group));
-
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
-                .into(new ArrayList<>());
+        // last unit is hour, day or week
+        TreeMap<Long, Long> periods = new TreeMap<>();
+        for (Map.Entry<Long, Long> hour : histogram.countsByHour().entrySet()) {
+            periods.merge(periodStart(period, hour.getKey()), hour.getValue(), Long::sum);
+        }
 
         List<JsonObject> connections = new ArrayList<>();
-        for (Document result : results) {
+        for (Map.Entry<Long, Long> result : periods.entrySet()) {
             // TODO evolve when https://jira.mongodb.org/browse/SERVER-6310 is resolved
             // as we groupBy hours in UTC, the GMT + xh30 have problems.
-            connections.add(JsonObject.of("time", result.get("time"), "frequency", result.get("frequency")));
-
+            connections.add(JsonObject.of("time", new Date(result.getKey()), "frequency", result.getValue().intValue()));
         }
         return connections;
     }
@@ -556,81 +505,71 @@ public class ProjectConnectionService {
             afterThan = DateUtils.addYears(new Date(beforeThan), -1).getTime();
         }
 
-        // what we want: db.persistentProjectConnection.aggregate( {"$match": {$and: [{project : ID_PROJECT}, {created : {$gte : new Date(AFTER) }}]}}, { "$project": { "created": {  "$subtract" : [  "$created",  {  "$add" : [  {"$millisecond" : "$created"}, { "$multiply" : [ {"$second" : "$created"}, 1000 ] }, { "$multiply" : [ {"$minute" : "$created"}, 60, 1000 ] } ] } ] } }  }, { "$project": { "y":{"$year":"$created"}, "m":{"$month":"$created"}, "d":{"$dayOfMonth":"$created"}, "h":{"$hour":"$created"}, "time":"$created" }  },  { "$group":{ "_id": { "year":"$y","month":"$m","day":"$d","hour":"$h"}, time:{"$first":"$time"},  "total":{ "$sum": 1}  }});
-
-        List<Bson> matchs = new ArrayList<>();
-        Bson projection1 = null;
-        Bson projection2 = null;
-        Bson group = null;
-
         if(period==null) {
             period = "hour";
         }
 
-        switch (period){
-            case "hour" :
-                //substract all minutes,seconds & milliseconds (last unit is hour)
-                projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}");
-                projection2 = Document.parse(
-                        "{$project : { h : {$hour:'$created'}, time : '$created'}}");
-                group = Document.parse(
-                        "{$group : {_id : { hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
-                break;
-            case "day" :
-                //also substract hours (last unit is day)
-                projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]}]}]}}}");
-                projection2 = Document.parse(
-                        "{$project : { d : {$dayOfMonth:'$created'}, time : '$created'}}");
-                group = Document.parse(
-                        "{$group : {_id : { day: '$d'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
-                break;
-            case "week" :
-                //also substract days (last unit is week)
-                projection1 = Document.parse(
-                        "{$project : { created : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]}, {$multiply : [{$hour : '$created'}, 3600000]},  {$multiply : [{$subtract : [{$dayOfWeek: '$created'}, 1]}, 86400000]}       ]}]}}}");
-                projection2 = Document.parse(
-                        "{$project : { w : {$week:'$created'}, time : '$created'}}");
-                group = Document.parse(
-                        "{$group : {_id : { week: '$w'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
-                break;
-        }
-
-        matchs.add(match(gte("created", new Date(afterThan))));
-        matchs.add(match(lte("created", new Date(beforeThan))));
-
-        if(project!=null){
-            matchs.add(match(eq("project", project.getId())));
-        }
-        if(user!=null){
-            matchs.add(match(eq("user", user.getId())));
-        }
-
-        List<Bson> requests = new ArrayList<>();
-        requests.addAll(matchs);
-        requests.addAll(List.of(projection1, projection2, group));
+        ActivityHistogram histogram = activityRollupService.histogram(Activity.PROJECT_CONNECTION,
+                project != null ? project.getId() : null, user != null ? user.getId() : null, null,
+                afterThan, beforeThan + 1, List.of());
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
-                .into(new ArrayList<>());
-
-        Integer total = results.stream().map(x -> x.get("frequency",0)).reduce(0, Integer::sum);
+        // grouped by hour of the day, day of the month or week of the year, with the time of the first period
+        Map<Integer, Long> frequencies = new LinkedHashMap<>();
+        Map<Integer, Long> times = new HashMap<>();
+        long total = 0;
+        for (Map.Entry<Long, Long> hour : histogram.countsByHour().entrySet()) {
+            long time = periodStart(period, hour.getKey());
+            int key = periodOfYear(period, time);
+            frequencies.merge(key, hour.getValue(), Long::sum);
+            times.putIfAbsent(key, time);
+            total += hour.getValue();
+        }
         if (total == 0L) {
             total = 1;
         }
 
         List<JsonObject> connections = new ArrayList<>();
-        for (Document result : results) {
+        for (Map.Entry<Integer, Long> result : frequencies.entrySet()) {
             // TODO evolve when https://jira.mongodb.org/browse/SERVER-6310 is resolved
             // as we groupBy hours in UTC, the GMT + xh30 have problems.
-            connections.add(JsonObject.of("time", result.get("time"), "frequency", ((Integer)result.get("frequency")).doubleValue()/total.doubleValue()));
-
+            connections.add(JsonObject.of("time", new Date(times.get(result.getKey())), "frequency", result.getValue().doubleValue()/(double) total));
         }
         return connections;
     }
 
+    /**
+     * @return start (UTC) of the hour, day or week (from sunday) of the time
+     */
+    private static long periodStart(String period, long time) {
+        long day = Math.floorDiv(time, DAY_IN_MILLIS);
+        switch (period) {
+            case "day":
+                return day * DAY_IN_MILLIS;
+            case "week":
+                // 1970-01-01 was a thursday
+                return (day - Math.floorMod(day + 4, 7)) * DAY_IN_MILLIS;
+            default:
+                return ActivityRollupService.floorHour(time);
+        }
+    }
+
+    /**
+     * @return hour of the day, day of the month or week of the year (as mongo $week) of a period start
+     */
+    private static int periodOfYear(String period, long start) {
+        LocalDate date = Instant.ofEpochMilli(start).atZone(ZoneOffset.UTC).toLocalDate();
+        switch (period) {
+            case "day":
+                return date.getDayOfMonth();
+            case "week":
+                // weeks begin on sundays, days before the first sunday of the year are in week 0
+                int firstSunday = (7 - date.withDayOfYear(1).getDayOfWeek().getValue() % 7) % 7;
+                return (date.getDayOfYear() - 1 + 7 - firstSunday) / 7;
+            default:
+                return (int) Math.floorMod(Math.floorDiv(start, ActivityRollupService.HOUR), 24L);
+        }
+    }
+
 
     public List<PersistentImageConsultation> getUserActivityDetails(Long activityId){
         PersistentProjectConnection connection = persistentProjectConnectionRepository.findById(activityId)
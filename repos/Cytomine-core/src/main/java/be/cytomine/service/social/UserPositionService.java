@@ -121,6 +121,9 @@ public class UserPositionService {
     @Autowired
     SequenceService sequenceService;
 
+    @Autowired
+    UserPositionWriter userPositionWriter;
+
     // usersTracked key -> "trackedUserId/imageId"
     public static Map<String, List<User>> broadcasters = new ConcurrentHashMap<>();
 
@@ -137,9 +140,8 @@ public class UserPositionService {
             Double rotation,
             Boolean broadcast) {
 
-        Optional<LastUserPosition> lastPosition = lastPositionByUser(imageInstance, sliceInstance, user, broadcast);
+        securityACLService.check(imageInstance,READ);
 
-        //TODO: no ACL???
         LastUserPosition position = new LastUserPosition();
         position.setId(sequenceService.generateID());
         position.setUser(user.getId());
@@ -154,7 +156,6 @@ public class UserPositionService {
         position.setCreated(created);
         position.setUpdated(created);
         position.setImageName(imageInstance.getBlindInstanceFilename());
-        lastUserPositionRepository.insert(position);
 
         PersistentUserPosition persistedPosition = new PersistentUserPosition();
         persistedPosition.setId(sequenceService.generateID());
@@ -169,7 +170,7 @@ public class UserPositionService {
         persistedPosition.setCreated(created);
         persistedPosition.setUpdated(created);
         persistedPosition.setImageName(imageInstance.getBlindInstanceFilename());
-        persistentUserPositionRepository.insert(persistedPosition);
+        userPositionWriter.write(position, persistedPosition);
 
         return persistedPosition;
     }
@@ -290,7 +291,7 @@ public class UserPositionService {
 
         ConcurrentWebSocketSessionDecorator broadcastSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
         if(broadcastSession!=null){
-            ConcurrentWebSocketSessionDecorator[] followers = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
+            Set<ConcurrentWebSocketSessionDecorator> followers = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
             if(followers != null) {
                 followersIds = webSocketUserPositionHandler.getSessionsUserIds(followers).stream().distinct().toList();
             }
@@ -0,0 +1,254 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.PositionWriterProperties;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind pipeline for user positions (LastUserPosition and PersistentUserPosition).
+ *
+ * Positions are queued and written by a single thread with insertMany, when batchSize positions are waiting or
+ * every flushIntervalInMillis. When the queue is full (MongoDB too slow), the request waits for a free slot and,
+ * after offerTimeoutInMillis, writes its own position (backpressure on the viewers instead of losing positions).
+ * A failed write is retried (retries, with a doubling retryBackoffInMillis); the writer thread does not take new
+ * positions meanwhile, so that the queue applies backpressure as well. Remaining positions are written on shutdown,
+ * with the same retries. Positions that could not be written are counted as dropped.
+ */
+@Slf4j
+@Component
+public class UserPositionWriter implements RuntimeMetrics {
+
+    private final MongoTemplate mongoTemplate;
+
+    private final PositionWriterProperties properties;
+
+    private final BlockingQueue<PendingPosition> queue;
+
+    private volatile boolean running = false;
+
+    private Thread writer;
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder callerWrites = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder retried = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder totalLagMillis = new LongAdder();
+
+    private final LongAccumulator maxLagMillis = new LongAccumulator(Long::max, 0);
+
+    public UserPositionWriter(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = applicationProperties.getPositionWriter();
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueSize());
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.isWriteBehind()) {
+            running = true;
+            writer = new Thread(this::run, "user-position-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Flush all waiting positions and stop the writer thread
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer != null) {
+            // not interrupted: an interrupted write would lose its batch
+            running = false;
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+            writer = null;
+        }
+        flush();
+    }
+
+    public void write(LastUserPosition lastPosition, PersistentUserPosition persistentPosition) {
+        PendingPosition pending = new PendingPosition(lastPosition, persistentPosition);
+        if (running) {
+            try {
+                if (queue.offer(pending, properties.getOfferTimeoutInMillis(), TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            callerWrites.increment();
+        }
+        insert(List.of(pending));
+    }
+
+    /**
+     * Write all waiting positions now
+     */
+    public void flush() {
+        List<PendingPosition> batch = new ArrayList<>();
+        while (queue.drainTo(batch, properties.getBatchSize()) > 0) {
+            insert(batch);
+            batch = new ArrayList<>();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "userPositionWriter";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        long count = written.sum();
+        return JsonObject.of(
+                "queueSize", queue.size(),
+                "written", count,
+                "batches", batches.sum(),
+                "callerWrites", callerWrites.sum(),
+                "failures", failures.sum(),
+                "retried", retried.sum(),
+                "dropped", dropped.sum(),
+                "meanLagMillis", count == 0 ? 0 : totalLagMillis.sum() / count,
+                "maxLagMillis", maxLagMillis.get()
+        );
+    }
+
+    private void run() {
+        List<PendingPosition> batch = new ArrayList<>();
+        while (running) {
+            try {
+                PendingPosition first = queue.poll(properties.getFlushIntervalInMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + properties.getFlushIntervalInMillis();
+                while (batch.size() < properties.getBatchSize()) {
+                    queue.drainTo(batch, properties.getBatchSize() - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= properties.getBatchSize() || remaining <= 0) {
+                        break;
+                    }
+                    PendingPosition next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                insert(batch);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    private void insert(List<PendingPosition> batch) {
+        List<LastUserPosition> lastPositions = new ArrayList<>(batch.size());
+        List<PersistentUserPosition> persistentPositions = new ArrayList<>(batch.size());
+        for (PendingPosition pending : batch) {
+            lastPositions.add(pending.lastPosition);
+            persistentPositions.add(pending.persistentPosition);
+        }
+        // each collection is only written once, a retry starts from the collection that failed
+        boolean lastPositionsWritten = false;
+        long backoff = properties.getRetryBackoffInMillis();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (!lastPositionsWritten) {
+                    mongoTemplate.insert(lastPositions, LastUserPosition.class);
+                    lastPositionsWritten = true;
+                }
+                mongoTemplate.insert(persistentPositions, PersistentUserPosition.class);
+                break;
+            } catch (RuntimeException e) {
+                failures.increment();
+                if (attempt >= properties.getRetries()) {
+                    dropped.add(batch.size());
+                    log.error("Cannot write " + batch.size() + " user positions after " + (attempt + 1) + " attempts, they are dropped: " + e.getMessage(), e);
+                    return;
+                }
+                log.warn("Cannot write " + batch.size() + " user positions, retry in " + backoff + "ms: " + e.getMessage());
+                retried.increment();
+                if (!sleep(backoff)) {
+                    dropped.add(batch.size());
+                    log.error("Interrupted while retrying to write " + batch.size() + " user positions, they are dropped");
+                    return;
+                }
+                backoff *= 2;
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (PendingPosition pending : batch) {
+            long lag = now - pending.queuedAt;
+            totalLagMillis.add(lag);
+            maxLagMillis.accumulate(lag);
+        }
+        written.add(batch.size());
+        batches.increment();
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static class PendingPosition {
+        private final LastUserPosition lastPosition;
+        private final PersistentUserPosition persistentPosition;
+        private final long queuedAt = System.currentTimeMillis();
+
+        PendingPosition(LastUserPosition lastPosition, PersistentUserPosition persistentPosition) {
+            this.lastPosition = lastPosition;
+            this.persistentPosition = persistentPosition;
+        }
+    }
+}
@@ -29,7 +29,8 @@ import java.util.concurrent.ConcurrentHashMap;
 @Component
 public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
 
-    public static Map<ConcurrentWebSocketSessionDecorator, ConcurrentWebSocketSessionDecorator[]> sessionsTracked = new ConcurrentHashMap<>();
+    // broadcast session -> follower sessions (concurrent sets)
+    public static Map<ConcurrentWebSocketSessionDecorator, Set<ConcurrentWebSocketSessionDecorator>> sessionsTracked = new ConcurrentHashMap<>();
 
     // sessionsTracked key -> "broadcastSessionId/imageId"
     public static Map<String, ConcurrentWebSocketSessionDecorator> sessionsBroadcast = new ConcurrentHashMap<>();
@@ -55,6 +56,9 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     @Autowired
     SecUserRepository secUserRepository;
 
+    @Autowired
+    PositionBroadcastExecutor positionBroadcastExecutor;
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
         sessions = super.afterConnectionEstablished(session, sessions);
@@ -78,6 +82,7 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
             ConcurrentWebSocketSessionDecorator broadcastSession = sessionsBroadcast.get(userAndImageId);
             removeFromBroadcastSession(broadcastSession);
             removeFromTrackerSessions(broadcastSession);
+            positionBroadcastExecutor.forgetBroadcaster(userAndImageId);
         }
         else{
             removeSessionFromTrackerSessions(session);
@@ -128,26 +133,17 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private void addToTrackedSessions(ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator trackingSession){
-        if (WebSocketUserPositionHandler.sessionsTracked.containsKey(broadcastSession)) {
-            ConcurrentWebSocketSessionDecorator[] trackedSessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-
-            boolean alreadyContainsSession = false;
-            for (ConcurrentWebSocketSessionDecorator trackedSession : trackedSessions) {
-                if (trackedSession.getId().equals(trackingSession.getId())) {
-                    alreadyContainsSession = true;
-                    break;
-                }
+        WebSocketUserPositionHandler.sessionsTracked.compute(broadcastSession, (key, trackedSessions) -> {
+            if (trackedSessions == null) {
+                trackedSessions = ConcurrentHashMap.newKeySet();
             }
-
-            if(!alreadyContainsSession){
-                trackedSessions = addSession(trackedSessions, trackingSession);
+            boolean alreadyContainsSession = trackedSessions.stream()
+                    .anyMatch(trackedSession -> trackedSession.getId().equals(trackingSession.getId()));
+            if (!alreadyContainsSession) {
+                trackedSessions.add(trackingSession);
             }
-
-            WebSocketUserPositionHandler.sessionsTracked.replace(broadcastSession, WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession), trackedSessions);
-        } else {
-            ConcurrentWebSocketSessionDecorator[] trackingSessions = new ConcurrentWebSocketSessionDecorator[]{trackingSession};
-            WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, trackingSessions);
-        }
+            return trackedSessions;
+        });
     }
 
     private void moveFollowerAfterInitialConnection(Long userId, Long imageId, WebSocketSession session) {
@@ -181,27 +177,18 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         String userAndImageId = userId+"/"+imageId;
         if(WebSocketUserPositionHandler.sessionsBroadcast.containsKey(userAndImageId)){
             ConcurrentWebSocketSessionDecorator broadcastSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-            ConcurrentWebSocketSessionDecorator[] sessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-            if(sessions != null){
-                sendPosition(sessions, position);
+            Set<ConcurrentWebSocketSessionDecorator> sessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
+            if(sessions != null && !sessions.isEmpty()){
+                positionBroadcastExecutor.broadcast(userAndImageId, sessions, new TextMessage(position));
             }
         }
     }
 
-    private void sendPosition(ConcurrentWebSocketSessionDecorator[] sessions, String position){
-        TextMessage message = new TextMessage(position);
-        for(ConcurrentWebSocketSessionDecorator s : sessions){
-            new Thread(() -> {
-                sendPosition(s, message);
-            }).start();
-        }
-    }
-
     private void sendPosition(WebSocketSession session, TextMessage position){
         super.sendWebSocketMessage(session, position);
     }
 
-    public List<String> getSessionsUserIds(ConcurrentWebSocketSessionDecorator[] sessions){
+    public List<String> getSessionsUserIds(Collection<ConcurrentWebSocketSessionDecorator> sessions){
         List<String> userIds = new ArrayList<>();
         for(ConcurrentWebSocketSessionDecorator s : sessions){
             String userId = getSessionUserId(s);
@@ -231,22 +218,17 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
 
     private void removeSessionFromTrackerSessions(WebSocketSession session) {
         log.debug("Remove this tracking session from tracked sessions");
-        for (Map.Entry<ConcurrentWebSocketSessionDecorator, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessionsTracked.entrySet()) {
-
-            for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
-                if(trackedSession.getId().equals(session.getId())){
-                    removeSessionFromTrackerSessions(session, entry.getKey());
+        for (Set<ConcurrentWebSocketSessionDecorator> trackedSessions : WebSocketUserPositionHandler.sessionsTracked.values()) {
+            trackedSessions.removeIf(trackedSession -> {
+                if (trackedSession.getId().equals(session.getId())) {
+                    positionBroadcastExecutor.forget(trackedSession);
+                    return true;
                 }
-            }
+                return false;
+            });
         }
     }
 
-    private void removeSessionFromTrackerSessions(WebSocketSession session, ConcurrentWebSocketSessionDecorator trackedSession){
-        ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessionsTracked.get(trackedSession);
-        ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-        WebSocketUserPositionHandler.sessionsTracked.replace(trackedSession, oldSessions, newSessions);
-    }
-
     private void removeFromSessions(WebSocketSession session) {
         for (Map.Entry<String, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessions.entrySet()) {
 
@@ -263,9 +245,11 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
 
     private void removeFromTrackerSessions(ConcurrentWebSocketSessionDecorator broadcastSession){
         log.debug("Remove this broadcast session from tracked sessions");
-        ConcurrentWebSocketSessionDecorator[] sessionDecorators = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
+        Set<ConcurrentWebSocketSessionDecorator> sessionDecorators = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
         if(sessionDecorators != null){
-            sendNotificationsAndCloseSessions(List.of(sessionDecorators));
+            // the followers will not be found in sessionsTracked when they are closed, forget them now
+            sessionDecorators.forEach(positionBroadcastExecutor::forget);
+            sendNotificationsAndCloseSessions(List.copyOf(sessionDecorators));
         }
         WebSocketUserPositionHandler.sessionsTracked.remove(broadcastSession);
     }
@@ -0,0 +1,211 @@
+package be.cytomine.service.stats;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.StatsCacheProperties;
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.ontology.AnnotationDomain;
+import be.cytomine.domain.ontology.AnnotationTerm;
+import be.cytomine.domain.ontology.Ontology;
+import be.cytomine.domain.ontology.RelationTerm;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.project.Project;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import lombok.EqualsAndHashCode;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the aggregated rows of the project stats (StatsService), keyed by stat, project and parameters (date range,...).
+ * Entries are bounded and expire after application.statsCache.ttlInSeconds.
+ *
+ * Only the rows of the grouped queries are cached: they do not depend on the current user, the layers visible
+ * by the user are applied to them on each request. Cached rows are shared between requests: they must not be modified.
+ * Entries of a project are invalidated when one of its annotations or annotation terms is saved or deleted
+ * (see ModelService), all entries when a term, a relation between terms or an ontology is saved or deleted.
+ * Entries without project (stats over several projects) are invalidated by any change.
+ */
+@Component
+public class StatsCache implements RuntimeMetrics {
+
+    private final long ttlInMillis;
+
+    private final Map<Key, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public StatsCache(ApplicationProperties applicationProperties) {
+        StatsCacheProperties properties = applicationProperties.getStatsCache();
+        this.ttlInMillis = properties.getTtlInSeconds() * 1000;
+        int maxSize = properties.getMaxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the rows of a stat, load them on a miss
+     * @param project project of the stat, null if the stat covers several projects
+     * @param parameters other parameters of the stat (dates,...)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String stat, Long project, List<?> parameters, Supplier<T> loader) {
+        Key key = new Key(stat, project, parameters);
+        if (isEnabled()) {
+            synchronized (entries) {
+                Entry entry = entries.get(key);
+                if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                    hits.increment();
+                    return (T) entry.rows;
+                }
+            }
+        }
+
+        misses.increment();
+        T rows = loader.get();
+        if (isEnabled()) {
+            synchronized (entries) {
+                entries.put(key, new Entry(rows, System.currentTimeMillis() + ttlInMillis));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Invalidate the entries affected by a saved or deleted domain
+     */
+    public void invalidate(CytomineDomain domain) {
+        if (domain instanceof AnnotationDomain annotation) {
+            invalidateProject(annotation.getProject());
+        } else if (domain instanceof AnnotationTerm annotationTerm) {
+            invalidateProject(annotationTerm.getUserAnnotation() != null ? annotationTerm.getUserAnnotation().getProject() : null);
+        } else if (domain instanceof Term || domain instanceof RelationTerm || domain instanceof Ontology) {
+            clear();
+        }
+    }
+
+    /**
+     * Invalidate the entries of a project (all entries if the project is unknown).
+     * In a transaction, entries are invalidated again after commit: a concurrent request may have cached the old rows.
+     */
+    public void invalidateProject(Project project) {
+        invalidateProject(project != null ? project.getId() : null);
+    }
+
+    public void invalidateProject(Long projectId) {
+        if (projectId == null) {
+            clear();
+            return;
+        }
+        invalidations.increment();
+        remove(projectId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remove(projectId);
+                }
+            });
+        }
+    }
+
+    public void clear() {
+        invalidations.increment();
+        synchronized (entries) {
+            entries.clear();
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    synchronized (entries) {
+                        entries.clear();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "statsCache";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return JsonObject.of(
+                "hits", hits.sum(),
+                "misses", misses.sum(),
+                "invalidations", invalidations.sum(),
+                "size", size
+        );
+    }
+
+    private void remove(Long projectId) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.project == null || key.project.equals(projectId));
+        }
+    }
+
+    private boolean isEnabled() {
+        return ttlInMillis > 0;
+    }
+
+    @EqualsAndHashCode
+    private static class Key {
+        private final String stat;
+        private final Long project;
+        private final List<?> parameters;
+
+        Key(String stat, Long project, List<?> parameters) {
+            this.stat = stat;
+            this.project = project;
+            this.parameters = Objects.requireNonNullElse(parameters, List.of());
+        }
+    }
+
+    private static class Entry {
+        private final Object rows;
+        private final long expiration;
+
+        Entry(Object rows, long expiration) {
+            this.rows = rows;
+            this.expiration = expiration;
+        }
+    }
+}
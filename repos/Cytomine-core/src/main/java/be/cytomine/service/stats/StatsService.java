@@ -16,39 +16,34 @@ package be.cytomine.service.stats;
  * limitations under the License.
  */
 
-import be.cytomine.domain.ontology.AnnotationTerm;
 import be.cytomine.domain.ontology.Term;
 import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.domain.security.User;
-import be.cytomine.domain.social.AnnotationAction;
-import be.cytomine.domain.social.PersistentImageConsultation;
-import be.cytomine.domain.social.PersistentProjectConnection;
 import be.cytomine.dto.StorageStats;
 import be.cytomine.repository.ontology.RelationRepository;
 import be.cytomine.repository.ontology.TermRepository;
-import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.ActivityRollupService;
+import be.cytomine.service.social.ActivityRollupService.Activity;
+import be.cytomine.service.social.ActivityRollupService.ActivityHistogram;
 import be.cytomine.utils.JsonObject;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.criteria.*;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
 import jakarta.persistence.Tuple;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -69,24 +64,24 @@ public class StatsService {
     @Autowired
     ProjectService projectService;
 
-    @Autowired
-    UserAnnotationRepository userAnnotationRepository;
-
     @Autowired
     TermRepository termRepository;
 
     @Autowired
     RelationRepository relationRepository;
 
-    @Autowired
-    MongoTemplate mongoTemplate;
-
     @Autowired
     ImageServerService imageServerService;
 
     @Autowired
     SecurityACLService securityACLService;
 
+    @Autowired
+    ActivityRollupService activityRollupService;
+
+    @Autowired
+    StatsCache statsCache;
+
     public Long total(Class domain) {
         return entityManager.createQuery("SELECT COUNT(*) FROM " + domain.getName(), Long.class).getSingleResult();
     }
@@ -108,26 +103,39 @@ public class StatsService {
         securityACLService.check(term.container(), READ);
 
         List<Project> projects = projectService.listByOntology(term.getOntology());
+        if (projects.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> projectIds = projects.stream().map(Project::getId).collect(Collectors.toList());
+
+        //Get the number of annotations with the term, for each project and user
+        List<Long[]> rows = statsCache.get("annotationTermedByProject", null, List.of(term.getId(), projectIds), () -> longRows(
+                entityManager.createNativeQuery("" +
+                        "SELECT ua.project_id, ua.user_id, COUNT(DISTINCT ua.id) " +
+                        "FROM user_annotation ua " +
+                        "JOIN annotation_term at ON at.user_annotation_id = ua.id " +
+                        "WHERE at.term_id = :term AND ua.project_id IN (:projects) " +
+                        "GROUP BY ua.project_id, ua.user_id", Tuple.class)
+                        .setParameter("term", term.getId())
+                        .setParameter("projects", projectIds)
+                        .getResultList()));
+
+        Map<Long, Map<Long, Long>> countsByProjectAndUser = new HashMap<>();
+        for (Long[] row : rows) {
+            countsByProjectAndUser.computeIfAbsent(row[0], project -> new HashMap<>()).put(row[1], row[2]);
+        }
 
+        //only the annotations of the layers visible by the current user are counted
         JsonObject counts = new JsonObject();
-        JsonObject percentage = new JsonObject();
-
         for (Project project : projects) {
-            counts.put(project.getName(), 0);
-            percentage.put(project.getName(), 0);
-
-            List<Long> layers = secUserService.listLayers(project, null).stream().map(x -> x.getJSONAttrLong("id"))
-                    .collect(Collectors.toList());
-
-            if (!layers.isEmpty()) {
-                List<UserAnnotation> annotations = userAnnotationRepository.findAllByProjectAndUserIdIn(project, layers);
-                for (UserAnnotation annotation : annotations) {
-                    if (annotation.getTerms().contains(term)) {
-                        Long currentValue = counts.getJSONAttrLong(project.getName(), 0L);
-                        counts.put(project.getName(), currentValue + 1);
-                    }
+            long count = 0;
+            Map<Long, Long> countsByUser = countsByProjectAndUser.getOrDefault(project.getId(), Map.of());
+            if (!countsByUser.isEmpty()) {
+                for (JsonObject layer : secUserService.listLayers(project, null)) {
+                    count += countsByUser.getOrDefault(layer.getJSONAttrLong("id"), 0L);
                 }
             }
+            counts.put(project.getName(), count);
         }
 
         return counts.entrySet().stream().map(x -> JsonObject.of("key", x.getKey(), "value", x.getValue()))
@@ -198,42 +206,19 @@ public class StatsService {
 
     public List<JsonObject> statUserSlide(Project project, Date startDate, Date endDate) {
         securityACLService.check(project, READ);
-//        Session session = ((Session) entityManager.getDelegate());
-        // this is a new implementation using JakartaEE Criteria API instead of Hibernate Criteria API
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Tuple> cq = cb.createQuery(Tuple.class);
-        Root<UserAnnotation> userAnnotationRoot = cq.from(UserAnnotation.class);
-        List<Predicate> predicatesList = new ArrayList<>();
-        Predicate projectPredicate = cb.equal(userAnnotationRoot.get("project"), project);
-        predicatesList.add(projectPredicate);
-        if (startDate != null) {
-            Predicate startDatePredicate = cb.greaterThan(userAnnotationRoot.get("created"), startDate);
-            predicatesList.add(startDatePredicate);
-        }
-        if (endDate != null) {
-            Predicate endDatePredicate = cb.lessThan(userAnnotationRoot.get("created"), endDate);
-            predicatesList.add(endDatePredicate);
-        }
-        cq.multiselect(userAnnotationRoot.get("user").get("id"), cb.countDistinct(userAnnotationRoot.get("image").get("id")))
-                .where(predicatesList.toArray(Predicate[]::new))
-                .groupBy(userAnnotationRoot.get("user").get("id"));
 
-        TypedQuery<Tuple> q = entityManager.createQuery(cq);
-        // this is a new implementation using JakartaEE Criteria API instead of Hibernate Criteria API
-//        Criteria criteria = session.createCriteria(UserAnnotation.class);
-//        criteria.add(Restrictions.eq("project", project));
-//        if(startDate!=null) {
-//            criteria.add(Restrictions.gt("created", startDate));
-//        }
-//        if(endDate!=null) {
-//            criteria.add(Restrictions.lt("created", endDate));
-//        }
-//        criteria.setProjection( Projections.projectionList()
-//                .add( Projections.groupProperty("user.id") )
-//                .add( Projections.countDistinct("image.id") ));
+        //Get the number of annotated images for each user
+        List<Long[]> numberOfAnnotatedImagesByUser = statsCache.get("userSlide", project.getId(), Arrays.asList(startDate, endDate), () -> longRows(
+                withDateRange(entityManager.createNativeQuery("" +
+                        "SELECT ua.user_id, COUNT(DISTINCT ua.image_id) " +
+                        "FROM user_annotation ua " +
+                        "WHERE ua.project_id = :project " +
+                        (startDate != null ? "AND ua.created > :startDate " : "") +
+                        (endDate != null ? "AND ua.created < :endDate " : "") +
+                        "GROUP BY ua.user_id", Tuple.class), startDate, endDate)
+                        .setParameter("project", project.getId())
+                        .getResultList()));
 
-//        List<Object[]> numberOfAnnotatedImagesByUser = criteria.list();
-        List<Tuple> numberOfAnnotatedImagesByUser = q.getResultList();
         // Build empty result table
         Map<Long, JsonObject> result = new HashMap<Long, JsonObject>();
         for (JsonObject user : secUserService.listLayers(project, null)) {
@@ -244,10 +229,10 @@ public class StatsService {
             result.put(item.getId(), item);
         }
 
-        for (Tuple entry : numberOfAnnotatedImagesByUser) {
-            JsonObject user = result.get(entry.get(0));
+        for (Long[] entry : numberOfAnnotatedImagesByUser) {
+            JsonObject user = result.get(entry[0]);
             if (user != null) {
-                user.put("value", entry.get(1));
+                user.put("value", entry[1]);
             }
         }
         return new ArrayList<>(result.values());
@@ -350,24 +335,26 @@ public class StatsService {
         stats.put("0", 0);
 
         //Get the number of annotation for each term
-        String request = "" +
-                "SELECT at.term_id, count(*) " +
-                "FROM user_annotation ua " +
-                "LEFT JOIN annotation_term at " +
-                "ON at.user_annotation_id = ua.id " +
-                "WHERE ua.project_id = " + project.getId() + " " +
-                (startDate != null ? "AND at.created > '" + startDate + "'" : "") +
-                (endDate != null ? "AND at.created < '" + endDate + "'" : "") +
-                "GROUP BY at.term_id ";
-
-        List<Tuple> rows = entityManager.createNativeQuery(request, Tuple.class).getResultList();
-        for (Tuple row : rows) {
-            if (row.get(0) == null) {
-                stats.put("0", (Long) row.get(1));
+        List<Long[]> rows = statsCache.get("term", project.getId(), Arrays.asList(startDate, endDate), () -> longRows(
+                withDateRange(entityManager.createNativeQuery("" +
+                        "SELECT at.term_id, count(*) " +
+                        "FROM user_annotation ua " +
+                        "LEFT JOIN annotation_term at " +
+                        "ON at.user_annotation_id = ua.id " +
+                        "WHERE ua.project_id = :project " +
+                        (startDate != null ? "AND at.created > :startDate " : "") +
+                        (endDate != null ? "AND at.created < :endDate " : "") +
+                        "GROUP BY at.term_id ", Tuple.class), startDate, endDate)
+                        .setParameter("project", project.getId())
+                        .getResultList()));
+
+        for (Long[] row : rows) {
+            if (row[0] == null) {
+                stats.put("0", row[1]);
             } else {
-                String name = (String) idsRevert.get(String.valueOf(row.get(0)));
+                String name = (String) idsRevert.get(String.valueOf(row[0]));
                 if (name != null) {
-                    stats.put(name, (row.get(1) instanceof BigInteger ? (Long) row.get(1) : row.get(1)));
+                    stats.put(name, row[1]);
                 }
             }
         }
@@ -388,34 +375,19 @@ public class StatsService {
         if (terms.isEmpty()) {
             return new ArrayList<>();
         }
-        // use Jakarta JPA Criteria API instead of Hibernate Criteria API
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Tuple> cq = cb.createQuery(Tuple.class);
-        Root<AnnotationTerm> userAnnotationTermRoot = cq.from(AnnotationTerm.class);
-        Predicate[] predicates = new Predicate[2];
-        predicates[0] = userAnnotationTermRoot.get("term").in(terms);
-        Path<Project> expression = userAnnotationTermRoot.get("userAnnotation").get("project");
-        predicates[1] = cb.equal(expression, project);
-        cq.multiselect(userAnnotationTermRoot.get("user").get("id"),
-                        cb.count(userAnnotationTermRoot.get("term").get("id")))
-                .where(predicates)
-                .groupBy(userAnnotationTermRoot.get("user").get("id"), userAnnotationTermRoot.get("term").get("id"));
-        TypedQuery<Tuple> q = entityManager.createQuery(cq);
-        List<Tuple> nbAnnotationsByUserAndTerms = q.getResultList();
-        // use Jakarta JPA Criteria API instead of Hibernate Criteria API
-        //compute number of annotation for each user and each term
-//        Session session = ((Session) entityManager.getDelegate());
-//        Criteria criteria = session.createCriteria(AnnotationTerm.class);
-//        criteria.add(Restrictions.in("term", terms));
-//        criteria.createAlias("userAnnotation", "a");
-//        criteria.add(Restrictions.eq("a.project", project));
-//        criteria.setProjection(Projections.projectionList()
-//                .add(Projections.groupProperty("user.id"))
-//                .add(Projections.groupProperty("term.id"))
-//                .add(Projections.count("term")));
-
-//        List<Object[]> nbAnnotationsByUserAndTerms = criteria.list();
 
+        //compute number of annotation for each user and each term
+        List<Long[]> nbAnnotationsByUserAndTerms = statsCache.get("userAnnotations", project.getId(), List.of(), () -> longRows(
+                entityManager.createNativeQuery("" +
+                        "SELECT at.user_id, at.term_id, COUNT(at.term_id) " +
+                        "FROM annotation_term at " +
+                        "JOIN user_annotation ua ON ua.id = at.user_annotation_id " +
+                        "JOIN term t ON t.id = at.term_id " +
+                        "WHERE ua.project_id = :project AND t.ontology_id = :ontology " +
+                        "GROUP BY at.user_id, at.term_id", Tuple.class)
+                        .setParameter("project", project.getId())
+                        .setParameter("ontology", project.getOntology().getId())
+                        .getResultList()));
 
         for (SecUser user : secUserService.listUsers(project)) {
             JsonObject item = new JsonObject();
@@ -435,14 +407,14 @@ public class StatsService {
             result.put(user.getId(), item);
         }
 
-        for (Tuple row : nbAnnotationsByUserAndTerms) {
-            JsonObject user = result.get(row.get(0));
+        for (Long[] row : nbAnnotationsByUserAndTerms) {
+            JsonObject user = result.get(row[0]);
             if (user != null) {
                 List<JsonObject> termsJsonObjects = (List<JsonObject>) user.get("terms");
                 for (JsonObject jsonObject : termsJsonObjects) {
-//                    if (Objects.equals(jsonObject.getJSONAttrLong("id"),row.get(1))) {
-                    jsonObject.put("value", row.get(1));
-//                    }
+                    if (Objects.equals(jsonObject.getJSONAttrLong("id"), row[1])) {
+                        jsonObject.put("value", row[2]);
+                    }
                 }
 
             }
@@ -549,62 +521,58 @@ public class StatsService {
 
     public List<JsonObject> statConnectionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentProjectConnection> persistentProjectConnections = mongoTemplate.find(query, PersistentProjectConnection.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        return this.aggregateByPeriods(Activity.PROJECT_CONNECTION, project, null, daysRange, startDate, endDate, accumulate);
     }
 
 
     public List<JsonObject> statImageConsultationsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentImageConsultation> persistentProjectConnections = mongoTemplate.find(query, PersistentImageConsultation.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        return this.aggregateByPeriods(Activity.IMAGE_CONSULTATION, project, null, daysRange, startDate, endDate, accumulate);
     }
 
     public List<JsonObject> statAnnotationActionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate, String type) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        if (type != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("action").is(type));
+        return this.aggregateByPeriods(Activity.ANNOTATION_ACTION, project, type, daysRange, startDate, endDate, accumulate);
+    }
+
+
+    private List<JsonObject> aggregateByPeriods(Activity activity, Project project, String action, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        Date start = (startDate == null ? project.getCreated() : startDate);
+        long endTime = (endDate == null ? new Date() : endDate).getTime();
+
+        //periods of duration daysRange from start, until the period containing the end date
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(start.getTime());
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(start);
+        while (boundaries.get(boundaries.size() - 1) <= endTime) {
+            cal.add(Calendar.DATE, daysRange);
+            boundaries.add(cal.getTimeInMillis());
         }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
 
-        List<AnnotationAction> persistentProjectConnections = mongoTemplate.find(query, AnnotationAction.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
-    }
+        ActivityHistogram histogram = activityRollupService.histogram(activity, project.getId(), null, action,
+                (startDate == null ? Long.MIN_VALUE : startDate.getTime()), (endDate == null ? Long.MAX_VALUE : endDate.getTime() + 1), boundaries);
 
+        //for each period, compute the number of items (items before the first period are counted in it)
+        List<JsonObject> data = new ArrayList<>();
+        int count = 0;
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            long current = boundaries.get(i + 1);
+            if (!accumulate) {
+                count = 0;
+            }
+            count += (int) histogram.count(previous, current);
+            previous = current;
+
+            JsonObject item = new JsonObject();
+            item.put("date", boundaries.get(i));
+            item.put("endDate", Math.min(current, endTime));
+            item.put("size", count);
+            data.add(item);
+        }
+        return data;
+    }
 
     private List<JsonObject> aggregateByPeriods(List<Date> creationDates, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         List<JsonObject> data = new ArrayList<>();
@@ -642,5 +610,32 @@ public class StatsService {
         return data;
     }
 
+    /**
+     * Bind the optional dates of a stat query (startDate and endDate parameters)
+     */
+    private static Query withDateRange(Query query, Date startDate, Date endDate) {
+        if (startDate != null) {
+            query.setParameter("startDate", new Timestamp(startDate.getTime()));
+        }
+        if (endDate != null) {
+            query.setParameter("endDate", new Timestamp(endDate.getTime()));
+        }
+        return query;
+    }
 
+    /**
+     * Copy the rows of a grouped query (ids and counts) as Long, so that they can be cached
+     */
+    private static List<Long[]> longRows(List<Tuple> tuples) {
+        List<Long[]> rows = new ArrayList<>(tuples.size());
+        for (Tuple tuple : tuples) {
+            Object[] values = tuple.toArray();
+            Long[] row = new Long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                row[i] = castToLong(values[i]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
 }
@@ -22,17 +22,24 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.dto.Kmeans;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.image.SliceInstanceRepository;
+import be.cytomine.service.annotation.AnnotationListingStatement;
+import be.cytomine.service.annotation.SliceAnnotationIndex;
 import be.cytomine.service.ontology.AnnotationIndexService;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 import lombok.AllArgsConstructor;
+import org.hibernate.Session;
 import org.springframework.stereotype.Service;
 
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.Query;
-import jakarta.persistence.Tuple;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -56,6 +63,13 @@ public class KmeansGeometryService {
     public static final int ANNOTATIONSIZE4 = 10000;
     public static final int ANNOTATIONSIZE5 = 100000;
 
+    /**
+     * Number of clusters, as ST_ClusterKMeans(location, 5) in AnnotationListing
+     */
+    public static final int CLUSTERS = 5;
+
+    private static final int MAX_ITERATIONS = 50;
+
 
     public static final Map<Integer, Map<Integer, Integer>> rules =
         Map.of(
@@ -68,39 +82,176 @@ public class KmeansGeometryService {
         );
 
 
-    public List<Kmeans> doKeamsFullRequest(String request) {
-        String requestKmeans = "SELECT kmeans, count(*), st_astext(ST_ConvexHull(ST_Collect(location))) \n" +
-                "FROM (\n" + request +"\n" +") AS ksub\n" +
+    public List<Kmeans> doKeamsFullRequest(AnnotationListingStatement request) {
+        AnnotationListingStatement requestKmeans = request.wrap(
+                "SELECT kmeans, count(*), st_astext(ST_ConvexHull(ST_Collect(location))) \n" +
+                "FROM (\n",
+                "\n" +") AS ksub\n" +
                 "GROUP BY kmeans\n" +
-                "ORDER BY kmeans;";
+                "ORDER BY kmeans;");
         return selectAnnotationLightKmeans(requestKmeans);
     }
 
-    public List<Kmeans> doKeamsSoftRequest(String request) {
-        String requestKmeans = "SELECT kmeans, count(*), st_astext(ST_Centroid(ST_Collect(location))) \n" +
-                "FROM (\n" + request +"\n" +") AS ksub\n" +
+    public List<Kmeans> doKeamsSoftRequest(AnnotationListingStatement request) {
+        AnnotationListingStatement requestKmeans = request.wrap(
+                "SELECT kmeans, count(*), st_astext(ST_Centroid(ST_Collect(location))) \n" +
+                "FROM (\n",
+                "\n" +") AS ksub\n" +
                 "GROUP BY kmeans\n" +
-                "ORDER BY kmeans;";
+                "ORDER BY kmeans;");
         return selectAnnotationLightKmeans(requestKmeans);
     }
 
-    private List<Kmeans> selectAnnotationLightKmeans(String request) {
+    private List<Kmeans> selectAnnotationLightKmeans(AnnotationListingStatement request) {
         List<Kmeans> data = new ArrayList<>();
 
-        double max = 1;
+        entityManager.flush();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(request.getSql())) {
+                request.bind(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Kmeans kmeans = new Kmeans();
+                        kmeans.setId(resultSet.getLong(1));
+                        kmeans.setCount(resultSet.getLong(2));
+                        kmeans.setLocation(resultSet.getString(3));
+                        data.add(kmeans);
+                    }
+                }
+            }
+        });
 
-        Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
-        List<Tuple> resultList = nativeQuery.getResultList();
-        for (Tuple tuple : resultList) {
-            Kmeans kmeans = new Kmeans();
-            kmeans.setId(((Integer)tuple.get(0)).longValue());
-            kmeans.setCount((Long)tuple.get(1));
-            kmeans.setLocation((String) tuple.get(2));
-            if(kmeans.getCount()>max) {
-                max = kmeans.getCount();
+        return withRatio(data);
+    }
+
+    /**
+     * Kmeans clusters of the annotations of a bbox, computed in memory from the envelopes of a slice index.
+     * Annotations are clustered on the center of their envelope. The location of a cluster is the convex hull of
+     * the envelopes of its annotations (full), or the mean of their centers (soft).
+     * @param users users of the annotations, sorted, all users if null
+     */
+    public List<Kmeans> doKmeansInMemory(SliceAnnotationIndex index, Envelope bbox, long[] users, boolean full) {
+        double[][] boxes = {new double[1024]};
+        int[] count = {0};
+        index.search(bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), users, (id, minX, minY, maxX, maxY) -> {
+            if (count[0] * 4 == boxes[0].length) {
+                boxes[0] = Arrays.copyOf(boxes[0], boxes[0].length * 2);
             }
+            int offset = count[0]++ * 4;
+            boxes[0][offset] = minX;
+            boxes[0][offset + 1] = minY;
+            boxes[0][offset + 2] = maxX;
+            boxes[0][offset + 3] = maxY;
+        });
+        int n = count[0];
+        double[] centerX = new double[n];
+        double[] centerY = new double[n];
+        for (int i = 0; i < n; i++) {
+            centerX[i] = (boxes[0][i * 4] + boxes[0][i * 4 + 2]) / 2;
+            centerY[i] = (boxes[0][i * 4 + 1] + boxes[0][i * 4 + 3]) / 2;
+        }
+        int[] cluster = cluster(centerX, centerY, Math.min(CLUSTERS, n));
+
+        GeometryFactory geometryFactory = new GeometryFactory();
+        List<Kmeans> data = new ArrayList<>();
+        for (int c = 0; c < Math.min(CLUSTERS, n); c++) {
+            List<Coordinate> corners = new ArrayList<>();
+            long size = 0;
+            double sumX = 0;
+            double sumY = 0;
+            for (int i = 0; i < n; i++) {
+                if (cluster[i] != c) {
+                    continue;
+                }
+                size++;
+                sumX += centerX[i];
+                sumY += centerY[i];
+                if (full) {
+                    double[] box = boxes[0];
+                    corners.add(new Coordinate(box[i * 4], box[i * 4 + 1]));
+                    corners.add(new Coordinate(box[i * 4 + 2], box[i * 4 + 1]));
+                    corners.add(new Coordinate(box[i * 4 + 2], box[i * 4 + 3]));
+                    corners.add(new Coordinate(box[i * 4], box[i * 4 + 3]));
+                }
+            }
+            if (size == 0) {
+                continue;
+            }
+            Kmeans kmeans = new Kmeans();
+            kmeans.setId((long) c);
+            kmeans.setCount(size);
+            kmeans.setLocation(full
+                    ? geometryFactory.createMultiPointFromCoords(corners.toArray(new Coordinate[0])).convexHull().toText()
+                    : geometryFactory.createPoint(new Coordinate(sumX / size, sumY / size)).toText());
             data.add(kmeans);
         }
+        return withRatio(data);
+    }
+
+    /**
+     * Lloyd's algorithm. Initial centers are spread over the points, which come in the spatial order of the index.
+     * @return cluster of each point
+     */
+    static int[] cluster(double[] x, double[] y, int k) {
+        int n = x.length;
+        int[] cluster = new int[n];
+        if (k == 0) {
+            return cluster;
+        }
+        double[] centerX = new double[k];
+        double[] centerY = new double[k];
+        for (int c = 0; c < k; c++) {
+            int i = (int) ((long) c * n / k);
+            centerX[c] = x[i];
+            centerY[c] = y[i];
+        }
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            boolean changed = iteration == 0;
+            for (int i = 0; i < n; i++) {
+                int nearest = 0;
+                double nearestDistance = Double.MAX_VALUE;
+                for (int c = 0; c < k; c++) {
+                    double dx = x[i] - centerX[c];
+                    double dy = y[i] - centerY[c];
+                    double distance = dx * dx + dy * dy;
+                    if (distance < nearestDistance) {
+                        nearest = c;
+                        nearestDistance = distance;
+                    }
+                }
+                if (cluster[i] != nearest) {
+                    cluster[i] = nearest;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            double[] sumX = new double[k];
+            double[] sumY = new double[k];
+            int[] size = new int[k];
+            for (int i = 0; i < n; i++) {
+                sumX[cluster[i]] += x[i];
+                sumY[cluster[i]] += y[i];
+                size[cluster[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (size[c] > 0) {
+                    centerX[c] = sumX[c] / size[c];
+                    centerY[c] = sumY[c] / size[c];
+                }
+            }
+        }
+        return cluster;
+    }
+
+    private static List<Kmeans> withRatio(List<Kmeans> data) {
+        double max = 1;
+        for (Kmeans datum : data) {
+            if(datum.getCount()>max) {
+                max = datum.getCount();
+            }
+        }
 
         for (Kmeans datum : data) {
             datum.setRatio(((double)datum.getCount()/max));
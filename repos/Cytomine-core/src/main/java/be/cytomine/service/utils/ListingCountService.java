@@ -0,0 +1,143 @@
+package be.cytomine.service.utils;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ListingCountProperties;
+import be.cytomine.utils.CountMode;
+import be.cytomine.utils.ExpiringMap;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PageUtils;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Total size of the paginated SQL listings (projects, image instances, users).
+ *
+ * The count query runs over the same joins as the listing and often costs more than the page itself: it is skipped
+ * when the size can be deduced from the page (last page of an offset pagination), an exact count is reused by the
+ * next pages for application.listingCount.cacheTtlInSeconds, and with CountMode.ESTIMATE, a listing without cached
+ * count gets the estimate of the query planner instead.
+ */
+@Slf4j
+@Service
+public class ListingCountService implements RuntimeMetrics {
+
+    private static final Pattern PLAN_ROWS = Pattern.compile("rows=(\\d+)");
+
+    private final EntityManager entityManager;
+
+    private final ExpiringMap<String, Long> counts;
+
+    private final LongAdder deduced = new LongAdder();
+
+    private final LongAdder cached = new LongAdder();
+
+    private final LongAdder counted = new LongAdder();
+
+    private final LongAdder estimated = new LongAdder();
+
+    public ListingCountService(EntityManager entityManager, ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        ListingCountProperties properties = applicationProperties.getListingCount();
+        this.counts = properties.getCacheTtlInSeconds() > 0 ?
+                new ExpiringMap<>(properties.getCacheTtlInSeconds() * 1000, properties.getCacheMaxSize()) : null;
+    }
+
+    /**
+     * Build the page of a listing, with its total size
+     * @param keyset true if the page follows a cursor (its offset is unknown)
+     * @param nextCursor cursor of the next page, null on the last page
+     * @param countRequest count of the listing rows (same joins and conditions, without keyset condition)
+     * @param estimateRequest ids of the listing rows (same joins and conditions), planned to estimate their number
+     * @param parameters parameters of the count and estimate requests
+     */
+    public <T> Page<T> page(List<T> results, Long max, Long offset, boolean keyset, String nextCursor, CountMode countMode,
+                            String countRequest, String estimateRequest, Map<String, Object> parameters) {
+        long pageOffset = keyset ? 0 : offset;
+        boolean lastPage = max == 0 || results.size() < max;
+        if (lastPage && !keyset && (!results.isEmpty() || offset == 0)) {
+            deduced.increment();
+            return PageUtils.buildListingPage(results, max, pageOffset, offset + results.size(), null, false);
+        }
+
+        String key = countRequest + " " + new TreeMap<>(parameters);
+        Long count = counts != null ? counts.get(key) : null;
+        if (count != null) {
+            cached.increment();
+            return PageUtils.buildListingPage(results, max, pageOffset, count, nextCursor, false);
+        }
+
+        if (countMode == CountMode.ESTIMATE) {
+            estimated.increment();
+            long estimate = Math.max(estimate(estimateRequest, parameters), pageOffset + results.size());
+            return PageUtils.buildListingPage(results, max, pageOffset, estimate, nextCursor, true);
+        }
+
+        counted.increment();
+        count = ((Number) query(countRequest, parameters).getSingleResult()).longValue();
+        if (counts != null) {
+            counts.put(key, count);
+        }
+        return PageUtils.buildListingPage(results, max, pageOffset, count, nextCursor, false);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "listingCount";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        return JsonObject.of(
+                "deduced", deduced.sum(),
+                "cached", cached.sum(),
+                "counted", counted.sum(),
+                "estimated", estimated.sum()
+        );
+    }
+
+    private long estimate(String request, Map<String, Object> parameters) {
+        List<?> plan = query("EXPLAIN " + request, parameters).getResultList();
+        Matcher rows = PLAN_ROWS.matcher(plan.isEmpty() ? "" : String.valueOf(plan.get(0)));
+        if (!rows.find()) {
+            log.warn("No row estimate in the plan of " + request);
+            return 0;
+        }
+        return Long.parseLong(rows.group(1));
+    }
+
+    private Query query(String request, Map<String, Object> parameters) {
+        Query query = entityManager.createNativeQuery(request);
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            query.setParameter(entry.getKey(), entry.getValue());
+        }
+        return query;
+    }
+}
@@ -2,6 +2,7 @@ package be.cytomine.service.utils;
 
 import be.cytomine.dto.annotation.SimplifiedAnnotation;
 import be.cytomine.exceptions.WrongArgumentException;
+import jakarta.annotation.PreDestroy;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Polygon;
@@ -14,12 +15,26 @@ import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
 @Service
 public class SimplifyGeometryService {
 
+    /* Precision of the simplification rate search (step of the former linear search) */
+    private static final double RATE_PRECISION = 0.25d;
+
+    private static final double MAX_RATE = 250d;
+
+    /* Parts of smaller multipolygons are not simplified in parallel */
+    private static final int PARALLEL_MIN_POINTS = 10000;
+
     @Value("${application.annotation.maxNumberOfPoint}")
     Double maxNumberOfPoint;
 
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
     public SimplifiedAnnotation simplifyPolygon(String form, Long minPoint, Long maxPoint) {
         try {
             return simplifyPolygon(new WKTReader().read(form), minPoint, maxPoint);
@@ -75,6 +90,10 @@ public class SimplifyGeometryService {
             rateLimitMax = Math.max(numberOfPoint / ratioMax, numOfGeometry * maxNumberOfPoint);
         }
 
+        if (numberOfPoint <= rateLimitMax) {
+            return new SimplifiedAnnotation(geometry, 0.0d);
+        }
+
         /* Minimum number of point that we would have (500/10 (min 10 max 100)=min 50 points)*/
         double rateLimitMin;
         if (minPoint!=null) {
@@ -83,36 +102,14 @@ public class SimplifyGeometryService {
             rateLimitMin = Math.min(Math.max(numberOfPoint / ratioMin, 10), numOfGeometry * minNumberOfPoint);
         }
 
-        /* Increase value for the increment (allow to converge faster) */
-        double incrThreshold = 0.25d;
-        double i = 0;
-        double rate = 0;
-
-        /* Max number of loop (prevent infinite loop) */
-        int maxLoop = 1000;
-
-        Geometry newGeometry = (Geometry)geometry.clone();
-        Boolean isPolygonAndNotValid = (geometry instanceof Polygon && !((Polygon) geometry).isValid());
-        Boolean isMultiPolygon = (geometry instanceof MultiPolygon);
-        while (numberOfPoint > rateLimitMax && maxLoop > 0) {
-            rate = i;
-            if (isPolygonAndNotValid || isMultiPolygon) {
-                newGeometry = TopologyPreservingSimplifier.simplify(geometry, rate);
-            } else {
-                newGeometry = DouglasPeuckerSimplifier.simplify(geometry, rate);
-            }
-
-            if (newGeometry.getNumPoints() < rateLimitMin)
-                break;
-
-            i = i + ((incrThreshold));
-            numberOfPoint = newGeometry.getNumPoints();
-            maxLoop--;
-        }
-        return new SimplifiedAnnotation(newGeometry, rate);
+        /*
+         * The search stops at the first rate giving between the minimum and the maximum number of points.
+         * If no rate gives such a number of points, the most detailed geometry under the maximum is kept.
+         */
+        boolean topologyPreserving = (geometry instanceof Polygon && !geometry.isValid()) || geometry instanceof MultiPolygon;
+        return simplifyUnder(geometry, rateLimitMin, rateLimitMax, 0d, MAX_RATE, topologyPreserving);
     }
 
-
     public SimplifiedAnnotation simplifyPolygon(String form, double rate) {
         try {
             return simplifyPolygon(new WKTReader().read(form), rate);
@@ -122,15 +119,8 @@ public class SimplifyGeometryService {
     }
 
     public SimplifiedAnnotation simplifyPolygon(Geometry geometry, double rate) {
-        Geometry newGeometry;
-        Boolean isPolygonAndNotValid = (geometry instanceof Polygon && !((Polygon) geometry).isValid());
-        Boolean isMultiPolygon = (geometry instanceof MultiPolygon);
-        if (isPolygonAndNotValid || isMultiPolygon) {
-            newGeometry = TopologyPreservingSimplifier.simplify(geometry, rate);
-        } else {
-            newGeometry = DouglasPeuckerSimplifier.simplify(geometry, rate);;
-        }
-        return new SimplifiedAnnotation(newGeometry, rate);
+        boolean topologyPreserving = (geometry instanceof Polygon && !geometry.isValid()) || geometry instanceof MultiPolygon;
+        return new SimplifiedAnnotation(simplify(geometry, rate, topologyPreserving), rate);
     }
 
 
@@ -139,17 +129,7 @@ public class SimplifyGeometryService {
             return reduceGeometryPrecision(geometry);
         }
 
-        double index = 2d;
-        int max = 1000;
-        while (index < max) {
-            geometry = TopologyPreservingSimplifier.simplify(geometry, index);
-            if (geometry.getNumPoints() < 150) {
-                break;
-            }
-            index = (index + 5) * 1.1;
-        }
-
-        return reduceGeometryPrecision(geometry);
+        return reduceGeometryPrecision(simplifyUnder(geometry, 149, 149, 2d, 1000d, true).getNewAnnotation());
     }
 
     public Geometry reduceGeometryPrecision(Geometry geometry) {
@@ -161,5 +141,70 @@ public class SimplifyGeometryService {
         return reducer.reduce(geometry).norm();
     }
 
+    /**
+     * Simplify the geometry with a rate (between firstRate and maxRate) giving between minNumberOfPoints and
+     * maxNumberOfPoints, or else with the lowest rate giving at most maxNumberOfPoints.
+     * The rate is searched by doubling it, then by bisection until RATE_PRECISION: a few simplifications
+     * instead of one per step of RATE_PRECISION. The search stops as soon as a rate gives enough points.
+     * The number of points is expected to decrease when the rate increases (true for Douglas-Peucker,
+     * nearly always for the topology preserving simplifier).
+     */
+    private SimplifiedAnnotation simplifyUnder(Geometry geometry, double minNumberOfPoints, double maxNumberOfPoints,
+                                               double firstRate, double maxRate, boolean topologyPreserving) {
+        double high = firstRate;
+        Geometry best = simplify(geometry, high, topologyPreserving);
+        if (best.getNumPoints() <= maxNumberOfPoints) {
+            return new SimplifiedAnnotation(best, high);
+        }
+
+        double low = high;
+        while (best.getNumPoints() > maxNumberOfPoints && high < maxRate) {
+            low = high;
+            high = Math.min(maxRate, high < RATE_PRECISION ? RATE_PRECISION : high * 2);
+            best = simplify(geometry, high, topologyPreserving);
+        }
+        if (best.getNumPoints() > maxNumberOfPoints || best.getNumPoints() >= minNumberOfPoints) {
+            // cannot be simplified enough, or already between the minimum and the maximum
+            return new SimplifiedAnnotation(best, high);
+        }
+
+        while (high - low > RATE_PRECISION) {
+            double rate = (low + high) / 2;
+            Geometry candidate = simplify(geometry, rate, topologyPreserving);
+            if (candidate.getNumPoints() <= maxNumberOfPoints) {
+                high = rate;
+                best = candidate;
+                if (candidate.getNumPoints() >= minNumberOfPoints) {
+                    break;
+                }
+            } else {
+                low = rate;
+            }
+        }
+        return new SimplifiedAnnotation(best, high);
+    }
+
+    private Geometry simplify(Geometry geometry, double rate, boolean topologyPreserving) {
+        if (!topologyPreserving) {
+            return DouglasPeuckerSimplifier.simplify(geometry, rate);
+        }
+        if (geometry instanceof MultiPolygon && geometry.getNumGeometries() > 1 && geometry.getNumPoints() >= PARALLEL_MIN_POINTS) {
+            // parts are simplified separately, the whole geometry is simplified again if parts now intersect
+            Geometry[] parts = pool.submit(() -> IntStream.range(0, geometry.getNumGeometries())
+                    .parallel()
+                    .mapToObj(i -> TopologyPreservingSimplifier.simplify(geometry.getGeometryN(i), rate))
+                    .toArray(Geometry[]::new)).join();
+            Geometry simplified = geometry.getFactory().buildGeometry(Arrays.asList(parts));
+            if (simplified.isValid()) {
+                return simplified;
+            }
+        }
+        return TopologyPreservingSimplifier.simplify(geometry, rate);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
 
 }
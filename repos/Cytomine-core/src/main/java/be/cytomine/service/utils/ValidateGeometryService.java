@@ -16,25 +16,59 @@ package be.cytomine.service.utils;
 * limitations under the License.
 */
 
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.dto.annotation.RepairedGeometry;
+import be.cytomine.dto.annotation.RepairedGeometry.Strategy;
 import be.cytomine.exceptions.WrongArgumentException;
-import lombok.AllArgsConstructor;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.RuntimeMetrics;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.util.GeometryFixer;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 import org.springframework.stereotype.Service;
 
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.Query;
-import jakarta.persistence.Tuple;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Make annotation locations valid.
+ *
+ * Invalid geometries (self-intersections,...) are repaired in the JVM with buffer(0), then with the JTS GeometryFixer.
+ * The few geometries that are still not valid are sent to PostGIS (ST_MakeValid) if application.geometryRepair.databaseFallback,
+ * with one query for a whole list of geometries. Otherwise, they are rejected (counted as errors).
+ */
 @Service
 @Slf4j
-@AllArgsConstructor
-public class ValidateGeometryService {
+public class ValidateGeometryService implements RuntimeMetrics {
+
+    /* Number of geometries repaired by one database query (one column per geometry) */
+    private static final int DATABASE_BATCH_SIZE = 500;
 
-    EntityManager entityManager;
+    /* Below this number of geometries, a list is repaired in the calling thread */
+    private static final int PARALLEL_MIN_SIZE = 64;
+
+    private final EntityManager entityManager;
+
+    private final boolean databaseFallback;
+
+    private final Map<Strategy, LongAdder> strategies = new EnumMap<>(Strategy.class);
+
+    private final LongAdder errors = new LongAdder();
+
+    public ValidateGeometryService(EntityManager entityManager, ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.databaseFallback = applicationProperties.getGeometryRepair().isDatabaseFallback();
+        for (Strategy strategy : Strategy.values()) {
+            strategies.put(strategy, new LongAdder());
+        }
+    }
 
     // TODO: move this annotation service
     public String tryToMakeItValidIfNotValid(String location) {
@@ -47,61 +81,141 @@ public class ValidateGeometryService {
         return geometry.toText();
     }
 
-
     public Geometry tryToMakeItValidIfNotValid(Geometry location) {
-        Geometry result = location;
-        try {
-            String backupLocation = location.toText();
-            Geometry geom = new WKTReader().read(location.toText());
-            Geometry validGeom;
-            String type = geom.getGeometryType().toUpperCase();
-
-            if (!geom.isValid()) {
-                log.info("Geometry is not valid");
-                //selfintersect,...
-                validGeom = geom.buffer(0);
-                result = validGeom;
-                geom = new WKTReader().read(result.toText());
-                type = geom.getGeometryType().toUpperCase();
-
-                if (!geom.isValid() || geom.isEmpty()) {
-                    //if not valid after buffer(0) or empty after buffer 0
-                    //user_image already filter nested image
-
-                    log.info("Geometry is not valid, even after a buffer(0)!");
-                    String request = "SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))";
-                    log.info(request);
-                    Query nativeQuery = entityManager.createNativeQuery("SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))", Tuple.class);
-                    List<Tuple> resultList = nativeQuery.getResultList();
-                    for (Tuple tuple : resultList) {
-                        String text = (String)tuple.get(0);
-                        geom = new WKTReader().read(text);
-                        type = geom.getGeometryType().toUpperCase();
-                        if (type.equals("GEOMETRYCOLLECTION")) {
-                            geom = geom.getGeometryN(0);
-                            type = geom.getGeometryType().toUpperCase();
-                        }
-                        result = geom;
-                    }
+        return repair(location).getGeometry();
+    }
 
+    /**
+     * Make the geometry valid
+     * @throws WrongArgumentException if the repaired geometry is empty, is not a valid annotation geometry type
+     * or is still not valid
+     */
+    public RepairedGeometry repair(Geometry location) {
+        RepairedGeometry repaired = repairAll(List.of(location)).get(0);
+        if (repaired.hasError()) {
+            throw new WrongArgumentException(repaired.getError());
+        }
+        return repaired;
+    }
+
+    /**
+     * Make all geometries valid, in parallel for large lists and with at most one database query per
+     * DATABASE_BATCH_SIZE geometries. Geometries that cannot be used have an error instead of an exception.
+     */
+    public List<RepairedGeometry> repairAll(List<Geometry> locations) {
+        List<RepairedGeometry> repaired = new ArrayList<>(locations.size() >= PARALLEL_MIN_SIZE
+                ? locations.parallelStream().map(this::repairInMemory).toList()
+                : locations.stream().map(this::repairInMemory).toList());
+
+        if (databaseFallback) {
+            List<Integer> stillInvalid = new ArrayList<>();
+            for (int i = 0; i < repaired.size(); i++) {
+                if (!repaired.get(i).getGeometry().isValid()) {
+                    stillInvalid.add(i);
                 }
             }
-
-            if (geom.isEmpty()) {
-                log.info("Geometry is empty");
-                //empty polygon,...
-                throw new WrongArgumentException(geom.toText() + " is an empty geometry!");
+            for (int from = 0; from < stillInvalid.size(); from += DATABASE_BATCH_SIZE) {
+                List<Integer> batch = stillInvalid.subList(from, Math.min(stillInvalid.size(), from + DATABASE_BATCH_SIZE));
+                List<Geometry> fromDatabase = makeValidInDatabase(batch.stream().map(locations::get).toList());
+                for (int j = 0; j < batch.size(); j++) {
+                    repaired.set(batch.get(j), new RepairedGeometry(fromDatabase.get(j), Strategy.DATABASE, null));
+                }
             }
+        }
 
-            //for geometrycollection, we may take first collection element
-            if (type.equals("MULTILINESTRING") || type.equals("GEOMETRYCOLLECTION")) {
-                //geometry collection, take first elem
-                throw new WrongArgumentException(geom.getGeometryType() + " is not a valid geometry type!");
+        for (int i = 0; i < repaired.size(); i++) {
+            RepairedGeometry result = repaired.get(i);
+            String error = checkGeometry(result.getGeometry());
+            if (error != null) {
+                errors.increment();
+                repaired.set(i, new RepairedGeometry(result.getGeometry(), result.getStrategy(), error));
+            } else {
+                strategies.get(result.getStrategy()).increment();
             }
-        } catch (ParseException exception) {
+        }
+        return repaired;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "geometryRepair";
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        return JsonObject.of(
+                "valid", strategies.get(Strategy.NONE).sum(),
+                "buffer", strategies.get(Strategy.BUFFER).sum(),
+                "fixer", strategies.get(Strategy.FIXER).sum(),
+                "database", strategies.get(Strategy.DATABASE).sum(),
+                "errors", errors.sum()
+        );
+    }
+
+    private RepairedGeometry repairInMemory(Geometry location) {
+        if (location.isValid()) {
+            return new RepairedGeometry(location, Strategy.NONE, null);
+        }
+        log.debug("Geometry is not valid");
+        //selfintersect,...
+        Geometry buffered = location.buffer(0);
+        if (buffered.isValid() && !buffered.isEmpty()) {
+            return new RepairedGeometry(firstIfCollection(buffered), Strategy.BUFFER, null);
+        }
+        log.debug("Geometry is not valid, even after a buffer(0)!");
+        // if still not valid, repairAll sends it to the database
+        return new RepairedGeometry(firstIfCollection(GeometryFixer.fix(location)), Strategy.FIXER, null);
+    }
 
+    private List<Geometry> makeValidInDatabase(List<Geometry> locations) {
+        StringBuilder request = new StringBuilder("SELECT ");
+        for (int i = 0; i < locations.size(); i++) {
+            request.append(i == 0 ? "" : ", ").append("ST_AsText(ST_MakeValid(ST_GeomFromText(:wkt").append(i).append(")))");
+        }
+        Query nativeQuery = entityManager.createNativeQuery(request.toString());
+        for (int i = 0; i < locations.size(); i++) {
+            nativeQuery.setParameter("wkt" + i, locations.get(i).toText());
+        }
+        Object row = nativeQuery.getSingleResult();
+        Object[] values = locations.size() == 1 ? new Object[]{row} : (Object[]) row;
+
+        List<Geometry> result = new ArrayList<>(values.length);
+        WKTReader reader = new WKTReader();
+        for (int i = 0; i < values.length; i++) {
+            try {
+                result.add(firstIfCollection(reader.read((String) values[i])));
+            } catch (ParseException e) {
+                log.error("Cannot read geometry made valid by the database: " + e.getMessage());
+                result.add(locations.get(i));
+            }
         }
         return result;
     }
 
+    /**
+     * @return null if the geometry can be used as an annotation location, the error otherwise
+     */
+    private static String checkGeometry(Geometry geometry) {
+        if (geometry.isEmpty()) {
+            //empty polygon,...
+            return geometry.toText() + " is an empty geometry!";
+        }
+        String type = geometry.getGeometryType().toUpperCase();
+        if (type.equals("MULTILINESTRING") || type.equals("GEOMETRYCOLLECTION")) {
+            return geometry.getGeometryType() + " is not a valid geometry type!";
+        }
+        if (!geometry.isValid()) {
+            // not repaired by JTS, and not sent to the database (application.geometryRepair.databaseFallback)
+            return geometry.toText() + " is not a valid geometry and cannot be repaired!";
+        }
+        return null;
+    }
+
+    //for geometrycollection, we take first collection element
+    private static Geometry firstIfCollection(Geometry geometry) {
+        if (geometry.getGeometryType().equalsIgnoreCase("GEOMETRYCOLLECTION") && geometry.getNumGeometries() > 0) {
+            return geometry.getGeometryN(0);
+        }
+        return geometry;
+    }
 }
@@ -0,0 +1,43 @@
+package be.cytomine.utils;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+
+import java.util.Locale;
+
+/**
+ * How the total size of a listing is computed, when it cannot be deduced from the page (see ListingCountService)
+ */
+public enum CountMode {
+    /* Count query (cached for a few seconds) */
+    EXACT,
+    /* Count cached by a previous exact listing, or estimated by the query planner */
+    ESTIMATE;
+
+    public static CountMode fromParameter(String value) {
+        if (value == null || value.isBlank()) {
+            return EXACT;
+        }
+        try {
+            return CountMode.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new WrongArgumentException("Unknown count mode " + value + " (exact or estimate)");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrent map whose entries expire ttlInMillis after their last put.
+ *
+ * Expiration is lazy: an expired entry is removed when it is read, and all expired entries are purged by a put
+ * at most twice per ttl. There is no cleaner thread.
+ * The map is bounded: when it is full, a put evicts the entry that expires first.
+ */
+public class ExpiringMap<K, V> {
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final long ttlInMillis;
+
+    private final int maxSize;
+
+    private final LongSupplier clock;
+
+    private volatile long nextPurge;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder expirations = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpiringMap(long ttlInMillis, int maxSize) {
+        this(ttlInMillis, maxSize, System::currentTimeMillis);
+    }
+
+    ExpiringMap(long ttlInMillis, int maxSize, LongSupplier clock) {
+        this.ttlInMillis = ttlInMillis;
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.nextPurge = clock.getAsLong() + ttlInMillis / 2;
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expiration <= clock.getAsLong()) {
+            if (entries.remove(key, entry)) {
+                expirations.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public V put(K key, V value) {
+        long now = clock.getAsLong();
+        if (now >= nextPurge) {
+            nextPurge = now + ttlInMillis / 2;
+            purge(now);
+        }
+        if (entries.size() >= maxSize && !entries.containsKey(key)) {
+            purge(now);
+            while (entries.size() >= maxSize && evictFirstToExpire()) {
+                evictions.increment();
+            }
+        }
+        Entry<V> previous = entries.put(key, new Entry<>(value, now + ttlInMillis));
+        return previous != null && previous.expiration > now ? previous.value : null;
+    }
+
+    public V remove(K key) {
+        Entry<V> previous = entries.remove(key);
+        return previous != null && previous.expiration > clock.getAsLong() ? previous.value : null;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Number of entries, expired entries not yet purged included
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public JsonObject getMetrics() {
+        return JsonObject.of(
+                "hits", hits.sum(),
+                "misses", misses.sum(),
+                "expirations", expirations.sum(),
+                "evictions", evictions.sum(),
+                "size", entries.size()
+        );
+    }
+
+    private void purge(long now) {
+        entries.forEach((key, entry) -> {
+            if (entry.expiration <= now && entries.remove(key, entry)) {
+                expirations.increment();
+            }
+        });
+    }
+
+    private boolean evictFirstToExpire() {
+        K first = null;
+        long firstExpiration = Long.MAX_VALUE;
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (entry.getValue().expiration < firstExpiration) {
+                first = entry.getKey();
+                firstExpiration = entry.getValue().expiration;
+            }
+        }
+        return first != null && entries.remove(first) != null;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiration;
+
+        Entry(V value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+}
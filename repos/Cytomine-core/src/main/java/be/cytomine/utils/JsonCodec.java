@@ -0,0 +1,99 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.dto.json.JsonInput;
+import be.cytomine.dto.json.JsonMultipleObject;
+import be.cytomine.dto.json.JsonSingleObject;
+import be.cytomine.exceptions.WrongArgumentException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Jackson mapper shared by the JSON payloads of the core (JsonObject, request bodies, app engine responses,...).
+ *
+ * An ObjectMapper is costly to build and caches the serializers and deserializers it resolves: a new mapper per call
+ * resolves them again each time. The shared mapper keeps the default configuration, and its readers (by target type)
+ * and writer are immutable, so they are thread-safe and cached. The shared mapper must not be reconfigured.
+ */
+public final class JsonCodec {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    private static final Map<Type, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+    private JsonCodec() {
+    }
+
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        return READERS.computeIfAbsent(type, t -> MAPPER.readerFor(type));
+    }
+
+    public static ObjectReader reader(TypeReference<?> type) {
+        return READERS.computeIfAbsent(type.getType(), t -> MAPPER.readerFor(type));
+    }
+
+    public static String write(Object value) throws JsonProcessingException {
+        return WRITER.writeValueAsString(value);
+    }
+
+    public static <T> T read(String json, Class<T> type) throws JsonProcessingException {
+        return reader(type).readValue(json);
+    }
+
+    public static <T> T read(String json, TypeReference<T> type) throws JsonProcessingException {
+        return reader(type).readValue(json);
+    }
+
+    /**
+     * Parse a request body that is either one object or an array of objects, in one pass: the first token
+     * tells which one it is
+     */
+    public static JsonInput readJsonInput(String json) {
+        try (JsonParser parser = MAPPER.createParser(json)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                return reader(JsonMultipleObject.class).readValue(parser);
+            } else if (token == JsonToken.START_OBJECT) {
+                return reader(JsonSingleObject.class).readValue(parser);
+            }
+        } catch (IOException e) {
+            throw new WrongArgumentException("Json not valid");
+        }
+        throw new WrongArgumentException("Json not valid");
+    }
+}
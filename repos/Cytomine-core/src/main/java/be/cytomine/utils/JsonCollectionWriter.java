@@ -0,0 +1,137 @@
+package be.cytomine.utils;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Write a paginated collection ({collection, offset, perPage, size, totalPages}) item by item.
+ * Items out of the requested page are only counted. Nothing is written to the response before the first item
+ * (or the end of the collection), so that an error raised while preparing the request can still be returned.
+ * An error raised after the first item aborts the response (see write).
+ */
+public class JsonCollectionWriter implements Consumer<Object> {
+
+    private static final ObjectWriter WRITER = JsonCodec.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final HttpServletResponse response;
+
+    private final int offset;
+
+    private final int max;
+
+    private JsonGenerator generator;
+
+    private int size = 0;
+
+    public JsonCollectionWriter(HttpServletResponse response, Integer offsetParameter, Integer maxParameter) {
+        this.response = response;
+        this.offset = offsetParameter != null ? offsetParameter : 0;
+        this.max = (maxParameter != null && maxParameter != 0) ? maxParameter : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void accept(Object item) {
+        try {
+            if (size >= offset && size - offset < max) {
+                start();
+                WRITER.writeValue(generator, item);
+            }
+            size++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the items of a list that are in the requested page, converted one by one: the other items are only counted
+     */
+    public void acceptAll(List<?> items, Function<Object, ?> converter) {
+        int first = Math.max(0, Math.min(offset - size, items.size()));
+        int last = (int) Math.max(first, Math.min(items.size(), (long) offset + max - size));
+        size += first;
+        for (int i = first; i < last; i++) {
+            accept(converter.apply(items.get(i)));
+        }
+        size += items.size() - last;
+    }
+
+    /**
+     * Give the items of the producer to this writer, then close the collection.
+     * An error raised before the first item is thrown as is: the status is not sent yet. After the first item, it is
+     * thrown as an AbortedException, which is not handled by ApiExceptionHandler: the container closes the connection
+     * before the end of the body, so that clients see an incomplete response instead of a truncated collection.
+     */
+    public void write(Runnable producer) throws IOException {
+        try {
+            producer.run();
+        } catch (RuntimeException e) {
+            if (generator == null) {
+                throw e;
+            }
+            throw new AbortedException("Collection aborted after " + size + " items", e);
+        }
+        finish();
+    }
+
+    /**
+     * Close the collection and write the pagination data
+     */
+    public void finish() throws IOException {
+        start();
+        generator.writeEndArray();
+        generator.writeNumberField("offset", offset);
+        generator.writeNumberField("perPage", Math.min(max, size));
+        generator.writeNumberField("size", size);
+        generator.writeNumberField("totalPages", (int) Math.ceil((double) size / (double) max));
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    private void start() throws IOException {
+        if (generator == null) {
+            response.setStatus(200);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            OutputStream outputStream = response.getOutputStream();
+            generator = JsonCodec.mapper().getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("collection");
+        }
+    }
+
+    public static class AbortedException extends RuntimeException {
+        public AbortedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
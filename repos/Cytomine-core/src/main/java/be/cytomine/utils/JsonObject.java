@@ -22,7 +22,6 @@ import be.cytomine.exceptions.ServerException;
 import be.cytomine.exceptions.WrongArgumentException;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
@@ -34,6 +33,12 @@ import static be.cytomine.utils.DateUtils.MONGO_DB_FORMAT;
 
 public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
+    private static final TypeReference<Map<String, Object>> MAP = new TypeReference<>() {};
+
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {};
+
+    private static final TypeReference<List<Map<String, Object>>> MAP_LIST = new TypeReference<>() {};
+
     public JsonObject() {
 
     }
@@ -127,7 +132,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static String toJsonString(Object o) {
         try {
-            return new ObjectMapper().writeValueAsString(o);
+            return JsonCodec.write(o);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return "invalid json string";
@@ -136,7 +141,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static Map<String, Object> toMap(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<Map<String, Object>>(){});
+            return JsonCodec.read(json, MAP);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -145,7 +150,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static <T> T toObject(String json, Class<? extends T> c) {
         try {
-            return new ObjectMapper().readValue(json, c);
+            return JsonCodec.read(json, c);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -154,7 +159,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static List<String> toStringList(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<List<String>>(){});
+            return JsonCodec.read(json, STRING_LIST);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -163,7 +168,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static List<Map<String, Object>> toMapList(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<List<Map<String, Object>>>(){});
+            return JsonCodec.read(json, MAP_LIST);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -173,7 +178,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static JsonObject toJsonObject(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<JsonObject>(){});
+            return JsonCodec.read(json, JsonObject.class);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -0,0 +1,150 @@
+package be.cytomine.utils;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Position of a keyset pagination: sort value and id of the last row of a page.
+ * The next page is selected by a condition on (sort value, id) instead of an OFFSET, so that a deep page costs
+ * as much as the first one and rows inserted meanwhile do not shift the pages.
+ * Rows must be sorted by the sort expression, then by id, in the same direction.
+ *
+ * Cursors are opaque for the clients: base64 of the JSON {"type", "value", "id"}.
+ */
+public class KeysetCursor {
+
+    private final String type;
+
+    private final Object value;
+
+    private final Long id;
+
+    private KeysetCursor(String type, Object value, Long id) {
+        this.type = type;
+        this.value = value;
+        this.id = id;
+    }
+
+    /**
+     * @return the cursor of the page following the row (sort value and id)
+     */
+    public static String encode(Object value, Long id) {
+        String type;
+        Object encoded = value;
+        if (value == null) {
+            type = null;
+        } else if (value instanceof Date date) {
+            type = "date";
+            encoded = date.getTime();
+        } else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            type = "decimal";
+            encoded = ((Number) value).doubleValue();
+        } else if (value instanceof Number number) {
+            type = "number";
+            encoded = number.longValue();
+        } else if (value instanceof Boolean) {
+            type = "boolean";
+        } else {
+            type = "string";
+            encoded = value.toString();
+        }
+        String json = JsonObject.of("type", type, "value", encoded, "id", id).toJsonString();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static KeysetCursor decode(String cursor) {
+        Map<String, Object> json;
+        try {
+            json = JsonObject.toMap(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            json = null;
+        }
+        if (json == null || !(json.get("id") instanceof Number)) {
+            throw new WrongArgumentException("Invalid cursor " + cursor);
+        }
+        String type = (String) json.get("type");
+        Object value = json.get("value");
+        if (type != null && value == null) {
+            throw new WrongArgumentException("Invalid cursor " + cursor);
+        }
+        if (type != null) {
+            try {
+                value = switch (type) {
+                    case "date" -> new Timestamp(((Number) value).longValue());
+                    case "decimal" -> ((Number) value).doubleValue();
+                    case "number" -> ((Number) value).longValue();
+                    case "boolean" -> (Boolean) value;
+                    case "string" -> (String) value;
+                    default -> throw new WrongArgumentException("Invalid cursor " + cursor);
+                };
+            } catch (ClassCastException e) {
+                throw new WrongArgumentException("Invalid cursor " + cursor);
+            }
+        }
+        return new KeysetCursor(type, value, ((Number) json.get("id")).longValue());
+    }
+
+    /**
+     * @return SQL condition (starting with AND) selecting the rows after the cursor, for rows sorted by
+     * sortExpression then idExpression, in the same direction, with null sort values first or last
+     */
+    public String condition(String sortExpression, String idExpression, boolean desc, boolean nullsLast) {
+        String after = desc ? " < " : " > ";
+        if (value == null) {
+            // the cursor is among the null sort values
+            return "AND ((" + sortExpression + " IS NULL AND " + idExpression + after + ":keysetId)" +
+                    (nullsLast ? "" : " OR " + sortExpression + " IS NOT NULL") + ") ";
+        }
+        return "AND (" + sortExpression + after + ":keysetValue " +
+                "OR (" + sortExpression + " = :keysetValue AND " + idExpression + after + ":keysetId)" +
+                (nullsLast ? " OR " + sortExpression + " IS NULL" : "") + ") ";
+    }
+
+    /**
+     * @return the parameters of the condition
+     */
+    public Map<String, Object> getParameters() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("keysetId", id);
+        if (value != null) {
+            parameters.put("keysetValue", value);
+        }
+        return parameters;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,48 @@
+package be.cytomine.utils;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * Page of a listing with keyset pagination: the cursor of the next page (null on the last page)
+ * and whether the total size is an estimate (see CountMode)
+ */
+public class ListingPage<T> extends PageImpl<T> {
+
+    private final String nextCursor;
+
+    private final boolean sizeEstimated;
+
+    public ListingPage(List<T> content, Pageable pageable, long total, String nextCursor, boolean sizeEstimated) {
+        super(content, pageable, total);
+        this.nextCursor = nextCursor;
+        this.sizeEstimated = sizeEstimated;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isSizeEstimated() {
+        return sizeEstimated;
+    }
+}
@@ -0,0 +1,210 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Static R-tree of boxes, packed with the Sort-Tile-Recursive algorithm and stored in primitive arrays
+ * (no object by box or by node).
+ *
+ * The boxes of the items stay in the arrays given to build (they must not be modified afterwards). Items are
+ * grouped by NODE_SIZE in STR order into leaf nodes, nodes are grouped by NODE_SIZE into parent nodes up to the root.
+ * The tree cannot be modified: build a new one.
+ */
+public final class PackedRTree {
+
+    public static final int NODE_SIZE = 16;
+
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+
+    /**
+     * Items in STR order
+     */
+    private final int[] order;
+
+    /**
+     * Boxes of the nodes (4 values by node), leaf nodes first and the root last
+     */
+    private final double[] nodeBoxes;
+
+    /**
+     * Children of each node, from firstChild to childEnd (exclusive): positions in order for a leaf node,
+     * nodes otherwise
+     */
+    private final int[] firstChild;
+
+    private final int[] childEnd;
+
+    private final int leafCount;
+
+    private final int depth;
+
+    private PackedRTree(double[] minX, double[] minY, double[] maxX, double[] maxY, int[] order,
+                        double[] nodeBoxes, int[] firstChild, int[] childEnd, int leafCount, int depth) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.order = order;
+        this.nodeBoxes = nodeBoxes;
+        this.firstChild = firstChild;
+        this.childEnd = childEnd;
+        this.leafCount = leafCount;
+        this.depth = depth;
+    }
+
+    public static PackedRTree build(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        int size = minX.length;
+        if (minY.length != size || maxX.length != size || maxY.length != size) {
+            throw new WrongArgumentException("Box arrays must have the same length");
+        }
+
+        int[] order = new int[size];
+        double[] centerX = new double[size];
+        double[] centerY = new double[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            centerX[i] = (minX[i] + maxX[i]) / 2;
+            centerY[i] = (minY[i] + maxY[i]) / 2;
+        }
+        // STR: vertical slices of sqrt(leaves) leaves by center x, each slice sorted by center y
+        int leaves = (size + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+        sort(order, 0, size, centerX);
+        for (int from = 0; from < size; from += sliceSize) {
+            sort(order, from, Math.min(from + sliceSize, size), centerY);
+        }
+
+        int nodeCount = 0;
+        int[] levelSizes = new int[32];
+        int levels = 0;
+        for (int count = size; count > 0 && (levels == 0 || count > 1); count = (count + NODE_SIZE - 1) / NODE_SIZE) {
+            levelSizes[levels] = (count + NODE_SIZE - 1) / NODE_SIZE;
+            nodeCount += levelSizes[levels];
+            levels++;
+        }
+
+        double[] nodeBoxes = new double[nodeCount * 4];
+        int[] firstChild = new int[nodeCount];
+        int[] childEnd = new int[nodeCount];
+        int[] levelEnds = new int[levels];
+        int node = 0;
+        for (int level = 0; level < levels; level++) {
+            int childCount = level == 0 ? size : levelSizes[level - 1];
+            int childStart = level == 0 ? 0 : levelEnds[level - 1] - childCount;
+            for (int child = 0; child < childCount; child += NODE_SIZE, node++) {
+                firstChild[node] = childStart + child;
+                childEnd[node] = childStart + Math.min(child + NODE_SIZE, childCount);
+                double nodeMinX = Double.POSITIVE_INFINITY;
+                double nodeMinY = Double.POSITIVE_INFINITY;
+                double nodeMaxX = Double.NEGATIVE_INFINITY;
+                double nodeMaxY = Double.NEGATIVE_INFINITY;
+                for (int i = child; i < Math.min(child + NODE_SIZE, childCount); i++) {
+                    if (level == 0) {
+                        int item = order[i];
+                        nodeMinX = Math.min(nodeMinX, minX[item]);
+                        nodeMinY = Math.min(nodeMinY, minY[item]);
+                        nodeMaxX = Math.max(nodeMaxX, maxX[item]);
+                        nodeMaxY = Math.max(nodeMaxY, maxY[item]);
+                    } else {
+                        int box = (childStart + i) * 4;
+                        nodeMinX = Math.min(nodeMinX, nodeBoxes[box]);
+                        nodeMinY = Math.min(nodeMinY, nodeBoxes[box + 1]);
+                        nodeMaxX = Math.max(nodeMaxX, nodeBoxes[box + 2]);
+                        nodeMaxY = Math.max(nodeMaxY, nodeBoxes[box + 3]);
+                    }
+                }
+                nodeBoxes[node * 4] = nodeMinX;
+                nodeBoxes[node * 4 + 1] = nodeMinY;
+                nodeBoxes[node * 4 + 2] = nodeMaxX;
+                nodeBoxes[node * 4 + 3] = nodeMaxY;
+            }
+            levelEnds[level] = node;
+        }
+        return new PackedRTree(minX, minY, maxX, maxY, order, nodeBoxes, firstChild, childEnd,
+                levels > 0 ? levelEnds[0] : 0, levels);
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Give to the visitor the index of each item whose box intersects the query box (borders included)
+     */
+    public void search(double queryMinX, double queryMinY, double queryMaxX, double queryMaxY, IntConsumer visitor) {
+        if (order.length == 0) {
+            return;
+        }
+        int[] stack = new int[depth * NODE_SIZE + 1];
+        int top = 0;
+        stack[top++] = firstChild.length - 1;
+        while (top > 0) {
+            int node = stack[--top];
+            int box = node * 4;
+            if (nodeBoxes[box] > queryMaxX || nodeBoxes[box + 1] > queryMaxY
+                    || nodeBoxes[box + 2] < queryMinX || nodeBoxes[box + 3] < queryMinY) {
+                continue;
+            }
+            if (node < leafCount) {
+                for (int position = firstChild[node]; position < childEnd[node]; position++) {
+                    int item = order[position];
+                    if (minX[item] <= queryMaxX && minY[item] <= queryMaxY
+                            && maxX[item] >= queryMinX && maxY[item] >= queryMinY) {
+                        visitor.accept(item);
+                    }
+                }
+            } else {
+                for (int child = firstChild[node]; child < childEnd[node]; child++) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * Memory used by the tree, including the item boxes
+     */
+    public long memoryBytes() {
+        return order.length * (4L * Double.BYTES + Integer.BYTES)
+                + nodeBoxes.length * (long) Double.BYTES + 2L * firstChild.length * Integer.BYTES;
+    }
+
+    /**
+     * Sort a range of items by key. Keys are compared as floats, packed with the item in a long, so that
+     * the sort works on primitives.
+     */
+    private static void sort(int[] items, int from, int to, double[] keys) {
+        long[] packed = new long[to - from];
+        for (int i = from; i < to; i++) {
+            int bits = Float.floatToIntBits((float) keys[items[i]]);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            packed[i - from] = ((long) bits << 32) | (items[i] & 0xffffffffL);
+        }
+        Arrays.sort(packed);
+        for (int i = from; i < to; i++) {
+            items[i] = (int) packed[i - from];
+        }
+    }
+}
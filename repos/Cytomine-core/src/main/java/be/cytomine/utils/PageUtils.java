@@ -25,4 +25,8 @@ public class PageUtils {
     public static <T> Page<T> buildPageFromPageResults(List<T> data, Long max, Long offset, Long total) {
         return new PageImpl<T>(data, new OffsetBasedPageRequest(offset, (max==0 ? Integer.MAX_VALUE : max.intValue()), Sort.unsorted()), total);
     }
+
+    public static <T> Page<T> buildListingPage(List<T> data, Long max, Long offset, Long total, String nextCursor, boolean sizeEstimated) {
+        return new ListingPage<T>(data, new OffsetBasedPageRequest(offset, (max==0 ? Integer.MAX_VALUE : max.intValue()), Sort.unsorted()), total, nextCursor, sizeEstimated);
+    }
 }
@@ -9,7 +9,7 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.RestOperations;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -112,23 +112,27 @@ public class PreparedRequest {
         );
     }
 
-    public <T> T toObject(Class<T> returnType) {
+    public <T> T toObject(RestOperations restOperations, Class<T> returnType) {
         if (method.equals(GET)) {
-            return new RestTemplate().getForObject(this.getURI(), returnType);
+            return restOperations.getForObject(this.getURI(), returnType);
         } else if (method.equals(POST)) {
-            return new RestTemplate().postForObject(this.getURI(), this.body, returnType);
+            return restOperations.postForObject(this.getURI(), this.body, returnType);
         }
         throw new NotImplementedException("toObject is not implemented for method: " + method);
     }
 
-    public <T> ResponseEntity<T> toResponseEntity(ProxyExchange<T> proxy, Class<T> returnType) {
+    public <T> ResponseEntity<T> toResponseEntity(RestOperations restOperations, ProxyExchange<T> proxy, Class<T> returnType) {
         if (proxy == null) {
+            // The Host header is only meant for the proxy exchange: the pooled client sets it from the URI (with the port)
+            HttpHeaders headers = new HttpHeaders();
+            headers.addAll(this.headers);
+            headers.remove(HttpHeaders.HOST);
             if (method.equals(GET)) {
-                HttpEntity<?> request = new HttpEntity<>(this.headers);
-                return new RestTemplate().exchange(this.getURI(), this.method, request, returnType);
+                HttpEntity<?> request = new HttpEntity<>(headers);
+                return restOperations.exchange(this.getURI(), this.method, request, returnType);
             } else if (method.equals(POST)) {
-                HttpEntity<?> request = new HttpEntity<>(this.body, this.headers);
-                return new RestTemplate().exchange(this.getURI(), this.method, request, returnType);
+                HttpEntity<?> request = new HttpEntity<>(this.body, headers);
+                return restOperations.exchange(this.getURI(), this.method, request, returnType);
             }
         }
         else {
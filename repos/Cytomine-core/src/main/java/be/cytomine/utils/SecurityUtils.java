@@ -18,6 +18,7 @@ package be.cytomine.utils;
 
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.security.CachedPrincipal;
 import be.cytomine.security.current.CurrentUser;
 import be.cytomine.security.current.FullCurrentUser;
 import be.cytomine.security.current.PartialCurrentUser;
@@ -44,10 +45,7 @@ import java.util.stream.Stream;
 
 public class SecurityUtils {
     public static String generateKeys(String method, String content_md5, String content_type, String date, String queryString, String path, SecUser user) throws NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
-        String canonicalHeaders = method + "\n" + content_md5 + "\n" + content_type + "\n" + date + "\n";
-        String canonicalExtensionHeaders = "";
-        String canonicalResource = path + queryString;
-        String messageToSign = canonicalHeaders + canonicalExtensionHeaders + canonicalResource;
+        String messageToSign = buildMessageToSign(method, content_md5, content_type, date, queryString, path);
 
         String key = user.getPrivateKey();
         SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), "HmacSHA1");
@@ -64,6 +62,16 @@ public class SecurityUtils {
         return signature;
     }
 
+    /**
+     * Build the message signed by API clients with their private key
+     */
+    public static String buildMessageToSign(String method, String content_md5, String content_type, String date, String queryString, String path) {
+        String canonicalHeaders = method + "\n" + content_md5 + "\n" + content_type + "\n" + date + "\n";
+        String canonicalExtensionHeaders = "";
+        String canonicalResource = path + queryString;
+        return canonicalHeaders + canonicalExtensionHeaders + canonicalResource;
+    }
+
     public static Optional<CurrentUser> getSecurityCurrentUser() {
         SecurityContext securityContext = SecurityContextHolder.getContext();
 
@@ -89,6 +97,17 @@ public class SecurityUtils {
         return null;
     }
 
+    /**
+     * The cached snapshot of the user authenticated with a token (see TokenProvider), if any
+     */
+    public static Optional<CachedPrincipal> getSecurityCurrentPrincipal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getDetails() instanceof CachedPrincipal principal) {
+            return Optional.of(principal);
+        }
+        return Optional.empty();
+    }
+
     public static Optional<String> getCurrentUserLogin() {
         SecurityContext securityContext = SecurityContextHolder.getContext();
         return Optional.ofNullable(extractPrincipal(securityContext.getAuthentication()));
@@ -342,6 +342,62 @@ public class UserAnnotationResourceTests {
     }
 
 
+    @Test
+    @Transactional
+    public void add_user_annotations_in_bulk() throws Exception {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        Term term = builder.given_a_term(userAnnotation.getProject().getOntology());
+
+        JsonObject withTerm = userAnnotation.toJsonObject();
+        withTerm.put("term", List.of(term.getId()));
+        JsonObject withoutTerm = userAnnotation.toJsonObject();
+        JsonObject notValid = userAnnotation.toJsonObject();
+        notValid.put("location", "POLYGON ((1 1, 2 2))");
+
+        restUserAnnotationControllerMockMvc.perform(post("/api/userannotation/bulk.json")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JsonObject.toJsonString(List.of(withTerm, withoutTerm, notValid))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value(206))
+                .andExpect(jsonPath("$.data.errors", hasSize(1)));
+
+        Long count = em.createQuery("SELECT COUNT(ua) FROM UserAnnotation ua WHERE ua.slice = :slice", Long.class)
+                .setParameter("slice", userAnnotation.getSlice())
+                .getSingleResult();
+        AssertionsForClassTypes.assertThat(count).isEqualTo(2L);
+        Long terms = em.createQuery("SELECT COUNT(at) FROM AnnotationTerm at WHERE at.term = :term", Long.class)
+                .setParameter("term", term)
+                .getSingleResult();
+        AssertionsForClassTypes.assertThat(terms).isEqualTo(1L);
+    }
+
+    @Test
+    @Transactional
+    public void add_user_annotations_in_bulk_with_not_valid_json() throws Exception {
+        restUserAnnotationControllerMockMvc.perform(post("/api/userannotation/bulk.json")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"location\": \"POINT (1 1)\"}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void add_user_annotations_in_bulk_with_truncated_json() throws Exception {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        String annotations = JsonObject.toJsonString(List.of(userAnnotation.toJsonObject(), userAnnotation.toJsonObject()));
+
+        restUserAnnotationControllerMockMvc.perform(post("/api/userannotation/bulk.json")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(annotations.substring(0, annotations.length() - 1)))
+                .andExpect(jsonPath("$.status").value(400))
+                .andExpect(jsonPath("$.data.errors", hasSize(1)));
+
+        Long count = em.createQuery("SELECT COUNT(ua) FROM UserAnnotation ua WHERE ua.slice = :slice", Long.class)
+                .setParameter("slice", userAnnotation.getSlice())
+                .getSingleResult();
+        AssertionsForClassTypes.assertThat(count).isEqualTo(0L);
+    }
+
     @Test
     @Transactional
     public void edit_valid_user_annotation() throws Exception {
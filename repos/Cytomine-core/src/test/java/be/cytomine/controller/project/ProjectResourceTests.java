@@ -28,6 +28,7 @@ import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -41,12 +42,14 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.domain.social.PersistentProjectConnection;
 import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.security.AclRepository;
 import be.cytomine.repository.security.ForgotPasswordTokenRepository;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
 import be.cytomine.service.PermissionService;
+import be.cytomine.service.database.BulkDeleteService;
 import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.utils.JsonObject;
@@ -94,6 +97,15 @@ public class ProjectResourceTests {
     @Autowired
     private SecUserRepository secUserRepository;
 
+    @Autowired
+    private UserAnnotationRepository userAnnotationRepository;
+
+    @Autowired
+    private BulkDeleteService bulkDeleteService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @BeforeEach
     public void cleanActivities() {
         persistentProjectConnectionRepository.deleteAll();
@@ -692,6 +704,24 @@ public class ProjectResourceTests {
                 .andExpect(jsonPath("$.project.name").value(project.getName()));
     }
 
+    @Test
+    public void delete_project_async() throws Exception {
+        // not transactional: the deletion runs in the background, on committed rows
+        UserAnnotation annotation = transactionTemplate.execute(status -> builder.given_a_user_annotation());
+        Long projectId = annotation.getProject().getId();
+
+        restProjectControllerMockMvc.perform(delete("/api/project/{id}.json", projectId)
+                        .param("async", "true"))
+                .andExpect(status().isOk());
+
+        long timeout = System.currentTimeMillis() + 30000;
+        while ((Integer) bulkDeleteService.getMetrics().get("pending") > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+        assertThat(projectRepository.findById(projectId)).isEmpty();
+        assertThat(userAnnotationRepository.findById(annotation.getId())).isEmpty();
+    }
+
     @Test
     @Transactional
     public void fail_when_delete_project_not_exists() throws Exception {
@@ -244,7 +244,7 @@ public class UserPositionResourceTests {
         String currentUserAndImageId = currentUserId.toString()+"/"+imageId.toString();
 
         WebSocketUserPositionHandler.sessionsBroadcast.put(currentUserAndImageId, sessionDecoratorA);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecoratorA, new ConcurrentWebSocketSessionDecorator[]{sessionDecoratorB});
+        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecoratorA, new HashSet<>(Set.of(sessionDecoratorB)));
         WebSocketUserPositionHandler.sessions.put(userA.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{sessionDecoratorA});
         UserPositionService.broadcasters.put(currentUserAndImageId, new ArrayList<>(Collections.singleton(userB)));
 
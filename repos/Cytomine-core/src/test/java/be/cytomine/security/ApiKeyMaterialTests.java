@@ -0,0 +1,77 @@
+package be.cytomine.security;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.utils.SecurityUtils;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ApiKeyMaterialTests {
+
+    private SecUser user() {
+        SecUser user = new SecUser();
+        user.setUsername("test");
+        user.setPublicKey("public");
+        user.setPrivateKey("private");
+        return user;
+    }
+
+    @Test
+    public void verify_signature_generated_with_the_private_key() throws Exception {
+        SecUser user = user();
+        ApiKeyMaterial apiKey = new ApiKeyMaterial(user);
+        String signature = SecurityUtils.generateKeys("GET", "", "application/json", "Mon, 01 Jan 2024 00:00:00 +0000", "?max=10", "/api/project.json", user);
+
+        String messageToSign = SecurityUtils.buildMessageToSign("GET", "", "application/json", "Mon, 01 Jan 2024 00:00:00 +0000", "?max=10", "/api/project.json");
+        assertThat(apiKey.verify(messageToSign, signature)).isTrue();
+        // a verification does not change the initialized mac
+        assertThat(apiKey.verify(messageToSign, signature)).isTrue();
+    }
+
+    @Test
+    public void verify_signature_of_a_non_ascii_message_as_utf8() throws Exception {
+        SecUser user = user();
+        ApiKeyMaterial apiKey = new ApiKeyMaterial(user);
+        String messageToSign = SecurityUtils.buildMessageToSign("GET", "", "", "Mon, 01 Jan 2024 00:00:00 +0000", "?name=caf\u00e9", "/api/project.json");
+
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec("private".getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+        String signature = new String(Base64.encodeBase64(mac.doFinal(messageToSign.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8);
+
+        assertThat(apiKey.verify(messageToSign, signature)).isTrue();
+        assertThat(apiKey.getUsername()).isEqualTo("test");
+        assertThat(apiKey.getPrincipal().getUsername()).isEqualTo("test");
+    }
+
+    @Test
+    public void reject_wrong_signature() throws Exception {
+        SecUser user = user();
+        ApiKeyMaterial apiKey = new ApiKeyMaterial(user);
+        String signature = SecurityUtils.generateKeys("GET", "", "", "Mon, 01 Jan 2024 00:00:00 +0000", "", "/api/project.json", user);
+
+        assertThat(apiKey.verify(SecurityUtils.buildMessageToSign("POST", "", "", "Mon, 01 Jan 2024 00:00:00 +0000", "", "/api/project.json"), signature)).isFalse();
+        assertThat(apiKey.verify(SecurityUtils.buildMessageToSign("GET", "", "", "Mon, 01 Jan 2024 00:00:00 +0000", "", "/api/project.json"), signature + "=")).isFalse();
+        assertThat(apiKey.verify(SecurityUtils.buildMessageToSign("GET", "", "", "Mon, 01 Jan 2024 00:00:00 +0000", "", "/api/project.json"), "")).isFalse();
+    }
+}
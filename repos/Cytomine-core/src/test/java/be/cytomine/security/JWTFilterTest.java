@@ -23,6 +23,7 @@ import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.security.jwt.TokenProvider;
 import be.cytomine.security.jwt.TokenType;
+import be.cytomine.service.PrincipalCache;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -63,7 +64,7 @@ class JWTFilterTest {
         secUser.setUsername("test-user");
         Mockito.when(secUserRepository.findByUsernameLikeIgnoreCase(eq("test-user"))).thenReturn(Optional.of(secUser));
 
-        tokenProvider = new TokenProvider(applicationProperties, secUserRepository);
+        tokenProvider = new TokenProvider(applicationProperties, secUserRepository, new PrincipalCache(applicationProperties));
         jwtFilter = new JWTFilter(tokenProvider);
         SecurityContextHolder.getContext().setAuthentication(null);
     }
@@ -0,0 +1,93 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.dto.annotation.AnnotationResult;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnnotationRowFolderTests {
+
+    private static final List<String> LABELS = List.of("id", "created", "term", "annotationterms", "userterm", "project", "image");
+
+    private List<AnnotationResult> fold(AnnotationListing al, Object[]... rows) {
+        List<AnnotationResult> results = new ArrayList<>();
+        AnnotationListingColumnPlan plan = AnnotationListingColumnPlan.of(al, LABELS);
+        AnnotationRowFolder folder = new AnnotationRowFolder(al, plan, results::add);
+        for (Object[] row : rows) {
+            folder.accept(row);
+        }
+        folder.finish();
+        return results;
+    }
+
+    private AnnotationListing listing() {
+        AnnotationListing al = new UserAnnotationListing(null);
+        al.setColumnsToPrint(new ArrayList<>(List.of("basic", "meta", "term")));
+        return al;
+    }
+
+    @Test
+    public void fold_term_rows_into_one_annotation() {
+        List<AnnotationResult> results = fold(listing(),
+                new Object[]{3L, 1000L, 10L, 100L, 1L, 5L, 6L},
+                new Object[]{3L, 1000L, 10L, 100L, 2L, 5L, 6L},
+                new Object[]{3L, 1000L, 11L, 101L, 1L, 5L, 6L},
+                new Object[]{2L, 2000L, null, null, null, 5L, 6L}
+        );
+
+        assertThat(results).hasSize(2);
+        AnnotationResult first = results.get(0);
+        assertThat(first.get("id")).isEqualTo(3L);
+        assertThat(first.get("class")).isEqualTo("be.cytomine.domain.ontology.UserAnnotation");
+        assertThat((List) first.get("term")).containsExactly(10L, 11L);
+        List<Map<String, Object>> userByTerm = (List<Map<String, Object>>) first.get("userByTerm");
+        assertThat(userByTerm).hasSize(2);
+        assertThat((List) userByTerm.get(0).get("user")).containsExactly(1L, 2L);
+        assertThat((List) userByTerm.get(1).get("user")).containsExactly(1L);
+        assertThat(first.get("cropURL")).isNotNull();
+
+        AnnotationResult second = results.get(1);
+        assertThat(second.get("id")).isEqualTo(2L);
+        assertThat((List) second.get("term")).isEmpty();
+        assertThat((List) second.get("userByTerm")).isEmpty();
+    }
+
+    @Test
+    public void skip_columns_without_value_on_first_row() {
+        List<AnnotationResult> results = fold(listing(),
+                new Object[]{3L, null, null, null, null, 5L, 6L},
+                new Object[]{2L, 2000L, null, null, null, 5L, 6L}
+        );
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(1)).doesNotContainKey("created");
+        assertThat(results.get(1).get("project")).isEqualTo(5L);
+    }
+
+    @Test
+    public void no_result_for_empty_rows() {
+        assertThat(fold(listing())).isEmpty();
+    }
+}
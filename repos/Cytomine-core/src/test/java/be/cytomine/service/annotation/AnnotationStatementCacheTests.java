@@ -0,0 +1,89 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AnnotationStatementCacheTests {
+
+    private AnnotationListing listing(Long project, List<Long> users, String bbox, Date afterThan) {
+        AnnotationListing al = new UserAnnotationListing(null);
+        al.setColumnsToPrint(new ArrayList<>(AnnotationListing.availableColumnsDefault));
+        al.setProject(project);
+        al.setUsers(users);
+        al.setImages(List.of(10L, 11L));
+        al.setBbox(bbox);
+        al.setAfterThan(afterThan);
+        return al;
+    }
+
+    @Test
+    public void filter_values_are_bound_as_parameters() {
+        Date afterThan = new Date(1700000000000L);
+        AnnotationListing first = listing(1L, List.of(2L, 3L), "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", afterThan);
+        AnnotationListing second = listing(4L, List.of(5L), "POLYGON ((0 0, 20 0, 20 20, 0 20, 0 0))", new Date());
+
+        String request = first.getAnnotationsRequest();
+        assertThat(request).isEqualTo(second.getAnnotationsRequest());
+        assertThat(request).doesNotContain("POLYGON").doesNotContain("IN (");
+        assertThat(request).contains("a.user_id = ANY(:users)", "a.image_id = ANY(:images)");
+        assertThat(first.getParameters())
+                .containsEntry("project", 1L)
+                .containsEntry("users", List.of(2L, 3L))
+                .containsEntry("afterThan", afterThan);
+    }
+
+    @Test
+    public void templates_are_shared_by_requests_of_the_same_shape() {
+        AnnotationStatementCache cache = new AnnotationStatementCache(10);
+        AnnotationListing first = listing(1L, List.of(2L, 3L), "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", null);
+        AnnotationListing second = listing(4L, List.of(5L), "POLYGON ((0 0, 20 0, 20 20, 0 20, 0 0))", null);
+
+        AnnotationListingStatement firstStatement = cache.statement(first.getAnnotationsRequest(), first.getParameters());
+        AnnotationListingStatement secondStatement = cache.statement(second.getAnnotationsRequest(), second.getParameters());
+
+        assertThat(firstStatement.getSql()).isSameAs(secondStatement.getSql());
+        assertThat(firstStatement.getSql()).doesNotContain(":project").contains("a.project_id = ?");
+        assertThat(secondStatement.getParameters()).contains(4L, List.of(5L), "POLYGON ((0 0, 20 0, 20 20, 0 20, 0 0))");
+        assertThat(cache.getMetrics()).containsEntry("hits", 1L).containsEntry("misses", 1L).containsEntry("size", 1);
+    }
+
+    @Test
+    public void named_parameters_are_replaced_in_order() {
+        AnnotationStatementCache cache = new AnnotationStatementCache(10);
+        AnnotationListingStatement statement = cache.statement(
+                "SELECT a.id::text, ':quoted' FROM t a WHERE a.user_id = ANY(:users) AND a.id <> :excluded AND b.user_id = ANY(:users)",
+                Map.of("users", List.of(1L), "excluded", 2L));
+
+        assertThat(statement.getSql())
+                .isEqualTo("SELECT a.id::text, ':quoted' FROM t a WHERE a.user_id = ANY(?) AND a.id <> ? AND b.user_id = ANY(?)");
+        assertThat(statement.getParameters()).containsExactly(List.of(1L), 2L, List.of(1L));
+
+        assertThatThrownBy(() -> cache.statement("SELECT * FROM t WHERE id = :id", Map.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,77 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.service.annotation.AnnotationTileCache.AnnotationTile;
+import be.cytomine.service.ontology.UserAnnotationService;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The annotation tile cache is disabled in the other tests (application.annotationTiles.ttlInSeconds: 0)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = "application.annotationTiles.ttlInSeconds=60")
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationTileCacheEnabledTests {
+
+    @Autowired
+    AnnotationTileService annotationTileService;
+
+    @Autowired
+    AnnotationTileCache annotationTileCache;
+
+    @Autowired
+    UserAnnotationService userAnnotationService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Test
+    void cached_tile_is_rebuilt_after_an_annotation_of_its_slice_is_added() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        builder.addUserToProject(slice.getProject(), builder.given_superadmin().getUsername());
+        builder.given_a_user_annotation(slice);
+        List<Long> users = List.of(builder.given_superadmin().getId());
+
+        AnnotationTile tile = annotationTileService.tile(slice, 0, 0, 0, users);
+        long hits = (Long) annotationTileCache.getMetrics().get("hits");
+        assertThat(annotationTileService.tile(slice, 0, 0, 0, users)).isSameAs(tile);
+        assertThat((Long) annotationTileCache.getMetrics().get("hits")).isEqualTo(hits + 1);
+
+        // an annotation of another slice does not change the tile
+        userAnnotationService.add(builder.given_a_not_persisted_user_annotation().toJsonObject());
+        assertThat(annotationTileService.tile(slice, 0, 0, 0, users)).isSameAs(tile);
+
+        userAnnotationService.add(builder.given_a_not_persisted_user_annotation(slice).toJsonObject());
+        AnnotationTile rebuilt = annotationTileService.tile(slice, 0, 0, 0, users);
+        assertThat(rebuilt).isNotSameAs(tile);
+        assertThat(rebuilt.getEtag()).isNotEqualTo(tile.getEtag());
+    }
+}
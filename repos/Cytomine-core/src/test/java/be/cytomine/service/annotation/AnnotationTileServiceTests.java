@@ -0,0 +1,118 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.image.AbstractImage;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.service.annotation.AnnotationTileCache.AnnotationTile;
+import be.cytomine.service.annotation.AnnotationTileService.TileBounds;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AnnotationTileServiceTests {
+
+    private AbstractImage image() {
+        AbstractImage image = new AbstractImage();
+        image.setWidth(1000);
+        image.setHeight(600);
+        image.setTileSize(256);
+        return image;
+    }
+
+    @Test
+    public void tile_bounds_follow_the_normalized_tile_pyramid() {
+        TileBounds fullResolution = TileBounds.of(image(), 2, 0, 0);
+        assertThat(fullResolution.minX).isEqualTo(0);
+        assertThat(fullResolution.maxX).isEqualTo(256);
+        assertThat(fullResolution.maxY).isEqualTo(600);
+        assertThat(fullResolution.minY).isEqualTo(344);
+        assertThat(fullResolution.tolerance()).isEqualTo(0);
+
+        TileBounds wholeImage = TileBounds.of(image(), 0, 0, 0);
+        assertThat(wholeImage.maxX).isEqualTo(1024);
+        assertThat(wholeImage.minY).isEqualTo(-424);
+        assertThat(wholeImage.tolerance()).isEqualTo(2);
+
+        assertThatThrownBy(() -> TileBounds.of(image(), 3, 0, 0)).isInstanceOf(WrongArgumentException.class);
+        assertThatThrownBy(() -> TileBounds.of(image(), 2, 4, 0)).isInstanceOf(WrongArgumentException.class);
+    }
+
+    @Test
+    public void cached_tiles_are_invalidated_by_annotation_of_the_slice() {
+        AnnotationTileCache cache = new AnnotationTileCache(new ApplicationProperties());
+        AtomicInteger loads = new AtomicInteger();
+        SliceInstance slice = new SliceInstance();
+        slice.setId(10L);
+
+        AnnotationTile tile = cache.get(10L, 2, 0, 0, List.of(1L), () -> {
+            loads.incrementAndGet();
+            return new AnnotationTile(new byte[]{1, 2, 3}, false);
+        });
+        assertThat(cache.get(10L, 2, 0, 0, List.of(1L), () -> new AnnotationTile(new byte[0], false))).isSameAs(tile);
+        assertThat(tile.getEtag()).startsWith("\"").endsWith("\"");
+
+        SliceInstance otherSlice = new SliceInstance();
+        otherSlice.setId(11L);
+        UserAnnotation otherAnnotation = new UserAnnotation();
+        otherAnnotation.setSlice(otherSlice);
+        cache.invalidate(otherAnnotation);
+        assertThat(cache.get(10L, 2, 0, 0, List.of(1L), () -> new AnnotationTile(new byte[0], false))).isSameAs(tile);
+
+        UserAnnotation annotation = new UserAnnotation();
+        annotation.setSlice(slice);
+        cache.invalidate(annotation);
+        AnnotationTile rebuilt = cache.get(10L, 2, 0, 0, List.of(1L), () -> {
+            loads.incrementAndGet();
+            return new AnnotationTile(new byte[]{1, 2, 3, 4}, false);
+        });
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(rebuilt.getEtag()).isNotEqualTo(tile.getEtag());
+        assertThat(cache.getMetrics()).containsEntry("hits", 2L).containsEntry("misses", 2L).containsEntry("bytes", 4L);
+    }
+
+    @Test
+    public void tile_built_during_an_invalidation_is_not_cached() {
+        AnnotationTileCache cache = new AnnotationTileCache(new ApplicationProperties());
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(10L, 2, 0, 0, List.of(1L), () -> {
+            loads.incrementAndGet();
+            // an annotation of the slice is saved while the tile is read
+            cache.invalidateSlice(10L);
+            return new AnnotationTile(new byte[]{1, 2, 3}, false);
+        });
+        cache.get(10L, 2, 0, 0, List.of(1L), () -> {
+            loads.incrementAndGet();
+            return new AnnotationTile(new byte[]{1, 2, 3, 4}, false);
+        });
+        cache.get(10L, 2, 0, 0, List.of(1L), () -> {
+            loads.incrementAndGet();
+            return new AnnotationTile(new byte[0], false);
+        });
+
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(cache.getMetrics()).containsEntry("bytes", 4L);
+    }
+}
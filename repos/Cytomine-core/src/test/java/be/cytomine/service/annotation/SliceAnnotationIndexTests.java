@@ -0,0 +1,153 @@
+package be.cytomine.service.annotation;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.security.User;
+import be.cytomine.dto.Kmeans;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache.Key;
+import be.cytomine.service.utils.KmeansGeometryService;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SliceAnnotationIndexTests {
+
+    /**
+     * 100 annotations of 8x8 on a 10x10 grid, annotation i from user 1 + i % 2
+     */
+    private SliceAnnotationIndex index() {
+        int size = 100;
+        long[] ids = new long[size];
+        long[] users = new long[size];
+        double[] minX = new double[size];
+        double[] minY = new double[size];
+        double[] maxX = new double[size];
+        double[] maxY = new double[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i + 1;
+            users[i] = 1 + i % 2;
+            minX[i] = i % 10 * 10;
+            minY[i] = i / 10 * 10;
+            maxX[i] = minX[i] + 8;
+            maxY[i] = minY[i] + 8;
+        }
+        return new SliceAnnotationIndex(ids, users, minX, minY, maxX, maxY);
+    }
+
+    @Test
+    public void search_by_envelope_and_users() {
+        SliceAnnotationIndex index = index();
+        assertThat(index.searchIds(new Envelope(0, 15, 0, 15), null, 100)).containsExactlyInAnyOrder(1L, 2L, 11L, 12L);
+        assertThat(index.searchIds(new Envelope(0, 15, 0, 15), new long[]{2}, 100)).containsExactlyInAnyOrder(2L, 12L);
+        assertThat(index.searchIds(new Envelope(0, 100, 0, 100), null, 10)).hasSize(11);
+    }
+
+    @Test
+    public void changes_are_visible_before_and_after_compaction() {
+        SliceAnnotationIndex index = index();
+        index.put(1L, 1L, new Envelope(500, 510, 500, 510));
+        index.put(1000L, 2L, new Envelope(0, 5, 0, 5));
+        index.remove(2L);
+
+        assertThat(index.searchIds(new Envelope(0, 15, 0, 15), null, 100)).containsExactlyInAnyOrder(11L, 12L, 1000L);
+        assertThat(index.searchIds(new Envelope(500, 501, 500, 501), null, 100)).containsExactly(1L);
+        assertThat(index.size()).isEqualTo(100);
+
+        SliceAnnotationIndex compacted = index.compact();
+        assertThat(compacted.searchIds(new Envelope(0, 15, 0, 15), null, 100)).containsExactlyInAnyOrder(11L, 12L, 1000L);
+        assertThat(compacted.searchIds(new Envelope(500, 501, 500, 501), null, 100)).containsExactly(1L);
+        assertThat(compacted.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void slice_is_indexed_once_hot_and_kept_up_to_date() throws ParseException {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getSliceIndex().setEnabled(true);
+        applicationProperties.getSliceIndex().setHotThreshold(2);
+        SliceAnnotationIndexCache cache = new SliceAnnotationIndexCache(applicationProperties, null);
+        Key key = new Key(UserAnnotation.class.getName(), 10L);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.find(key, () -> { loads.incrementAndGet(); return index(); })).isNull();
+        SliceAnnotationIndex index = cache.find(key, () -> { loads.incrementAndGet(); return index(); });
+        assertThat(index).isNotNull();
+        assertThat(cache.find(key, () -> { loads.incrementAndGet(); return index(); })).isSameAs(index);
+        assertThat(loads.get()).isEqualTo(1);
+
+        SliceInstance slice = new SliceInstance();
+        slice.setId(10L);
+        User user = new User();
+        user.setId(2L);
+        UserAnnotation annotation = new UserAnnotation();
+        annotation.setId(1000L);
+        annotation.setSlice(slice);
+        annotation.setUser(user);
+        annotation.setLocation(new WKTReader().read("POLYGON ((0 0, 5 0, 5 5, 0 5, 0 0))"));
+        cache.onSaved(annotation);
+        assertThat(index.searchIds(new Envelope(0, 1, 0, 1), null, 100)).containsExactlyInAnyOrder(1L, 1000L);
+
+        cache.onDeleted(annotation);
+        assertThat(index.searchIds(new Envelope(0, 1, 0, 1), null, 100)).containsExactly(1L);
+        assertThat(cache.getMetrics()).containsEntry("loads", 1L).containsEntry("updates", 2L);
+    }
+
+    @Test
+    public void index_changed_during_its_load_is_not_stored() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getSliceIndex().setEnabled(true);
+        applicationProperties.getSliceIndex().setHotThreshold(1);
+        SliceAnnotationIndexCache cache = new SliceAnnotationIndexCache(applicationProperties, null);
+        Key key = new Key(UserAnnotation.class.getName(), 10L);
+        UserAnnotation annotation = new UserAnnotation();
+        annotation.setId(1L);
+
+        assertThat(cache.find(key, () -> {
+            // the annotation is deleted while the slice is loaded
+            cache.onDeleted(annotation);
+            return index();
+        })).isNotNull();
+        assertThat(cache.getMetrics()).containsEntry("size", 0);
+
+        SliceAnnotationIndex index = cache.find(key, this::index);
+        assertThat(cache.find(key, this::index)).isSameAs(index);
+        cache.invalidateSlice(10L);
+        assertThat(cache.getMetrics()).containsEntry("size", 0);
+    }
+
+    @Test
+    public void kmeans_clusters_from_the_index() {
+        KmeansGeometryService kmeansGeometryService = new KmeansGeometryService(null, null, null);
+        List<Kmeans> full = kmeansGeometryService.doKmeansInMemory(index(), new Envelope(0, 100, 0, 100), null, true);
+        assertThat(full).hasSize(KmeansGeometryService.CLUSTERS);
+        assertThat(full.stream().mapToLong(Kmeans::getCount).sum()).isEqualTo(100);
+        assertThat(full).allSatisfy(kmeans -> assertThat(kmeans.getLocation()).startsWith("POLYGON"));
+        assertThat(full.stream().mapToDouble(Kmeans::getRatio).max().getAsDouble()).isEqualTo(1.0);
+
+        List<Kmeans> soft = kmeansGeometryService.doKmeansInMemory(index(), new Envelope(0, 15, 0, 15), new long[]{1}, false);
+        assertThat(soft.stream().mapToLong(Kmeans::getCount).sum()).isEqualTo(2);
+        assertThat(soft).allSatisfy(kmeans -> assertThat(kmeans.getLocation()).startsWith("POINT"));
+    }
+}
@@ -0,0 +1,173 @@
+package be.cytomine.service.database;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.command.Command;
+import be.cytomine.domain.command.Transaction;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.AnnotationTerm;
+import be.cytomine.domain.ontology.SharedAnnotation;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.security.User;
+import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.repository.command.CommandRepository;
+import be.cytomine.service.CommandService;
+import be.cytomine.service.annotation.AnnotationTileCache;
+import be.cytomine.service.command.TransactionService;
+import be.cytomine.service.stats.StatsCache;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class BulkDeleteServiceTests {
+
+    @Autowired
+    BulkDeleteService bulkDeleteService;
+
+    @Autowired
+    CommandRepository commandRepository;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    TransactionService transactionService;
+
+    @Autowired
+    CommandService commandService;
+
+    @Autowired
+    AnnotationTileCache annotationTileCache;
+
+    @Autowired
+    StatsCache statsCache;
+
+    @Test
+    void delete_image_dependencies_by_chunks() {
+        SliceInstance sliceInstance = builder.given_a_slice_instance();
+        ImageInstance imageInstance = sliceInstance.getImage();
+        List<UserAnnotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            annotations.add(builder.given_a_user_annotation(sliceInstance));
+        }
+        AnnotationTerm annotationTerm = builder.given_an_annotation_term(annotations.get(0));
+        SharedAnnotation sharedAnnotation = builder.given_a_shared_annotation(annotations.get(1));
+        UserAnnotation otherImageAnnotation = builder.given_a_user_annotation();
+
+        Map<String, Long> deleted = bulkDeleteService.delete(BulkDeleteService.IMAGE_INSTANCE, imageInstance, imageInstance.getProject(), null, null);
+
+        assertThat(deleted)
+                .containsEntry("user_annotation", 5L)
+                .containsEntry("annotation_term", 1L)
+                .containsEntry("shared_annotation", 1L)
+                .containsEntry("slice_instance", 1L);
+        for (UserAnnotation annotation : annotations) {
+            assertThat(entityManager.find(UserAnnotation.class, annotation.getId())).isNull();
+        }
+        assertThat(entityManager.find(AnnotationTerm.class, annotationTerm.getId())).isNull();
+        assertThat(entityManager.find(SharedAnnotation.class, sharedAnnotation.getId())).isNull();
+        assertThat(entityManager.find(SliceInstance.class, sliceInstance.getId())).isNull();
+        assertThat(entityManager.find(UserAnnotation.class, otherImageAnnotation.getId())).isNotNull();
+        assertThat(entityManager.find(ImageInstance.class, imageInstance.getId())).isNotNull();
+
+        List<Command> commands = commandRepository.findAllByServiceName("BulkDeleteService");
+        assertThat(commands).hasSize(1);
+        assertThat(commands.get(0).getActionMessage()).contains("ImageInstance " + imageInstance.getId());
+        assertThat(commands.get(0).getProject()).isEqualTo(imageInstance.getProject());
+    }
+
+    @Test
+    void undo_of_a_transaction_with_a_bulk_deletion_is_refused() {
+        UserAnnotation annotation = builder.given_a_user_annotation();
+        ImageInstance imageInstance = annotation.getImage();
+        Transaction transaction = transactionService.start();
+
+        bulkDeleteService.delete(BulkDeleteService.IMAGE_INSTANCE, imageInstance, imageInstance.getProject(), transaction, null);
+
+        assertThat(commandRepository.findAllUndoOrderByCreatedDesc(builder.given_superadmin(), transaction)).hasSize(1);
+        assertThatThrownBy(() -> commandService.undo()).isInstanceOf(ObjectNotFoundException.class);
+    }
+
+    @Test
+    void tiles_and_stats_of_deleted_annotations_are_invalidated() {
+        UserAnnotation annotation = builder.given_a_user_annotation();
+        ImageInstance imageInstance = annotation.getImage();
+        long tileInvalidations = (Long) annotationTileCache.getMetrics().get("invalidations");
+        long statsInvalidations = (Long) statsCache.getMetrics().get("invalidations");
+
+        bulkDeleteService.delete(BulkDeleteService.IMAGE_INSTANCE, imageInstance, imageInstance.getProject(), null, null);
+
+        assertThat((Long) annotationTileCache.getMetrics().get("invalidations")).isGreaterThan(tileInvalidations);
+        assertThat((Long) statsCache.getMetrics().get("invalidations")).isGreaterThan(statsInvalidations);
+    }
+
+    @Test
+    void nothing_to_delete_records_no_command() {
+        ImageInstance imageInstance = builder.given_an_image_instance();
+
+        assertThat(bulkDeleteService.delete(BulkDeleteService.IMAGE_INSTANCE, imageInstance, imageInstance.getProject(), null, null)).isEmpty();
+        assertThat(commandRepository.findAllByServiceName("BulkDeleteService")).isEmpty();
+    }
+
+    @Test
+    void delete_user_annotations_and_terms() {
+        User user = builder.given_a_user();
+        UserAnnotation annotation = builder.given_a_user_annotation();
+        AnnotationTerm annotationTermByUser = builder.given_an_annotation_term(annotation);
+        annotationTermByUser.setUser(user);
+        UserAnnotation userAnnotation = builder.given_a_user_annotation(builder.given_a_slice_instance(), user);
+
+        Map<String, Long> deleted = bulkDeleteService.delete(BulkDeleteService.USER, user, null, null, null);
+
+        assertThat(deleted).containsEntry("user_annotation", 1L).containsEntry("annotation_term", 1L);
+        assertThat(entityManager.find(UserAnnotation.class, userAnnotation.getId())).isNull();
+        assertThat(entityManager.find(AnnotationTerm.class, annotationTermByUser.getId())).isNull();
+        assertThat(entityManager.find(UserAnnotation.class, annotation.getId())).isNotNull();
+    }
+
+    @Test
+    void plans_delete_referencing_rows_first() {
+        for (BulkDeleteService.DeletePlan plan : List.of(BulkDeleteService.PROJECT, BulkDeleteService.IMAGE_INSTANCE)) {
+            List<String> tables = plan.getTables();
+            assertThat(tables.indexOf("annotation_term")).isLessThan(tables.indexOf("user_annotation"));
+            assertThat(tables.indexOf("reviewed_annotation")).isLessThan(tables.indexOf("algo_annotation"));
+            assertThat(tables.lastIndexOf("user_annotation")).isLessThan(tables.indexOf("slice_instance"));
+            assertThat(tables.lastIndexOf("annotation_track")).isLessThan(tables.indexOf("track"));
+        }
+    }
+}
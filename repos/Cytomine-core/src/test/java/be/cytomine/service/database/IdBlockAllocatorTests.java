@@ -0,0 +1,102 @@
+package be.cytomine.service.database;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IdBlockAllocatorTests {
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicInteger reservations = new AtomicInteger();
+
+    private final IntFunction<List<Long>> reserver = count -> {
+        reservations.incrementAndGet();
+        return LongStream.range(0, count).mapToObj(i -> sequence.incrementAndGet()).toList();
+    };
+
+    @Test
+    public void ids_are_reserved_by_block() {
+        IdBlockAllocator allocator = new IdBlockAllocator(reserver, 10);
+
+        List<Long> ids = LongStream.range(0, 15).mapToObj(i -> allocator.next()).toList();
+
+        assertThat(ids).containsExactlyElementsOf(LongStream.rangeClosed(1, 15).boxed().toList());
+        assertThat(reservations.get()).isEqualTo(2);
+        assertThat(allocator.getMetrics().get("allocated")).isEqualTo(15L);
+    }
+
+    @Test
+    public void block_reserved_by_a_concurrent_refill_is_kept() throws Exception {
+        CountDownLatch reserving = new CountDownLatch(2);
+        IdBlockAllocator allocator = new IdBlockAllocator(count -> {
+            reserving.countDown();
+            try {
+                // both threads reserve a block before any swap
+                reserving.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return reserver.apply(count);
+        }, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Long> first = executor.submit(allocator::next);
+        Future<Long> second = executor.submit(allocator::next);
+        Set<Long> ids = new HashSet<>(List.of(first.get(), second.get()));
+        executor.shutdown();
+
+        for (int i = 0; i < 8; i++) {
+            ids.add(allocator.next());
+        }
+
+        assertThat(ids).containsExactlyInAnyOrderElementsOf(LongStream.rangeClosed(1, 10).boxed().toList());
+        assertThat(reservations.get()).isEqualTo(2);
+        assertThat(allocator.getMetrics().get("discarded")).isEqualTo(0L);
+    }
+
+    @Test
+    public void ids_are_unique_across_allocators_and_threads() throws Exception {
+        // two allocators sharing the sequence, as two core instances
+        List<IdBlockAllocator> allocators = List.of(new IdBlockAllocator(reserver, 7), new IdBlockAllocator(reserver, 13));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            IdBlockAllocator allocator = allocators.get(t % 2);
+            futures.add(executor.submit(() -> LongStream.range(0, 1000).mapToObj(i -> allocator.next()).toList()));
+        }
+        Set<Long> ids = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            ids.addAll(future.get());
+        }
+        executor.shutdown();
+
+        assertThat(ids).hasSize(8000);
+    }
+}
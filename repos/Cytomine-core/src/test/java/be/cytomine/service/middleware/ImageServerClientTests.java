@@ -0,0 +1,102 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.exceptions.ServiceUnavailableException;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PreparedRequest;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ImageServerClientTests {
+
+    private static WireMockServer wireMockServer = new WireMockServer(8890);
+
+    @BeforeAll
+    public static void beforeAll() {
+        wireMockServer.start();
+        configureFor("localhost", 8890);
+        stubFor(get(urlEqualTo("/ims/ping")).willReturn(aResponse().withBody("pong")));
+        stubFor(get(urlEqualTo("/ims/slow")).willReturn(aResponse().withBody("pong").withFixedDelay(1000)));
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        try {
+            wireMockServer.stop();
+        } catch (Exception e) {
+        }
+    }
+
+    private ImageServerClient client(int maxConcurrentRequests, int acquireTimeoutInMillis) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImageServerClient().setMaxConcurrentRequests(maxConcurrentRequests);
+        applicationProperties.getImageServerClient().setAcquireTimeoutInMillis(acquireTimeoutInMillis);
+        return new ImageServerClient(applicationProperties);
+    }
+
+    private PreparedRequest request(String path) {
+        PreparedRequest request = new PreparedRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setUrl("http://localhost:8890/ims");
+        request.addPathFragment(path);
+        return request;
+    }
+
+    @Test
+    void sequential_requests_reuse_the_same_connection() throws Exception {
+        ImageServerClient client = client(10, 1000);
+        for (int i = 0; i < 20; i++) {
+            assertThat(client.toObject("ping", request("ping"), String.class)).isEqualTo("pong");
+        }
+
+        JsonObject metrics = client.getMetrics();
+        assertThat(metrics.get("idleConnections")).isEqualTo(1);
+        assertThat(metrics.get("inFlight")).isEqualTo(0);
+        Map<String, Object> ping = (Map<String, Object>) ((Map<String, Object>) metrics.get("endpoints")).get("ping");
+        assertThat(ping.get("count")).isEqualTo(20L);
+        assertThat(ping.get("errors")).isEqualTo(0L);
+        client.close();
+    }
+
+    @Test
+    void requests_over_the_concurrency_limit_are_rejected() throws Exception {
+        ImageServerClient client = client(1, 100);
+        CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> client.toObject("slow", request("slow"), String.class));
+        while (client.getMetrics().get("inFlight").equals(0)) {
+            Thread.sleep(10);
+        }
+
+        assertThrows(ServiceUnavailableException.class, () -> client.toObject("ping", request("ping"), String.class));
+        assertThat(client.getMetrics().get("rejected")).isEqualTo(1L);
+
+        assertThat(slow.get()).isEqualTo("pong");
+        assertThat(client.toObject("ping", request("ping"), String.class)).isEqualTo("pong");
+        client.close();
+    }
+}
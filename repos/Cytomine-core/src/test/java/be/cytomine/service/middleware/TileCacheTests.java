@@ -0,0 +1,174 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.utils.PreparedRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TileCacheTests {
+
+    @TempDir
+    Path diskPath;
+
+    private final List<String> receivedEtags = new ArrayList<>();
+
+    private TileCache cache(long ttlInSeconds, long heapMaxSizeInMb, boolean disk) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getTileCache().setEnabled(true);
+        applicationProperties.getTileCache().setTtlInSeconds(ttlInSeconds);
+        applicationProperties.getTileCache().setHeapMaxSizeInMb(heapMaxSizeInMb);
+        applicationProperties.getTileCache().setDiskPath(disk ? diskPath.toString() : "");
+        return new TileCache(applicationProperties);
+    }
+
+    private PreparedRequest tile(String path, int tx, String etag) {
+        PreparedRequest request = new PreparedRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setUrl("http://localhost:8888/ims");
+        request.addPathFragment("image");
+        request.addPathFragment(path, true);
+        request.addPathFragment("normalized-tile/zoom/0/tx/" + tx + "/ty/0");
+        request.addQueryParameter("z_slices", 0);
+        request.addQueryParameter("channels", 1);
+        request.getHeaders().add(HttpHeaders.ACCEPT, "image/jpeg");
+        if (etag != null) {
+            request.getHeaders().add(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        return request;
+    }
+
+    private Function<PreparedRequest, ResponseEntity<byte[]>> imageServer(byte[] body, String etag) {
+        return request -> {
+            String ifNoneMatch = request.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+            receivedEtags.add(ifNoneMatch);
+            if (etag.equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+            return ResponseEntity.ok().eTag(etag).header("Transfer-Encoding", "chunked").body(body);
+        };
+    }
+
+    @Test
+    void serve_fresh_entry_without_calling_image_server() {
+        TileCache cache = cache(60, 1, false);
+        byte[] body = new byte[]{1, 2, 3};
+
+        ResponseEntity<byte[]> first = cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(body, "\"v1\""));
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(first.getHeaders()).doesNotContainKey("Transfer-Encoding");
+        ResponseEntity<byte[]> second = cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(body, "\"v1\""));
+        assertThat(second.getBody()).isEqualTo(body);
+        assertThat(second.getHeaders().getETag()).isEqualTo("\"v1\"");
+        ResponseEntity<byte[]> third = cache.fetch("a.svs", tile("a.svs", 0, "\"v1\""), imageServer(body, "\"v1\""));
+        assertThat(third.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+        assertThat(receivedEtags).hasSize(1);
+        assertThat(cache.getMetrics().get("heapHits")).isEqualTo(2L);
+        assertThat(cache.getMetrics().get("bytesServed")).isEqualTo(3L);
+    }
+
+    @Test
+    void query_parameter_order_does_not_change_the_key() {
+        PreparedRequest request = tile("a.svs", 0, null);
+        PreparedRequest reordered = new PreparedRequest();
+        reordered.setMethod(HttpMethod.GET);
+        reordered.setUrl("http://localhost:8888/ims");
+        reordered.setPath(request.getPath());
+        reordered.addQueryParameter("channels", 1);
+        reordered.addQueryParameter("z_slices", 0);
+        reordered.addQueryParameter("gammas", null);
+        reordered.getHeaders().add(HttpHeaders.ACCEPT, "image/jpeg");
+        assertThat(TileCache.key(reordered)).isEqualTo(TileCache.key(request));
+
+        reordered.getHeaders().set(HttpHeaders.ACCEPT, "image/png");
+        assertThat(TileCache.key(reordered)).isNotEqualTo(TileCache.key(request));
+    }
+
+    @Test
+    void stale_entry_is_revalidated_with_its_etag() {
+        TileCache cache = cache(0, 1, false);
+        byte[] body = new byte[]{1, 2, 3};
+
+        cache.fetch("a.svs", tile("a.svs", 0, "\"old\""), imageServer(body, "\"v1\""));
+        ResponseEntity<byte[]> response = cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(body, "\"v1\""));
+
+        assertThat(receivedEtags).containsExactly(null, "\"v1\"");
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo(body);
+        assertThat(cache.getMetrics().get("revalidations")).isEqualTo(1L);
+        assertThat(cache.getMetrics().get("heapHits")).isEqualTo(0L);
+        assertThat(cache.getMetrics().get("hitRatio")).isEqualTo(0.5);
+    }
+
+    @Test
+    void entries_evicted_from_heap_are_served_from_disk() {
+        TileCache cache = cache(60, 1, true);
+        byte[] body = new byte[600 * 1024];
+        body[0] = 42;
+
+        cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(body, "\"0\""));
+        cache.fetch("a.svs", tile("a.svs", 1, null), imageServer(body, "\"1\""));
+        assertThat(cache.getMetrics().get("diskEntries")).isEqualTo(1);
+
+        ResponseEntity<byte[]> response = cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(new byte[0], "\"0\""));
+        assertThat(response.getBody()).isEqualTo(body);
+        assertThat(cache.getMetrics().get("diskHits")).isEqualTo(1L);
+        assertThat(receivedEtags).hasSize(2);
+    }
+
+    @Test
+    void invalidate_entries_of_an_image() {
+        TileCache cache = cache(60, 1, true);
+        byte[] body = new byte[]{1, 2, 3};
+        cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(body, "\"a\""));
+        cache.fetch("b.svs", tile("b.svs", 0, null), imageServer(body, "\"b\""));
+
+        cache.invalidate("a.svs");
+        cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(body, "\"a\""));
+        cache.fetch("b.svs", tile("b.svs", 0, null), imageServer(body, "\"b\""));
+
+        assertThat(receivedEtags).hasSize(3);
+    }
+
+    @Test
+    void response_fetched_during_an_invalidation_is_not_cached() {
+        TileCache cache = cache(60, 1, false);
+        byte[] body = new byte[]{1, 2, 3};
+
+        cache.fetch("a.svs", tile("a.svs", 0, null), request -> {
+            cache.invalidate("a.svs");
+            return imageServer(body, "\"a\"").apply(request);
+        });
+        cache.fetch("a.svs", tile("a.svs", 0, null), imageServer(body, "\"a\""));
+
+        assertThat(receivedEtags).hasSize(2);
+        assertThat(cache.getMetrics().get("heapEntries")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,92 @@
+package be.cytomine.service.ontology;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.project.Project;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The compaction job is disabled in the other tests (application.annotationCounters.compactionIntervalInMillis: 0)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = "application.annotationCounters.compactionIntervalInMillis=100")
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationCounterScheduledTests {
+
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Autowired
+    AnnotationIndexService annotationIndexService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    void deferred_deltas_are_folded_while_the_compaction_job_runs() throws InterruptedException {
+        SliceInstance slice = builder.given_a_slice_instance();
+        entityManager.createNativeQuery("SET LOCAL cytomine.annotation_counters = 'deferred'").executeUpdate();
+        builder.given_a_user_annotation(slice);
+        builder.given_a_user_annotation(slice);
+
+        long compactions = (Long) annotationCounterService.getMetrics().get("compactions");
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((Long) annotationCounterService.getMetrics().get("compactions") <= compactions && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat((Long) annotationCounterService.getMetrics().get("compactions")).isGreaterThan(compactions);
+
+        // the job does not see the deltas of the test transaction
+        Project project = refreshed(slice.getProject());
+        assertThat(project.getCountAnnotations()).isEqualTo(0);
+        assertThat(refreshed(slice.getImage()).getCountImageAnnotations()).isEqualTo(0);
+        assertThat(annotationIndexService.count(slice, builder.given_superadmin())).isEqualTo(2);
+
+        // the job holds the compaction lock while it folds
+        long folded = annotationCounterService.compact();
+        while (folded == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            folded = annotationCounterService.compact();
+        }
+        assertThat(folded).isEqualTo(2);
+
+        assertThat(refreshed(project).getCountAnnotations()).isEqualTo(2);
+        assertThat(refreshed(slice.getImage()).getCountImageAnnotations()).isEqualTo(2);
+        assertThat(annotationIndexService.count(slice, builder.given_superadmin())).isEqualTo(2);
+        assertThat(annotationIndexService.list(slice).get(0).getCountAnnotation()).isEqualTo(2);
+    }
+
+    private <T> T refreshed(T domain) {
+        entityManager.refresh(domain);
+        return domain;
+    }
+}
@@ -0,0 +1,142 @@
+package be.cytomine.service.ontology;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.service.image.ImageInstanceService;
+import be.cytomine.service.project.ProjectService;
+import be.cytomine.service.search.ProjectSearchExtension;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.filters.SearchOperation;
+import be.cytomine.utils.filters.SearchParameterEntry;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.io.ParseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationCounterServiceTests {
+
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Autowired
+    AnnotationIndexService annotationIndexService;
+
+    @Autowired
+    ProjectService projectService;
+
+    @Autowired
+    ImageInstanceService imageInstanceService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    SliceInstance slice;
+
+    @BeforeEach
+    public void createSlice() {
+        slice = builder.given_a_slice_instance();
+        // test connections update the counters in the triggers: defer them until the end of the test transaction
+        entityManager.createNativeQuery("SET LOCAL cytomine.annotation_counters = 'deferred'").executeUpdate();
+    }
+
+    @Test
+    void annotation_insertions_are_recorded_as_deltas() {
+        builder.given_a_user_annotation(slice);
+        builder.given_a_user_annotation(slice);
+
+        assertThat(pendingDeltas()).isEqualTo(2);
+        assertThat(refreshed(slice.getProject()).getCountAnnotations()).isEqualTo(0);
+        assertThat(refreshed(slice.getImage()).getCountImageAnnotations()).isEqualTo(0);
+    }
+
+    @Test
+    void listings_merge_pending_deltas() {
+        builder.given_a_user_annotation(slice);
+        UserAnnotation deleted = builder.given_a_user_annotation(slice);
+        builder.given_a_user_annotation(slice);
+        entityManager.remove(deleted);
+        entityManager.flush();
+
+        assertThat(annotationIndexService.count(slice, builder.given_superadmin())).isEqualTo(2);
+        assertThat(annotationIndexService.list(slice)).hasSize(1);
+        assertThat(annotationIndexService.list(slice).get(0).getCountAnnotation()).isEqualTo(2);
+
+        Page<Map<String, Object>> images = imageInstanceService.list(slice.getProject(), new ArrayList<>(List.of(
+                new SearchParameterEntry("numberOfAnnotations", SearchOperation.gte, 2L))), "numberOfAnnotations", "desc", 0L, 0L, false, false);
+        assertThat(images.getContent()).hasSize(1);
+        assertThat(images.getContent().get(0).get("numberOfAnnotations")).isEqualTo(2L);
+
+        Page<JsonObject> projects = projectService.list(null, new ProjectSearchExtension(), new ArrayList<>(List.of(
+                new SearchParameterEntry("numberOfAnnotations", SearchOperation.gte, 2L))), "numberOfAnnotations", "desc", 0L, 0L);
+        assertThat(projects.getContent()).anyMatch(project -> project.get("id").equals(slice.getProject().getId())
+                && project.get("numberOfAnnotations").equals(2L));
+    }
+
+    @Test
+    void compaction_folds_deltas_into_counters() throws ParseException {
+        builder.given_a_user_annotation(slice);
+        builder.given_a_user_annotation(slice);
+        // the reviewed annotation has its own parent user annotation
+        builder.given_a_reviewed_annotation(slice, "POLYGON((1 1,5 1,5 5,1 5,1 1))", builder.given_superadmin(), null);
+
+        assertThat(annotationCounterService.compact()).isEqualTo(4);
+
+        assertThat(pendingDeltas()).isEqualTo(0);
+        Project project = refreshed(slice.getProject());
+        assertThat(project.getCountAnnotations()).isEqualTo(3);
+        assertThat(project.getCountReviewedAnnotations()).isEqualTo(1);
+        assertThat(refreshed(slice.getImage()).getCountImageAnnotations()).isEqualTo(3);
+        assertThat(annotationIndexService.count(slice, builder.given_superadmin())).isEqualTo(3);
+        assertThat(annotationIndexService.count(slice, null)).isEqualTo(1);
+        assertThat(annotationCounterService.compact()).isEqualTo(0);
+    }
+
+    private long pendingDeltas() {
+        return ((Number) entityManager.createNativeQuery("SELECT COUNT(*) FROM annotation_counter_delta WHERE slice_id = :slice")
+                .setParameter("slice", slice.getId())
+                .getSingleResult()).longValue();
+    }
+
+    private <T> T refreshed(T domain) {
+        entityManager.refresh(domain);
+        return domain;
+    }
+}
@@ -0,0 +1,126 @@
+package be.cytomine.service.ontology;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.security.User;
+import be.cytomine.dto.Kmeans;
+import be.cytomine.dto.annotation.AnnotationResult;
+import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.annotation.SliceAnnotationIndexCache;
+import be.cytomine.service.utils.KmeansGeometryService;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.io.ParseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The slice index is disabled in the other tests (application.sliceIndex.enabled: false).
+ * With a hot threshold of 1, a slice is indexed on its first bbox listing.
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class,
+        properties = {"application.sliceIndex.enabled=true", "application.sliceIndex.hotThreshold=1"})
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationListingWithSliceIndexTests {
+
+    // the bbox intersects the envelope of the triangle, not the triangle itself
+    private static final String BBOX = "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))";
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    AnnotationListingService annotationListingService;
+
+    @Autowired
+    SliceAnnotationIndexCache sliceAnnotationIndexCache;
+
+    @Test
+    void bbox_listing_of_a_hot_slice_checks_the_index_candidates() throws ParseException {
+        SliceInstance slice = builder.given_a_slice_instance();
+        User user = builder.given_superadmin();
+        UserAnnotation inside = builder.given_a_user_annotation(slice, "POLYGON ((2 2, 4 2, 4 4, 2 4, 2 2))", user, null);
+        UserAnnotation envelopeOnly = builder.given_a_user_annotation(slice, "POLYGON ((9 20, 20 9, 20 20, 9 20))", user, null);
+        UserAnnotation outside = builder.given_a_user_annotation(slice, "POLYGON ((50 50, 60 50, 60 60, 50 60, 50 50))", user, null);
+        long loads = (Long) sliceAnnotationIndexCache.getMetrics().get("loads");
+
+        UserAnnotationListing listing = new UserAnnotationListing(entityManager);
+        listing.setSlice(slice.getId());
+        listing.setBbox(BBOX);
+        List<Object> ids = annotationListingService.listGeneric(listing).stream()
+                .map(x -> ((AnnotationResult) x).get("id")).toList();
+
+        assertThat((Long) sliceAnnotationIndexCache.getMetrics().get("loads")).isEqualTo(loads + 1);
+        // candidates of the index, listed with a.id = ANY(:annotationIds) and checked by PostGIS
+        assertThat(listing.getAnnotationIds()).containsExactlyInAnyOrder(inside.getId(), envelopeOnly.getId());
+        assertThat(ids).containsExactly(inside.getId());
+        assertThat(ids).doesNotContain(envelopeOnly.getId(), outside.getId());
+    }
+
+    @Test
+    void kmeans_of_a_hot_slice_is_computed_from_the_index() throws ParseException {
+        SliceInstance slice = builder.given_a_slice_instance();
+        User user = builder.given_superadmin();
+        for (int i = 0; i < 5; i++) {
+            builder.given_a_user_annotation(slice, "POLYGON ((2 2, 4 2, 4 4, 2 4, 2 2))", user, null);
+        }
+        builder.given_a_user_annotation(slice, "POLYGON ((50 50, 60 50, 60 60, 50 60, 50 50))", user, null);
+        long loads = (Long) sliceAnnotationIndexCache.getMetrics().get("loads");
+
+        UserAnnotationListing listing = new UserAnnotationListing(entityManager);
+        listing.setSlice(slice.getId());
+        listing.setBbox(BBOX);
+        listing.setKmeans(true);
+        listing.setKmeansValue(KmeansGeometryService.KMEANSFULL);
+        List list = annotationListingService.listGeneric(listing);
+
+        assertThat((Long) sliceAnnotationIndexCache.getMetrics().get("loads")).isEqualTo(loads + 1);
+        assertThat(list).isNotEmpty().allSatisfy(kmeans -> assertThat(kmeans).isInstanceOf(Kmeans.class));
+        assertThat(((List<Kmeans>) list).stream().mapToLong(Kmeans::getCount).sum()).isEqualTo(5);
+    }
+
+    @Test
+    void index_of_a_slice_is_dropped_on_invalidation() throws ParseException {
+        SliceInstance slice = builder.given_a_slice_instance();
+        UserAnnotation annotation = builder.given_a_user_annotation(slice, "POLYGON ((2 2, 4 2, 4 4, 2 4, 2 2))", builder.given_superadmin(), null);
+        assertThat(sliceAnnotationIndexCache.find(UserAnnotation.class.getName(), slice.getId())).isNotNull();
+        long misses = (Long) sliceAnnotationIndexCache.getMetrics().get("misses");
+
+        sliceAnnotationIndexCache.invalidateSlice(slice.getId());
+
+        assertThat(sliceAnnotationIndexCache.find(UserAnnotation.class.getName(), slice.getId())
+                .searchIds(annotation.getLocation().getEnvelopeInternal(), null, 10)).containsExactly(annotation.getId());
+        assertThat((Long) sliceAnnotationIndexCache.getMetrics().get("misses")).isEqualTo(misses + 1);
+    }
+}
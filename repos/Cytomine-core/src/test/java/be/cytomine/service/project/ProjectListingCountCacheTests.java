@@ -0,0 +1,83 @@
+package be.cytomine.service.project;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.service.search.ProjectSearchExtension;
+import be.cytomine.service.utils.ListingCountService;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.filters.SearchOperation;
+import be.cytomine.utils.filters.SearchParameterEntry;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The listing count cache is disabled in the other tests (application.listingCount.cacheTtlInSeconds: 0)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = "application.listingCount.cacheTtlInSeconds=60")
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class ProjectListingCountCacheTests {
+
+    @Autowired
+    ProjectService projectService;
+
+    @Autowired
+    ListingCountService listingCountService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Test
+    void next_page_of_project_listing_reuses_the_count() {
+        builder.given_a_project();
+        builder.given_a_project();
+        builder.given_a_project();
+        List<SearchParameterEntry> searchParameterEntries = new ArrayList<>(List.of(
+                new SearchParameterEntry("membersCount", SearchOperation.lte, 10)
+        ));
+
+        long counted = counter("counted");
+        Page<JsonObject> first = projectService.list(builder.given_superadmin(), new ProjectSearchExtension(),
+                searchParameterEntries, "created", "desc", 1L, 0L);
+        assertThat(counter("counted")).isEqualTo(counted + 1);
+
+        long cached = counter("cached");
+        Page<JsonObject> second = projectService.list(builder.given_superadmin(), new ProjectSearchExtension(),
+                searchParameterEntries, "created", "desc", 1L, 1L);
+        assertThat(counter("cached")).isEqualTo(cached + 1);
+        assertThat(counter("counted")).isEqualTo(counted + 1);
+        assertThat(second.getTotalElements()).isEqualTo(first.getTotalElements());
+        assertThat(second.getContent().get(0).get("id")).isNotEqualTo(first.getContent().get(0).get("id"));
+    }
+
+    private long counter(String name) {
+        return (Long) listingCountService.getMetrics().get(name);
+    }
+}
@@ -54,7 +54,9 @@ import be.cytomine.service.search.ProjectSearchExtension;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.CountMode;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.ListingPage;
 import be.cytomine.utils.filters.SearchOperation;
 import be.cytomine.utils.filters.SearchParameterEntry;
 
@@ -513,6 +515,69 @@ public class ProjectServiceTests {
         assertThat(page.getContent()).hasSize(0);
     }
 
+    @Test
+    void list_user_project_with_cursor() {
+        Project project1 = builder.given_a_project();
+        Project project2 = builder.given_a_project_with_ontology(project1.getOntology());
+        Project project3 = builder.given_a_project_with_ontology(project1.getOntology());
+        builder.addUserToProject(project1, builder.given_superadmin().getUsername());
+        builder.addUserToProject(project2, builder.given_superadmin().getUsername());
+        builder.addUserToProject(project3, builder.given_superadmin().getUsername());
+
+        ProjectSearchExtension projectSearchExtension = new ProjectSearchExtension();
+        List<SearchParameterEntry> searchParameterEntries = new ArrayList<>(List.of(
+                new SearchParameterEntry("ontology", SearchOperation.in, List.of(project1.getOntology().getId()))
+        ));
+
+        ListingPage<JsonObject> page = (ListingPage<JsonObject>) projectService.list(builder.given_superadmin(), projectSearchExtension,
+                searchParameterEntries, "created", "asc", 2L, 0L, null, CountMode.EXACT);
+        assertThat(page.getTotalElements()).isEqualTo(3);
+        assertThat(page.getContent()).hasSize(2);
+        assertThat(page.getContent().get(0).get("id")).isEqualTo(project1.getId());
+        assertThat(page.getContent().get(1).get("id")).isEqualTo(project2.getId());
+        assertThat(page.getNextCursor()).isNotNull();
+
+        page = (ListingPage<JsonObject>) projectService.list(builder.given_superadmin(), projectSearchExtension,
+                searchParameterEntries, "created", "asc", 2L, 0L, page.getNextCursor(), CountMode.ESTIMATE);
+        assertThat(page.getContent()).hasSize(1);
+        assertThat(page.getContent().get(0).get("id")).isEqualTo(project3.getId());
+        assertThat(page.getNextCursor()).isNull();
+        assertThat(page.isSizeEstimated()).isTrue();
+        assertThat(page.getTotalElements()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void list_user_project_with_cursor_sorted_by_counter() {
+        Project project1 = builder.given_a_project();
+        Project project2 = builder.given_a_project_with_ontology(project1.getOntology());
+        Project project3 = builder.given_a_project_with_ontology(project1.getOntology());
+        builder.addUserToProject(project1, builder.given_superadmin().getUsername());
+        builder.addUserToProject(project2, builder.given_superadmin().getUsername());
+        builder.addUserToProject(project3, builder.given_superadmin().getUsername());
+        builder.given_a_user_annotation(project1);
+        builder.given_a_user_annotation(project2);
+        builder.given_a_user_annotation(project2);
+        entityManager.flush();
+
+        ProjectSearchExtension projectSearchExtension = new ProjectSearchExtension();
+        List<SearchParameterEntry> searchParameterEntries = new ArrayList<>(List.of(
+                new SearchParameterEntry("ontology", SearchOperation.in, List.of(project1.getOntology().getId()))
+        ));
+
+        ListingPage<JsonObject> page = (ListingPage<JsonObject>) projectService.list(builder.given_superadmin(), projectSearchExtension,
+                searchParameterEntries, "numberOfAnnotations", "desc", 2L, 0L, null, CountMode.EXACT);
+        assertThat(page.getContent()).hasSize(2);
+        assertThat(page.getContent().get(0).get("id")).isEqualTo(project2.getId());
+        assertThat(page.getContent().get(1).get("id")).isEqualTo(project1.getId());
+        assertThat(page.getNextCursor()).isNotNull();
+
+        page = (ListingPage<JsonObject>) projectService.list(builder.given_superadmin(), projectSearchExtension,
+                searchParameterEntries, "numberOfAnnotations", "desc", 2L, 0L, page.getNextCursor(), CountMode.EXACT);
+        assertThat(page.getContent()).hasSize(1);
+        assertThat(page.getContent().get(0).get("id")).isEqualTo(project3.getId());
+        assertThat(page.getNextCursor()).isNull();
+    }
+
 
     @Test
     void list_user_project_with_no_user() {
@@ -0,0 +1,104 @@
+package be.cytomine.service.security;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.service.PermissionCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PermissionCacheTests {
+
+    private PermissionCache cache(long ttlInSeconds) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getAclCache().setTtlInSeconds(ttlInSeconds);
+        return new PermissionCache(applicationProperties);
+    }
+
+    private Supplier<List<Integer>> loader(AtomicInteger calls, Integer... masks) {
+        return () -> {
+            calls.incrementAndGet();
+            return List.of(masks);
+        };
+    }
+
+    @AfterEach
+    public void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void no_cache_outside_request_when_shared_tier_disabled() {
+        PermissionCache cache = cache(0);
+        AtomicInteger calls = new AtomicInteger();
+        assertThat(cache.getMasks(1L, "user", loader(calls, 1, 16))).isEqualTo(17);
+        assertThat(cache.getMasks(1L, "user", loader(calls, 1, 16))).isEqualTo(17);
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void masks_are_cached_per_request() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        PermissionCache cache = cache(0);
+        AtomicInteger calls = new AtomicInteger();
+        cache.getMasks(1L, "user", loader(calls, 1));
+        cache.getMasks(1L, "user", loader(calls, 1));
+        cache.getMasks(2L, "user", loader(calls, 1));
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(cache.getMetrics().get("requestHits")).isEqualTo(1L);
+
+        cache.invalidate(1L, "user");
+        assertThat(cache.getMasks(1L, "user", loader(calls))).isEqualTo(0);
+        assertThat(calls.get()).isEqualTo(3);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.getMasks(2L, "user", loader(calls, 1));
+        assertThat(calls.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void shared_tier_is_invalidated_by_domain_and_user() {
+        PermissionCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        cache.getMasks(1L, "user", loader(calls, 1));
+        cache.getMasks(1L, "other", loader(calls, 1));
+        cache.getMasks(2L, "user", loader(calls, 1));
+        cache.getMasks(1L, "user", loader(calls, 1));
+        assertThat(calls.get()).isEqualTo(3);
+
+        cache.invalidateDomain(1L);
+        cache.getMasks(1L, "user", loader(calls, 1));
+        cache.getMasks(1L, "other", loader(calls, 1));
+        cache.getMasks(2L, "user", loader(calls, 1));
+        assertThat(calls.get()).isEqualTo(5);
+
+        cache.invalidateUser("user");
+        cache.getMasks(1L, "user", loader(calls, 1));
+        cache.getMasks(2L, "user", loader(calls, 1));
+        cache.getMasks(1L, "other", loader(calls, 1));
+        assertThat(calls.get()).isEqualTo(7);
+    }
+}
@@ -0,0 +1,114 @@
+package be.cytomine.service.security;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.domain.security.User;
+import be.cytomine.exceptions.ForbiddenException;
+import be.cytomine.repository.security.SecRoleRepository;
+import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.PrincipalCache;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The principal cache is disabled in the other tests (application.principalCache.ttlInSeconds: 0)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = "application.principalCache.ttlInSeconds=60")
+@AutoConfigureMockMvc
+@WithMockUser(username = "superadmin")
+@Transactional
+public class PrincipalCacheEnabledTests {
+
+    @Autowired
+    CurrentUserService currentUserService;
+
+    @Autowired
+    SecUserService secUserService;
+
+    @Autowired
+    SecUserRepository secUserRepository;
+
+    @Autowired
+    SecUserSecRoleService secUserSecRoleService;
+
+    @Autowired
+    SecRoleRepository secRoleRepository;
+
+    @Autowired
+    PrincipalCache principalCache;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    void current_user_is_the_entity_of_the_request() {
+        long hits = (Long) principalCache.getMetrics().get("hits");
+
+        SecUser user = currentUserService.getCurrentUser();
+        assertThat(user.getUsername()).isEqualTo("superadmin");
+        assertThat(entityManager.contains(user)).isTrue();
+
+        assertThat(currentUserService.getCurrentUser()).isSameAs(user);
+        assertThat((Long) principalCache.getMetrics().get("hits")).isGreaterThan(hits);
+    }
+
+    @Test
+    void locked_user_is_rejected_although_it_was_cached() {
+        User user = builder.given_a_user();
+        assertThat(principalCache.getPrincipal(user.getUsername(), null, secUserRepository::findByUsernameLikeIgnoreCase)).isPresent();
+
+        secUserService.lock(user);
+
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user.getUsername(), "", List.of()));
+        assertThatThrownBy(() -> currentUserService.getCurrentUser()).isInstanceOf(ForbiddenException.class);
+    }
+
+    @Test
+    void granted_role_is_seen_although_the_user_was_cached() {
+        User user = builder.given_a_user();
+        assertThat(principalCache.getPrincipal(user.getUsername(), null, secUserRepository::findByUsernameLikeIgnoreCase)
+                .get().getRoles() & PrincipalCache.ROLE_ADMIN).isEqualTo(0);
+
+        secUserSecRoleService.define(user, secRoleRepository.getAdmin());
+        entityManager.flush();
+        entityManager.refresh(user);
+
+        long misses = (Long) principalCache.getMetrics().get("misses");
+        assertThat(principalCache.getPrincipal(user.getUsername(), null, secUserRepository::findByUsernameLikeIgnoreCase)
+                .get().getRoles() & PrincipalCache.ROLE_ADMIN).isEqualTo(PrincipalCache.ROLE_ADMIN);
+        assertThat((Long) principalCache.getMetrics().get("misses")).isEqualTo(misses + 1);
+    }
+}
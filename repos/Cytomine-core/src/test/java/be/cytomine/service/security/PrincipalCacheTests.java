@@ -0,0 +1,168 @@
+package be.cytomine.service.security;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.security.SecRole;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.security.ApiKeyMaterial;
+import be.cytomine.security.CachedPrincipal;
+import be.cytomine.service.PrincipalCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrincipalCacheTests {
+
+    private PrincipalCache cache(long ttlInSeconds) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPrincipalCache().setTtlInSeconds(ttlInSeconds);
+        return new PrincipalCache(applicationProperties);
+    }
+
+    private SecUser user(String username, String... authorities) {
+        SecUser user = new SecUser();
+        user.setId((long) username.hashCode());
+        user.setUsername(username);
+        for (String authority : authorities) {
+            SecRole role = new SecRole();
+            role.setId((long) user.getRoles().size());
+            role.setAuthority(authority);
+            user.getRoles().add(role);
+        }
+        return user;
+    }
+
+    private Function<String, Optional<SecUser>> loader(AtomicInteger calls, SecUser user) {
+        return username -> {
+            calls.incrementAndGet();
+            return Optional.ofNullable(user);
+        };
+    }
+
+    @Test
+    public void user_is_cached_by_username_and_token() {
+        PrincipalCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        SecUser user = user("Test", "ROLE_USER");
+        CachedPrincipal principal = cache.getPrincipal("Test", "token1", loader(calls, user)).get();
+        assertThat(principal.getId()).isEqualTo(user.getId());
+        assertThat(principal.getUsername()).isEqualTo("Test");
+        assertThat(principal.getRoles()).isEqualTo(PrincipalCache.ROLE_USER);
+        assertThat(principal.isEnabled()).isTrue();
+        assertThat(cache.getPrincipal("test", "token1", loader(calls, user))).containsSame(principal);
+        assertThat(calls.get()).isEqualTo(1);
+
+        cache.getPrincipal("test", "token2", loader(calls, user));
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(cache.getMetrics().get("hits")).isEqualTo(1L);
+        assertThat(cache.getMetrics().get("misses")).isEqualTo(2L);
+    }
+
+    @Test
+    public void cached_principal_is_a_snapshot_of_the_user() {
+        PrincipalCache cache = cache(60);
+        SecUser user = user("test", "ROLE_USER");
+        CachedPrincipal principal = cache.getPrincipal("test", "token", loader(new AtomicInteger(), user)).get();
+
+        // changes of the loaded entity (in the request that loaded it) do not leak into the cache
+        user.setUsername("renamed");
+        user.setEnabled(false);
+        user.getRoles().clear();
+        assertThat(cache.getPrincipal("test", "token", loader(new AtomicInteger(), user)).get())
+                .isSameAs(principal)
+                .satisfies(cached -> {
+                    assertThat(cached.getUsername()).isEqualTo("test");
+                    assertThat(cached.isEnabled()).isTrue();
+                    assertThat(cached.getRoles()).isEqualTo(PrincipalCache.ROLE_USER);
+                });
+    }
+
+    @Test
+    public void unknown_user_is_not_cached() {
+        PrincipalCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        assertThat(cache.getPrincipal("test", "token", loader(calls, null))).isEmpty();
+        assertThat(cache.getPrincipal("test", "token", loader(calls, null))).isEmpty();
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidate_all_tokens_of_a_user() {
+        PrincipalCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        SecUser user = user("test", "ROLE_USER");
+        SecUser other = user("other", "ROLE_USER");
+        cache.getPrincipal("test", "token1", loader(calls, user));
+        cache.getPrincipal("test", "token2", loader(calls, user));
+        cache.getPrincipal("other", "token3", loader(calls, other));
+
+        cache.invalidate("TEST");
+        cache.getPrincipal("test", "token1", loader(calls, user));
+        cache.getPrincipal("test", "token2", loader(calls, user));
+        cache.getPrincipal("other", "token3", loader(calls, other));
+        assertThat(calls.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void roles_are_taken_from_the_cached_user() {
+        PrincipalCache cache = cache(60);
+        SecUser cached = user("test", "ROLE_GUEST", "ROLE_USER", "ROLE_ADMIN");
+        cache.getPrincipal("test", "token", loader(new AtomicInteger(), cached));
+
+        assertThat(cache.getRoles(user("test"))).isEqualTo(PrincipalCache.ROLE_GUEST | PrincipalCache.ROLE_USER | PrincipalCache.ROLE_ADMIN);
+        assertThat(cache.getRoles(user("other", "ROLE_SUPER_ADMIN"))).isEqualTo(PrincipalCache.ROLE_SUPER_ADMIN);
+
+        cache.invalidate("test");
+        assertThat(cache.getRoles(user("test", "ROLE_GUEST"))).isEqualTo(PrincipalCache.ROLE_GUEST);
+    }
+
+    @Test
+    public void api_keys_are_invalidated_with_their_user() {
+        PrincipalCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        SecUser user = user("test", "ROLE_USER");
+        user.setPrivateKey("private");
+        Function<String, Optional<ApiKeyMaterial>> loader = publicKey -> {
+            calls.incrementAndGet();
+            return Optional.of(new ApiKeyMaterial(user));
+        };
+        ApiKeyMaterial apiKey = cache.getApiKey("public", loader).get();
+        assertThat(cache.getApiKey("public", loader)).contains(apiKey);
+        assertThat(calls.get()).isEqualTo(1);
+
+        cache.invalidate("Test");
+        assertThat(cache.getApiKey("public", loader)).isNotEqualTo(Optional.of(apiKey));
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(cache.getMetrics().get("apiKeyHits")).isEqualTo(1L);
+    }
+
+    @Test
+    public void no_cache_when_disabled() {
+        PrincipalCache cache = cache(0);
+        AtomicInteger calls = new AtomicInteger();
+        SecUser user = user("test", "ROLE_USER");
+        cache.getPrincipal("test", "token", loader(calls, user));
+        cache.getPrincipal("test", "token", loader(calls, user));
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(cache.getRoles(user("test", "ROLE_GUEST"))).isEqualTo(PrincipalCache.ROLE_GUEST);
+    }
+}
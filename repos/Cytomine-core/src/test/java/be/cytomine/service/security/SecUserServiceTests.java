@@ -827,6 +827,21 @@ public class SecUserServiceTests {
                 .doesNotContain(userOffline);
     }
 
+    @Test
+    void user_moving_in_a_viewer_is_online_only_once_it_pinged() {
+        User user = builder.given_a_user();
+        Project project = builder.given_a_project();
+        SliceInstance sliceInstance = builder.given_a_not_persisted_slice_instance(builder.given_an_image_instance(project), builder.given_an_abstract_slice());
+
+        given_a_persistent_user_position(new Date(), user, sliceInstance, UserPositionServiceTests.USER_VIEW);
+        assertThat(secUserService.getAllOnlineUsers()).doesNotContain(user);
+        assertThat(secUserService.getAllOnlineUserIds(project)).doesNotContain(user.getId());
+
+        given_a_last_connection(user, project.getId(), new Date());
+        assertThat(secUserService.getAllOnlineUsers()).contains(user);
+        assertThat(secUserService.getAllOnlineUserIds(project)).contains(user.getId());
+    }
+
     @Test
     void list_online_user_for_project() {
         User userOnline = builder.given_default_user();
@@ -0,0 +1,107 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.repositorynosql.social.LastConnectionRepository;
+import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
+import be.cytomine.utils.JsonObject;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import jakarta.transaction.Transactional;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The catch-up job is disabled in the other tests (application.activityRollup.catchUpIntervalInMillis: 0)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = {
+        "application.activityRollup.catchUpIntervalInMillis=100",
+        "application.activityRollup.settleDelayInMillis=0"
+})
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class ActivityRollupScheduledTests {
+
+    @Autowired
+    ActivityRollupService activityRollupService;
+
+    @Autowired
+    ProjectConnectionService projectConnectionService;
+
+    @Autowired
+    PersistentProjectConnectionRepository persistentProjectConnectionRepository;
+
+    @Autowired
+    LastConnectionRepository lastConnectionRepository;
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    @BeforeEach
+    @AfterEach
+    public void cleanDB() {
+        persistentProjectConnectionRepository.deleteAll();
+        lastConnectionRepository.deleteAll();
+        mongoTemplate.getCollection(ActivityRollupService.ROLLUP_COLLECTION).deleteMany(new Document());
+        mongoTemplate.getCollection(ActivityRollupService.WATERMARK_COLLECTION).deleteMany(new Document());
+    }
+
+    @Test
+    void connections_are_rolled_up_by_the_scheduled_catch_up() throws ParseException, InterruptedException {
+        // a catch-up running before the connections are added would move the watermark past them
+        activityRollupService.stop();
+        cleanDB();
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", simpleDateFormat.parse("2022-01-01T12:00:00"));
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", simpleDateFormat.parse("2022-01-01T13:30:00"));
+        long catchUps = (Long) activityRollupService.getMetrics().get("catchUps");
+
+        activityRollupService.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((Long) activityRollupService.getMetrics().get("catchUps") <= catchUps && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertThat(mongoTemplate.getCollection(ActivityRollupService.ROLLUP_COLLECTION)
+                .countDocuments(new Document("activity", "PROJECT_CONNECTION").append("project", project.getId()))).isEqualTo(2);
+        List<JsonObject> results = projectConnectionService.numberOfProjectConnections("hour", null, null, project, user);
+        assertThat(results).hasSize(2);
+        assertThat(results.stream().mapToInt(x -> (Integer) x.get("frequency")).sum()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,171 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.repositorynosql.social.LastConnectionRepository;
+import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
+import be.cytomine.service.stats.StatsService;
+import be.cytomine.utils.JsonObject;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import jakarta.transaction.Transactional;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class ActivityRollupServiceTests {
+
+    @Autowired
+    ActivityRollupService activityRollupService;
+
+    @Autowired
+    ProjectConnectionService projectConnectionService;
+
+    @Autowired
+    StatsService statsService;
+
+    @Autowired
+    PersistentProjectConnectionRepository persistentProjectConnectionRepository;
+
+    @Autowired
+    LastConnectionRepository lastConnectionRepository;
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    @BeforeEach
+    @AfterEach
+    public void cleanDB() {
+        persistentProjectConnectionRepository.deleteAll();
+        lastConnectionRepository.deleteAll();
+        // other tests read raw events only
+        mongoTemplate.getCollection(ActivityRollupService.ROLLUP_COLLECTION).deleteMany(new Document());
+        mongoTemplate.getCollection(ActivityRollupService.WATERMARK_COLLECTION).deleteMany(new Document());
+    }
+
+    @Test
+    void charts_are_the_same_with_rolled_up_connections() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:00:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:05:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T13:30:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2021-01-20T03:00:00"));
+
+        List<List<JsonObject>> rawCharts = charts(project, user);
+
+        assertThat(activityRollupService.catchUp()).isGreaterThanOrEqualTo(3);
+        assertThat(mongoTemplate.getCollection(ActivityRollupService.ROLLUP_COLLECTION)
+                .countDocuments(new Document("activity", "PROJECT_CONNECTION").append("project", project.getId()))).isEqualTo(3);
+
+        assertThat(charts(project, user)).isEqualTo(rawCharts);
+    }
+
+    @Test
+    void periods_splitting_a_rolled_up_hour_are_counted_from_raw_events() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:00:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:05:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T13:30:00"));
+        activityRollupService.catchUp();
+
+        // the second period starts at 12:03, inside a rolled up hour
+        List<JsonObject> evolution = statsService.statConnectionsEvolution(project, 7,
+                simpleDateFormat.parse("2021-12-25T12:03:00"), simpleDateFormat.parse("2022-01-10T00:00:00"), false);
+
+        assertThat(evolution).hasSize(3);
+        assertThat(evolution.get(0).getJSONAttrLong("size")).isEqualTo(1);
+        assertThat(evolution.get(1).getJSONAttrLong("size")).isEqualTo(2);
+        assertThat(evolution.get(2).getJSONAttrLong("size")).isEqualTo(0);
+    }
+
+    @Test
+    void connections_of_the_current_hour_are_counted_from_raw_events() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:00:00"));
+        activityRollupService.catchUp();
+
+        given_a_persistent_connection_in_project(user, project, new Date());
+
+        List<JsonObject> results = projectConnectionService.numberOfProjectConnections("hour", null, null, project, user);
+        assertThat(results).hasSize(2);
+        assertThat(results.stream().mapToInt(x -> (Integer) x.get("frequency")).sum()).isEqualTo(2);
+    }
+
+    @Test
+    void raw_events_of_an_hour_split_by_a_cut_are_counted_by_part() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:00:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:05:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T13:30:00"));
+        long cut = simpleDateFormat.parse("2022-01-01T12:03:00").getTime();
+
+        ActivityRollupService.ActivityHistogram histogram = activityRollupService.histogram(ActivityRollupService.Activity.PROJECT_CONNECTION,
+                project.getId(), null, null, Long.MIN_VALUE, Long.MAX_VALUE, List.of(cut));
+
+        assertThat(histogram.count(Long.MIN_VALUE, cut)).isEqualTo(1);
+        assertThat(histogram.count(cut, Long.MAX_VALUE)).isEqualTo(2);
+        assertThat(histogram.countsByHour()).containsExactly(
+                entry(simpleDateFormat.parse("2022-01-01T12:00:00").getTime(), 2L),
+                entry(simpleDateFormat.parse("2022-01-01T13:00:00").getTime(), 1L));
+    }
+
+    private List<List<JsonObject>> charts(Project project, User user) throws ParseException {
+        long before = simpleDateFormat.parse("2022-02-01T12:00:00").getTime();
+        return List.of(
+                projectConnectionService.numberOfProjectConnections("hour", null, null, project, user),
+                projectConnectionService.numberOfProjectConnections("day", null, null, project, user),
+                projectConnectionService.numberOfProjectConnections("week", null, null, project, user),
+                projectConnectionService.averageOfProjectConnections("hour", null, before, project, user),
+                projectConnectionService.averageOfProjectConnections("week", null, before, project, user),
+                projectConnectionService.numberOfConnectionsByProjectOrderedByHourAndDays(project, null, user),
+                statsService.statConnectionsEvolution(project, 7, simpleDateFormat.parse("2020-12-31T12:17:00"), new Date(before), false)
+        );
+    }
+
+    private void given_a_persistent_connection_in_project(User user, Project project, Date created) {
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", created);
+    }
+}
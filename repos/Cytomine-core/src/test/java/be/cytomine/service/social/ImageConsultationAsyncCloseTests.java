@@ -0,0 +1,103 @@
+package be.cytomine.service.social;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.security.User;
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
+import be.cytomine.service.image.SliceCoordinatesService;
+import jakarta.transaction.Transactional;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.Date;
+
+import static be.cytomine.service.social.UserPositionServiceTests.USER_VIEW;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Consultations are closed by the request in the other tests (application.imageConsultation.asyncClose: false)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = {
+        "application.imageConsultation.asyncClose=true",
+        "application.imageConsultation.flushIntervalInMillis=50"
+})
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class ImageConsultationAsyncCloseTests {
+
+    @Autowired
+    ImageConsultationService imageConsultationService;
+
+    @Autowired
+    ImageConsultationCloser imageConsultationCloser;
+
+    @Autowired
+    PersistentImageConsultationRepository persistentImageConsultationRepository;
+
+    @Autowired
+    UserPositionService userPositionService;
+
+    @Autowired
+    SliceCoordinatesService sliceCoordinatesService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @BeforeEach
+    public void cleanDB() {
+        imageConsultationCloser.flush();
+        persistentImageConsultationRepository.deleteAll();
+    }
+
+    @Test
+    void previous_consultation_is_closed_by_the_closer_thread() throws InterruptedException {
+        User user = builder.given_superadmin();
+        ImageInstance imageInstance = builder.given_a_slice_instance().getImage();
+        Date opened = DateUtils.addSeconds(new Date(), -10);
+        userPositionService.add(DateUtils.addSeconds(opened, 1), user, sliceCoordinatesService.getReferenceSlice(imageInstance),
+                imageInstance, USER_VIEW, 1, 5.0, false);
+        userPositionService.add(DateUtils.addSeconds(opened, 3), user, sliceCoordinatesService.getReferenceSlice(imageInstance),
+                imageInstance, USER_VIEW, 1, 5.0, false);
+        PersistentImageConsultation previous = imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", opened);
+        long closed = (Long) imageConsultationCloser.getMetrics().get("closed");
+
+        imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", new Date());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((persistentImageConsultationRepository.findById(previous.getId()).orElseThrow().getTime() == null
+                || (Long) imageConsultationCloser.getMetrics().get("closed") <= closed) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        PersistentImageConsultation consultation = persistentImageConsultationRepository.findById(previous.getId()).orElseThrow();
+        // from the opening to the first position, then to the second one
+        assertThat(consultation.getTime()).isEqualTo(3000L);
+        assertThat(consultation.getCountCreatedAnnotations()).isEqualTo(0);
+        // the opening of the first consultation queued a close-out too, with nothing to close
+        assertThat((Long) imageConsultationCloser.getMetrics().get("closed")).isGreaterThan(closed);
+        assertThat(imageConsultationCloser.getMetrics().get("callerCloses")).isEqualTo(0L);
+    }
+}
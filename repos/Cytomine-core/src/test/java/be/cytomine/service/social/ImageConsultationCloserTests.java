@@ -0,0 +1,115 @@
+package be.cytomine.service.social;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
+import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ImageConsultationCloserTests {
+
+    PersistentImageConsultationRepository consultationRepository = mock(PersistentImageConsultationRepository.class);
+
+    PersistentUserPositionRepository positionRepository = mock(PersistentUserPositionRepository.class);
+
+    EntityManager entityManager = mock(EntityManager.class);
+
+    Query countQuery = mock(Query.class);
+
+    private ImageConsultationCloser closer(boolean asyncClose) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImageConsultation().setAsyncClose(asyncClose);
+        applicationProperties.getImageConsultation().setBatchSize(10);
+        applicationProperties.getImageConsultation().setFlushIntervalInMillis(50);
+        when(entityManager.createNativeQuery(anyString())).thenReturn(countQuery);
+        ImageConsultationCloser closer = new ImageConsultationCloser(consultationRepository, positionRepository,
+                entityManager, mock(PlatformTransactionManager.class), applicationProperties);
+        closer.start();
+        return closer;
+    }
+
+    private PersistentImageConsultation given_an_open_consultation(long id, long image, Date created) {
+        PersistentImageConsultation consultation = new PersistentImageConsultation();
+        consultation.setId(id);
+        consultation.setUser(1L);
+        consultation.setImage(image);
+        consultation.setProject(2L);
+        consultation.setCreated(created);
+        when(consultationRepository.findAllByUserAndImageAndCreatedLessThan(eq(1L), eq(image), any(), any()))
+                .thenReturn(new PageImpl<>(List.of(consultation)));
+        return consultation;
+    }
+
+    private void given_positions(long image, Date... dates) {
+        List<Object> positions = new ArrayList<>();
+        for (Date date : dates) {
+            PersistentUserPosition position = new PersistentUserPosition();
+            position.setCreated(date);
+            positions.add(position);
+        }
+        AggregationResults results = mock(AggregationResults.class);
+        when(results.getMappedResults()).thenReturn(positions);
+        when(positionRepository.retrieve(eq(2L), eq(1L), eq(image), any(), any(), any())).thenReturn(results);
+    }
+
+    @Test
+    public void consultations_are_closed_by_batch_with_a_single_count_query() throws Exception {
+        Date created = new Date(100000);
+        PersistentImageConsultation first = given_an_open_consultation(10L, 3L, created);
+        PersistentImageConsultation second = given_an_open_consultation(11L, 4L, created);
+        // 2 seconds of activity, then 20 seconds of inactivity
+        given_positions(3L, new Date(101000), new Date(102000), new Date(122000));
+        given_positions(4L);
+        when(countQuery.getResultList()).thenReturn(List.of(new Object[]{0, 5L}, new Object[]{1, 0L}));
+
+        ImageConsultationCloser closer = closer(true);
+        closer.closeLast(1L, 3L, new Date(130000));
+        closer.closeLast(1L, 4L, new Date(130000));
+        // the same consultation, opened again before being closed
+        closer.closeLast(1L, 3L, new Date(140000));
+        closer.stop();
+
+        ArgumentCaptor<Iterable<PersistentImageConsultation>> captor = ArgumentCaptor.forClass(Iterable.class);
+        verify(consultationRepository, atLeastOnce()).saveAll(captor.capture());
+        List<PersistentImageConsultation> saved = new ArrayList<>();
+        captor.getAllValues().forEach(batch -> batch.forEach(saved::add));
+        assertThat(saved).containsExactlyInAnyOrder(first, second);
+        assertThat(first.getTime()).isEqualTo(2000L);
+        assertThat(first.getCountCreatedAnnotations()).isEqualTo(5);
+        assertThat(second.getTime()).isEqualTo(0L);
+        assertThat(second.getCountCreatedAnnotations()).isEqualTo(0);
+        verify(entityManager, times(captor.getAllValues().size())).createNativeQuery(anyString());
+        assertThat(closer.getMetrics().get("closed")).isEqualTo(3L);
+        assertThat(closer.getMetrics().get("queueSize")).isEqualTo(0);
+    }
+
+    @Test
+    public void closed_consultations_are_not_closed_again() throws Exception {
+        PersistentImageConsultation consultation = given_an_open_consultation(10L, 3L, new Date(100000));
+        consultation.setTime(1000L);
+
+        ImageConsultationCloser closer = closer(false);
+        closer.closeLast(1L, 3L, new Date(130000));
+
+        verify(consultationRepository, never()).saveAll(any());
+        verify(entityManager, never()).createNativeQuery(anyString());
+        assertThat(consultation.getTime()).isEqualTo(1000L);
+    }
+}
@@ -0,0 +1,69 @@
+package be.cytomine.service.social;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class PositionBroadcastExecutorTests {
+
+    private Map<String, Object> metrics(PositionBroadcastExecutor executor) {
+        return (Map<String, Object>) ((Map<String, Object>) executor.getMetrics().get("broadcasters")).get("1/2");
+    }
+
+    @Test
+    public void only_latest_unsent_position_is_sent_to_a_slow_follower() throws Exception {
+        PositionBroadcastExecutor executor = new PositionBroadcastExecutor(new ApplicationProperties());
+        CountDownLatch firstSendStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        WebSocketSession follower = mock(WebSocketSession.class);
+        when(follower.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            firstSendStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            received.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(follower).sendMessage(any());
+
+        executor.broadcast("1/2", List.of(follower), new TextMessage("p1"));
+        assertThat(firstSendStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        executor.broadcast("1/2", List.of(follower), new TextMessage("p2"));
+        executor.broadcast("1/2", List.of(follower), new TextMessage("p3"));
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!metrics(executor).get("sent").equals(2L) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(received).containsExactly("p1", "p3");
+        Map<String, Object> metrics = metrics(executor);
+        assertThat(metrics.get("sent")).isEqualTo(2L);
+        assertThat(metrics.get("dropped")).isEqualTo(1L);
+        assertThat(metrics.get("queueDepth")).isEqualTo(0L);
+        executor.shutdown();
+    }
+
+    @Test
+    public void closed_followers_are_skipped() throws Exception {
+        PositionBroadcastExecutor executor = new PositionBroadcastExecutor(new ApplicationProperties());
+        WebSocketSession follower = mock(WebSocketSession.class);
+        when(follower.isOpen()).thenReturn(false);
+
+        executor.broadcast("1/2", List.of(follower), new TextMessage("p1"));
+
+        verify(follower, after(200).never()).sendMessage(any());
+        executor.shutdown();
+    }
+}
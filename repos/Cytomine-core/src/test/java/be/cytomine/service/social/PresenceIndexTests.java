@@ -0,0 +1,96 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PresenceIndexTests {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    private PresenceIndex index() {
+        return new PresenceIndex(true, null, null, now::get);
+    }
+
+    private Date secondsAgo(int seconds) {
+        return new Date(now.get() - seconds * 1000L);
+    }
+
+    @Test
+    public void users_are_online_for_300_seconds() {
+        PresenceIndex index = index();
+        index.userSeen(1L, 10L, secondsAgo(299));
+        index.userSeen(2L, 11L, secondsAgo(301));
+        index.userSeen(3L, null, secondsAgo(10));
+
+        assertThat(index.getOnlineUsers()).containsExactlyInAnyOrder(1L, 3L);
+        assertThat(index.getOnlineUsers(10L)).containsExactly(1L);
+        assertThat(index.getOnlineUsers(11L)).isEmpty();
+        assertThat(index.isOnline(1L)).isTrue();
+        assertThat(index.isOnline(2L)).isFalse();
+
+        now.addAndGet(2000);
+        assertThat(index.getOnlineUsers()).containsExactly(3L);
+    }
+
+    @Test
+    public void older_event_does_not_hide_a_recent_one() {
+        PresenceIndex index = index();
+        index.userSeen(1L, 10L, secondsAgo(10));
+        index.userSeen(1L, 10L, secondsAgo(400));
+        assertThat(index.getOnlineUsers(10L)).containsExactly(1L);
+    }
+
+    @Test
+    public void active_projects_count_distinct_users_for_120_seconds() {
+        PresenceIndex index = index();
+        index.projectOpened(1L, 10L, secondsAgo(100));
+        index.projectOpened(1L, 10L, secondsAgo(50));
+        index.projectOpened(2L, 10L, secondsAgo(20));
+        index.projectOpened(1L, 11L, secondsAgo(130));
+
+        assertThat(index.getActiveProjects()).containsOnlyKeys(10L).containsEntry(10L, 2);
+    }
+
+    @Test
+    public void expired_entries_are_purged_by_writes() {
+        PresenceIndex index = index();
+        index.userSeen(1L, 10L, secondsAgo(0));
+        index.projectOpened(1L, 10L, secondsAgo(0));
+        now.addAndGet(400 * 1000L);
+        index.userSeen(2L, 11L, secondsAgo(0));
+
+        assertThat(index.getOnlineUsers()).containsExactly(2L);
+        assertThat(index.getOnlineUsers(10L)).isEmpty();
+        assertThat(index.getActiveProjects()).isEmpty();
+        assertThat(index.getMetrics().get("onlineUsers")).isEqualTo(1);
+    }
+
+    @Test
+    public void disabled_index_ignores_events() {
+        PresenceIndex index = new PresenceIndex(false, null, null, now::get);
+        index.userSeen(1L, 10L, secondsAgo(0));
+        index.projectOpened(1L, 10L, secondsAgo(0));
+        assertThat(index.getOnlineUsers()).isEmpty();
+        assertThat(index.getActiveProjects()).isEmpty();
+    }
+}
@@ -398,7 +398,7 @@ public class UserPositionServiceTests {
         User user = builder.given_a_user();
 
         WebSocketUserPositionHandler.sessionsBroadcast.put(user.getId().toString()+"/514", sessionDecorator);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
+        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new HashSet<>(Set.of(new ConcurrentWebSocketSessionDecorator(session, 0, 0))));
         WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
 
         List<String> users = userPositionService.listFollowers(user.getId(), 514L);
@@ -417,7 +417,7 @@ public class UserPositionServiceTests {
         User user = builder.given_a_user();
 
         WebSocketUserPositionHandler.sessionsBroadcast.put(user.getId().toString()+"/514", sessionDecorator);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
+        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new HashSet<>(Set.of(new ConcurrentWebSocketSessionDecorator(session, 0, 0))));
         WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
         UserPositionService.broadcasters.put("89/514", List.of(user));
 
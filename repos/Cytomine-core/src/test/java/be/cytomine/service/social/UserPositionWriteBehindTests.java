@@ -0,0 +1,116 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.security.User;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.repositorynosql.social.LastUserPositionRepository;
+import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.Date;
+import java.util.Optional;
+
+import static be.cytomine.service.social.UserPositionServiceTests.USER_VIEW;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Positions are written synchronously in the other tests (application.positionWriter.writeBehind: false)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = {
+        "application.positionWriter.writeBehind=true",
+        "application.positionWriter.batchSize=2",
+        "application.positionWriter.flushIntervalInMillis=200"
+})
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class UserPositionWriteBehindTests {
+
+    @Autowired
+    UserPositionService userPositionService;
+
+    @Autowired
+    UserPositionWriter userPositionWriter;
+
+    @Autowired
+    LastUserPositionRepository lastUserPositionRepository;
+
+    @Autowired
+    PersistentUserPositionRepository persistentUserPositionRepository;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @BeforeEach
+    public void cleanDB() {
+        userPositionWriter.flush();
+        lastUserPositionRepository.deleteAll();
+        persistentUserPositionRepository.deleteAll();
+    }
+
+    private void add(User user, SliceInstance sliceInstance) {
+        userPositionService.add(new Date(), user, sliceInstance, sliceInstance.getImage(), USER_VIEW, 1, 5.0, false);
+    }
+
+    private void awaitWritten(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (persistentUserPositionRepository.count() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(persistentUserPositionRepository.count()).isEqualTo(count);
+        assertThat(lastUserPositionRepository.count()).isEqualTo(count);
+    }
+
+    @Test
+    void full_batch_is_written_and_readable() throws InterruptedException {
+        User user = builder.given_superadmin();
+        SliceInstance sliceInstance = builder.given_a_slice_instance();
+        long batches = (Long) userPositionWriter.getMetrics().get("batches");
+
+        add(user, sliceInstance);
+        add(builder.given_a_user(), sliceInstance);
+        awaitWritten(2);
+
+        assertThat((Long) userPositionWriter.getMetrics().get("batches")).isEqualTo(batches + 1);
+        Optional<LastUserPosition> lastUserPosition = userPositionService.lastPositionByUser(sliceInstance.getImage(), sliceInstance, user, false);
+        assertThat(lastUserPosition).isPresent();
+        assertThat(lastUserPosition.get().getLocation()).isEqualTo(USER_VIEW.toMongodbLocation().getCoordinates());
+    }
+
+    @Test
+    void partial_batch_is_written_after_the_flush_interval() throws InterruptedException {
+        User user = builder.given_superadmin();
+        SliceInstance sliceInstance = builder.given_a_slice_instance();
+
+        add(user, sliceInstance);
+        assertThat(persistentUserPositionRepository.count()).isEqualTo(0);
+        awaitWritten(1);
+
+        assertThat(userPositionService.lastPositionByUser(sliceInstance.getImage(), sliceInstance, user, false)).isPresent();
+        assertThat(userPositionWriter.getMetrics().get("callerWrites")).isEqualTo(0L);
+    }
+}
@@ -0,0 +1,93 @@
+package be.cytomine.service.social;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Collection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class UserPositionWriterTests {
+
+    private UserPositionWriter writer(MongoTemplate mongoTemplate, boolean writeBehind) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPositionWriter().setWriteBehind(writeBehind);
+        applicationProperties.getPositionWriter().setBatchSize(3);
+        applicationProperties.getPositionWriter().setFlushIntervalInMillis(50);
+        applicationProperties.getPositionWriter().setRetryBackoffInMillis(1);
+        UserPositionWriter writer = new UserPositionWriter(mongoTemplate, applicationProperties);
+        writer.start();
+        return writer;
+    }
+
+    @Test
+    public void positions_are_written_by_batch_and_flushed_on_stop() throws Exception {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        UserPositionWriter writer = writer(mongoTemplate, true);
+
+        for (int i = 0; i < 7; i++) {
+            writer.write(new LastUserPosition(), new PersistentUserPosition());
+        }
+        writer.stop();
+
+        ArgumentCaptor<Collection<LastUserPosition>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(mongoTemplate, atLeast(3)).insert(captor.capture(), eq(LastUserPosition.class));
+        assertThat(captor.getAllValues().stream().mapToInt(Collection::size).sum()).isEqualTo(7);
+        assertThat(captor.getAllValues()).allMatch(batch -> batch.size() <= 3);
+        verify(mongoTemplate, atLeast(3)).insert(any(Collection.class), eq(PersistentUserPosition.class));
+        assertThat(writer.getMetrics().get("written")).isEqualTo(7L);
+        assertThat(writer.getMetrics().get("queueSize")).isEqualTo(0);
+    }
+
+    @Test
+    public void positions_are_written_immediately_without_write_behind() throws Exception {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        UserPositionWriter writer = writer(mongoTemplate, false);
+
+        writer.write(new LastUserPosition(), new PersistentUserPosition());
+
+        verify(mongoTemplate, times(1)).insert(any(Collection.class), eq(LastUserPosition.class));
+        verify(mongoTemplate, times(1)).insert(any(Collection.class), eq(PersistentUserPosition.class));
+    }
+
+    @Test
+    public void failed_writes_are_retried_from_the_failed_collection() throws Exception {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.insert(any(Collection.class), eq(PersistentUserPosition.class)))
+                .thenThrow(new DataAccessResourceFailureException("MongoDB is down"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        UserPositionWriter writer = writer(mongoTemplate, true);
+
+        writer.write(new LastUserPosition(), new PersistentUserPosition());
+        writer.stop();
+
+        verify(mongoTemplate, times(1)).insert(any(Collection.class), eq(LastUserPosition.class));
+        verify(mongoTemplate, times(2)).insert(any(Collection.class), eq(PersistentUserPosition.class));
+        assertThat(writer.getMetrics().get("written")).isEqualTo(1L);
+        assertThat(writer.getMetrics().get("retried")).isEqualTo(1L);
+        assertThat(writer.getMetrics().get("dropped")).isEqualTo(0L);
+    }
+
+    @Test
+    public void positions_are_dropped_and_counted_after_the_last_retry() throws Exception {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.insert(any(Collection.class), eq(LastUserPosition.class)))
+                .thenThrow(new DataAccessResourceFailureException("MongoDB is down"));
+        UserPositionWriter writer = writer(mongoTemplate, false);
+
+        writer.write(new LastUserPosition(), new PersistentUserPosition());
+
+        verify(mongoTemplate, times(4)).insert(any(Collection.class), eq(LastUserPosition.class));
+        verify(mongoTemplate, never()).insert(any(Collection.class), eq(PersistentUserPosition.class));
+        assertThat(writer.getMetrics().get("written")).isEqualTo(0L);
+        assertThat(writer.getMetrics().get("dropped")).isEqualTo(1L);
+    }
+}
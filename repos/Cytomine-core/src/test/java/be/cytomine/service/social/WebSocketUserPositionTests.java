@@ -19,8 +19,10 @@ import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorato
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
@@ -40,6 +42,9 @@ public class WebSocketUserPositionTests {
     @Autowired
     WebSocketUserPositionHandler webSocketUserPositionHandler;
 
+    @Autowired
+    PositionBroadcastExecutor positionBroadcastExecutor;
+
     @AfterEach
     public void cleanSessions(){
         WebSocketUserPositionHandler.sessions = new ConcurrentHashMap<>();
@@ -108,7 +113,7 @@ public class WebSocketUserPositionTests {
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
         ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(1);
     }
 
     @Test
@@ -125,7 +130,7 @@ public class WebSocketUserPositionTests {
 
         //Should have added session to sessions tracked
         ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(1);
 
         WebSocketSession session = mock(WebSocketSession.class);
         connectSession(session, userId, imageInstanceId,"false");
@@ -136,7 +141,7 @@ public class WebSocketUserPositionTests {
         // Ask a new follow on the broadcast session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(2);
     }
 
     @Test
@@ -160,11 +165,11 @@ public class WebSocketUserPositionTests {
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
         ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(2);
 
         // Ask a follow on the broadcast session with already tracking session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(2);
     }
 
     @Test
@@ -182,7 +187,7 @@ public class WebSocketUserPositionTests {
 
         //Should have added session to sessions tracked
         ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(1);
 
         // Simulate that user is connected to Cytomine with 2 sessions
         connectSession(followerSession2, userId2, imageInstanceId,"false");
@@ -197,12 +202,12 @@ public class WebSocketUserPositionTests {
         when(session.getId()).thenReturn("2");
 
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId1));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(2);
 
         // Ask for session 3 only to follow the broadcast session
         when(session.getId()).thenReturn("3");
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId1));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(3);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(3);
     }
 
     @Test
@@ -219,7 +224,7 @@ public class WebSocketUserPositionTests {
 
         // Broadcast session should be followed by follower session
         ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(1);
 
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
@@ -229,7 +234,7 @@ public class WebSocketUserPositionTests {
         // Close the followerSession (by calling afterConnectionClosed with mock session with same session id)
         webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
 
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(0);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(0);
     }
 
     @Test
@@ -245,7 +250,7 @@ public class WebSocketUserPositionTests {
         initFollowingSession(userAndImageId, broadcastSession, followerSession);
 
         ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(1);
 
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "true"));
@@ -260,6 +265,32 @@ public class WebSocketUserPositionTests {
         assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession)).isNull();
     }
 
+    @Test
+    public void followers_of_closed_broadcasting_session_are_forgotten_by_the_executor() throws Exception {
+        ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
+        ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(followerSession.getId()).thenReturn("5678");
+        when(followerSession.isOpen()).thenReturn(true);
+        when(broadcastSession.getId()).thenReturn("1234");
+
+        String userId = builder.given_a_user().getId().toString();
+        String imageInstanceId = builder.given_an_image_instance().getId().toString();
+        String userAndImageId = userId+"/"+imageInstanceId;
+        connectSession(followerSession, userId, imageInstanceId, "false");
+        initFollowingSession(userAndImageId, broadcastSession, followerSession);
+
+        positionBroadcastExecutor.broadcast(userAndImageId, Set.of(followerSession), new TextMessage("position"));
+        verify(followerSession, Mockito.timeout(2000).times(1)).sendMessage(new TextMessage("position"));
+        int followers = (int) positionBroadcastExecutor.getMetrics().get("followers");
+
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "true"));
+        when(session.getId()).thenReturn("1234");
+        webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
+
+        assertThat(positionBroadcastExecutor.getMetrics().get("followers")).isEqualTo(followers - 1);
+    }
+
     @Test
     public void update_position_of_tracked_user_send_message_works() throws IOException {
         String userId = builder.given_a_user().getId().toString();
@@ -298,7 +329,7 @@ public class WebSocketUserPositionTests {
 
         assertThat(WebSocketUserPositionHandler.sessions.get(userId).length).isEqualTo(1);
         ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(1);
 
         when(session.getId()).thenReturn("1");
         when(followerSession.getId()).thenReturn("1");
@@ -306,7 +337,7 @@ public class WebSocketUserPositionTests {
         webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
 
         assertThat(WebSocketUserPositionHandler.sessions.get(userId).length).isEqualTo(0);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(0);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).size()).isEqualTo(0);
     }
 
 
@@ -317,8 +348,8 @@ public class WebSocketUserPositionTests {
 
     private void initFollowingSession(String userAndImageId, ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator followerSession){
         WebSocketUserPositionHandler.sessionsBroadcast.put(userAndImageId, broadcastSession);
-        WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, new ConcurrentWebSocketSessionDecorator[]{followerSession});
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession).length).isEqualTo(1);
+        WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, new HashSet<>(Set.of(followerSession)));
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession).size()).isEqualTo(1);
     }
 
     private Map<String, Object> sessionAttributes(String userId, String imageId, String broadcast){
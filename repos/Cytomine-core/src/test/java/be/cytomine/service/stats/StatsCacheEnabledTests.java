@@ -0,0 +1,88 @@
+package be.cytomine.service.stats;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.service.ontology.AnnotationBulkImportService;
+import be.cytomine.service.ontology.UserAnnotationService;
+import be.cytomine.utils.JsonObject;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The stats cache is disabled in the other tests (application.statsCache.ttlInSeconds: 0)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = "application.statsCache.ttlInSeconds=60")
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class StatsCacheEnabledTests {
+
+    @Autowired
+    StatsService statsService;
+
+    @Autowired
+    StatsCache statsCache;
+
+    @Autowired
+    UserAnnotationService userAnnotationService;
+
+    @Autowired
+    AnnotationBulkImportService annotationBulkImportService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Test
+    void cached_stat_is_invalidated_by_added_and_imported_annotations() {
+        Project project = builder.given_a_project();
+        assertThat(annotationsWithoutTerm(project)).isEqualTo(0);
+
+        long hits = (Long) statsCache.getMetrics().get("hits");
+        assertThat(annotationsWithoutTerm(project)).isEqualTo(0);
+        assertThat((Long) statsCache.getMetrics().get("hits")).isEqualTo(hits + 1);
+
+        userAnnotationService.add(builder.given_a_not_persisted_user_annotation(project).toJsonObject());
+        assertThat(annotationsWithoutTerm(project)).isEqualTo(1);
+
+        UserAnnotation annotation = builder.given_a_not_persisted_user_annotation(project);
+        String annotations = JsonObject.toJsonString(List.of(annotation.toJsonObject(), annotation.toJsonObject()));
+        annotationBulkImportService.importUserAnnotations(
+                new ByteArrayInputStream(annotations.getBytes(StandardCharsets.UTF_8)), null, null);
+        assertThat(annotationsWithoutTerm(project)).isEqualTo(3);
+    }
+
+    private long annotationsWithoutTerm(Project project) {
+        return statsService.statTerm(project, null, null, false).stream()
+                .filter(stat -> stat.get("key") == null)
+                .mapToLong(stat -> ((Number) stat.get("value")).longValue())
+                .sum();
+    }
+}
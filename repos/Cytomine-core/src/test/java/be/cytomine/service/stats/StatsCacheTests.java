@@ -0,0 +1,113 @@
+package be.cytomine.service.stats;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.ontology.AnnotationTerm;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatsCacheTests {
+
+    private StatsCache cache(long ttlInSeconds) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getStatsCache().setTtlInSeconds(ttlInSeconds);
+        return new StatsCache(applicationProperties);
+    }
+
+    private Project project(long id) {
+        Project project = new Project();
+        project.setId(id);
+        return project;
+    }
+
+    private Supplier<List<Long[]>> loader(AtomicInteger calls) {
+        return () -> {
+            calls.incrementAndGet();
+            return List.<Long[]>of(new Long[]{1L, 2L});
+        };
+    }
+
+    @Test
+    public void rows_are_cached_by_stat_project_and_dates() {
+        StatsCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        Date start = new Date(1000);
+        cache.get("term", 1L, Arrays.asList(start, null), loader(calls));
+        cache.get("term", 1L, Arrays.asList(new Date(1000), null), loader(calls));
+        assertThat(calls.get()).isEqualTo(1);
+
+        cache.get("term", 1L, Arrays.asList(null, null), loader(calls));
+        cache.get("term", 2L, Arrays.asList(start, null), loader(calls));
+        cache.get("userSlide", 1L, Arrays.asList(start, null), loader(calls));
+        assertThat(calls.get()).isEqualTo(4);
+        assertThat(cache.getMetrics().get("hits")).isEqualTo(1L);
+    }
+
+    @Test
+    public void annotation_changes_invalidate_their_project() {
+        StatsCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("term", 1L, List.of(), loader(calls));
+        cache.get("term", 2L, List.of(), loader(calls));
+        cache.get("annotationTermedByProject", null, List.of(3L), loader(calls));
+
+        UserAnnotation annotation = new UserAnnotation();
+        annotation.setProject(project(1L));
+        AnnotationTerm annotationTerm = new AnnotationTerm();
+        annotationTerm.setUserAnnotation(annotation);
+        cache.invalidate(annotationTerm);
+
+        cache.get("term", 1L, List.of(), loader(calls));
+        cache.get("term", 2L, List.of(), loader(calls));
+        cache.get("annotationTermedByProject", null, List.of(3L), loader(calls));
+        assertThat(calls.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void term_changes_invalidate_all_projects() {
+        StatsCache cache = cache(60);
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("term", 1L, List.of(), loader(calls));
+        cache.get("term", 2L, List.of(), loader(calls));
+
+        cache.invalidate(new Term());
+
+        cache.get("term", 1L, List.of(), loader(calls));
+        cache.get("term", 2L, List.of(), loader(calls));
+        assertThat(calls.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void cache_is_disabled_without_ttl() {
+        StatsCache cache = cache(0);
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("term", 1L, List.of(), loader(calls));
+        cache.get("term", 1L, List.of(), loader(calls));
+        assertThat(calls.get()).isEqualTo(2);
+    }
+}
@@ -456,6 +456,25 @@ public class StatsServiceTests {
 
 
 
+    @Test
+    void stats_user_annotation_counts_each_term() {
+        Project project = builder.given_a_project();
+        builder.addUserToProject(project, "superadmin");
+        Term term1 = builder.given_a_term(project.getOntology());
+        Term term2 = builder.given_a_term(project.getOntology());
+        builder.given_an_annotation_term(builder.given_a_user_annotation(project), term1);
+        builder.given_an_annotation_term(builder.given_a_user_annotation(project), term1);
+        builder.given_an_annotation_term(builder.given_a_user_annotation(project), term2);
+
+        List<JsonObject> results = statsService.statUserAnnotations(project);
+
+        assertThat(results).hasSize(1);
+        List<JsonObject> terms = (List<JsonObject>) results.get(0).get("terms");
+        assertThat(terms).hasSize(2);
+        assertThat(terms.stream().filter(x -> x.getId().equals(term1.getId())).findFirst().get().getJSONAttrLong("value")).isEqualTo(2);
+        assertThat(terms.stream().filter(x -> x.getId().equals(term2.getId())).findFirst().get().getJSONAttrLong("value")).isEqualTo(1);
+    }
+
     @Test
     void stats_user() {
         Project project = builder.given_a_project();
@@ -22,7 +22,9 @@ import be.cytomine.TestUtils;
 import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.dto.annotation.SimplifiedAnnotation;
 
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.io.ParseException;
@@ -152,6 +154,38 @@ public class SimplifyGeometryServiceTests {
     }
 
 
+    @Test
+    public void simplify_big_multipolygon_in_parallel() {
+        GeometryFactory factory = new GeometryFactory();
+        Polygon[] polygons = new Polygon[20];
+        for (int p = 0; p < polygons.length; p++) {
+            Coordinate[] coordinates = new Coordinate[801];
+            for (int i = 0; i < 800; i++) {
+                double angle = 2 * Math.PI * i / 800;
+                double radius = 1000 * (1 + 0.15 * Math.sin(angle * 7));
+                coordinates[i] = new Coordinate(p * 3000 + 1500 + radius * Math.cos(angle), 1500 + radius * Math.sin(angle));
+            }
+            coordinates[800] = coordinates[0];
+            polygons[p] = factory.createPolygon(coordinates);
+        }
+        Geometry geometry = factory.createMultiPolygon(polygons);
+
+        SimplifiedAnnotation result = simplifyGeometryService.simplifyPolygon(geometry, 100L, 150L);
+
+        assertThat(result.getNewAnnotation().isValid()).isTrue();
+        assertThat(result.getNewAnnotation().getNumGeometries()).isEqualTo(20);
+        assertThat(result.getNewAnnotation().getNumPoints()).isLessThanOrEqualTo(getPointMultiplyByGeometriesOrInteriorRings(geometry, 150));
+        assertThat(result.getNewAnnotation().getNumPoints()).isGreaterThanOrEqualTo(getPointMultiplyByGeometriesOrInteriorRings(geometry, 100));
+    }
+
+    @Test
+    public void simplify_big_annotation_for_crop() throws ParseException {
+        Geometry geometry = new WKTReader().read(TestUtils.getResourceFileAsString("dataset/very_big_annotation.txt"));
+
+        assertThat(simplifyGeometryService.simplifyPolygonForCrop(geometry).getNumPoints()).isLessThan(150);
+    }
+
+
     public static int getPointMultiplyByGeometriesOrInteriorRings(Geometry geometry, long numberOfPoints){
         int result = 0;
         if (geometry instanceof MultiPolygon) {
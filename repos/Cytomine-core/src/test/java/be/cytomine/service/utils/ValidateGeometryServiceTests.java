@@ -17,14 +17,20 @@ package be.cytomine.service.utils;
 */
 
 import be.cytomine.CytomineCoreApplication;
+import be.cytomine.dto.annotation.RepairedGeometry;
+import be.cytomine.exceptions.WrongArgumentException;
 import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.security.test.context.support.WithMockUser;
 
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import jakarta.transaction.Transactional;
 
 @SpringBootTest(classes = CytomineCoreApplication.class)
@@ -44,5 +50,34 @@ public class ValidateGeometryServiceTests {
         )).isEqualTo("POLYGON ((2 2, 3 2, 3 4, 2 4, 2 2))");
     }
 
+    @Test
+    public void repair_self_intersecting_polygon_in_memory() throws ParseException {
+        RepairedGeometry repaired = validateGeometryService.repair(
+                new WKTReader().read("POLYGON ((0 0, 10 10, 10 0, 0 10, 0 0))"));
+        assertThat(repaired.getStrategy()).isEqualTo(RepairedGeometry.Strategy.BUFFER);
+        assertThat(repaired.getGeometry().isValid()).isTrue();
+        assertThat(repaired.getGeometry().isEmpty()).isFalse();
+    }
+
+    @Test
+    public void repair_empty_geometry_fails() throws ParseException {
+        assertThatThrownBy(() -> validateGeometryService.repair(new WKTReader().read("POLYGON EMPTY")))
+                .isInstanceOf(WrongArgumentException.class);
+    }
 
+    @Test
+    public void repair_all_reports_strategy_and_errors_per_geometry() throws ParseException {
+        WKTReader reader = new WKTReader();
+        List<RepairedGeometry> repaired = validateGeometryService.repairAll(List.of(
+                reader.read("POLYGON ((2 2, 3 2, 3 4, 2 4, 2 2))"),
+                reader.read("POLYGON ((0 0, 10 10, 10 0, 0 10, 0 0))"),
+                reader.read("POLYGON EMPTY")
+        ));
+        assertThat(repaired).hasSize(3);
+        assertThat(repaired.get(0).getStrategy()).isEqualTo(RepairedGeometry.Strategy.NONE);
+        assertThat(repaired.get(0).hasError()).isFalse();
+        assertThat(repaired.get(1).getStrategy()).isEqualTo(RepairedGeometry.Strategy.BUFFER);
+        assertThat(repaired.get(1).hasError()).isFalse();
+        assertThat(repaired.get(2).hasError()).isTrue();
+    }
 }
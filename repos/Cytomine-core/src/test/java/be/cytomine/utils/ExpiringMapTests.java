@@ -0,0 +1,85 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpiringMapTests {
+
+    @Test
+    public void entries_expire_after_ttl() {
+        AtomicLong now = new AtomicLong(1000);
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, 10, now::get);
+        map.put("a", 1);
+        now.addAndGet(99);
+        assertThat(map.get("a")).isEqualTo(1);
+        assertThat(map.containsKey("a")).isTrue();
+
+        now.addAndGet(1);
+        assertThat(map.get("a")).isNull();
+        assertThat(map.size()).isEqualTo(0);
+        assertThat(map.getMetrics().get("expirations")).isEqualTo(1L);
+    }
+
+    @Test
+    public void put_renews_expiration_and_purges_expired_entries() {
+        AtomicLong now = new AtomicLong(1000);
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, 10, now::get);
+        map.put("a", 1);
+        map.put("b", 2);
+        now.addAndGet(60);
+        map.put("a", 3);
+        now.addAndGet(60);
+        map.put("c", 4);
+
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("a")).isEqualTo(3);
+        assertThat(map.get("b")).isNull();
+    }
+
+    @Test
+    public void evict_first_entry_to_expire_when_full() {
+        AtomicLong now = new AtomicLong(1000);
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(100, 2, now::get);
+        map.put("a", 1);
+        now.incrementAndGet();
+        map.put("b", 2);
+        now.incrementAndGet();
+        map.put("c", 3);
+
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("a")).isNull();
+        assertThat(map.get("b")).isEqualTo(2);
+        assertThat(map.get("c")).isEqualTo(3);
+        assertThat(map.getMetrics().get("evictions")).isEqualTo(1L);
+    }
+
+    @Test
+    public void remove_and_clear() {
+        ExpiringMap<String, Integer> map = new ExpiringMap<>(1000, 10);
+        map.put("a", 1);
+        map.put("b", 2);
+        assertThat(map.remove("a")).isEqualTo(1);
+        assertThat(map.containsKey("a")).isFalse();
+        map.clear();
+        assertThat(map.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,57 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.dto.json.JsonInput;
+import be.cytomine.dto.json.JsonMultipleObject;
+import be.cytomine.dto.json.JsonSingleObject;
+import be.cytomine.exceptions.WrongArgumentException;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JsonCodecTests {
+
+    @Test
+    public void request_body_is_parsed_as_single_object_or_array() {
+        JsonInput single = JsonCodec.readJsonInput("{\"name\": \"a\", \"image\": 1}");
+        assertThat(single).isInstanceOf(JsonSingleObject.class);
+        assertThat(((JsonSingleObject) single).getJSONAttrStr("name")).isEqualTo("a");
+
+        JsonInput multiple = JsonCodec.readJsonInput("[{\"name\": \"a\"}, {\"name\": \"b\"}]");
+        assertThat(multiple).isInstanceOf(JsonMultipleObject.class);
+        assertThat((JsonMultipleObject) multiple).hasSize(2);
+        assertThat(((JsonMultipleObject) multiple).get(1).getJSONAttrStr("name")).isEqualTo("b");
+    }
+
+    @Test
+    public void invalid_request_body_is_rejected() {
+        assertThatThrownBy(() -> JsonCodec.readJsonInput("{\"name\": "))
+                .isInstanceOf(WrongArgumentException.class);
+        assertThatThrownBy(() -> JsonCodec.readJsonInput("[1, 2]"))
+                .isInstanceOf(WrongArgumentException.class);
+        assertThatThrownBy(() -> JsonCodec.readJsonInput("\"name\""))
+                .isInstanceOf(WrongArgumentException.class);
+    }
+
+    @Test
+    public void readers_are_shared_by_type() {
+        assertThat(JsonCodec.reader(JsonObject.class)).isSameAs(JsonCodec.reader(JsonObject.class));
+        assertThat(JsonObject.toJsonObject(JsonObject.of("id", 1).toJsonString())).containsEntry("id", 1);
+    }
+}
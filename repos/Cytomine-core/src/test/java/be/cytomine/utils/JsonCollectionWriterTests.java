@@ -0,0 +1,87 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JsonCollectionWriterTests {
+
+    @Test
+    public void only_items_of_the_page_are_converted() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        List<Integer> converted = new ArrayList<>();
+        JsonCollectionWriter writer = new JsonCollectionWriter(response, 2, 3);
+        writer.acceptAll(List.of(0, 1, 2, 3), item -> {
+            converted.add((Integer) item);
+            return Map.of("id", item);
+        });
+        writer.acceptAll(List.of(4, 5, 6), item -> {
+            converted.add((Integer) item);
+            return Map.of("id", item);
+        });
+        writer.finish();
+
+        assertThat(converted).containsExactly(2, 3, 4);
+        Map<String, Object> json = JsonObject.toMap(response.getContentAsString());
+        assertThat((List<Map<String, Object>>) json.get("collection")).extracting(x -> x.get("id")).containsExactly(2, 3, 4);
+        assertThat(json.get("size")).isEqualTo(7);
+        assertThat(json.get("offset")).isEqualTo(2);
+        assertThat(json.get("totalPages")).isEqualTo(3);
+    }
+
+    @Test
+    public void whole_list_without_max() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        JsonCollectionWriter writer = new JsonCollectionWriter(response, 0, 0);
+        writer.acceptAll(List.of("a", "b"), item -> item);
+        writer.finish();
+
+        Map<String, Object> json = JsonObject.toMap(response.getContentAsString());
+        assertThat((List<Object>) json.get("collection")).containsExactly("a", "b");
+        assertThat(json.get("size")).isEqualTo(2);
+        assertThat(json.get("perPage")).isEqualTo(2);
+    }
+
+    @Test
+    public void error_before_the_first_item_is_thrown_as_is() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        JsonCollectionWriter writer = new JsonCollectionWriter(response, 0, 0);
+        assertThatThrownBy(() -> writer.write(() -> {
+            throw new IllegalArgumentException("before");
+        })).isInstanceOf(IllegalArgumentException.class);
+        assertThat(response.isCommitted()).isFalse();
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    public void error_after_the_first_item_aborts_the_collection() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        JsonCollectionWriter writer = new JsonCollectionWriter(response, 0, 0);
+        assertThatThrownBy(() -> writer.write(() -> {
+            writer.accept("a");
+            throw new IllegalArgumentException("after");
+        })).isInstanceOf(JsonCollectionWriter.AbortedException.class).hasCauseInstanceOf(IllegalArgumentException.class);
+    }
+}
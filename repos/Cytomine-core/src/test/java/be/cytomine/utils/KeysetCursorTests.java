@@ -0,0 +1,69 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class KeysetCursorTests {
+
+    @Test
+    public void cursor_keeps_sort_value_and_id() {
+        Date date = new Date(1700000000000L);
+        KeysetCursor cursor = KeysetCursor.decode(KeysetCursor.encode(date, 42L));
+        assertThat(cursor.getValue()).isInstanceOf(Date.class);
+        assertThat(((Date) cursor.getValue()).getTime()).isEqualTo(date.getTime());
+        assertThat(cursor.getId()).isEqualTo(42L);
+
+        cursor = KeysetCursor.decode(KeysetCursor.encode("project name", 43L));
+        assertThat(cursor.getValue()).isEqualTo("project name");
+        assertThat(cursor.getParameters()).containsEntry("keysetValue", "project name").containsEntry("keysetId", 43L);
+
+        cursor = KeysetCursor.decode(KeysetCursor.encode(12, 44L));
+        assertThat(cursor.getValue()).isEqualTo(12L);
+
+        cursor = KeysetCursor.decode(KeysetCursor.encode(null, 45L));
+        assertThat(cursor.getValue()).isNull();
+        assertThat(cursor.getParameters()).containsOnlyKeys("keysetId");
+    }
+
+    @Test
+    public void invalid_cursor_is_rejected() {
+        assertThatThrownBy(() -> KeysetCursor.decode("not a cursor"))
+                .isInstanceOf(WrongArgumentException.class);
+        assertThatThrownBy(() -> KeysetCursor.decode(KeysetCursor.encode("name", null)))
+                .isInstanceOf(WrongArgumentException.class);
+    }
+
+    @Test
+    public void condition_selects_rows_after_the_cursor() {
+        KeysetCursor cursor = KeysetCursor.decode(KeysetCursor.encode("b", 10L));
+        assertThat(cursor.condition("p.name", "p.id", false, true))
+                .isEqualTo("AND (p.name > :keysetValue OR (p.name = :keysetValue AND p.id > :keysetId) OR p.name IS NULL) ");
+        assertThat(cursor.condition("p.name", "p.id", true, false))
+                .isEqualTo("AND (p.name < :keysetValue OR (p.name = :keysetValue AND p.id < :keysetId)) ");
+
+        cursor = KeysetCursor.decode(KeysetCursor.encode(null, 10L));
+        assertThat(cursor.condition("p.name", "p.id", true, false))
+                .isEqualTo("AND ((p.name IS NULL AND p.id < :keysetId) OR p.name IS NOT NULL) ");
+    }
+}
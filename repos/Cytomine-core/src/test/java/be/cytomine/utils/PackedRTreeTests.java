@@ -0,0 +1,72 @@
+package be.cytomine.utils;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PackedRTreeTests {
+
+    @Test
+    public void search_finds_the_same_boxes_as_a_full_scan() {
+        Random random = new Random(42);
+        for (int size : new int[]{0, 1, 15, 16, 17, 300, 5000}) {
+            double[] minX = new double[size];
+            double[] minY = new double[size];
+            double[] maxX = new double[size];
+            double[] maxY = new double[size];
+            for (int i = 0; i < size; i++) {
+                minX[i] = random.nextDouble() * 10000 - 1000;
+                minY[i] = random.nextDouble() * 10000 - 1000;
+                maxX[i] = minX[i] + random.nextDouble() * 200;
+                maxY[i] = minY[i] + random.nextDouble() * 200;
+            }
+            PackedRTree tree = PackedRTree.build(minX, minY, maxX, maxY);
+            assertThat(tree.size()).isEqualTo(size);
+
+            for (int query = 0; query < 50; query++) {
+                double queryMinX = random.nextDouble() * 10000 - 1000;
+                double queryMinY = random.nextDouble() * 10000 - 1000;
+                double queryMaxX = queryMinX + random.nextDouble() * 2000;
+                double queryMaxY = queryMinY + random.nextDouble() * 2000;
+
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    if (minX[i] <= queryMaxX && minY[i] <= queryMaxY && maxX[i] >= queryMinX && maxY[i] >= queryMinY) {
+                        expected.add(i);
+                    }
+                }
+                List<Integer> found = new ArrayList<>();
+                tree.search(queryMinX, queryMinY, queryMaxX, queryMaxY, found::add);
+                assertThat(found).containsExactlyInAnyOrderElementsOf(expected);
+            }
+        }
+    }
+
+    @Test
+    public void search_includes_boxes_touching_the_query() {
+        PackedRTree tree = PackedRTree.build(new double[]{0, 20}, new double[]{0, 20}, new double[]{10, 30}, new double[]{10, 30});
+        List<Integer> found = new ArrayList<>();
+        tree.search(10, 10, 15, 15, found::add);
+        assertThat(found).containsExactly(0);
+    }
+}